@@ -20,8 +20,8 @@ package org.drftpd;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
@@ -46,19 +46,31 @@ public class ActiveConnection extends Connection {
 	
 	private String _bindIP;
 
+	private boolean _useSSLEngine;
+
 	public ActiveConnection(SSLContext ctx, InetSocketAddress addr,
 			boolean useSSLClientHandshake, String bindIP) {
+		this(ctx, addr, useSSLClientHandshake, bindIP, false);
+	}
+
+	/**
+	 * @param useSSLEngine if true and ctx!=null, connect() returns a plain
+	 *            socket and TLS is left to {@link #getSSLEngine()}
+	 */
+	public ActiveConnection(SSLContext ctx, InetSocketAddress addr,
+			boolean useSSLClientHandshake, String bindIP, boolean useSSLEngine) {
 		_addr = addr;
 		_ctx = ctx;
 		_bindIP = bindIP;
 		_useSSLClientHandshake = useSSLClientHandshake;
+		_useSSLEngine = useSSLEngine;
 	}
 
 	public Socket connect(String[] cipherSuites, int bufferSize) throws IOException {
 		logger.debug("Connecting to " + _addr.getAddress().getHostAddress() + ":" +
 				+ _addr.getPort());
 
-		if (_ctx != null) {
+		if (_ctx != null && !_useSSLEngine) {
 			SSLSocket sslsock;
 			sslsock = (SSLSocket) _ctx.getSocketFactory().createSocket();
 			if (bufferSize > 0) {
@@ -78,7 +90,8 @@ public class ActiveConnection extends Connection {
 			sslsock.startHandshake();
 			_sock = sslsock;
 		} else {
-			_sock = SocketFactory.getDefault().createSocket();
+			// backed by a channel so transfers can use FileChannel.transferTo()
+			_sock = SocketChannel.open().socket();
 			if (bufferSize > 0) {
 				_sock.setReceiveBufferSize(bufferSize);
 			}
@@ -89,6 +102,9 @@ public class ActiveConnection extends Connection {
 			 
 			_sock.connect(_addr, TIMEOUT);
 			setSockOpts(_sock);
+			if (_ctx != null) {
+				createSSLEngine(_ctx, cipherSuites, _useSSLClientHandshake);
+			}
 		}
 
 		Socket sock = _sock;
@@ -22,12 +22,12 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 
-import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
 
 import org.apache.log4j.Logger;
+import org.drftpd.io.ChannelServerSocketFactory;
 import org.drftpd.slave.Connection;
 import org.drftpd.util.PortRange;
 
@@ -44,6 +44,14 @@ public class PassiveConnection extends Connection {
 	// Default is to initiate the handshake
 	private boolean _useSSLClientMode = false;
 
+	// only set when the handshake is left to an SSLEngine
+	private SSLContext _engineCtx;
+
+	// set until the port is given back to the range
+	private PortRange _portRange;
+
+	private int _port;
+
 	/**
 	 * @param ctx
 	 * @param portRange
@@ -53,15 +61,36 @@ public class PassiveConnection extends Connection {
 	 */
 	public PassiveConnection(SSLContext ctx, PortRange portRange,
 			boolean useSSLClientMode, String bindIP) throws IOException {
+		this(ctx, portRange, useSSLClientMode, bindIP, false);
+	}
+
+	/**
+	 * @param useSSLEngine if true and ctx!=null, connect() returns a plain
+	 *            socket and TLS is left to {@link #getSSLEngine()}
+	 */
+	public PassiveConnection(SSLContext ctx, PortRange portRange,
+			boolean useSSLClientMode, String bindIP, boolean useSSLEngine) throws IOException {
 		_useSSLClientMode = useSSLClientMode;
-		if (ctx != null) {
+		if (ctx != null && useSSLEngine) {
+			_engineCtx = ctx;
+			_serverSocket = portRange.getPort(ChannelServerSocketFactory.getDefault(),bindIP);
+		} else if (ctx != null) {
 			_serverSocket = portRange.getPort(ctx.getServerSocketFactory(),bindIP);
 		} else {
-			_serverSocket = portRange.getPort(ServerSocketFactory.getDefault(),bindIP);
+			_serverSocket = portRange.getPort(ChannelServerSocketFactory.getDefault(),bindIP);
 		}
+		_portRange = portRange;
+		_port = _serverSocket.getLocalPort();
 		_serverSocket.setSoTimeout(TIMEOUT);
 	}
 
+	private synchronized void releasePort() {
+		if (_portRange != null) {
+			_portRange.releasePort(_port);
+			_portRange = null;
+		}
+	}
+
 	public Socket connect(String[] cipherSuites, int bufferSize) throws IOException {
 		// bufferSize has already been set on the ServerSocket
 		// just need to accept this param to comply with the Connection class
@@ -80,6 +109,7 @@ public class PassiveConnection extends Connection {
 				_serverSocket.close();
 			}
 			_serverSocket = null;
+			releasePort();
 		}
 		
 		if (sock == null) {
@@ -91,7 +121,9 @@ public class PassiveConnection extends Connection {
 
 		setSockOpts(sock);
 
-		if (sock instanceof SSLSocket) {
+		if (_engineCtx != null) {
+			createSSLEngine(_engineCtx, cipherSuites, _useSSLClientMode);
+		} else if (sock instanceof SSLSocket) {
 			SSLSocket sslsock = (SSLSocket) sock;
 			if (cipherSuites != null && cipherSuites.length != 0) {
 				sslsock.setEnabledCipherSuites(cipherSuites);
@@ -121,6 +153,7 @@ public class PassiveConnection extends Connection {
 			logger.error("failed to close() server socket", e);
 		}
 		_serverSocket = null;
+		releasePort();
 	}
 
 	protected void finalize() throws Throwable {
@@ -130,6 +163,7 @@ public class PassiveConnection extends Connection {
 					+ ", accept() was never called on the ServerSocket");
 			_serverSocket.close();
 		}
+		releasePort();
 	}
 
 }
@@ -0,0 +1,61 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.io;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+import javax.net.ServerSocketFactory;
+
+/**
+ * Creates plain ServerSockets backed by a {@link ServerSocketChannel}.<br>
+ * Sockets accepted from them have a {@link java.nio.channels.SocketChannel}
+ * so file data can be sent with FileChannel.transferTo(), they behave like
+ * the default sockets otherwise.
+ * @version $Id$
+ */
+public class ChannelServerSocketFactory extends ServerSocketFactory {
+
+	private static final ChannelServerSocketFactory _factory = new ChannelServerSocketFactory();
+
+	public static ServerSocketFactory getDefault() {
+		return _factory;
+	}
+
+	public ServerSocket createServerSocket() throws IOException {
+		return ServerSocketChannel.open().socket();
+	}
+
+	public ServerSocket createServerSocket(int port) throws IOException {
+		return createServerSocket(port, 50, null);
+	}
+
+	public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+		return createServerSocket(port, backlog, null);
+	}
+
+	public ServerSocket createServerSocket(int port, int backlog, InetAddress ifAddress)
+			throws IOException {
+		ServerSocket ss = createServerSocket();
+		ss.bind(new InetSocketAddress(ifAddress, port), backlog);
+		return ss;
+	}
+}
@@ -28,6 +28,7 @@ import java.io.Serializable;
 public class HandshakeWrapper implements Serializable {
 	private boolean _status;
 	private Exception _exception;
+	private int _protocolVersion;
 
 	/**
 	 * @return true if *all* plugins were found on the slave-side
@@ -67,7 +68,24 @@ public class HandshakeWrapper implements Serializable {
 		_exception = e;
 	}
 	
+	/**
+	 * @return the highest version of the binary framing supported by the slave,
+	 * 0 if it only talks Java serialization.
+	 */
+	public int getProtocolVersion() {
+		return _protocolVersion;
+	}
+	
+	/**
+	 * Set the highest version of the binary framing supported by the slave.
+	 * @param version
+	 * @see #getProtocolVersion()
+	 */
+	public void setProtocolVersion(int version) {
+		_protocolVersion = version;
+	}
+	
 	public String toString() {
-		return getClass().getName() + "[pluginStatus="+pluginStatus()+"]";
+		return getClass().getName() + "[pluginStatus="+pluginStatus()+",protocolVersion="+getProtocolVersion()+"]";
 	}
 }
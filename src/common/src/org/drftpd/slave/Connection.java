@@ -20,6 +20,10 @@ package org.drftpd.slave;
 import java.io.IOException;
 import java.net.Socket;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+
 /**
  * @author mog
  * @version $Id$
@@ -27,8 +31,48 @@ import java.net.Socket;
 public abstract class Connection {
 	public static final int TIMEOUT = 10000;
 
+	private SSLEngine _sslEngine;
+
+	private SSLContext _sslContext;
+
 	public abstract Socket connect(String[] cipherSuites, int bufferSize) throws IOException;
 
+	/**
+	 * @return the SSLEngine that has to encrypt the plain socket returned by
+	 *         {@link #connect(String[], int)}, null if the socket doesn't
+	 *         need it.
+	 */
+	public SSLEngine getSSLEngine() {
+		return _sslEngine;
+	}
+
+	protected void createSSLEngine(SSLContext ctx, String[] cipherSuites, boolean useClientMode) {
+		SSLEngine engine = ctx.createSSLEngine();
+		if (cipherSuites != null && cipherSuites.length != 0) {
+			engine.setEnabledCipherSuites(cipherSuites);
+		}
+		engine.setUseClientMode(useClientMode);
+		_sslEngine = engine;
+		_sslContext = ctx;
+	}
+
+	/**
+	 * Encrypts the plain socket returned by {@link #connect(String[], int)}
+	 * with a blocking SSLSocket set up like {@link #getSSLEngine()}, for the
+	 * transfers that have to go through streams.
+	 */
+	public Socket createSSLSocket(Socket sock) throws IOException {
+		if (_sslEngine == null) {
+			throw new IllegalStateException("The connection isn't encrypted by an SSLEngine");
+		}
+		SSLSocket sslsock = (SSLSocket) _sslContext.getSocketFactory().createSocket(sock,
+				sock.getInetAddress().getHostAddress(), sock.getPort(), true);
+		sslsock.setEnabledCipherSuites(_sslEngine.getEnabledCipherSuites());
+		sslsock.setUseClientMode(_sslEngine.getUseClientMode());
+		sslsock.startHandshake();
+		return sslsock;
+	}
+
 	protected void setSockOpts(Socket sock) throws IOException {
 		/*
 		 * IPTOS_LOWCOST (0x02) IPTOS_RELIABILITY (0x04) IPTOS_THROUGHPUT (0x08)
@@ -0,0 +1,95 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations in milliseconds.<br>
+ * Values are counted in power of two buckets, 0-1ms, 2-3ms, 4-7ms... so
+ * percentiles are only accurate to a factor of two, which is enough to tell
+ * where time is spent without any locking on the recording side.
+ * @version $Id$
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong _count = new AtomicLong();
+
+	private final AtomicLong _total = new AtomicLong();
+
+	private final AtomicLong _max = new AtomicLong();
+
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		int bucket = 64 - Long.numberOfLeadingZeros(millis >> 1);
+		_buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+		_count.incrementAndGet();
+		_total.addAndGet(millis);
+		long max;
+		while ((max = _max.get()) < millis) {
+			if (_max.compareAndSet(max, millis)) {
+				break;
+			}
+		}
+	}
+
+	public long getCount() {
+		return _count.get();
+	}
+
+	public long getMax() {
+		return _max.get();
+	}
+
+	public long getMean() {
+		long count = _count.get();
+		return count == 0 ? 0 : _total.get() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return the upper bound of the bucket holding the given percentile.
+	 */
+	public long getPercentile(double percentile) {
+		long count = _count.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _buckets.get(i);
+			if (seen >= target) {
+				return Math.min((2L << i) - 1, _max.get());
+			}
+		}
+		return _max.get();
+	}
+
+	public String toString() {
+		return "count=" + getCount() + " mean=" + getMean() + "ms p50=" + getPercentile(50)
+				+ "ms p99=" + getPercentile(99) + "ms max=" + getMax() + "ms";
+	}
+}
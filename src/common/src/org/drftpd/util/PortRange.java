@@ -20,6 +20,7 @@ package org.drftpd.util;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.util.BitSet;
 import java.util.Random;
 
 import javax.net.ServerSocketFactory;
@@ -27,12 +28,25 @@ import javax.net.ServerSocketFactory;
 import org.apache.log4j.Logger;
 
 /**
+ * Hands out the ports of a passive range.<br>
+ * Leased ports are tracked in a bitmap so a free port is found without
+ * trying to bind every port in use, the search goes on from the last leased
+ * port so a released port isn't handed out again right away. A port that
+ * fails to bind, still in TIME_WAIT or used by another program, is skipped
+ * for {@link #QUARANTINE} milliseconds.<br>
+ * Ports have to be given back with {@link #releasePort(int)} once their
+ * socket is closed.
  * @author mog
  * @version $Id$
  */
 public class PortRange {
 	private static final Logger logger = Logger.getLogger(PortRange.class);
 
+	/**
+	 * Most systems keep closed connections in TIME_WAIT for a minute.
+	 */
+	private static final long QUARANTINE = 60000;
+
 	private int _minPort;
 
 	private int _maxPort;
@@ -41,6 +55,29 @@ public class PortRange {
 
 	Random rand = new Random();
 
+	/**
+	 * Ports leased or quarantined, indexed from <tt>_minPort</tt>.
+	 */
+	private BitSet _busy;
+
+	private BitSet _quarantined;
+
+	private long[] _quarantinedUntil;
+
+	private long _nextExpiry = Long.MAX_VALUE;
+
+	private int _cursor;
+
+	private int _leased;
+
+	private int _peakLeased;
+
+	private long _leases;
+
+	private long _bindFailures;
+
+	private long _exhausted;
+
 	/**
 	 * Creates a default port range for port 49152 to 65535.
 	 */
@@ -62,6 +99,12 @@ public class PortRange {
 			throw new RuntimeException("BufferSize cannot be < 0");
 		}
 		_bufferSize = bufferSize;
+
+		int size = getSize();
+		_busy = new BitSet(size);
+		_quarantined = new BitSet(size);
+		_quarantinedUntil = new long[size];
+		_cursor = rand.nextInt(size);
 	}
 	
 	private ServerSocket createServerSocket(int port, ServerSocketFactory ssf, String bindIP) throws IOException {
@@ -87,25 +130,177 @@ public class PortRange {
 			}
 		}
 
-		int pos = rand.nextInt(_maxPort - _minPort + 1) + _minPort;
-		int initPos = pos;
 		boolean retry = true;
 		while (true) {
+			int port = lease();
+			if (port == -1) {
+				if (retry) {
+					// releases the ports of the connections nobody closed
+					System.runFinalization();
+					retry = false;
+					continue;
+				}
+				ServerSocket ss = getQuarantinedPort(ssf, bindIP);
+				if (ss != null) {
+					return ss;
+				}
+				synchronized (this) {
+					_exhausted++;
+				}
+				logger.warn("PortRange exhausted: " + this);
+				throw new RuntimeException("PortRange exhausted");
+			}
 			try {
-				return createServerSocket(pos,ssf,bindIP);
+				return createServerSocket(port,ssf,bindIP);
 			} catch (IOException e) {
+				quarantine(port);
 			}
-			pos++;
-			if (pos > _maxPort) {
-				pos = _minPort;
+		}
+	}
+
+	/**
+	 * Last resort once every port is busy, tries the quarantined ports in
+	 * case one of them is free already.
+	 */
+	private ServerSocket getQuarantinedPort(ServerSocketFactory ssf, String bindIP) {
+		int[] ports;
+		synchronized (this) {
+			ports = new int[_quarantined.cardinality()];
+			int n = 0;
+			for (int i = _quarantined.nextSetBit(0); i >= 0; i = _quarantined.nextSetBit(i + 1)) {
+				ports[n++] = i;
 			}
-			if (pos == initPos) {
-				if (retry == false) {
-					throw new RuntimeException("PortRange exhausted");
+		}
+		for (int i : ports) {
+			synchronized (this) {
+				if (!_quarantined.get(i)) {
+					continue;
 				}
-				System.runFinalization();
-				retry = false;
+				_quarantined.clear(i);
+				lease(i);
+			}
+			try {
+				return createServerSocket(_minPort + i, ssf, bindIP);
+			} catch (IOException e) {
+				quarantine(_minPort + i);
 			}
 		}
+		return null;
+	}
+
+	/**
+	 * @return a port neither leased nor quarantined, marked as leased, or
+	 *         -1 if there is none.
+	 */
+	private synchronized int lease() {
+		long now = System.currentTimeMillis();
+		if (now >= _nextExpiry) {
+			expireQuarantine(now);
+		}
+		int size = getSize();
+		int i = _busy.nextClearBit(_cursor);
+		if (i >= size) {
+			i = _busy.nextClearBit(0);
+			if (i >= size) {
+				return -1;
+			}
+		}
+		lease(i);
+		_cursor = (i + 1) % size;
+		return _minPort + i;
+	}
+
+	private void lease(int i) {
+		_busy.set(i);
+		_leases++;
+		_leased++;
+		if (_leased > _peakLeased) {
+			_peakLeased = _leased;
+		}
+	}
+
+	private void expireQuarantine(long now) {
+		_nextExpiry = Long.MAX_VALUE;
+		for (int i = _quarantined.nextSetBit(0); i >= 0; i = _quarantined.nextSetBit(i + 1)) {
+			if (_quarantinedUntil[i] <= now) {
+				_quarantined.clear(i);
+				_busy.clear(i);
+			} else if (_quarantinedUntil[i] < _nextExpiry) {
+				_nextExpiry = _quarantinedUntil[i];
+			}
+		}
+	}
+
+	/**
+	 * Gives back a leased port which failed to bind.
+	 */
+	private synchronized void quarantine(int port) {
+		int i = port - _minPort;
+		_bindFailures++;
+		_leased--;
+		_quarantined.set(i);
+		_quarantinedUntil[i] = System.currentTimeMillis() + QUARANTINE;
+		_nextExpiry = Math.min(_nextExpiry, _quarantinedUntil[i]);
+	}
+
+	/**
+	 * Gives back a port returned by {@link #getPort(ServerSocketFactory, String)}
+	 * once its socket is closed, ports outside of the range are ignored.
+	 */
+	public synchronized void releasePort(int port) {
+		if (_minPort == 0 || port < _minPort || port > _maxPort) {
+			return;
+		}
+		int i = port - _minPort;
+		if (!_busy.get(i) || _quarantined.get(i)) {
+			logger.debug("Port " + port + " was released but not leased");
+			return;
+		}
+		_busy.clear(i);
+		_leased--;
+	}
+
+	/**
+	 * @return the number of ports of the range, 0 for anonymous ports.
+	 */
+	public int getSize() {
+		return _minPort == 0 ? 0 : _maxPort - _minPort + 1;
+	}
+
+	public synchronized int getLeased() {
+		return _leased;
+	}
+
+	public synchronized int getPeakLeased() {
+		return _peakLeased;
+	}
+
+	public synchronized int getQuarantined() {
+		return _quarantined == null ? 0 : _quarantined.cardinality();
+	}
+
+	public synchronized long getLeases() {
+		return _leases;
+	}
+
+	public synchronized long getBindFailures() {
+		return _bindFailures;
+	}
+
+	/**
+	 * @return how many times no port at all could be handed out.
+	 */
+	public synchronized long getExhausted() {
+		return _exhausted;
+	}
+
+	public String toString() {
+		if (_minPort == 0) {
+			return "PortRange[anonymous]";
+		}
+		return "PortRange[" + _minPort + "-" + _maxPort + " leased=" + getLeased()
+				+ " peak=" + getPeakLeased() + " quarantined=" + getQuarantined()
+				+ " leases=" + getLeases() + " bindfailures=" + getBindFailures()
+				+ " exhausted=" + getExhausted() + "]";
 	}
 }
@@ -73,4 +73,58 @@ public class PortRangeTest extends TestCase {
         	iter.next().close();
         }
     }
+
+    public void testReleasePort() throws IOException {
+        PortRange pr = new PortRange(45320, 45321, 0);
+        ServerSocket first = pr.getPort(ServerSocketFactory.getDefault(), null);
+        ServerSocket second = pr.getPort(ServerSocketFactory.getDefault(), null);
+        assertEquals(2, pr.getLeased());
+        try {
+            pr.getPort(ServerSocketFactory.getDefault(), null);
+            fail("PortRange should be exhausted!");
+        } catch (RuntimeException e) {
+            assertEquals(1, pr.getExhausted());
+        }
+
+        first.close();
+        pr.releasePort(first.getLocalPort());
+        // releasing twice mustn't give back a port leased since
+        pr.releasePort(first.getLocalPort());
+        assertEquals(1, pr.getLeased());
+
+        ServerSocket third = pr.getPort(ServerSocketFactory.getDefault(), null);
+        assertEquals(first.getLocalPort(), third.getLocalPort());
+        assertEquals(2, pr.getLeased());
+        assertEquals(2, pr.getPeakLeased());
+        assertEquals(0, pr.getBindFailures());
+
+        second.close();
+        third.close();
+    }
+
+    public void testQuarantine() throws IOException {
+        PortRange pr = new PortRange(45330, 45331, 0);
+        ServerSocket taken = new ServerSocket(45330);
+        ServerSocket first = pr.getPort(ServerSocketFactory.getDefault(), null);
+        assertEquals(45331, first.getLocalPort());
+        try {
+            pr.getPort(ServerSocketFactory.getDefault(), null);
+            fail("PortRange should be exhausted!");
+        } catch (RuntimeException e) {
+            // 45330 was tried and quarantined
+        }
+        assertEquals(1, pr.getQuarantined());
+        assertEquals(1, pr.getLeased());
+
+        first.close();
+        pr.releasePort(first.getLocalPort());
+        // 45331 is free again, the quarantined port isn't tried
+        long failures = pr.getBindFailures();
+        ServerSocket second = pr.getPort(ServerSocketFactory.getDefault(), null);
+        assertEquals(45331, second.getLocalPort());
+        assertEquals(failures, pr.getBindFailures());
+
+        second.close();
+        taken.close();
+    }
 }
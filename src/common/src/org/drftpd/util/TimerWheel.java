@@ -0,0 +1,140 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hashed wheel of timeouts.<br>
+ * Scheduling and cancelling a timeout are constant time whatever the number
+ * of timeouts, which expire up to one tick late. Timeouts longer than a
+ * turn of the wheel stay in their slot until their deadline is reached.<br>
+ * The wheel has no thread of its own, {@link #advance(long)} must be called
+ * at least once per tick and runs the expired tasks on the calling thread.
+ * @version $Id$
+ */
+public class TimerWheel {
+	private static final Logger logger = Logger.getLogger(TimerWheel.class);
+
+	private final long _tick;
+
+	private final ArrayList<ArrayList<Timeout>> _slots;
+
+	private long _time;
+
+	private int _cursor;
+
+	private int _size;
+
+	/**
+	 * @param tick milliseconds between two slots.
+	 * @param slots number of slots of the wheel.
+	 * @param now the current time in milliseconds.
+	 */
+	public TimerWheel(long tick, int slots, long now) {
+		_tick = tick;
+		_slots = new ArrayList<ArrayList<Timeout>>(slots);
+		for (int i = 0; i < slots; i++) {
+			_slots.add(new ArrayList<Timeout>());
+		}
+		_time = now;
+	}
+
+	/**
+	 * Runs <tt>task</tt> once <tt>delay</tt> milliseconds passed.
+	 */
+	public synchronized Timeout schedule(Runnable task, long delay) {
+		Timeout timeout = new Timeout(task, _time + delay);
+		long ticks = Math.max(1, (delay + _tick - 1) / _tick);
+		_slots.get((int) ((_cursor + ticks) % _slots.size())).add(timeout);
+		_size++;
+		return timeout;
+	}
+
+	/**
+	 * Moves the wheel to <tt>now</tt> and runs the tasks which expired.
+	 */
+	public void advance(long now) {
+		ArrayList<Timeout> expired = new ArrayList<Timeout>();
+		synchronized (this) {
+			while (_time + _tick <= now) {
+				_time += _tick;
+				_cursor = (_cursor + 1) % _slots.size();
+				for (Iterator<Timeout> iter = _slots.get(_cursor).iterator(); iter.hasNext();) {
+					Timeout timeout = iter.next();
+					if (timeout._cancelled) {
+						iter.remove();
+					} else if (timeout._deadline <= _time) {
+						iter.remove();
+						timeout._expired = true;
+						_size--;
+						expired.add(timeout);
+					}
+				}
+			}
+		}
+		for (Timeout timeout : expired) {
+			try {
+				timeout._task.run();
+			} catch (RuntimeException e) {
+				logger.error("Timeout task failed", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of timeouts neither expired nor cancelled.
+	 */
+	public synchronized int size() {
+		return _size;
+	}
+
+	public class Timeout {
+		private final Runnable _task;
+
+		private final long _deadline;
+
+		private boolean _cancelled;
+
+		private boolean _expired;
+
+		private Timeout(Runnable task, long deadline) {
+			_task = task;
+			_deadline = deadline;
+		}
+
+		/**
+		 * Prevents the task from running, does nothing once it expired.
+		 */
+		public void cancel() {
+			synchronized (TimerWheel.this) {
+				if (!_cancelled && !_expired) {
+					_cancelled = true;
+					_size--;
+				}
+			}
+		}
+
+		public long getDeadline() {
+			return _deadline;
+		}
+	}
+}
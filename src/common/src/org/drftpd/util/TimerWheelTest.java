@@ -0,0 +1,88 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class TimerWheelTest extends TestCase {
+
+	private TimerWheel _wheel;
+
+	private ArrayList<String> _fired;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_wheel = new TimerWheel(100, 8, 0);
+		_fired = new ArrayList<String>();
+	}
+
+	private Runnable task(final String name) {
+		return new Runnable() {
+			public void run() {
+				_fired.add(name);
+			}
+		};
+	}
+
+	public void testExpiresOnTheNextTick() {
+		_wheel.schedule(task("a"), 250);
+		_wheel.advance(200);
+		assertTrue(_fired.isEmpty());
+		_wheel.advance(300);
+		assertEquals("[a]", _fired.toString());
+		assertEquals(0, _wheel.size());
+	}
+
+	public void testLongerThanOneTurn() {
+		_wheel.schedule(task("long"), 1000);
+		_wheel.schedule(task("short"), 200);
+		_wheel.advance(900);
+		assertEquals("[short]", _fired.toString());
+		_wheel.advance(1000);
+		assertEquals("[short, long]", _fired.toString());
+	}
+
+	public void testCancel() {
+		TimerWheel.Timeout timeout = _wheel.schedule(task("a"), 100);
+		_wheel.schedule(task("b"), 100);
+		assertEquals(2, _wheel.size());
+		timeout.cancel();
+		timeout.cancel();
+		assertEquals(1, _wheel.size());
+		_wheel.advance(5000);
+		assertEquals("[b]", _fired.toString());
+		assertEquals(0, _wheel.size());
+	}
+
+	public void testScheduleFromTask() {
+		_wheel.schedule(new Runnable() {
+			public void run() {
+				_fired.add("first");
+				_wheel.schedule(task("second"), 100);
+			}
+		}, 100);
+		_wheel.advance(100);
+		_wheel.advance(200);
+		assertEquals("[first, second]", _fired.toString());
+	}
+}
@@ -26,7 +26,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.Timer;
 
 import javax.net.ssl.SSLContext;
 
@@ -48,6 +47,7 @@ import org.drftpd.master.ConnectionManager;
 import org.drftpd.master.SlaveManager;
 import org.drftpd.master.config.ConfigInterface;
 import org.drftpd.master.config.PluginsConfig;
+import org.drftpd.master.cron.TaskScheduler;
 import org.drftpd.master.cron.TimeEventInterface;
 import org.drftpd.master.cron.TimeManager;
 import org.drftpd.sections.SectionManagerInterface;
@@ -88,7 +88,7 @@ public class GlobalContext {
 
 	protected AbstractUserManager _usermanager;
 
-	private Timer _timer = new Timer("GlobalContextTimer");
+	private TaskScheduler _scheduler = new TaskScheduler(2);
 
 	protected SlaveSelectionManagerInterface _slaveSelectionManager;
 
@@ -292,13 +292,15 @@ public class GlobalContext {
 				} catch (InterruptedException e) {
 				}
 			}
+			GlobalContext.getGlobalContext().getScheduler().shutdown();
+			VirtualFileSystem.getVirtualFileSystem().close();
 			logger.info("Shutdown complete, exiting");
 			WrapperManager.stop(0);
 		}
 	}
 
-	public Timer getTimer() {
-		return _timer;
+	public TaskScheduler getScheduler() {
+		return _scheduler;
 	}
 
 	public SlaveSelectionManagerInterface getSlaveSelectionManager() {
@@ -337,6 +339,8 @@ public class GlobalContext {
 		_config = new ConfigManager();
 		_config.reload();
 
+		_scheduler.setThreads(Integer.parseInt(getConfig().getMainProperties()
+				.getProperty("scheduler.threads", "2").trim()));
 		CommitManager.getCommitManager().start();
 		_timeManager = new TimeManager();
 		loadPluginsConfig();
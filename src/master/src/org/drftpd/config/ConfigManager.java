@@ -85,9 +85,9 @@ public class ConfigManager implements ConfigInterface {
 	 * Also re-read the config files.
 	 */
 	public void reload() {
+		loadMainProperties();
 		loadVFSPermissions();
 		loadConfigHandlers();
-		loadMainProperties();
 		parseCipherSuites();
 		
 		initializeKeyedMap();
@@ -98,7 +98,7 @@ public class ConfigManager implements ConfigInterface {
 	}
 	
 	private void loadVFSPermissions() {
-		_vfsPerms = new VFSPermissions();
+		_vfsPerms = new VFSPermissions(Integer.parseInt(_mainCfg.getProperty("perms.cache.size", "10000")));
 	}
 	
 	/**
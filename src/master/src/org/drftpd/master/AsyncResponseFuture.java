@@ -0,0 +1,113 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.drftpd.slave.async.AsyncResponse;
+
+/**
+ * Holds the pending reply for one command index sent to a {@link RemoteSlave}.<br>
+ * The RemoteSlave reader thread completes it when the AsyncResponse arrives,
+ * waking only the threads waiting on that index. If the slave goes offline the
+ * future is failed so waiters don't hang until their timeout.<br>
+ * Use {@link RemoteSlave#fetchResponse(AsyncResponseFuture, int)} to collect
+ * the response, several futures can be issued before fetching any of them.
+ * @version $Id$
+ */
+public class AsyncResponseFuture {
+
+	private final String _index;
+
+	private final CountDownLatch _latch = new CountDownLatch(1);
+
+	private volatile AsyncResponse _response;
+
+	private volatile String _failure;
+
+	protected AsyncResponseFuture(String index) {
+		_index = index;
+	}
+
+	public String getIndex() {
+		return _index;
+	}
+
+	/**
+	 * @return true once a response arrived or the slave went offline.
+	 */
+	public boolean isDone() {
+		return _latch.getCount() == 0;
+	}
+
+	/**
+	 * @return true if the future was failed because the slave went offline.
+	 */
+	public boolean isFailed() {
+		return _failure != null;
+	}
+
+	/**
+	 * @return the reason the future failed or null.
+	 */
+	public String getFailure() {
+		return _failure;
+	}
+
+	/**
+	 * @return the response or null if it didn't arrive yet or the future failed.
+	 */
+	public AsyncResponse getResponse() {
+		return _response;
+	}
+
+	protected synchronized void complete(AsyncResponse response) {
+		if (isDone()) {
+			return;
+		}
+		_response = response;
+		_latch.countDown();
+	}
+
+	protected synchronized void fail(String reason) {
+		if (isDone()) {
+			return;
+		}
+		_failure = reason == null ? "No Message" : reason;
+		_latch.countDown();
+	}
+
+	/**
+	 * Waits until the future is done.
+	 * @param wait milliseconds to wait, 0 waits forever.
+	 * @return false if <tt>wait</tt> elapsed before the future was done.
+	 */
+	protected boolean await(int wait) throws InterruptedException {
+		if (wait == 0) {
+			_latch.await();
+			return true;
+		}
+		return _latch.await(wait, TimeUnit.MILLISECONDS);
+	}
+
+	public String toString() {
+		return getClass().getSimpleName() + "[index=" + _index + ",done=" + isDone()
+				+ ",failure=" + _failure + "]";
+	}
+}
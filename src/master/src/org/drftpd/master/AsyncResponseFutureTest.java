@@ -0,0 +1,55 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.async.AsyncResponse;
+
+public class AsyncResponseFutureTest extends TestCase {
+
+	public AsyncResponseFutureTest(String arg0) {
+		super(arg0);
+	}
+
+	public void testComplete() throws InterruptedException {
+		final AsyncResponseFuture future = new AsyncResponseFuture("0a");
+		final AsyncResponse response = new AsyncResponse("0a");
+		assertFalse(future.await(10));
+		new Thread() {
+			public void run() {
+				future.complete(response);
+			}
+		}.start();
+		assertTrue(future.await(0));
+		assertSame(response, future.getResponse());
+		assertFalse(future.isFailed());
+		future.fail("offline");
+		assertFalse(future.isFailed());
+	}
+
+	public void testFail() throws InterruptedException {
+		AsyncResponseFuture future = new AsyncResponseFuture("0b");
+		future.fail(null);
+		assertTrue(future.await(10));
+		assertTrue(future.isFailed());
+		assertNull(future.getResponse());
+		future.complete(new AsyncResponse("0b"));
+		assertNull(future.getResponse());
+	}
+}
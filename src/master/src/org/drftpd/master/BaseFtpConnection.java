@@ -35,6 +35,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
 import org.apache.log4j.Level;
@@ -260,10 +261,7 @@ public class BaseFtpConnection extends Session implements Runnable {
 	 * Server one FTP connection.
 	 */
 	public void run() {
-		_commandManager = GlobalContext.getConnectionManager().getCommandManager();
-		setCommands(GlobalContext.getConnectionManager().getCommands());
-		_lastActive = System.currentTimeMillis();
-		setCurrentDirectory(getGlobalContext().getRoot());
+		initSession();
 		_thread = Thread.currentThread();
 		GlobalContext.getConnectionManager().dumpThreadPool();
 		
@@ -373,27 +371,8 @@ public class BaseFtpConnection extends Session implements Runnable {
 		} catch (Exception ex) {
 			logger.log(Level.INFO, "Exception, closing", ex);
 		} finally {
-			shutdownSocket();
-
-			if (isAuthenticated()) {
-				try {
-					getUser().updateLastAccessTime();
-				} catch (NoSuchUserException e) {
-					logger.error("User does not exist, yet user is authenticated, this is a bug");
-				}
-				
-				GlobalContext.getEventService().publishAsync(new ConnectionEvent(getUserNull(), "LOGOUT"));
-			}
-			
-			if (isExecuting()) {
-				super.abortCommand();
-			}
-			// Reset just the transfer if one is active, a full reset of the TransferState instance is
-			// not required as this object will not be reused. Leaving the rest of the state untouched
-			// will allow any active command threads to terminate gracefully.
-			getTransferState().resetTransfer();
+			closeSession();
 			_pool.shutdown();
-			GlobalContext.getConnectionManager().remove(this);
 			GlobalContext.getConnectionManager().dumpThreadPool();
 			
 			Thread t = Thread.currentThread();
@@ -401,6 +380,43 @@ public class BaseFtpConnection extends Session implements Runnable {
 		}
 	}
 
+	/**
+	 * Prepares the session before the greeting is sent.
+	 */
+	protected void initSession() {
+		_commandManager = GlobalContext.getConnectionManager().getCommandManager();
+		setCommands(GlobalContext.getConnectionManager().getCommands());
+		_lastActive = System.currentTimeMillis();
+		setCurrentDirectory(getGlobalContext().getRoot());
+	}
+
+	/**
+	 * Closes the control connection, logs the user out and removes the
+	 * connection from the {@link ConnectionManager}.
+	 */
+	protected void closeSession() {
+		shutdownSocket();
+
+		if (isAuthenticated()) {
+			try {
+				getUser().updateLastAccessTime();
+			} catch (NoSuchUserException e) {
+				logger.error("User does not exist, yet user is authenticated, this is a bug");
+			}
+			
+			GlobalContext.getEventService().publishAsync(new ConnectionEvent(getUserNull(), "LOGOUT"));
+		}
+		
+		if (isExecuting()) {
+			super.abortCommand();
+		}
+		// Reset just the transfer if one is active, a full reset of the TransferState instance is
+		// not required as this object will not be reused. Leaving the rest of the state untouched
+		// will allow any active command threads to terminate gracefully.
+		getTransferState().resetTransfer();
+		GlobalContext.getConnectionManager().remove(this);
+	}
+
 	public void setAuthenticated(boolean authenticated) {
 		_authenticated = authenticated;
 
@@ -535,6 +551,37 @@ public class BaseFtpConnection extends Session implements Runnable {
 		_out.flush();
 	}
 
+	/**
+	 * Switches the control connection to TLS, the reply to AUTH has to be
+	 * sent before.
+	 */
+	public void secureControlSocket(SSLContext ctx) throws IOException {
+		Socket s = _controlSocket;
+		SSLSocket s2 = null;
+		try {
+			s2 = (SSLSocket) ctx.getSocketFactory().createSocket(s,
+					s.getInetAddress().getHostAddress(), s.getPort(), true);
+			setControlSocket(s2);
+			s2.setUseClientMode(false);
+			s2.setSoTimeout(10000);
+			String[] cipherSuites = GlobalContext.getConfig().getCipherSuites();
+			if (cipherSuites != null && cipherSuites.length > 0) {
+				s2.setEnabledCipherSuites(cipherSuites);
+			}
+			s2.startHandshake();
+			authDone();
+		} catch (IOException e) {
+			if (s2 != null) {
+				try {
+					s2.close();
+				} catch (IOException e2){
+					logger.debug("error closing SSLSocket connection");
+				}
+			}
+			throw e;
+		}
+	}
+
 	public void authDone() {
 		_authDone = true;
 	}
@@ -593,7 +640,7 @@ public class BaseFtpConnection extends Session implements Runnable {
 
 		private BaseFtpConnection _conn;
 
-		private CommandThread(FtpRequest ftpRequest, BaseFtpConnection conn) {
+		CommandThread(FtpRequest ftpRequest, BaseFtpConnection conn) {
 			_ftpRequest = ftpRequest;
 			_conn = conn;
 		}
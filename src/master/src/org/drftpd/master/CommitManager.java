@@ -15,26 +15,33 @@
  * along with DrFTPD; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
  */
-
 package org.drftpd.master;
 
-import java.io.IOException;
-import java.util.Date;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Properties;
-import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
 import org.drftpd.PropertyHelper;
 import org.drftpd.util.CommonPluginUtils;
+import org.drftpd.util.LatencyHistogram;
+import org.drftpd.vfs.VirtualFileSystem;
+import org.drftpd.vfs.VirtualFileSystemInode;
 
 /**
  * This classes handle all XML commits.
  * The main purpose of having this is to avoiding serializing the same object tons of times,
- * even if it data was not changed. 
+ * even if it data was not changed.<br>
+ * Queued objects are spread over 'disk.commit.threads' writers, objects sharing
+ * the same parent (the same directory for inodes) always go to the same writer.
+ * Each writer keeps its objects in the order they were queued so it only has to
+ * look at the head of its queue to know if something is old enough to be written.
+ * Objects that are due together are written as a batch followed by a single sync
+ * of the inode store.
  * @author zubov
  * @version $Id$
  */
@@ -42,20 +49,31 @@ public class CommitManager {
 
 	private static final Logger logger = Logger.getLogger(CommitManager.class);
 
+	private static final int MAX_BATCH_SIZE = 500;
+
 	private static CommitManager _instance;
 
-	private ConcurrentHashMap<Commitable, Date> _commitMap;
+	private ConcurrentHashMap<Commitable, CommitEntry> _commitMap;
 	private boolean _isStarted;
 	private AtomicInteger _queueSize;
+	private AtomicInteger _maxQueueSize;
 	private volatile boolean _drainQueue;
-	private Thread _commitThread;
+	private volatile CommitHandler[] _handlers;
+	private ArrayList<CommitEntry> _pending;
+	private final Object _drainLock = new Object();
+
+	private LatencyHistogram _queueLatency = new LatencyHistogram();
+	private LatencyHistogram _writeLatency = new LatencyHistogram();
+	private AtomicLong _syncCount = new AtomicLong();
 
 	/**
 	 * Private constructor in order to make this class a Singleton.
 	 */
 	private CommitManager() {
-		_commitMap = new ConcurrentHashMap<Commitable, Date>();
+		_commitMap = new ConcurrentHashMap<Commitable, CommitEntry>();
 		_queueSize = new AtomicInteger();
+		_maxQueueSize = new AtomicInteger();
+		_pending = new ArrayList<CommitEntry>();
 	}
 
 	/**
@@ -69,8 +87,8 @@ public class CommitManager {
 	}
 
 	/**
-	 * Starts the {@link CommitHandler}.
-	 * @throws IllegalStateException if the thread has already started.
+	 * Starts the {@link CommitHandler} threads.
+	 * @throws IllegalStateException if the threads have already started.
 	 */
 	public void start() {
 		if (_isStarted) {
@@ -78,8 +96,30 @@ public class CommitManager {
 		}
 		
 		_isStarted = true;
-		_commitThread = new Thread(new CommitHandler());
-		_commitThread.start();
+		int threads = 2;
+		Properties cfg = GlobalContext.getConfig().getMainProperties();
+		try {
+			threads = Math.max(1, Integer.parseInt(PropertyHelper.getProperty(cfg, "disk.commit.threads", "2")));
+		} catch (NumberFormatException e) {
+			logger.error("Invalid disk.commit.threads, using " + threads, e);
+		}
+		CommitHandler[] handlers = new CommitHandler[threads];
+		for (int i = 0; i < threads; i++) {
+			handlers[i] = new CommitHandler();
+		}
+		synchronized (this) {
+			_handlers = handlers;
+			// objects committed while the VFS and users were being loaded
+			for (CommitEntry entry : _pending) {
+				getHandler(entry.getItem()).queue(entry);
+			}
+			_pending = null;
+		}
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(handlers[i]);
+			thread.setName("CommitHandler-" + i);
+			thread.start();
+		}
 	}
 
 	/**
@@ -92,10 +132,27 @@ public class CommitManager {
 			return;
 			// object already queued to write
 		}
-		_commitMap.put(object, new Date());
-		_queueSize.incrementAndGet();
+		CommitEntry entry = new CommitEntry(object);
+		if (_commitMap.putIfAbsent(object, entry) != null) {
+			return;
+		}
+		int size = _queueSize.incrementAndGet();
+		int max;
+		while ((max = _maxQueueSize.get()) < size) {
+			if (_maxQueueSize.compareAndSet(max, size)) {
+				break;
+			}
+		}
+		if (_handlers == null) {
+			synchronized (this) {
+				if (_handlers == null) {
+					_pending.add(entry);
+					return;
+				}
+			}
+		}
+		getHandler(object).queue(entry);
 	}
-	
 
 	/**
 	 * @param object
@@ -119,22 +176,62 @@ public class CommitManager {
 
 	/**
 	 * 
-	 * @return the number of outstanding objects to commit.
+	 * @return the number of outstanding objects to commit, including the ones being written.
 	 */
 	public int getQueueSize() {
 		return _queueSize.get();
 	}
 
+	/**
+	 * @return the highest number of outstanding objects seen since startup.
+	 */
+	public int getMaxQueueSize() {
+		return _maxQueueSize.get();
+	}
+
+	/**
+	 * @return the number of writer threads, 0 if not started yet.
+	 */
+	public int getWriterCount() {
+		CommitHandler[] handlers = _handlers;
+		return handlers == null ? 0 : handlers.length;
+	}
+
+	/**
+	 * @return the time objects spent queued before being written.
+	 */
+	public LatencyHistogram getQueueLatency() {
+		return _queueLatency;
+	}
+
+	/**
+	 * @return the time spent writing each object.
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return _writeLatency;
+	}
+
+	/**
+	 * @return how many times the inode store was synced after a batch.
+	 */
+	public long getSyncCount() {
+		return _syncCount.get();
+	}
+
 	/**
 	 * Forces the immediate write of a (@link Commitable) if present in the commit queue.
 	 * @param object
 	 */
 	public void flushImmediate(Commitable object) {
-		if (_commitMap.containsKey(object)) {
+		CommitEntry entry = _commitMap.remove(object);
+		if (entry != null) {
 			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
 			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
-			writeCommitable(object);
-			Thread.currentThread().setContextClassLoader(prevCL);
+			try {
+				writeCommitable(entry);
+			} finally {
+				Thread.currentThread().setContextClassLoader(prevCL);
+			}
 		}
 	}
 
@@ -144,9 +241,9 @@ public class CommitManager {
 	 */
 	public void enableQueueDrain() {
 		_drainQueue = true;
-		// Wakeup the commit thread incase it is sleeping
-		if (_commitThread != null) {
-			_commitThread.interrupt();
+		// Wakeup the commit threads incase they are waiting on the oldest item
+		synchronized (_drainLock) {
+			_drainLock.notifyAll();
 		}
 		return;
 	}
@@ -159,50 +256,140 @@ public class CommitManager {
 		}
 		return 10000;
 	}
-	
-	private void processAllLoop() {
-		while (true) {
-			long delay = getCommitDelay();
-			long time = System.currentTimeMillis() - delay;
-			for (Iterator<Entry<Commitable, Date>> iter = _commitMap.entrySet()
-					.iterator(); iter.hasNext();) {
-				Entry<Commitable, Date> entry = iter.next();
-				if (entry.getValue().getTime() < time || _drainQueue) {
-					writeCommitable(entry.getKey());
-				}
-			}
-			
-			try {
-				Thread.sleep(delay);
-			} catch (InterruptedException e) {
-			}
+
+	/**
+	 * Objects are grouped by their parent, which is what comes before the last
+	 * "/" of their descriptive name, ie: the directory holding an inode.
+	 */
+	private CommitHandler getHandler(Commitable item) {
+		CommitHandler[] handlers = _handlers;
+		if (handlers.length == 1) {
+			return handlers[0];
 		}
+		String name = item.descriptiveName();
+		int index = name.lastIndexOf('/');
+		String group = index > 0 ? name.substring(0, index) : name;
+		return handlers[(group.hashCode() & Integer.MAX_VALUE) % handlers.length];
 	}
 
-	private void writeCommitable(Commitable item) {
+	/**
+	 * Writes the item, the entry must already be removed from the commit map.
+	 */
+	private void writeCommitable(CommitEntry entry) {
+		Commitable item = entry.getItem();
+		long start = System.currentTimeMillis();
+		_queueLatency.record(start - entry.getQueuedTime());
 		try {
 			item.writeToDisk();
-			if (_commitMap.remove(item) != null) {
-				_queueSize.decrementAndGet();
-			}
-		} catch (IOException e) {
-			logger.error("Error writing object to disk - "
-					+ item.descriptiveName(), e);
 		} catch (Exception e) {
 			logger.error("Error writing object to disk - "
 					+ item.descriptiveName(), e);
+		} finally {
+			_writeLatency.record(System.currentTimeMillis() - start);
+			_queueSize.decrementAndGet();
+		}
+	}
+
+	private static class CommitEntry {
+		private Commitable _item;
+
+		private long _queuedTime;
+
+		private CommitEntry(Commitable item) {
+			_item = item;
+			_queuedTime = System.currentTimeMillis();
+		}
+
+		private Commitable getItem() {
+			return _item;
+		}
+
+		private long getQueuedTime() {
+			return _queuedTime;
 		}
 	}
 
 	private class CommitHandler implements Runnable {
 
+		private LinkedBlockingQueue<CommitEntry> _queue = new LinkedBlockingQueue<CommitEntry>();
+
 		private CommitHandler() {
 		}
 
+		private void queue(CommitEntry entry) {
+			_queue.offer(entry);
+		}
+
+		private boolean isDue(CommitEntry entry, long delay) {
+			return _drainQueue || entry.getQueuedTime() + delay <= System.currentTimeMillis();
+		}
+
+		/**
+		 * Waits until the oldest entry of this writer is old enough, or until the
+		 * queue has to be drained.
+		 */
+		private void waitUntilDue(CommitEntry entry) {
+			while (true) {
+				long wait = entry.getQueuedTime() + getCommitDelay() - System.currentTimeMillis();
+				if (wait <= 0 || _drainQueue) {
+					return;
+				}
+				synchronized (_drainLock) {
+					try {
+						_drainLock.wait(wait);
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return true if an inode was written.
+		 */
+		private boolean write(CommitEntry entry) {
+			// skip entries removed, flushed or queued again since
+			if (!_commitMap.remove(entry.getItem(), entry)) {
+				return false;
+			}
+			writeCommitable(entry);
+			return entry.getItem() instanceof VirtualFileSystemInode;
+		}
+
+		private void processLoop() {
+			while (true) {
+				CommitEntry entry;
+				try {
+					entry = _queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				waitUntilDue(entry);
+				long delay = getCommitDelay();
+				int written = 0;
+				boolean wroteInodes = false;
+				while (true) {
+					if (write(entry)) {
+						wroteInodes = true;
+					}
+					if (++written >= MAX_BATCH_SIZE) {
+						break;
+					}
+					entry = _queue.peek();
+					if (entry == null || !isDue(entry, delay)) {
+						break;
+					}
+					_queue.poll();
+				}
+				if (wroteInodes) {
+					VirtualFileSystem.getVirtualFileSystem().sync();
+					_syncCount.incrementAndGet();
+				}
+			}
+		}
+
 		public void run() {
 			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
-			Thread.currentThread().setName("CommitHandler");
-			processAllLoop();
+			processLoop();
 		}
 	}
 }
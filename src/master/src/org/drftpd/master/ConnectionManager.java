@@ -22,6 +22,7 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -45,6 +46,7 @@ import org.drftpd.commands.UserManagement;
 import org.drftpd.event.ReloadEvent;
 import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
+import org.drftpd.util.ReplacerUtils;
 import org.tanukisoftware.wrapper.WrapperManager;
 
 /**
@@ -66,6 +68,8 @@ public class ConnectionManager {
 	private List<BaseFtpConnection> _conns = new Vector<BaseFtpConnection>();
 
 	private ThreadPoolExecutor _pool;
+
+	private ControlReactor _reactor;
 	
 	private static String _bindIP;
 
@@ -113,6 +117,7 @@ public class ConnectionManager {
 			String bindip = null;
 			ServerSocket server = null;
 			boolean useIP;
+			boolean useReactor = cfg.getProperty("control.reactor", "false").trim().equalsIgnoreCase("true");
 
 			try {
 				bindip = PropertyHelper.getProperty(cfg, "master.ip");
@@ -124,8 +129,12 @@ public class ConnectionManager {
 				useIP = false;
 			}
 
-			if (useIP) {
+			if (useReactor) {
+				server = ServerSocketChannel.open().socket();
+			} else {
 				server = new ServerSocket();
+			}
+			if (useIP) {
 				server.bind(new InetSocketAddress(bindip, Integer
 						.parseInt(PropertyHelper
 								.getProperty(cfg, "master.port"))));
@@ -133,15 +142,23 @@ public class ConnectionManager {
 				logger.info("Listening on " + server.getInetAddress() + ":"
 						+ server.getLocalPort());
 			} else {
-				server = new ServerSocket(Integer.parseInt(PropertyHelper
-						.getProperty(cfg, "master.port")));
+				server.bind(new InetSocketAddress(Integer.parseInt(PropertyHelper
+						.getProperty(cfg, "master.port"))));
 				logger.info("Listening on port " + server.getLocalPort());
 			}
 
-			getConnectionManager().createThreadPool();
+			if (useReactor) {
+				getConnectionManager().createReactor(server.getChannel(),
+						Integer.parseInt(cfg.getProperty("control.workers", "200").trim()),
+						Integer.parseInt(cfg.getProperty("control.queue", "1000").trim()));
+				// never returns, the main thread becomes the reactor thread
+				getConnectionManager()._reactor.run();
+			} else {
+				getConnectionManager().createThreadPool();
 
-			while (true) {		
-				getConnectionManager().start(server.accept());
+				while (true) {		
+					getConnectionManager().start(server.accept());
+				}
 			}
 
 			// catches subclasses of Error and Exception
@@ -165,7 +182,21 @@ public class ConnectionManager {
 		_pool.prestartAllCoreThreads();
 	}
 
+	/**
+	 * Serves the control connections from a {@link ControlReactor} instead
+	 * of a thread per connection.
+	 */
+	public void createReactor(ServerSocketChannel server, int workers, int queue) throws IOException {
+		_reactor = new ControlReactor(server, workers, queue);
+		logger.info("Control connections served by a reactor with " + workers + " command workers");
+	}
+
 	public void dumpThreadPool() {
+		if (_reactor != null) {
+			logger.debug("Active command workers: " + _reactor.getActiveWorkers()
+					+ " / Queued commands: " + _reactor.getQueuedCommands());
+			return;
+		}
 		logger.debug("Active threads: "+_pool.getActiveCount()+" / Completed Tasks: "+ _pool.getCompletedTaskCount());
 		logger.debug("Pool information - Min # of threads: "+_pool.getCorePoolSize()+" / Max: "+ _pool.getMaximumPoolSize());
 		logger.debug("Current # of threads: " + _pool.getPoolSize());
@@ -264,6 +295,10 @@ public class ConnectionManager {
 		return GlobalContext.getGlobalContext();
 	}
 
+	protected void add(BaseFtpConnection conn) {
+		_conns.add(conn);
+	}
+
 	public void remove(BaseFtpConnection conn) {
 		if (!_conns.remove(conn)) {
 			throw new RuntimeException("connections.remove() returned false.");
@@ -292,7 +327,7 @@ public class ConnectionManager {
 		 */
 
 		BaseFtpConnection conn = new BaseFtpConnection(sock);
-		_conns.add(conn);
+		add(conn);
 		try {
 			_pool.execute(conn);
 		} catch (RejectedExecutionException e) {
@@ -325,6 +360,7 @@ public class ConnectionManager {
 	public void onReloadEvent(ReloadEvent event) {
 		logger.info("Reloading "+ cmdConf +", origin "+event.getOrigin());
 		loadCommands();
+		ReplacerUtils.clearCache();
 		_commandManager.initialize(getCommands(), themeDir);
 		for (BaseFtpConnection conn : getConnections()) {
 			conn.setCommands(getCommands());
@@ -0,0 +1,208 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
+import org.drftpd.util.TimerWheel;
+
+/**
+ * Serves every FTP control connection from a single selector thread instead
+ * of a thread per connection.<br>
+ * The reactor accepts the connections, parses the commands and writes the
+ * replies, the commands themselves run on a shared bounded pool of workers.
+ * Closing a connection may wait for its monitor or for a slave, so that part
+ * runs on a separate unbounded cleanup pool, it can't be refused.
+ * Idle connections are found with a {@link TimerWheel} advanced by the
+ * reactor, so there is no polling of the connections.
+ * @version $Id$
+ */
+public class ControlReactor implements Runnable {
+	private static final Logger logger = Logger.getLogger(ControlReactor.class);
+
+	private static final long TICK = 1000;
+
+	private static final int SLOTS = 512;
+
+	private final Selector _selector;
+
+	private final ServerSocketChannel _server;
+
+	private final ThreadPoolExecutor _workers;
+
+	private final ThreadPoolExecutor _cleanup;
+
+	private final TimerWheel _timers;
+
+	private final ConcurrentLinkedQueue<ReactorFtpConnection> _pending = new ConcurrentLinkedQueue<ReactorFtpConnection>();
+
+	private volatile Thread _thread;
+
+	/**
+	 * @param server the bound listening channel.
+	 * @param workers maximum number of commands running at once.
+	 * @param queue maximum number of commands waiting for a worker.
+	 */
+	public ControlReactor(ServerSocketChannel server, int workers, int queue) throws IOException {
+		_selector = Selector.open();
+		_server = server;
+		_server.configureBlocking(false);
+		_server.register(_selector, SelectionKey.OP_ACCEPT);
+		_workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queue), new WorkerThreadFactory("FtpCommand-"));
+		_workers.allowCoreThreadTimeOut(true);
+		_cleanup = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new WorkerThreadFactory("FtpCleanup-"));
+		_timers = new TimerWheel(TICK, SLOTS, System.currentTimeMillis());
+	}
+
+	public void run() {
+		_thread = Thread.currentThread();
+		while (true) {
+			try {
+				_selector.select(TICK);
+				for (Iterator<SelectionKey> iter = _selector.selectedKeys().iterator(); iter.hasNext();) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						((ReactorFtpConnection) key.attachment()).process();
+					}
+				}
+				ReactorFtpConnection conn;
+				while ((conn = _pending.poll()) != null) {
+					conn.process();
+				}
+				_timers.advance(System.currentTimeMillis());
+			} catch (Throwable t) {
+				// the reactor must survive anything, a dead reactor is a dead site
+				logger.error("Control reactor caught an exception", t);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = _server.accept()) != null) {
+			channel.configureBlocking(false);
+			ConnectionManager cm = GlobalContext.getConnectionManager();
+			int maxConnections = GlobalContext.getConfig().getMaxUsersTotal()
+					+ GlobalContext.getConfig().getMaxUsersExempt();
+			if (cm.getConnections().size() >= maxConnections) {
+				logger.warn("Too many connections, refusing " + channel.socket().getInetAddress());
+				channel.write(ByteBuffer.wrap(new FtpReply(421, "Connection closing").toString()
+						.getBytes("ISO-8859-1")));
+				channel.close();
+				continue;
+			}
+			ReactorFtpConnection conn = new ReactorFtpConnection(this, channel);
+			cm.add(conn);
+			try {
+				conn.start(channel.register(_selector, SelectionKey.OP_READ, conn));
+			} catch (IOException e) {
+				logger.warn("Error registering connection from " + channel.socket().getInetAddress(), e);
+				cm.remove(conn);
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Hands <tt>command</tt> to the workers.
+	 * @throws java.util.concurrent.RejectedExecutionException when every
+	 *         worker is busy and the queue is full.
+	 */
+	protected void execute(Runnable command) {
+		_workers.execute(command);
+	}
+
+	/**
+	 * Runs <tt>task</tt> off the reactor thread, for the work of a connection
+	 * that may block, like aborting its transfer or closing its session.
+	 */
+	protected void cleanup(Runnable task) {
+		_cleanup.execute(task);
+	}
+
+	/**
+	 * Runs <tt>task</tt> on the reactor thread after <tt>delay</tt>
+	 * milliseconds, one second late at most.
+	 */
+	protected TimerWheel.Timeout schedule(Runnable task, long delay) {
+		return _timers.schedule(task, delay);
+	}
+
+	/**
+	 * Has <tt>conn</tt> processed by the reactor thread as soon as possible.
+	 */
+	protected void wakeup(ReactorFtpConnection conn) {
+		_pending.add(conn);
+		_selector.wakeup();
+	}
+
+	protected boolean isReactorThread() {
+		return Thread.currentThread() == _thread;
+	}
+
+	public int getActiveWorkers() {
+		return _workers.getActiveCount();
+	}
+
+	public int getQueuedCommands() {
+		return _workers.getQueue().size();
+	}
+
+	public int getTimeouts() {
+		return _timers.size();
+	}
+
+	static class WorkerThreadFactory implements ThreadFactory {
+		private final String _prefix;
+
+		private int _count = 0;
+
+		WorkerThreadFactory(String prefix) {
+			_prefix = prefix;
+		}
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setName(_prefix + (++_count));
+			return t;
+		}
+	}
+}
@@ -0,0 +1,719 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
+import org.drftpd.io.AddAsciiOutputStream;
+import org.drftpd.usermanager.NoSuchUserException;
+import org.drftpd.util.FtpRequest;
+import org.drftpd.util.TimerWheel;
+
+/**
+ * A control connection served by a {@link ControlReactor}.<br>
+ * Commands are parsed from the socket buffers on the reactor thread and run
+ * on the reactor workers, replies are queued and written by the reactor
+ * thread once the socket can take them. Threads printing more than
+ * {@link #MAX_OUTPUT} bytes ahead of the client wait for the queue to
+ * drain.<br>
+ * AUTH TLS switches to a {@link SSLEngine} at the point of the reply queue
+ * where it was issued, so the 234 reply still goes out in clear text, the
+ * input is held until then.<br>
+ * The reactor thread never takes the monitor of a connection or of its
+ * transfer, stopping and closing hand that part to
+ * {@link ControlReactor#cleanup(Runnable)}.
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class ReactorFtpConnection extends BaseFtpConnection {
+	private static final Logger debuglogger = Logger.getLogger(BaseFtpConnection.class.getName() + ".service");
+
+	private static final Logger logger = Logger.getLogger(ReactorFtpConnection.class);
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private static final AtomicLong IDS = new AtomicLong();
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private static final int MAX_LINE = 4096;
+
+	private static final int MAX_OUTPUT = 1024 * 1024;
+
+	private static final long CLOSE_TIMEOUT = 10000;
+
+	private final ControlReactor _reactor;
+
+	private final SocketChannel _channel;
+
+	private final long _id = IDS.incrementAndGet();
+
+	private final AtomicInteger _running = new AtomicInteger();
+
+	private final AtomicBoolean _queued = new AtomicBoolean();
+
+	private final StringBuilder _line = new StringBuilder();
+
+	private final Object _outputLock = new Object();
+
+	private final LinkedList<Chunk> _output = new LinkedList<Chunk>();
+
+	private int _outputSize;
+
+	private boolean _outputClosed;
+
+	private boolean _starting;
+
+	private volatile boolean _secure;
+
+	private volatile boolean _resumeInput;
+
+	private SelectionKey _key;
+
+	private SSLEngine _engine;
+
+	private ByteBuffer _netIn = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private ByteBuffer _netOut = ByteBuffer.allocate(0);
+
+	private ByteBuffer _appIn;
+
+	private TimerWheel.Timeout _timeout;
+
+	private boolean _inputPaused;
+
+	private boolean _writeBlocked;
+
+	private boolean _closing;
+
+	private boolean _finished;
+
+	public ReactorFtpConnection(ControlReactor reactor, SocketChannel channel) {
+		_reactor = reactor;
+		_channel = channel;
+		_controlSocket = channel.socket();
+		try {
+			_out = new PrintWriter(new OutputStreamWriter(
+					new AddAsciiOutputStream(new BufferedOutputStream(
+							new ControlOutputStream())), "ISO-8859-1"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Sends the greeting, called on the reactor thread once the channel is
+	 * registered.
+	 */
+	protected void start(SelectionKey key) {
+		attach(key);
+		initSession();
+		if (!GlobalContext.getConfig().getHideIps()) {
+			logger.info("Handling new request from "
+					+ getClientAddress().getHostAddress());
+		} else {
+			logger.info("Handling new request from <iphidden>");
+		}
+		if (GlobalContext.getGlobalContext().isShutdown()) {
+			requestStop(GlobalContext.getGlobalContext().getShutdownMessage());
+		} else {
+			reply(new FtpReply(220, GlobalContext.getConfig().getLoginPrompt()));
+		}
+		scheduleIdleCheck(getIdleTime() * 1000L);
+		process();
+	}
+
+	void attach(SelectionKey key) {
+		_key = key;
+	}
+
+	/**
+	 * Does all the pending work of the connection without blocking, only
+	 * called on the reactor thread.
+	 */
+	protected void process() {
+		_queued.set(false);
+		if (_finished) {
+			return;
+		}
+		try {
+			_writeBlocked = false;
+			write();
+			synchronized (_outputLock) {
+				if (_resumeInput && !_starting) {
+					_resumeInput = false;
+					_inputPaused = false;
+				}
+			}
+			if (!_closing) {
+				read();
+				if (_stopRequest) {
+					startClosing();
+				}
+				write();
+			}
+			if (_closing && !_writeBlocked && isOutputEmpty()) {
+				close();
+				return;
+			}
+			int ops = 0;
+			if (!_inputPaused && !_closing) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if (_writeBlocked) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			_key.interestOps(ops);
+		} catch (IOException e) {
+			logger.info(e.getMessage() + ", closing for user "
+					+ ((_user == null) ? "<not logged in>" : _user), e);
+			close();
+		} catch (RuntimeException e) {
+			logger.info("Exception, closing", e);
+			close();
+		}
+	}
+
+	/**
+	 * Reads and dispatches commands until the socket has nothing more or
+	 * the input is held.
+	 */
+	private void read() throws IOException {
+		while (!_inputPaused && !_stopRequest) {
+			if (_engine != null) {
+				unwrapInput();
+				parse(_appIn);
+			} else {
+				parse(_netIn);
+			}
+			if (_inputPaused || _stopRequest) {
+				return;
+			}
+			int read = _channel.read(_netIn);
+			if (read == -1) {
+				_stopRequest = true;
+			} else if (read == 0) {
+				return;
+			}
+		}
+	}
+
+	private void parse(ByteBuffer buffer) {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining() && !_inputPaused && !_stopRequest) {
+				char c = (char) (buffer.get() & 0xff);
+				if (c == '\n') {
+					int length = _line.length();
+					if (length > 0 && _line.charAt(length - 1) == '\r') {
+						_line.setLength(length - 1);
+					}
+					String commandLine = _line.toString();
+					_line.setLength(0);
+					if (!commandLine.equals("")) {
+						execute(commandLine);
+					}
+				} else if (_line.length() >= MAX_LINE) {
+					requestStop("Command line too long");
+				} else {
+					_line.append(c);
+				}
+			}
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	private void execute(String commandLine) {
+		_request = new FtpRequest(commandLine);
+
+		if (!_request.getCommand().equals("PASS")) {
+			debuglogger.debug("<< " + _request.getCommandLine());
+		}
+		_lastActive = System.currentTimeMillis();
+
+		// nothing more is read before the reply queue switched to TLS
+		boolean auth = _request.getCommand().equalsIgnoreCase("AUTH");
+		if (auth) {
+			_inputPaused = true;
+		}
+		_running.incrementAndGet();
+		try {
+			dispatch(_request, auth);
+		} catch (RejectedExecutionException e) {
+			_running.decrementAndGet();
+			logger.warn("Every command worker is busy, closing connection of "
+					+ ((_user == null) ? "<not logged in>" : _user));
+			requestStop("Server is too busy, try again later");
+		}
+	}
+
+	/**
+	 * Runs <tt>request</tt> on a worker, {@link #commandFinished(boolean)}
+	 * must be called once it's done.
+	 * @throws RejectedExecutionException when no worker can take it.
+	 */
+	protected void dispatch(FtpRequest request, final boolean auth) {
+		final CommandThread command = new CommandThread(request, this);
+		_reactor.execute(new Runnable() {
+			public void run() {
+				try {
+					command.run();
+				} finally {
+					commandFinished(auth);
+				}
+			}
+		});
+	}
+
+	protected void commandFinished(boolean auth) {
+		_lastActive = System.currentTimeMillis();
+		_running.decrementAndGet();
+		if (auth) {
+			_resumeInput = true;
+			wakeup();
+		}
+	}
+
+	/**
+	 * Writes the queued replies until the socket is full or the TLS
+	 * handshake has to go on first.
+	 */
+	private void write() throws IOException {
+		while (flush()) {
+			Chunk chunk;
+			synchronized (_outputLock) {
+				chunk = _output.peek();
+			}
+			if (chunk == null) {
+				return;
+			}
+			if (chunk._engine != null) {
+				startTLS(chunk._engine);
+			} else if (_engine != null) {
+				if (isHandshaking()) {
+					// read() drives the handshake
+					return;
+				}
+				wrap(chunk._data);
+			} else if (_channel.write(chunk._data) == 0 && chunk._data.hasRemaining()) {
+				_writeBlocked = true;
+				return;
+			}
+			if (!chunk._data.hasRemaining()) {
+				synchronized (_outputLock) {
+					_output.poll();
+					_outputSize -= chunk._size;
+					if (chunk._engine != null) {
+						_starting = false;
+					}
+					_outputLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	private boolean isOutputEmpty() {
+		synchronized (_outputLock) {
+			return _output.isEmpty();
+		}
+	}
+
+	private void startTLS(SSLEngine engine) throws SSLException {
+		SSLSession session = engine.getSession();
+		// the client may have sent its hello right after AUTH
+		ByteBuffer netIn = ByteBuffer.allocate(Math.max(session.getPacketBufferSize(), _netIn.capacity()));
+		_netIn.flip();
+		netIn.put(_netIn);
+		_netIn = netIn;
+		_netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+		_netOut.flip();
+		_appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+		_engine = engine;
+		_engine.beginHandshake();
+	}
+
+	/**
+	 * Decrypts what was read so far into the application buffer.
+	 */
+	private void unwrapInput() throws IOException {
+		while (true) {
+			if (isHandshaking()) {
+				if (!handshake()) {
+					return;
+				}
+				continue;
+			}
+			SSLEngineResult result = unwrap();
+			if (result.getStatus() == Status.CLOSED) {
+				_stopRequest = true;
+				return;
+			}
+			if (result.getStatus() != Status.OK || result.bytesConsumed() == 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the handshake is waiting for the socket.
+	 */
+	private boolean handshake() throws IOException {
+		while (true) {
+			switch (_engine.getHandshakeStatus()) {
+			case NEED_TASK:
+				Runnable task;
+				while ((task = _engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				break;
+			case NEED_WRAP:
+				if (!flush()) {
+					return false;
+				}
+				wrap(EMPTY);
+				break;
+			case NEED_UNWRAP:
+				// the peer won't answer before it got everything we wrapped
+				if (!flush()) {
+					return false;
+				}
+				SSLEngineResult result = unwrap();
+				if (result.getStatus() == Status.CLOSED) {
+					throw new SSLException("Connection was closed during the handshake");
+				}
+				if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+					if (_appIn.position() == 0) {
+						throw new SSLException("Application buffer is too small");
+					}
+					// the pending commands have to be parsed first
+					return false;
+				}
+				if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+					int read = _channel.read(_netIn);
+					if (read == -1) {
+						throw new EOFException("Connection was closed during the handshake");
+					}
+					if (read == 0) {
+						return false;
+					}
+				}
+				break;
+			default:
+				return flush();
+			}
+		}
+	}
+
+	private boolean isHandshaking() {
+		HandshakeStatus status = _engine.getHandshakeStatus();
+		return status != HandshakeStatus.NOT_HANDSHAKING
+				&& status != HandshakeStatus.FINISHED;
+	}
+
+	private void wrap(ByteBuffer src) throws SSLException {
+		_netOut.compact();
+		SSLEngineResult result;
+		try {
+			result = _engine.wrap(src, _netOut);
+		} finally {
+			_netOut.flip();
+		}
+		if (result.getStatus() == Status.CLOSED) {
+			throw new SSLException("SSLEngine was closed while sending");
+		}
+	}
+
+	private SSLEngineResult unwrap() throws SSLException {
+		_netIn.flip();
+		try {
+			return _engine.unwrap(_netIn, _appIn);
+		} finally {
+			_netIn.compact();
+		}
+	}
+
+	/**
+	 * @return false if the socket can't take more data right now.
+	 */
+	private boolean flush() throws IOException {
+		while (_netOut.hasRemaining()) {
+			if (_channel.write(_netOut) == 0) {
+				_writeBlocked = true;
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the 421 reply, the connection is closed once it's written.
+	 */
+	private void startClosing() {
+		_closing = true;
+		if (_stopRequestMessage != null) {
+			reply(new FtpReply(421, _stopRequestMessage));
+		} else {
+			reply(new FtpReply(421, "Connection closing"));
+		}
+		if (_timeout != null) {
+			_timeout.cancel();
+		}
+		scheduleIdleCheck(CLOSE_TIMEOUT);
+	}
+
+	/**
+	 * Same as {@link #stop(String)} for the reactor thread, the transfer is
+	 * aborted by the cleanup pool.
+	 */
+	private void requestStop(String message) {
+		_stopRequestMessage = message;
+		_stopRequest = true;
+		_reactor.cleanup(new Runnable() {
+			public void run() {
+				getTransferState().abort("Your connection is being shutdown");
+			}
+		});
+	}
+
+	/**
+	 * Closes the socket right away, the rest of the session is closed by
+	 * the cleanup pool.
+	 */
+	private void close() {
+		if (_finished) {
+			return;
+		}
+		_finished = true;
+		if (_timeout != null) {
+			_timeout.cancel();
+		}
+		shutdownSocket();
+		_reactor.cleanup(new Runnable() {
+			public void run() {
+				closeSession();
+			}
+		});
+	}
+
+	/**
+	 * Queues a reply without going through {@link #printOutput(Object)},
+	 * the reactor thread must never wait for the connection monitor.
+	 */
+	private void reply(FtpReply reply) {
+		try {
+			byte[] data = reply.toString().getBytes("ISO-8859-1");
+			enqueue(new Chunk(ByteBuffer.wrap(data), null));
+		} catch (IOException e) {
+			// connection is closed already
+		}
+	}
+
+	private void enqueue(Chunk chunk) throws IOException {
+		synchronized (_outputLock) {
+			while (_outputSize > MAX_OUTPUT && !_outputClosed && !_reactor.isReactorThread()) {
+				try {
+					_outputLock.wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			if (_outputClosed) {
+				throw new IOException("Control connection is closed");
+			}
+			_output.add(chunk);
+			_outputSize += chunk._size;
+			if (chunk._engine != null) {
+				_starting = true;
+			}
+		}
+		wakeup();
+	}
+
+	private void wakeup() {
+		if (_queued.compareAndSet(false, true)) {
+			_reactor.wakeup(this);
+		}
+	}
+
+	private void scheduleIdleCheck(long delay) {
+		_timeout = _reactor.schedule(new Runnable() {
+			public void run() {
+				checkIdle();
+			}
+		}, delay);
+	}
+
+	private void checkIdle() {
+		if (_finished) {
+			return;
+		}
+		if (_closing) {
+			// the client didn't read the 421 in time
+			close();
+			return;
+		}
+		int idleTime = getIdleTime();
+		long idle = System.currentTimeMillis() - _lastActive;
+		if (idleTime > 0 && idle >= idleTime * 1000L && !isExecuting()) {
+			requestStop("IdleTimeout");
+			process();
+			return;
+		}
+		scheduleIdleCheck(idleTime > 0 ? Math.max(idleTime * 1000L - idle, 1000) : 60000);
+	}
+
+	private int getIdleTime() {
+		try {
+			return getUser().getIdleTime();
+		} catch (NoSuchUserException e) {
+			// user not logged in yet
+			return 60;
+		}
+	}
+
+	@Override
+	public void secureControlSocket(SSLContext ctx) throws IOException {
+		if (_secure) {
+			throw new SSLException("Control connection is already secure");
+		}
+		SSLEngine engine = createSSLEngine(ctx);
+		_out.flush();
+		enqueue(new Chunk(EMPTY.duplicate(), engine));
+		_secure = true;
+		authDone();
+	}
+
+	protected SSLEngine createSSLEngine(SSLContext ctx) {
+		SSLEngine engine = ctx.createSSLEngine();
+		engine.setUseClientMode(false);
+		String[] cipherSuites = GlobalContext.getConfig().getCipherSuites();
+		if (cipherSuites != null && cipherSuites.length > 0) {
+			engine.setEnabledCipherSuites(cipherSuites);
+		}
+		return engine;
+	}
+
+	@Override
+	public boolean isSecure() {
+		return _secure;
+	}
+
+	@Override
+	public boolean isExecuting() {
+		return _running.get() > 0;
+	}
+
+	@Override
+	public long getThreadID() {
+		return _id;
+	}
+
+	@Override
+	public void setAuthenticated(boolean authenticated) {
+		// no thread to rename, commands run on shared workers
+		_authenticated = authenticated;
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+		wakeup();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return new ControlOutputStream();
+	}
+
+	@Override
+	protected void shutdownSocket() {
+		synchronized (_outputLock) {
+			_outputClosed = true;
+			_output.clear();
+			_outputSize = 0;
+			_outputLock.notifyAll();
+		}
+		if (_key != null) {
+			_key.cancel();
+		}
+		try {
+			_channel.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+
+	/**
+	 * Data queued for the client, or the point where the queue switches to
+	 * TLS when <tt>_engine</tt> is set.
+	 */
+	private static class Chunk {
+		private final ByteBuffer _data;
+
+		private final SSLEngine _engine;
+
+		private final int _size;
+
+		private Chunk(ByteBuffer data, SSLEngine engine) {
+			_data = data;
+			_engine = engine;
+			_size = data.remaining();
+		}
+	}
+
+	private class ControlOutputStream extends OutputStream {
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			byte[] data = new byte[len];
+			System.arraycopy(b, off, data, 0, len);
+			enqueue(new Chunk(ByteBuffer.wrap(data), null));
+		}
+	}
+}
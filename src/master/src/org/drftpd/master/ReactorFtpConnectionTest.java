@@ -0,0 +1,266 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.drftpd.util.FtpRequest;
+
+/**
+ * @version $Id$
+ */
+public class ReactorFtpConnectionTest extends TestCase {
+	private static final long TIMEOUT = 5000;
+
+	private ServerSocketChannel _reactorServer;
+
+	private ServerSocketChannel _server;
+
+	private Selector _selector;
+
+	private Socket _client;
+
+	private TestConnection _conn;
+
+	private SelectionKey _key;
+
+	public ReactorFtpConnectionTest(String arg0) {
+		super(arg0);
+	}
+
+	protected void setUp() throws Exception {
+		_reactorServer = ServerSocketChannel.open();
+		_reactorServer.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		ControlReactor reactor = new ControlReactor(_reactorServer, 1, 1);
+		_server = ServerSocketChannel.open();
+		_server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		_client = new Socket("127.0.0.1", _server.socket().getLocalPort());
+		_client.setSoTimeout((int) TIMEOUT);
+		SocketChannel channel = _server.accept();
+		channel.configureBlocking(false);
+		_selector = Selector.open();
+		_conn = new TestConnection(reactor, channel);
+		_key = channel.register(_selector, SelectionKey.OP_READ, _conn);
+		_conn.attach(_key);
+	}
+
+	protected void tearDown() throws Exception {
+		_client.close();
+		_selector.close();
+		_server.close();
+		_reactorServer.close();
+	}
+
+	public void testParse() throws Exception {
+		OutputStream out = _client.getOutputStream();
+		out.write("US".getBytes("ISO-8859-1"));
+		assertNull(nextCommand(100));
+		out.write("ER a\r".getBytes("ISO-8859-1"));
+		assertNull(nextCommand(100));
+		out.write("\nPASS b\n\r\n".getBytes("ISO-8859-1"));
+		assertEquals("USER a", nextCommand(TIMEOUT));
+		assertEquals("PASS b", nextCommand(TIMEOUT));
+		assertNull(nextCommand(100));
+		assertEquals(1, _conn._closed.getCount());
+	}
+
+	public void testLineTooLong() throws Exception {
+		byte[] line = new byte[5000];
+		Arrays.fill(line, (byte) 'x');
+		_client.getOutputStream().write(line);
+		assertNull(nextCommand(100));
+		assertEquals("421 Command line too long", readLine(_client.getInputStream()));
+		assertTrue(_conn._closed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertEquals(-1, _client.getInputStream().read());
+	}
+
+	public void testAuthTLS() throws Exception {
+		final SSLContext ctx = createContext();
+		_client.getOutputStream().write("AUTH TLS\r\n".getBytes("ISO-8859-1"));
+		assertEquals("AUTH TLS", nextCommand(TIMEOUT));
+		assertEquals(0, _key.interestOps() & SelectionKey.OP_READ);
+
+		final String[] result = new String[2];
+		final Throwable[] error = new Throwable[1];
+		Thread client = new Thread() {
+			public void run() {
+				try {
+					result[0] = readLine(_client.getInputStream());
+					SSLSocket ssl = (SSLSocket) ctx.getSocketFactory().createSocket(
+							_client, "127.0.0.1", _client.getPort(), true);
+					ssl.setUseClientMode(true);
+					ssl.startHandshake();
+					ssl.getOutputStream().write("PBSZ 0\r\n".getBytes("ISO-8859-1"));
+					result[1] = readLine(ssl.getInputStream());
+				} catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		};
+		client.start();
+
+		// what the AUTH command does on its worker
+		_conn.printOutput(new FtpReply(234, "AUTH TLS successful"));
+		_conn.secureControlSocket(ctx);
+		_conn.commandFinished(true);
+		assertTrue(_conn.isSecure());
+
+		assertEquals("PBSZ 0", nextCommand(TIMEOUT));
+		_conn.printOutput(new FtpReply(200, "PBSZ 0 successful"));
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (client.isAlive() && System.currentTimeMillis() < end) {
+			_conn.process();
+			client.join(10);
+		}
+		if (error[0] != null) {
+			throw new AssertionError(error[0]);
+		}
+		assertEquals("234 AUTH TLS successful", result[0]);
+		assertEquals("200 PBSZ 0 successful", result[1]);
+	}
+
+	/**
+	 * Processes the connection until a command is dispatched.
+	 */
+	private String nextCommand(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		do {
+			_conn.process();
+			String command = _conn._commands.poll(10, TimeUnit.MILLISECONDS);
+			if (command != null) {
+				return command;
+			}
+		} while (System.currentTimeMillis() < end);
+		return null;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1) {
+				throw new IOException("Unexpected end of stream");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Context with a throwaway key made by keytool, trusting any peer.
+	 */
+	private static SSLContext createContext() throws Exception {
+		File file = File.createTempFile("drftpd", ".jks");
+		file.delete();
+		try {
+			String keytool = System.getProperty("java.home") + File.separator
+					+ "bin" + File.separator + "keytool";
+			Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "drftpd",
+					"-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost",
+					"-validity", "1", "-storetype", "JKS", "-keystore", file.getPath(),
+					"-storepass", "drftpd", "-keypass", "drftpd")
+					.redirectErrorStream(true).start();
+			InputStream in = p.getInputStream();
+			while (in.read() != -1) {
+				// drain
+			}
+			assertEquals(0, p.waitFor());
+			KeyStore ks = KeyStore.getInstance("JKS");
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				ks.load(fis, "drftpd".toCharArray());
+			} finally {
+				fis.close();
+			}
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(ks, "drftpd".toCharArray());
+			SSLContext ctx = SSLContext.getInstance("TLS");
+			ctx.init(kmf.getKeyManagers(), new TrustManager[] { new X509TrustManager() {
+				public void checkClientTrusted(X509Certificate[] chain, String authType) {
+				}
+
+				public void checkServerTrusted(X509Certificate[] chain, String authType) {
+				}
+
+				public X509Certificate[] getAcceptedIssuers() {
+					return new X509Certificate[0];
+				}
+			} }, null);
+			return ctx;
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Records the commands instead of running them, there is no
+	 * {@link org.drftpd.GlobalContext} here.
+	 */
+	private static class TestConnection extends ReactorFtpConnection {
+		private final BlockingQueue<String> _commands = new LinkedBlockingQueue<String>();
+
+		private final CountDownLatch _closed = new CountDownLatch(1);
+
+		private TestConnection(ControlReactor reactor, SocketChannel channel) {
+			super(reactor, channel);
+		}
+
+		protected void dispatch(FtpRequest request, boolean auth) {
+			_commands.add(request.getCommandLine());
+		}
+
+		protected void closeSession() {
+			shutdownSocket();
+			_closed.countDown();
+		}
+
+		protected SSLEngine createSSLEngine(SSLContext ctx) {
+			SSLEngine engine = ctx.createSSLEngine();
+			engine.setUseClientMode(false);
+			return engine;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
+import org.drftpd.vfs.DirectoryHandle;
+
+/**
+ * Applies the directories sent by a remerging slave on several threads.<br>
+ * Directories are partitioned by their ancestor at depth
+ * {@value #PARTITION_DEPTH}, like <tt>/section/release</tt>, each partition
+ * is applied in order by a single lane so children are always merged before
+ * their parent. Shallower directories wait until everything received before
+ * them has been applied.<br>
+ * At most <tt>remerge.queue.size</tt> directories are held at once, past
+ * that the slave reader stops reading and TCP flow control holds the slave.
+ * The reader is the only one pinging the slave, so it runs a keep alive
+ * every second it waits.
+ * Lanes also stop while the commit queue is above
+ * <tt>remerge.pause.threshold</tt> until it is back under
+ * <tt>remerge.resume.threshold</tt>.
+ * @version $Id$
+ */
+public class RemergeProcessor {
+	private static final Logger logger = Logger.getLogger(RemergeProcessor.class);
+
+	private static final int PARTITION_DEPTH = 2;
+
+	private static final long KEEPALIVE_INTERVAL = 1000;
+
+	private final String _name;
+
+	private final ThreadPoolExecutor[] _lanes;
+
+	private final Semaphore _permits;
+
+	private final int _pauseThreshold;
+
+	private final int _resumeThreshold;
+
+	private final long _keepAliveInterval;
+
+	private final AtomicInteger _generation = new AtomicInteger();
+
+	// directories handed to a lane and not applied yet, guarded by this
+	private int _pending;
+
+	public RemergeProcessor(RemoteSlave rslave) {
+		this(rslave.getName(), Math.max(1, getIntProperty("remerge.threads", 4)),
+				Math.max(1, getIntProperty("remerge.queue.size", 1000)),
+				getIntProperty("remerge.pause.threshold", 250),
+				getIntProperty("remerge.resume.threshold", 50), KEEPALIVE_INTERVAL);
+	}
+
+	protected RemergeProcessor(final String name, int lanes, int queueSize,
+			int pauseThreshold, int resumeThreshold, long keepAliveInterval) {
+		_name = name;
+		_permits = new Semaphore(queueSize);
+		_pauseThreshold = pauseThreshold;
+		_resumeThreshold = resumeThreshold;
+		_keepAliveInterval = keepAliveInterval;
+		_lanes = new ThreadPoolExecutor[lanes];
+		for (int i = 0; i < lanes; i++) {
+			final int lane = i;
+			_lanes[i] = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							return new Thread(r, "RemergeThread-" + lane + " - " + name);
+						}
+					});
+			_lanes[i].allowCoreThreadTimeOut(true);
+		}
+	}
+
+	private static int getIntProperty(String key, int def) {
+		try {
+			return Integer.parseInt(GlobalContext.getConfig().getMainProperties()
+					.getProperty(key, String.valueOf(def)).trim());
+		} catch (NumberFormatException e) {
+			logger.warn("Invalid " + key + ", using " + def);
+			return def;
+		}
+	}
+
+	/**
+	 * Hands <tt>message</tt> to its lane, blocks while the queue is full or
+	 * while waiting for the directories it depends on.
+	 * @param keepAlive run about every second spent waiting.
+	 */
+	public void put(RemergeMessage message, Runnable keepAlive) throws InterruptedException {
+		while (!_permits.tryAcquire(_keepAliveInterval, TimeUnit.MILLISECONDS)) {
+			keepAlive.run();
+		}
+		int lane = 0;
+		if (message.isCompleted() || getDepth(message.getDirectory()) < PARTITION_DEPTH) {
+			while (!awaitApplied(_keepAliveInterval)) {
+				keepAlive.run();
+			}
+		} else {
+			lane = getLane(message.getDirectory());
+		}
+		synchronized (this) {
+			_pending++;
+		}
+		_lanes[lane].execute(new ApplyTask(message, _generation.get()));
+	}
+
+	private static int getDepth(String path) {
+		int depth = 0;
+		for (int i = 0; i < path.length() - 1; i++) {
+			if (path.charAt(i) == '/') {
+				depth++;
+			}
+		}
+		return depth;
+	}
+
+	private int getLane(String path) {
+		int end = 0;
+		for (int i = 0; i < PARTITION_DEPTH; i++) {
+			end = path.indexOf('/', end + 1);
+			if (end == -1) {
+				end = path.length();
+				break;
+			}
+		}
+		String partition = path.substring(0, end).toLowerCase();
+		return (partition.hashCode() & Integer.MAX_VALUE) % _lanes.length;
+	}
+
+	/**
+	 * @return false if directories are still pending after <tt>timeout</tt>
+	 *         milliseconds.
+	 */
+	private synchronized boolean awaitApplied(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (_pending > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	private synchronized void applied() {
+		if (--_pending == 0) {
+			notifyAll();
+		}
+		_permits.release();
+	}
+
+	/**
+	 * Drops every directory not applied yet, the ones being applied finish.
+	 */
+	public void clear() {
+		_generation.incrementAndGet();
+		for (ThreadPoolExecutor lane : _lanes) {
+			List<Runnable> dropped = new ArrayList<Runnable>();
+			lane.getQueue().drainTo(dropped);
+			for (int i = 0; i < dropped.size(); i++) {
+				applied();
+			}
+		}
+	}
+
+	/**
+	 * @return directories received and not applied yet.
+	 */
+	public synchronized int getPending() {
+		return _pending;
+	}
+
+	private void awaitCommitQueue() throws InterruptedException {
+		CommitManager commitManager = CommitManager.getCommitManager();
+		if (commitManager.getQueueSize() <= _pauseThreshold) {
+			return;
+		}
+		logger.debug("Remerge of " + _name + " paused, commit queue is "
+				+ commitManager.getQueueSize());
+		while (commitManager.getQueueSize() > _resumeThreshold) {
+			Thread.sleep(100);
+		}
+		logger.debug("Remerge of " + _name + " resumed, commit queue is "
+				+ commitManager.getQueueSize());
+	}
+
+	/**
+	 * Merges the directory of <tt>message</tt>, or ends the remerge for the
+	 * completed message, called on the lane of the directory.
+	 */
+	protected void apply(RemergeMessage message) throws IOException, InterruptedException {
+		if (message.isCompleted()) {
+			message.getRslave().makeAvailableAfterRemerge();
+			return;
+		}
+		awaitCommitQueue();
+		DirectoryHandle dir = new DirectoryHandle(message.getDirectory());
+		dir.remerge(message.getFiles(), message.getRslave(), message.getLastModified());
+	}
+
+	private class ApplyTask implements Runnable {
+		private final RemergeMessage _message;
+
+		private final int _taskGeneration;
+
+		public ApplyTask(RemergeMessage message, int generation) {
+			_message = message;
+			_taskGeneration = generation;
+		}
+
+		public void run() {
+			try {
+				if (_taskGeneration != _generation.get()) {
+					return;
+				}
+				apply(_message);
+			} catch (IOException e) {
+				logger.error("IOException during remerge", e);
+				_message.getRslave().setOffline("IOException during remerge");
+			} catch (InterruptedException e) {
+				logger.info("Interrupted during remerge of " + _message.getDirectory());
+			} finally {
+				applied();
+			}
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.async.AsyncResponseRemerge;
+
+/**
+ * @version $Id$
+ */
+public class RemergeProcessorTest extends TestCase {
+
+	private static final Runnable NO_KEEPALIVE = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private TestProcessor _processor;
+
+	private static RemergeMessage message(String path) {
+		return new RemergeMessage(new AsyncResponseRemerge(path,
+				new ArrayList<LightRemoteInode>(), 0L), null);
+	}
+
+	public void testPartitionOrder() throws InterruptedException {
+		_processor = new TestProcessor(4, 100);
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			String path = "/section/release/" + i;
+			expected.add(path);
+			_processor.put(message(path), NO_KEEPALIVE);
+		}
+		_processor.await(50);
+		assertEquals(expected, _processor.getApplied());
+	}
+
+	public void testShallowWaitsForEarlier() throws InterruptedException {
+		_processor = new TestProcessor(2, 100);
+		CountDownLatch release = _processor.hold("/section/release");
+		_processor.put(message("/section/release"), NO_KEEPALIVE);
+		_processor.put(message("/other/release"), NO_KEEPALIVE);
+
+		// the slave reader stalls behind the held lane but keeps pinging
+		CountDownLatch pings = new CountDownLatch(3);
+		Putter putter = new Putter(message("/section"), pings);
+		putter.start();
+		assertTrue(pings.await(5, TimeUnit.SECONDS));
+		assertTrue(putter.isAlive());
+		assertFalse(_processor.getApplied().contains("/section"));
+
+		release.countDown();
+		putter.join(5000);
+		assertFalse(putter.isAlive());
+		_processor.await(3);
+		assertEquals("/section", _processor.getApplied().get(2));
+	}
+
+	public void testQueueFull() throws InterruptedException {
+		_processor = new TestProcessor(1, 1);
+		CountDownLatch release = _processor.hold("/section/release");
+		_processor.put(message("/section/release"), NO_KEEPALIVE);
+
+		CountDownLatch pings = new CountDownLatch(3);
+		Putter putter = new Putter(message("/section/other"), pings);
+		putter.start();
+		assertTrue(pings.await(5, TimeUnit.SECONDS));
+		assertTrue(putter.isAlive());
+		assertEquals(1, _processor.getPending());
+
+		release.countDown();
+		putter.join(5000);
+		assertFalse(putter.isAlive());
+		_processor.await(2);
+		assertEquals(Arrays.asList("/section/release", "/section/other"), _processor.getApplied());
+	}
+
+	public void testClear() throws InterruptedException {
+		_processor = new TestProcessor(1, 2);
+		CountDownLatch release = _processor.hold("/section/release");
+		_processor.put(message("/section/release"), NO_KEEPALIVE);
+		assertTrue(_processor.awaitStarted(5000));
+		_processor.put(message("/section/dropped"), NO_KEEPALIVE);
+		assertEquals(2, _processor.getPending());
+
+		_processor.clear();
+		assertEquals(1, _processor.getPending());
+		// the permit of the dropped directory is back
+		Putter putter = new Putter(message("/section/after"), new CountDownLatch(1));
+		putter.start();
+		putter.join(5000);
+		assertFalse(putter.isAlive());
+
+		release.countDown();
+		_processor.await(2);
+		assertEquals(Arrays.asList("/section/release", "/section/after"), _processor.getApplied());
+		// a directory is pending until its task returned
+		long deadline = System.currentTimeMillis() + 5000;
+		while (_processor.getPending() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, _processor.getPending());
+	}
+
+	private class Putter extends Thread {
+		private final RemergeMessage _message;
+
+		private final CountDownLatch _pings;
+
+		private Putter(RemergeMessage message, CountDownLatch pings) {
+			_message = message;
+			_pings = pings;
+		}
+
+		public void run() {
+			try {
+				_processor.put(_message, new Runnable() {
+					public void run() {
+						_pings.countDown();
+					}
+				});
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Records the directories instead of merging them, a held directory
+	 * blocks its lane until released.
+	 */
+	private static class TestProcessor extends RemergeProcessor {
+		private final Object _lock = new Object();
+
+		private final List<String> _applied = new ArrayList<String>();
+
+		private String _held;
+
+		private CountDownLatch _release;
+
+		private final CountDownLatch _started = new CountDownLatch(1);
+
+		private TestProcessor(int lanes, int queueSize) {
+			super("test", lanes, queueSize, 0, 0, 10);
+		}
+
+		private CountDownLatch hold(String path) {
+			synchronized (_lock) {
+				_held = path;
+				_release = new CountDownLatch(1);
+				return _release;
+			}
+		}
+
+		protected void apply(RemergeMessage message) throws IOException, InterruptedException {
+			CountDownLatch release;
+			synchronized (_lock) {
+				release = message.getDirectory().equals(_held) ? _release : null;
+			}
+			if (release != null) {
+				_started.countDown();
+				assertTrue(release.await(5, TimeUnit.SECONDS));
+			}
+			synchronized (_lock) {
+				_applied.add(message.getDirectory());
+				_lock.notifyAll();
+			}
+		}
+
+		private boolean awaitStarted(long timeout) throws InterruptedException {
+			return _started.await(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		private void await(int count) throws InterruptedException {
+			synchronized (_lock) {
+				long deadline = System.currentTimeMillis() + 5000;
+				while (_applied.size() < count && System.currentTimeMillis() < deadline) {
+					_lock.wait(100);
+				}
+				assertEquals(count, _applied.size());
+			}
+		}
+
+		private List<String> getApplied() {
+			synchronized (_lock) {
+				return Collections.unmodifiableList(new ArrayList<String>(_applied));
+			}
+		}
+	}
+}
@@ -34,16 +34,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.oro.text.regex.MalformedPatternException;
@@ -57,6 +57,8 @@ import org.drftpd.exceptions.FatalException;
 import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.io.SafeFileOutputStream;
 import org.drftpd.protocol.ProtocolException;
+import org.drftpd.slave.BandwidthUsage;
+import org.drftpd.slave.CommandLaneStatus;
 import org.drftpd.slave.ConnectInfo;
 import org.drftpd.slave.DiskStatus;
 import org.drftpd.slave.RemoteIOException;
@@ -66,7 +68,9 @@ import org.drftpd.slave.TransferIndex;
 import org.drftpd.slave.TransferStatus;
 import org.drftpd.slave.async.AsyncCommand;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
+import org.drftpd.slave.async.AsyncResponseBandwidth;
 import org.drftpd.slave.async.AsyncResponseChecksum;
 import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseException;
@@ -79,7 +83,6 @@ import org.drftpd.stats.ExtendedTimedStats;
 import org.drftpd.usermanager.Entity;
 import org.drftpd.util.HostMask;
 import org.drftpd.util.HostMaskCollection;
-import org.drftpd.vfs.DirectoryHandle;
 
 /**
  * @author mog
@@ -115,6 +118,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private transient DiskStatus _status;
 
+	private transient List<CommandLaneStatus> _laneStatus;
+
 	private HostMaskCollection _ipMasks;
 
 	private Properties _keysAndValues;
@@ -123,9 +128,11 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private LinkedList<QueuedOperation> _renameQueue;
 
-	private transient LinkedBlockingDeque<String> _indexPool;
+	private static final int MAX_INDEX = 0xffff;
+
+	private transient AtomicInteger _nextIndex;
 
-	private transient ConcurrentHashMap<String, AsyncResponse> _indexWithCommands;
+	private transient ConcurrentHashMap<String, AsyncResponseFuture> _pendingResponses;
 
 	private transient ObjectInputStream _sin;
 
@@ -133,17 +140,14 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private transient ObjectOutputStream _sout;
 
-	private transient ConcurrentHashMap<TransferIndex, RemoteTransfer> _transfers;
-
-	private transient AtomicBoolean _remergePaused;
-	
-	private transient boolean _initRemergeCompleted;
+	private transient volatile int _protocolVersion;
 
-	private transient Object _commandMonitor;
+	private transient ConcurrentHashMap<TransferIndex, RemoteTransfer> _transfers;
 
-	private transient LinkedBlockingQueue<RemergeMessage> _remergeQueue;
+	private transient RemergeProcessor _remergeProcessor;
 
-	private transient RemergeThread _remergeThread;
+	// token of the remerge in progress, kept on the root once it is applied
+	private transient String _remergeToken;
 
 	public RemoteSlave(String name) {
 		_name = name;
@@ -151,9 +155,6 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		_transientKeyedMap = new KeyedMap<Key<?>, Object>();
 		_ipMasks = new HostMaskCollection();
 		_renameQueue = new LinkedList<QueuedOperation>();
-		_remergePaused = new AtomicBoolean();
-		_remergeQueue = new LinkedBlockingQueue<RemergeMessage>();
-		_commandMonitor = new Object();
 	}
 	
 	public static final Key<Boolean> SSL = new Key<Boolean>(RemoteSlave.class, "ssl");
@@ -413,12 +414,15 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 				}
 			}
 		}
+		String lastToken = getLastRemergeToken();
+		_remergeToken = Long.toString(System.currentTimeMillis());
 		String remergeIndex;
 		if (partialRemerge) {
 			remergeIndex = SlaveManager.getBasicIssuer().issueRemergeToSlave(this, "/", true, skipAgeCutoff,
-					System.currentTimeMillis());
+					System.currentTimeMillis(), lastToken, _remergeToken);
 		} else {
-			remergeIndex = SlaveManager.getBasicIssuer().issueRemergeToSlave(this, "/", false, 0L, 0L);
+			remergeIndex = SlaveManager.getBasicIssuer().issueRemergeToSlave(this, "/", false, 0L, 0L,
+					lastToken, _remergeToken);
 		}
 
 		try {
@@ -427,15 +431,45 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 			throw new IOException(e.getMessage());
 		}
 
-		putRemergeQueue(new RemergeMessage(this));
+		// the reader keeps pinging, this isn't the reader thread
+		putRemergeQueue(new RemergeMessage(this), new Runnable() {
+			public void run() {
+			}
+		});
 
 		// TODO move lastConnect time setting to makeAvailableAfterRemerge()
 		setProperty("lastConnect", Long.toString(System.currentTimeMillis()));
-		_initRemergeCompleted = true;
-		if (_remergePaused.get()) {
-			logger.debug("Remerge was paused on slave after completion, issuing resume so not to break manual remerges");
-			SlaveManager.getBasicIssuer().issueRemergeResumeToSlave(this);
-			_remergePaused.set(false);
+	}
+
+	private String getRemergeTokenKey() {
+		return "remerge.token." + getName();
+	}
+
+	/**
+	 * The token is kept on the root directory so that it goes away with the
+	 * vfs, a new vfs always gets every directory from the slave.
+	 * @return the token of the last remerge fully applied, or an empty string.
+	 */
+	private String getLastRemergeToken() {
+		try {
+			String token = GlobalContext.getGlobalContext().getRoot()
+					.getUntypedPluginMetaData(getRemergeTokenKey(), String.class);
+			return token == null ? "" : token;
+		} catch (FileNotFoundException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Forgets the last remerge so the slave sends every directory next time,
+	 * needed whenever the slave is removed from files it still has.
+	 */
+	public void resetRemergeToken() {
+		try {
+			GlobalContext.getGlobalContext().getRoot()
+					.removeUntypedPluginMetaData(getRemergeTokenKey(), String.class);
+		} catch (FileNotFoundException e) {
+			// no root, nothing to forget
 		}
 	}
 
@@ -535,6 +569,15 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	protected void makeAvailableAfterRemerge() {
 		// TODO move lastconnect time set to here
+		if (_remergeToken != null) {
+			try {
+				GlobalContext.getGlobalContext().getRoot()
+						.addUntypedPluginMetaData(getRemergeTokenKey(), _remergeToken);
+			} catch (FileNotFoundException e) {
+				logger.warn("Unable to keep the remerge token of " + getName(), e);
+			}
+			_remergeToken = null;
+		}
 		setAvailable(true);
 		setRemerging(false);
 		logger.info("Slave added: '" + getName() + "' status: " + _status);
@@ -628,26 +671,14 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		_socket = socket;
 		_sout = out;
 		_sin = in;
-		if (_indexPool == null) {
-			_indexPool = new LinkedBlockingDeque<String>(256);
-		} else {
-			_indexPool.clear();
-		}
-
-		for (int i = 0; i < 256; i++) {
-			String key = Integer.toHexString(i);
-
-			if (key.length() < 2) {
-				key = "0" + key;
-			}
-
-			_indexPool.push(key);
+		if (_nextIndex == null) {
+			_nextIndex = new AtomicInteger();
 		}
 
-		if (_indexWithCommands == null) {
-			_indexWithCommands = new ConcurrentHashMap<String, AsyncResponse>();
+		if (_pendingResponses == null) {
+			_pendingResponses = new ConcurrentHashMap<String, AsyncResponseFuture>();
 		} else {
-			_indexWithCommands.clear();
+			failPendingResponses("Slave reconnected");
 		}
 		
 		if (_transfers == null) {
@@ -658,11 +689,12 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		
 		_errors = 0;
 		_lastNetworkError = System.currentTimeMillis();
-		_initRemergeCompleted = false;
+		_remergeToken = null;
 		setRemerging(true);
 		
+		_protocolVersion = 0;
 		try {
-			GlobalContext.getGlobalContext().getSlaveManager().getProtocolCentral().handshakeWithSlave(this);
+			_protocolVersion = GlobalContext.getGlobalContext().getSlaveManager().getProtocolCentral().handshakeWithSlave(this);
 		} catch (ProtocolException e) {
 			setOffline(e);
 		}
@@ -692,22 +724,54 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		return ((AsyncResponseChecksum) fetchResponse(index)).getChecksum();
 	}
 
+	/**
+	 * Allocates an unused index and registers the {@link AsyncResponseFuture}
+	 * that will receive the response for it.
+	 * @see #getResponseFuture(String)
+	 */
 	public String fetchIndex() throws SlaveUnavailableException {
-		String index;
-		while (isOnline()) {
-			try {
-				index = _indexPool.poll(1000, TimeUnit.MILLISECONDS);
-				if (index == null) {
-					logger.error("Too many commands sent, need to wait for the slave to process commands");
-				} else {
-					return index;
-				}
-			} catch (InterruptedException e1) {
+		if (!isOnline()) {
+			throw new SlaveUnavailableException(
+					"Slave was offline or went offline while fetching an index");
+		}
+		for (int i = 0; i <= MAX_INDEX; i++) {
+			String index = Integer.toHexString(_nextIndex.getAndIncrement() & MAX_INDEX);
+			if (_pendingResponses.putIfAbsent(index, new AsyncResponseFuture(index)) == null) {
+				return index;
 			}
 		}
+		throw new SlaveUnavailableException("Too many commands pending on the slave");
+	}
 
-		throw new SlaveUnavailableException(
-				"Slave was offline or went offline while fetching an index");
+	/**
+	 * @return the future that will receive the response for <tt>index</tt>
+	 * @throws SlaveUnavailableException if no command is pending for that
+	 *         index, which happens when the slave went offline.
+	 */
+	public AsyncResponseFuture getResponseFuture(String index)
+			throws SlaveUnavailableException {
+		AsyncResponseFuture future = _pendingResponses == null ? null
+				: _pendingResponses.get(index);
+		if (future == null) {
+			throw new SlaveUnavailableException(
+					"Slave went offline while processing command");
+		}
+		return future;
+	}
+
+	/**
+	 * @return the number of commands waiting for a response.
+	 */
+	public int getPendingResponseCount() {
+		return _pendingResponses == null ? 0 : _pendingResponses.size();
+	}
+
+	private void failPendingResponses(String reason) {
+		for (Iterator<AsyncResponseFuture> iter = _pendingResponses.values().iterator(); iter.hasNext();) {
+			AsyncResponseFuture future = iter.next();
+			iter.remove();
+			future.fail(reason);
+		}
 	}
 
 	public int fetchMaxPathFromIndex(String maxPathIndex) throws SlaveUnavailableException {
@@ -726,6 +790,11 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 	}
 
+	public List<BandwidthUsage> fetchBandwidthFromIndex(String index)
+			throws SlaveUnavailableException, RemoteIOException {
+		return ((AsyncResponseBandwidth) fetchResponse(index)).getUsage();
+	}
+
 	/**
 	 * @see fetchResponse(String index, int wait)
 	 */
@@ -740,32 +809,53 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 	 */
 	public AsyncResponse fetchResponse(String index, int wait)
 			throws SlaveUnavailableException, RemoteIOException {
-		long total = System.currentTimeMillis();
+		return fetchResponse(getResponseFuture(index), wait);
+	}
 
-		while (isOnline() && !_indexWithCommands.containsKey(index)) {
-			try {
-				synchronized(_commandMonitor) {
-					_commandMonitor.wait(1000);
-				}
+	/**
+	 * @see fetchResponse(AsyncResponseFuture future, int wait)
+	 */
+	public AsyncResponse fetchResponse(AsyncResponseFuture future)
+			throws SlaveUnavailableException, RemoteIOException {
+		return fetchResponse(future, getActualTimeout());
+	}
 
-				// will wait a maximum of 1000 milliseconds before waking up
+	/**
+	 * Waits for <tt>future</tt> to be completed and releases its index.
+	 * @param wait milliseconds to wait before the slave is set offline, 0
+	 *        waits until the response arrives or the slave goes offline.
+	 */
+	public AsyncResponse fetchResponse(AsyncResponseFuture future, int wait)
+			throws SlaveUnavailableException, RemoteIOException {
+		long deadline = System.currentTimeMillis() + wait;
+
+		while (!future.isDone()) {
+			int remaining = 0;
+			if (wait != 0) {
+				remaining = (int) (deadline - System.currentTimeMillis());
+				if (remaining <= 0) {
+					setOffline("Slave has taken too long while waiting for reply "
+							+ future.getIndex());
+					break;
+				}
+			}
+			try {
+				future.await(remaining);
 			} catch (InterruptedException e) {
 			}
+		}
 
-			if ((wait != 0) && ((System.currentTimeMillis() - total) >= wait)) {
-				setOffline("Slave has taken too long while waiting for reply "
-						+ index);
-			}
+		if (_pendingResponses != null) {
+			_pendingResponses.remove(future.getIndex(), future);
 		}
 
-		if (!isOnline()) {
+		AsyncResponse rar = future.getResponse();
+
+		if (rar == null) {
 			throw new SlaveUnavailableException(
 					"Slave went offline while processing command");
 		}
 
-		AsyncResponse rar = _indexWithCommands.remove(index);
-		_indexPool.push(index);
-
 		if (rar instanceof AsyncResponseException) {
 			Throwable t = ((AsyncResponseException) rar).getThrowable();
 
@@ -821,7 +911,13 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		logger.debug("Starting RemoteSlave for " + getName());
 
 		try {
-			String pingIndex = null;
+			// pings issued and not answered yet
+			final Set<String> pings = new HashSet<String>();
+			Runnable keepAlive = new Runnable() {
+				public void run() {
+					keepAlive(pings);
+				}
+			};
 			while (isOnline()) {
 				AsyncResponse ar = null;
 
@@ -836,11 +932,11 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 					// handled below
 				}
 
-				if (pingIndex == null
+				if (pings.isEmpty()
 						&& ((getActualTimeout() / 2 < (System
 								.currentTimeMillis() - _lastResponseReceived)) || (getActualTimeout() / 2 < (System
 								.currentTimeMillis() - _lastCommandSent)))) {
-					pingIndex = SlaveManager.getBasicIssuer().issuePingToSlave(this);
+					pings.add(SlaveManager.getBasicIssuer().issuePingToSlave(this));
 				} else if (getActualTimeout() < (System.currentTimeMillis() - _lastResponseReceived)) {
 					setOffline("Slave seems to have gone offline, have not received a response in "
 							+ (System.currentTimeMillis() - _lastResponseReceived)
@@ -848,27 +944,6 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 					throw new SlaveUnavailableException();
 				}
 
-				if (isOnline() && !isAvailable() && !_initRemergeCompleted) {
-					int queueSize = CommitManager.getCommitManager().getQueueSize();
-					if (_remergePaused.get()) {
-						// Do we need to resume
-						if (queueSize <= Integer.parseInt(GlobalContext.getConfig()
-								.getMainProperties().getProperty("remerge.resume.threshold", "50"))) {
-							SlaveManager.getBasicIssuer().issueRemergeResumeToSlave(this);
-							_remergePaused.set(false);
-							logger.debug("Issued remerge resume to slave, current commit queue is " + queueSize);
-						}
-					} else {
-						// Do we need to pause
-						if (queueSize > Integer.parseInt(GlobalContext.getConfig()
-								.getMainProperties().getProperty("remerge.pause.threshold", "250"))) {
-							SlaveManager.getBasicIssuer().issueRemergePauseToSlave(this);
-							_remergePaused.set(true);
-							logger.debug("Issued remerge pause to slave, current commit queue is " + queueSize);
-						}
-					}
-				}
-
 				if (ar == null) {
 					continue;
 				}
@@ -885,10 +960,11 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 				}
 
 				if (ar.getIndex().equals("Remerge")) {
-					putRemergeQueue(new RemergeMessage((AsyncResponseRemerge) ar, this));
+					putRemergeQueue(new RemergeMessage((AsyncResponseRemerge) ar, this), keepAlive);
 				} else if (ar.getIndex().equals("DiskStatus")) {
 					_status = ((AsyncResponseDiskStatus) ar)
 					.getDiskStatus();
+					_laneStatus = ((AsyncResponseDiskStatus) ar).getLaneStatus();
 				} else if (ar.getIndex().equals("TransferStatus")) {
 					TransferStatus ats = ((AsyncResponseTransferStatus) ar)
 					.getTransferStatus();
@@ -909,15 +985,15 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 						removeTransfer(ats.getTransferIndex());
 					}
 				} else {
-					_indexWithCommands.put(ar.getIndex(), ar);
-					if (pingIndex != null
-							&& pingIndex.equals(ar.getIndex())) {
-						fetchResponse(pingIndex);
-						pingIndex = null;
-					} else {
-						synchronized (_commandMonitor) {
-							_commandMonitor.notifyAll();
-						}
+					AsyncResponseFuture future = _pendingResponses.get(ar.getIndex());
+					if (future == null) {
+						logger.error("Throwing away a response for an unknown index - "
+								+ ar.getIndex() + " - " + ar);
+						continue;
+					}
+					future.complete(ar);
+					if (pings.remove(ar.getIndex())) {
+						fetchResponse(future);
 					}
 				}
 			}
@@ -927,6 +1003,22 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 	}
 
+	/**
+	 * Pings the slave while the reader waits on the remerge, the slave goes
+	 * offline if it hears nothing from the master for its timeout. The
+	 * answers are read once the reader goes on.
+	 */
+	private void keepAlive(Set<String> pings) {
+		if (getActualTimeout() / 2 >= System.currentTimeMillis() - _lastCommandSent) {
+			return;
+		}
+		try {
+			pings.add(SlaveManager.getBasicIssuer().issuePingToSlave(this));
+		} catch (SlaveUnavailableException e) {
+			// the reader finds out once it goes on
+		}
+	}
+
 	private int getActualTimeout() {
 		return Integer.parseInt(getProperty("timeout", Integer
 				.toString(SlaveManager.actualTimeout)));
@@ -957,7 +1049,9 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 	private void setOfflineReal(String reason) {
 		// If the slave is still processing the remerge queue clear all
 		// outstanding entries
-		_remergeQueue.clear();
+		if (_remergeProcessor != null) {
+			_remergeProcessor.clear();
+		}
 		if (_socket != null) {
 			setProperty("lastOnline", Long.toString(System.currentTimeMillis()));
 			try {
@@ -968,8 +1062,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 		_sin = null;
 		_sout = null;
-		if (_indexWithCommands != null)
-			_indexWithCommands.clear();
+		if (_pendingResponses != null)
+			failPendingResponses(reason);
 		if (_transfers != null)
 			_transfers.clear();
 		_maxPath = 0;
@@ -1009,7 +1103,11 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 		while (true) {
 			try {
-				obj = in.readObject();
+				if (_protocolVersion > 0) {
+					obj = AsyncMessageCodec.readResponse(in);
+				} else {
+					obj = in.readObject();
+				}
 			} catch (ClassNotFoundException e) {
 				logger.error("ClassNotFound reading AsyncResponse", e);
 				setOffline("ClassNotFound reading AsyncResponse");
@@ -1057,9 +1155,13 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 
 		try {
-			out.writeObject(rac);
+			if (_protocolVersion > 0) {
+				AsyncMessageCodec.writeCommand(out, rac);
+			} else {
+				out.writeObject(rac);
+				out.reset();
+			}
 			out.flush();
-			out.reset();
 		} catch (IOException e) {
 			logger.error("error in sendCommand()", e);
 			throw new SlaveUnavailableException(
@@ -1216,6 +1318,18 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 	}
 
+	/**
+	 * @return the state of the command lanes last reported by the slave,
+	 * empty if the slave is offline or didn't report it yet.
+	 */
+	public List<CommandLaneStatus> getLaneStatus() {
+		List<CommandLaneStatus> lanes = _laneStatus;
+		if (lanes == null || !isOnline()) {
+			return Collections.emptyList();
+		}
+		return lanes;
+	}
+
 	public ObjectOutputStream getOutputStream() {
 		return _sout;
 	}
@@ -1224,49 +1338,16 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		return _sin;
 	}
 
-	private void putRemergeQueue(RemergeMessage message) {
+	private void putRemergeQueue(RemergeMessage message, Runnable keepAlive) {
+		synchronized (this) {
+			if (_remergeProcessor == null) {
+				_remergeProcessor = new RemergeProcessor(this);
+			}
+		}
 		try {
-			_remergeQueue.put(message);
+			_remergeProcessor.put(message, keepAlive);
 		} catch (InterruptedException e) {
 			throw new RuntimeException(e);
 		}
-		if (_remergeThread == null || !_remergeThread.isAlive()) {
-			_remergeThread = new RemergeThread(getName());
-			_remergeThread.start();
-		}
-	}
-
-	private class RemergeThread extends Thread {
-
-		public RemergeThread(String slaveName) {
-			super("RemergeThread - " + slaveName);
-		}
-
-		public void run() {
-			while (true) {
-				RemergeMessage msg;
-				try {
-					msg = _remergeQueue.take();
-				} catch (InterruptedException e) {
-					logger.info("", e);
-					continue;
-				}
-
-				if (msg.isCompleted()) {
-					msg.getRslave().makeAvailableAfterRemerge();
-					break;
-				}
-
-				DirectoryHandle dir = new DirectoryHandle(msg.getDirectory());
-
-				try {
-					dir.remerge(msg.getFiles(), msg.getRslave(), msg.getLastModified());
-				} catch (IOException e) {
-					logger.error("IOException during remerge", e);
-					msg.getRslave().setOffline("IOException during remerge");
-					break;
-				}
-			}
-		}
 	}
 }
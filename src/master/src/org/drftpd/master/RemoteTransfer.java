@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 
 import org.drftpd.exceptions.SlaveUnavailableException;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.ConnectInfo;
 import org.drftpd.slave.RemoteIOException;
 import org.drftpd.slave.Transfer;
@@ -154,10 +155,18 @@ public class RemoteTransfer {
 	
 	public void receiveFile(String path, char type, long position, String inetAddress, long minSpeed, long maxSpeed)
 			throws IOException, SlaveUnavailableException {
+		receiveFile(path, type, position, inetAddress, minSpeed, maxSpeed, null);
+	}
+
+	/**
+	 * @param limits user, group and slave limits or null.
+	 */
+	public void receiveFile(String path, char type, long position, String inetAddress, long minSpeed, long maxSpeed,
+			BandwidthLimits limits) throws IOException, SlaveUnavailableException {
 		_path = path;
 		
 		String index = SlaveManager.getBasicIssuer().issueReceiveToSlave(
-				_rslave, path, type, position,	inetAddress, getTransferIndex(), minSpeed, maxSpeed);
+				_rslave, path, type, position,	inetAddress, getTransferIndex(), minSpeed, maxSpeed, limits);
 		
 		_transferDirection = Transfer.TRANSFER_RECEIVING_UPLOAD;
 		try {
@@ -170,9 +179,17 @@ public class RemoteTransfer {
 
 	public void sendFile(String path, char type, long position, String inetAddress, long minSpeed, long maxSpeed)
 			throws IOException, SlaveUnavailableException {
+		sendFile(path, type, position, inetAddress, minSpeed, maxSpeed, null);
+	}
+
+	/**
+	 * @param limits user, group and slave limits or null.
+	 */
+	public void sendFile(String path, char type, long position, String inetAddress, long minSpeed, long maxSpeed,
+			BandwidthLimits limits) throws IOException, SlaveUnavailableException {
 		_path = path;
 		String index = SlaveManager.getBasicIssuer().issueSendToSlave(
-				_rslave, path, type, position, inetAddress, getTransferIndex(), minSpeed, maxSpeed);
+				_rslave, path, type, position, inetAddress, getTransferIndex(), minSpeed, maxSpeed, limits);
 		_transferDirection = Transfer.TRANSFER_SENDING_DOWNLOAD;
 		try {
 			_rslave.fetchResponse(index);
@@ -210,6 +210,7 @@ public class SlaveManager implements Runnable, TimeEventInterface {
 			getSlaveFile(rslave.getName()).delete();
 			rslave.setOffline("Slave has been deleted");
 			_rslaves.remove(slaveName);
+			rslave.resetRemergeToken();
 			getGlobalContext().getRoot().removeSlave(rslave);
 		} catch (ObjectNotFoundException e) {
 			throw new IllegalArgumentException("Slave not found");
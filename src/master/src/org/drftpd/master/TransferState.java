@@ -31,6 +31,7 @@ import org.drftpd.GlobalContext;
 import org.drftpd.PassiveConnection;
 import org.drftpd.dynamicdata.Key;
 import org.drftpd.exceptions.SlaveUnavailableException;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.Transfer;
 import org.drftpd.slave.TransferFailedException;
 import org.drftpd.slave.TransferStatus;
@@ -361,11 +362,21 @@ public class TransferState {
 		getTransfer().sendFile(path, type, resumePosition, address, minSpeed, maxSpeed);
 	}
 
+	public synchronized void sendFile(String path, char type, long resumePosition, String address, long minSpeed, long maxSpeed,
+			BandwidthLimits limits) throws IOException, SlaveUnavailableException {
+		getTransfer().sendFile(path, type, resumePosition, address, minSpeed, maxSpeed, limits);
+	}
+
 	public synchronized void receiveFile(String path, char type, long resumePosition, String address, long minSpeed, long maxSpeed)
 	throws IOException, SlaveUnavailableException {
 		getTransfer().receiveFile(path, type, resumePosition, address, minSpeed, maxSpeed);
 	}
 
+	public synchronized void receiveFile(String path, char type, long resumePosition, String address, long minSpeed, long maxSpeed,
+			BandwidthLimits limits) throws IOException, SlaveUnavailableException {
+		getTransfer().receiveFile(path, type, resumePosition, address, minSpeed, maxSpeed, limits);
+	}
+
 	public synchronized long getElapsed() {
 		return getTransfer().getElapsed();
 	}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master.cron;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.drftpd.util.LatencyHistogram;
+
+/**
+ * A task registered with the {@link TaskScheduler} and the statistics of
+ * its runs.
+ * @version $Id$
+ */
+public class ScheduledTask implements Runnable, Comparable<ScheduledTask> {
+
+	private static final Logger logger = Logger.getLogger(ScheduledTask.class);
+
+	private final TaskScheduler _scheduler;
+
+	private final String _group;
+
+	private final String _name;
+
+	private final Runnable _task;
+
+	private final long _period;
+
+	private volatile ScheduledFuture<?> _future;
+
+	private final LatencyHistogram _runTime = new LatencyHistogram();
+
+	private final AtomicLong _failures = new AtomicLong();
+
+	private final AtomicLong _overruns = new AtomicLong();
+
+	private volatile long _runningSince;
+
+	protected ScheduledTask(TaskScheduler scheduler, String group, String name, Runnable task, long period) {
+		_scheduler = scheduler;
+		_group = group;
+		_name = name;
+		_task = task;
+		_period = period;
+	}
+
+	protected void setFuture(ScheduledFuture<?> future) {
+		_future = future;
+	}
+
+	public void run() {
+		long start = System.currentTimeMillis();
+		_runningSince = start;
+		try {
+			_task.run();
+		} catch (Throwable t) {
+			// thrown out of here the executor would never run the task again
+			_failures.incrementAndGet();
+			logger.error("Scheduled task " + this + " failed", t);
+		} finally {
+			_runningSince = 0;
+			long time = System.currentTimeMillis() - start;
+			_runTime.record(time);
+			if (_period > 0 && time > _period) {
+				_overruns.incrementAndGet();
+				logger.warn("Scheduled task " + this + " took " + time + "ms, longer than its period of "
+						+ _period + "ms");
+			}
+			if (_period == 0) {
+				_scheduler.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * Stops scheduling this task, a run in progress is completed.
+	 */
+	public void cancel() {
+		if (_future != null) {
+			_future.cancel(false);
+		}
+		_scheduler.remove(this);
+	}
+
+	public String getGroup() {
+		return _group;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * @return the period in milliseconds, 0 for a task only run once.
+	 */
+	public long getPeriod() {
+		return _period;
+	}
+
+	/**
+	 * @return milliseconds until the next run, 0 or less while running late.
+	 */
+	public long getDelay() {
+		return _future == null ? 0 : _future.getDelay(TimeUnit.MILLISECONDS);
+	}
+
+	public boolean isRunning() {
+		return _runningSince != 0;
+	}
+
+	/**
+	 * @return how long the current run has taken so far, 0 if not running.
+	 */
+	public long getRunningTime() {
+		long since = _runningSince;
+		return since == 0 ? 0 : System.currentTimeMillis() - since;
+	}
+
+	public LatencyHistogram getRunTime() {
+		return _runTime;
+	}
+
+	public long getRuns() {
+		return _runTime.getCount();
+	}
+
+	public long getFailures() {
+		return _failures.get();
+	}
+
+	public long getOverruns() {
+		return _overruns.get();
+	}
+
+	public int compareTo(ScheduledTask o) {
+		int cmp = _group.compareTo(o._group);
+		return cmp != 0 ? cmp : _name.compareTo(o._name);
+	}
+
+	public String toString() {
+		return _group + "/" + _name;
+	}
+}
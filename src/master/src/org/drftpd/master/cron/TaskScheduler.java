@@ -0,0 +1,156 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master.cron;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the periodic tasks of the master and its plugins on a small pool of
+ * threads.<br>
+ * Every task is registered under a group and a name so it can be listed,
+ * the same task never runs twice at the same time but a slow task only
+ * holds one thread while the others keep running on time. A task throwing
+ * is logged and scheduled again as usual.
+ * @version $Id$
+ */
+public class TaskScheduler {
+
+	private static final Logger logger = Logger.getLogger(TaskScheduler.class);
+
+	private final ScheduledThreadPoolExecutor _executor;
+
+	private final ArrayList<ScheduledTask> _tasks = new ArrayList<ScheduledTask>();
+
+	public TaskScheduler(int threads) {
+		_executor = new ScheduledThreadPoolExecutor(threads, new SchedulerThreadFactory());
+	}
+
+	/**
+	 * Changes the number of threads running the tasks.
+	 */
+	public void setThreads(int threads) {
+		if (threads > 0) {
+			_executor.setCorePoolSize(threads);
+		}
+	}
+
+	public int getThreads() {
+		return _executor.getCorePoolSize();
+	}
+
+	/**
+	 * @return the number of threads currently running a task.
+	 */
+	public int getActiveThreads() {
+		return _executor.getActiveCount();
+	}
+
+	/**
+	 * Runs <tt>task</tt> once after <tt>delay</tt> milliseconds.
+	 */
+	public ScheduledTask schedule(String group, String name, Runnable task, long delay) {
+		ScheduledTask scheduledTask = new ScheduledTask(this, group, name, task, 0);
+		add(scheduledTask);
+		scheduledTask.setFuture(_executor.schedule(scheduledTask, delay, TimeUnit.MILLISECONDS));
+		return scheduledTask;
+	}
+
+	/**
+	 * Runs <tt>task</tt> every <tt>period</tt> milliseconds, starting after
+	 * <tt>delay</tt> milliseconds. Runs taking longer than the period are
+	 * counted as overruns and delay the following ones.
+	 */
+	public ScheduledTask scheduleAtFixedRate(String group, String name, Runnable task, long delay, long period) {
+		ScheduledTask scheduledTask = new ScheduledTask(this, group, name, task, period);
+		add(scheduledTask);
+		scheduledTask.setFuture(_executor.scheduleAtFixedRate(scheduledTask, delay, period,
+				TimeUnit.MILLISECONDS));
+		return scheduledTask;
+	}
+
+	/**
+	 * Runs <tt>task</tt> after <tt>delay</tt> milliseconds, then again
+	 * <tt>period</tt> milliseconds after each run has ended.
+	 */
+	public ScheduledTask scheduleWithFixedDelay(String group, String name, Runnable task, long delay, long period) {
+		ScheduledTask scheduledTask = new ScheduledTask(this, group, name, task, period);
+		add(scheduledTask);
+		scheduledTask.setFuture(_executor.scheduleWithFixedDelay(scheduledTask, delay, period,
+				TimeUnit.MILLISECONDS));
+		return scheduledTask;
+	}
+
+	private synchronized void add(ScheduledTask task) {
+		_tasks.add(task);
+	}
+
+	/**
+	 * Called once a task won't run anymore.
+	 */
+	protected void remove(ScheduledTask task) {
+		synchronized (this) {
+			_tasks.remove(task);
+		}
+		_executor.purge();
+	}
+
+	/**
+	 * Cancels every task of <tt>group</tt>, runs in progress are completed.
+	 */
+	public void cancelGroup(String group) {
+		for (ScheduledTask task : getTasks()) {
+			if (task.getGroup().equals(group)) {
+				task.cancel();
+			}
+		}
+	}
+
+	/**
+	 * @return the tasks still scheduled, sorted by group.
+	 */
+	public synchronized List<ScheduledTask> getTasks() {
+		ArrayList<ScheduledTask> tasks = new ArrayList<ScheduledTask>(_tasks);
+		Collections.sort(tasks);
+		return tasks;
+	}
+
+	/**
+	 * Stops scheduling tasks, runs in progress are completed.
+	 */
+	public void shutdown() {
+		logger.info("Shutting down the task scheduler");
+		_executor.shutdown();
+	}
+
+	static class SchedulerThreadFactory implements ThreadFactory {
+		public Thread newThread(Runnable r) {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setName("TaskScheduler-" + t.getId());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master.cron;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class TaskSchedulerTest extends TestCase {
+
+	private TaskScheduler _scheduler;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_scheduler = new TaskScheduler(2);
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		_scheduler.shutdown();
+	}
+
+	public void testFailingTaskKeepsRunning() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(3);
+		ScheduledTask task = _scheduler.scheduleWithFixedDelay("test", "failing", new Runnable() {
+			public void run() {
+				latch.countDown();
+				throw new RuntimeException("expected");
+			}
+		}, 0, 10);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(task.getFailures() >= 2);
+		assertEquals(1, _scheduler.getTasks().size());
+
+		task.cancel();
+		assertTrue(_scheduler.getTasks().isEmpty());
+	}
+
+	public void testSlowTaskDoesNotDelayOthers() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch ticks = new CountDownLatch(3);
+		_scheduler.schedule("test", "slow", new Runnable() {
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		}, 0);
+		ScheduledTask fast = _scheduler.scheduleAtFixedRate("test", "fast", new Runnable() {
+			public void run() {
+				ticks.countDown();
+			}
+		}, 0, 10);
+		assertTrue(ticks.await(2, TimeUnit.SECONDS));
+		release.countDown();
+		fast.cancel();
+		assertEquals(0, fast.getFailures());
+	}
+}
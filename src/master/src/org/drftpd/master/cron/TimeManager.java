@@ -22,8 +22,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
@@ -42,7 +40,7 @@ public class TimeManager {
 	
 	private static final long HOUR = MINUTE * 60;
 	
-	TimerTask _processHour = new TimerTask() {
+	Runnable _processHour = new Runnable() {
 		public void run() {
 			doReset(Calendar.getInstance());
 		}
@@ -130,14 +128,15 @@ public class TimeManager {
 	
 	protected TimeManager (Calendar cal) {
 		_timedEvents = new ArrayList<TimeEventInterface>();
-		Timer timer = GlobalContext.getGlobalContext().getTimer();
+		TaskScheduler scheduler = GlobalContext.getGlobalContext().getScheduler();
 		// setup the next time we need to run an event
 		// roll the calendar to the next Hour
 		cal.add(Calendar.HOUR, 1);
 		cal.set(Calendar.MINUTE, 0);
 		cal.set(Calendar.SECOND, 0);
 		cal.set(Calendar.MILLISECOND, 0);
-		timer.scheduleAtFixedRate(_processHour, cal.getTime(), HOUR);
+		scheduler.scheduleAtFixedRate("cron", "TimeManager", _processHour,
+				Math.max(0, cal.getTimeInMillis() - System.currentTimeMillis()), HOUR);
 		logger.info("TimeManager scheduled the next reset to be at " + cal.getTime());
 	}
 	
@@ -30,8 +30,16 @@ import org.drftpd.vfs.InodeHandle;
  * @version $Id$
  */
 public class GlobPathPermission extends PathPermission {
+	private static final ThreadLocal<Perl5Matcher> _matcher = new ThreadLocal<Perl5Matcher>() {
+		protected Perl5Matcher initialValue() {
+			return new Perl5Matcher();
+		}
+	};
+
 	Pattern _pat;
 
+	private String _prefix;
+
 	public GlobPathPermission(Pattern pat, Collection<String> users) {
 		super(users);
 		_pat = pat;
@@ -40,17 +48,36 @@ public class GlobPathPermission extends PathPermission {
 	public GlobPathPermission(String pattern, Collection<String> users) throws MalformedPatternException {
 		super(users);	
 		_pat = new GlobCompiler().compile(pattern);		
+		_prefix = getLiteralPrefix(pattern);
+	}
+
+	/**
+	 * @return the part of <tt>glob</tt> before its first wildcard.
+	 */
+	private static String getLiteralPrefix(String glob) {
+		for (int i = 0; i < glob.length(); i++) {
+			switch (glob.charAt(i)) {
+			case '*':
+			case '?':
+			case '[':
+			case '\\':
+				return glob.substring(0, i);
+			}
+		}
+		return glob;
 	}
 
 	public boolean checkPath(InodeHandle inode) {
-		Perl5Matcher m = new Perl5Matcher();
-		
 		String path = inode.getPath();
-		if (inode.isDirectory() && !inode.getPath().endsWith("/")) {
-			path = inode.getPath().concat("/");
+		if (inode.isDirectory() && !path.endsWith("/")) {
+			path = path.concat("/");
 		}
 		
-		return m.matches(path, _pat);
+		return _matcher.get().matches(path, _pat);
+	}
+
+	public String getPathPrefix() {
+		return _prefix;
 	}
 
 	public Pattern getPattern() {
@@ -31,4 +31,14 @@ public abstract class PathPermission extends Permission {
 	}
 
 	public abstract boolean checkPath(InodeHandle inode);
+
+	/**
+	 * @return a string every path accepted by {@link #checkPath(InodeHandle)}
+	 * starts with, directories being checked with a trailing '/', or null if
+	 * there's none. Used to only check the permissions that may apply to a
+	 * path.
+	 */
+	public String getPathPrefix() {
+		return null;
+	}
 }
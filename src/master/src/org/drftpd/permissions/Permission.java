@@ -30,12 +30,28 @@ import org.drftpd.usermanager.User;
  * @version $Id$
  */
 public class Permission {
+	private static final int ACL_ALL = 0;
+
+	private static final int ACL_AUTHENTICATED = 1;
+
+	private static final int ACL_USER = 2;
+
+	private static final int ACL_GROUP = 3;
+
 	protected Collection<String> _users;
 
 	private boolean _invert = false;
 
+	// _users parsed once, check() is called for every inode listed
+	private int[] _aclTypes;
+
+	private boolean[] _aclAllows;
+
+	private String[] _aclNames;
+
 	public Permission(Collection<String> users) {
 		_users = users;
+		parseUsers();
 	}
 
 	public Permission(Collection<String> users, boolean invert) {
@@ -60,43 +76,23 @@ public class Permission {
 	public boolean check(User user) {
 		boolean allow = false;
 
-		for (Iterator<String> iter = _users.iterator(); iter.hasNext();) {
-			String aclUser = iter.next();
-			allow = true;
-			if (aclUser.charAt(0) == '!') {
-				allow = false;
-				aclUser = aclUser.substring(1);
-			}
-			if (aclUser.equals("%")) {
-				return allow;
-			} else if (aclUser.equals("*") && user != null) {
+		for (int i = 0; i < _aclTypes.length; i++) {
+			allow = _aclAllows[i];
+			switch (_aclTypes[i]) {
+			case ACL_ALL:
 				return allow;
-			} else if (aclUser.charAt(0) == '-') {
-				// USER
-				if (user == null) {
-					continue;
-				}
-				if (aclUser.substring(1).equals(user.getName())) {
+			case ACL_AUTHENTICATED:
+				if (user != null) {
 					return allow;
 				}
-
-				continue;
-			} else if (aclUser.charAt(0) == '=') {
-				// GROUP
-				if (user == null) {
-					continue;
-				}
-				if (user.isMemberOf(aclUser.substring(1))) {
+				break;
+			case ACL_USER:
+				if (user != null && _aclNames[i].equals(user.getName())) {
 					return allow;
 				}
-			} else {
-				// FLAG, we don't have flags, we have groups and that's the same
-				// but multiple letters
-				// Does anyone use these?  Do we want to get rid of the = modifier?
-				if (user == null) {
-					continue;
-				}
-				if (user.isMemberOf(aclUser)) {
+				break;
+			default:
+				if (user != null && user.isMemberOf(_aclNames[i])) {
 					return allow;
 				}
 			}
@@ -105,6 +101,42 @@ public class Permission {
 		// didn't match..
 		return _invert ? (!allow) : false;
 	}
+
+	private void parseUsers() {
+		int size = _users.size();
+		_aclTypes = new int[size];
+		_aclAllows = new boolean[size];
+		_aclNames = new String[size];
+
+		int i = 0;
+		for (Iterator<String> iter = _users.iterator(); iter.hasNext(); i++) {
+			String aclUser = iter.next();
+			_aclAllows[i] = true;
+			if (aclUser.startsWith("!")) {
+				_aclAllows[i] = false;
+				aclUser = aclUser.substring(1);
+			}
+			if (aclUser.equals("%")) {
+				_aclTypes[i] = ACL_ALL;
+			} else if (aclUser.equals("*")) {
+				_aclTypes[i] = ACL_AUTHENTICATED;
+			} else if (aclUser.startsWith("-")) {
+				// USER
+				_aclTypes[i] = ACL_USER;
+				_aclNames[i] = aclUser.substring(1);
+			} else if (aclUser.startsWith("=")) {
+				// GROUP
+				_aclTypes[i] = ACL_GROUP;
+				_aclNames[i] = aclUser.substring(1);
+			} else {
+				// FLAG, we don't have flags, we have groups and that's the same
+				// but multiple letters
+				// Does anyone use these?  Do we want to get rid of the = modifier?
+				_aclTypes[i] = ACL_GROUP;
+				_aclNames[i] = aclUser;
+			}
+		}
+	}
 	
 	public static ArrayList<String> makeUsers(Enumeration<Object> st) {
 		ArrayList<String> users = new ArrayList<String>();
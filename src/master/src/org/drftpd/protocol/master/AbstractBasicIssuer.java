@@ -18,13 +18,17 @@ package org.drftpd.protocol.master;
 
 import org.drftpd.exceptions.SSLUnavailableException;
 import org.drftpd.exceptions.SlaveUnavailableException;
+import org.drftpd.master.AsyncResponseFuture;
 import org.drftpd.master.RemoteSlave;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.TransferIndex;
 
 /**
  * In order to Master be able to scope the BasicIssuer, this abstract class was need so
  * we could instead of referecing everything to the BasicIssuer, which is out of master's scope,
- * we are referencing to this AbstractBasicIssuer which is, later on, mapped to a BasicIssuer instance.
+ * we are referencing to this AbstractBasicIssuer which is, later on, mapped to a BasicIssuer instance.<br>
+ * The <tt>*Async</tt> methods return the {@link AsyncResponseFuture} of the issued command instead of
+ * its index, so several commands can be sent before waiting on any of them.
  * @author fr0w
  * @version $Id$
  */
@@ -44,7 +48,8 @@ public abstract class AbstractBasicIssuer extends AbstractIssuer {
 	public abstract String issuePingToSlave(RemoteSlave rslave) throws SlaveUnavailableException;
 
 	public abstract String issueReceiveToSlave(RemoteSlave rslave, String name, char c, long position,
-			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed) throws SlaveUnavailableException;
+			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed, BandwidthLimits limits)
+			throws SlaveUnavailableException;
 
 	public abstract String issueRenameToSlave(RemoteSlave rslave, String from, String toDirPath,
 			String toName) throws SlaveUnavailableException;
@@ -56,14 +61,54 @@ public abstract class AbstractBasicIssuer extends AbstractIssuer {
 
 
 	public abstract String issueSendToSlave(RemoteSlave rslave, String name, char c, long position,
-			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed) throws SlaveUnavailableException;
-
+			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed, BandwidthLimits limits)
+			throws SlaveUnavailableException;
+
+	/**
+	 * @param lastToken token of the last remerge the master fully applied,
+	 *        directories unchanged since then are not sent, or null.
+	 * @param newToken token the slave saves the hashes of this remerge under,
+	 *        or null to leave them untouched.
+	 */
 	public abstract String issueRemergeToSlave(RemoteSlave rslave, String path, boolean partialRemerge, 
-			long skipAgeCutoff, long masterTime) throws SlaveUnavailableException;
-
-	public abstract void issueRemergePauseToSlave(RemoteSlave rslave) throws SlaveUnavailableException;
-
-	public abstract void issueRemergeResumeToSlave(RemoteSlave rslave) throws SlaveUnavailableException;
+			long skipAgeCutoff, long masterTime, String lastToken, String newToken) throws SlaveUnavailableException;
 
 	public abstract String issueCheckSSL(RemoteSlave rslave) throws SlaveUnavailableException;
+
+	public abstract String issueBandwidthToSlave(RemoteSlave rslave) throws SlaveUnavailableException;
+
+	public AsyncResponseFuture issueChecksumToSlaveAsync(RemoteSlave rslave, String path)
+			throws SlaveUnavailableException {
+		return rslave.getResponseFuture(issueChecksumToSlave(rslave, path));
+	}
+
+	public AsyncResponseFuture issueDeleteToSlaveAsync(RemoteSlave rslave, String sourceFile)
+			throws SlaveUnavailableException {
+		return rslave.getResponseFuture(issueDeleteToSlave(rslave, sourceFile));
+	}
+
+	public AsyncResponseFuture issueRenameToSlaveAsync(RemoteSlave rslave, String from, String toDirPath,
+			String toName) throws SlaveUnavailableException {
+		return rslave.getResponseFuture(issueRenameToSlave(rslave, from, toDirPath, toName));
+	}
+
+	public AsyncResponseFuture issuePingToSlaveAsync(RemoteSlave rslave) throws SlaveUnavailableException {
+		return rslave.getResponseFuture(issuePingToSlave(rslave));
+	}
+
+	public AsyncResponseFuture issueStatusToSlaveAsync(RemoteSlave rslave) throws SlaveUnavailableException {
+		return rslave.getResponseFuture(issueStatusToSlave(rslave));
+	}
+
+	public AsyncResponseFuture issueListenToSlaveAsync(RemoteSlave rslave, boolean isSecureTransfer,
+			boolean useSSLClientMode) throws SlaveUnavailableException, SSLUnavailableException {
+		return rslave.getResponseFuture(issueListenToSlave(rslave, isSecureTransfer, useSSLClientMode));
+	}
+
+	public AsyncResponseFuture issueConnectToSlaveAsync(RemoteSlave rslave, String ip, int port,
+			boolean encryptedDataChannel, boolean useSSLClientHandshake)
+			throws SlaveUnavailableException, SSLUnavailableException {
+		return rslave.getResponseFuture(issueConnectToSlave(rslave, ip, port,
+				encryptedDataChannel, useSSLClientHandshake));
+	}
 }
@@ -26,9 +26,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.protocol.HandshakeWrapper;
 import org.drftpd.protocol.ProtocolException;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.PluginObjectContainer;
 
@@ -114,12 +116,16 @@ public class MasterProtocolCentral {
 	
 	/**
 	 * Whenever a slave connects, before it even start remerging, a "handshake" is started
-	 * to check if the slave is capable of handling all operations that *might* be requested.
+	 * to check if the slave is capable of handling all operations that *might* be requested.<br>
+	 * The slave also tells the highest version of the binary framing it supports,
+	 * the master answers with the version both sides will use from now on,
+	 * 0 meaning plain Java serialization.
 	 * @param rslave
+	 * @return the negotiated version of the binary framing.
 	 * @throws ProtocolException Either if the slave isn't capable of handling all operations
 	 * or there was an expected error during the handshake. 
 	 */
-	public void handshakeWithSlave(RemoteSlave rslave) throws ProtocolException {
+	public int handshakeWithSlave(RemoteSlave rslave) throws ProtocolException {
 		try {
 			logger.debug("Trying to handshake with Slave");
 			ObjectOutputStream out = rslave.getOutputStream();
@@ -137,7 +143,17 @@ public class MasterProtocolCentral {
 				logger.debug("There was an error during the handshake, check logs.", hw.getException());
 				throw hw.getException();
 			}
-			logger.debug("Handshake successful");
+
+			int version = 0;
+			if (GlobalContext.getConfig().getMainProperties().getProperty(
+					"slave.protocol.binary", "true").trim().equalsIgnoreCase("true")) {
+				version = Math.min(hw.getProtocolVersion(), AsyncMessageCodec.VERSION);
+			}
+			out.writeObject(Integer.valueOf(version));
+			out.flush();
+			out.reset();
+			logger.debug("Handshake successful, using binary protocol version " + version);
+			return version;
 		} catch (Exception e) {
 			throw new ProtocolException(e);
 		}
@@ -29,18 +29,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public long getDownloadedBytesDay() {
+		rollPeriods();
 		return _downloadedBytes[P_DAY];
 	}	
 
 	public long getDownloadedBytesWeek() {
+		rollPeriods();
 		return _downloadedBytes[P_WEEK];
 	}
 	
 	public long getDownloadedBytesMonth() {
+		rollPeriods();
 		return _downloadedBytes[P_MONTH];
 	}
 	
 	public long getDownloadedBytesForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _downloadedBytes[p];
 		} catch (Exception e) {
@@ -55,18 +59,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}	
 
 	public int getDownloadedFilesWeek() {
+		rollPeriods();
 		return _downloadedFiles[P_WEEK];
 	}
 
 	public int getDownloadedFilesDay() {
+		rollPeriods();
 		return _downloadedFiles[P_DAY];
 	}
 	
 	public int getDownloadedFilesMonth() {
+		rollPeriods();
 		return _downloadedFiles[P_MONTH];
 	}
 	
 	public int getDownloadedFilesForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _downloadedFiles[p];
 		} catch (Exception e) {
@@ -81,18 +89,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 	
 	public long getDownloadedTimeDay() {
+		rollPeriods();
 		return _downloadedMilliSeconds[P_DAY];
 	}
 	
 	public long getDownloadedTimeWeek() {
+		rollPeriods();
 		return _downloadedMilliSeconds[P_WEEK];
 	}
 	
 	public long getDownloadedTimeMonth() {
+		rollPeriods();
 		return _downloadedMilliSeconds[P_MONTH];
 	}
 
 	public long getDownloadedTimeForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _downloadedMilliSeconds[p];
 		} catch (Exception e) {
@@ -107,18 +119,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public long getUploadedBytesDay() {
+		rollPeriods();
 		return _uploadedBytes[P_DAY];
 	}
 
 	public long getUploadedBytesWeek() {
+		rollPeriods();
 		return _uploadedBytes[P_WEEK];
 	}
 	
 	public long getUploadedBytesMonth() {
+		rollPeriods();
 		return _uploadedBytes[P_MONTH];
 	}
 	
 	public long getUploadedBytesForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _uploadedBytes[p];
 		} catch (Exception e) {
@@ -133,18 +149,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public int getUploadedFilesDay() {
+		rollPeriods();
 		return _uploadedFiles[P_DAY];
 	}	
 
 	public int getUploadedFilesWeek() {
+		rollPeriods();
 		return _uploadedFiles[P_WEEK];
 	}
 
 	public int getUploadedFilesMonth() {
+		rollPeriods();
 		return _uploadedFiles[P_MONTH];
 	}
 
 	public int getUploadedFilesForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _uploadedFiles[p];
 		} catch (Exception e) {
@@ -159,18 +179,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 	
 	public long getUploadedTimeDay() {
+		rollPeriods();
 		return _uploadedMilliSeconds[P_DAY];
 	}
 	
 	public long getUploadedTimeWeek() {
+		rollPeriods();
 		return _uploadedMilliSeconds[P_WEEK];
 	}
 	
 	public long getUploadedTimeMonth() {
+		rollPeriods();
 		return _uploadedMilliSeconds[P_MONTH];
 	}
 	
 	public long getUploadedTimeForPeriod(int p) {
+		rollPeriods();
 		try {
 			return _uploadedMilliSeconds[p];
 		} catch (Exception e) {
@@ -179,7 +203,14 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 	
 	// --------------------------------------
-	
+
+	/**
+	 * Called before the day, week and month counters are read or written,
+	 * lets a subclass reset them lazily once their period is over.
+	 */
+	protected void rollPeriods() {
+	}
+
 	public void resetDay(Date resetDate) {
 		setDownloadedFilesDay(0);
 		setUploadedFilesDay(0);
@@ -222,18 +253,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setDownloadedBytesDay(long bytes) {
+		rollPeriods();
 		_downloadedBytes[P_DAY] = bytes;
 	}
 	
 	public void setDownloadedBytesWeek(long bytes) {
+		rollPeriods();
 		_downloadedBytes[P_WEEK] = bytes;
 	}
 	
 	public void setDownloadedBytesMonth(long bytes) {
+		rollPeriods();
 		_downloadedBytes[P_MONTH] = bytes;
 	}
 
 	public void setDownloadedBytesForPeriod(int p, long bytes) {
+		rollPeriods();
 		try {
 			_downloadedBytes[p] = bytes;
 		} catch (Exception e) {
@@ -247,18 +282,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setDownloadedFilesDay(int files) {
+		rollPeriods();
 		_downloadedFiles[P_DAY] = files;
 	}
 	
 	public void setDownloadedFilesWeek(int files) {
+		rollPeriods();
 		_downloadedFiles[P_WEEK] = files;
 	}
 	
 	public void setDownloadedFilesMonth(int files) {
+		rollPeriods();
 		_downloadedFiles[P_MONTH] = files;
 	}
 	
 	public void setDownloadedFilesForPeriod(int p, int files) {
+		rollPeriods();
 		try {
 			_downloadedFiles[p] = files;
 		} catch (Exception e) {
@@ -273,18 +312,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setDownloadedTimeDay(long millis) {
+		rollPeriods();
 		_downloadedMilliSeconds[P_DAY] = millis;
 	}
 
 	public void setDownloadedTimeWeek(long millis) {
+		rollPeriods();
 		_downloadedMilliSeconds[P_WEEK] = millis;
 	}
 	
 	public void setDownloadedTimeMonth(long millis) {
+		rollPeriods();
 		_downloadedMilliSeconds[P_MONTH] = millis;
 	}
 	
 	public void setDownloadedTimeForPeriod(int p, long time) {
+		rollPeriods();
 		try {
 			_downloadedMilliSeconds[p] = time;
 		} catch (Exception e) {
@@ -299,18 +342,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setUploadedBytesDay(long bytes) {
+		rollPeriods();
 		_uploadedBytes[P_DAY] = bytes;
 	}	
 
 	public void setUploadedBytesWeek(long bytes) {
+		rollPeriods();
 		_uploadedBytes[P_WEEK] = bytes;
 	}
 	
 	public void setUploadedBytesMonth(long bytes) {
+		rollPeriods();
 		_uploadedBytes[P_MONTH] = bytes;
 	}
 	
 	public void setUploadedBytesForPeriod(int p, long bytes) {
+		rollPeriods();
 		try {
 			_uploadedBytes[p] = bytes;
 		} catch (Exception e) {
@@ -325,18 +372,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setUploadedFilesDay(int files) {
+		rollPeriods();
 		_uploadedFiles[P_DAY] = files;
 	}
 	
 	public void setUploadedFilesWeek(int files) {
+		rollPeriods();
 		_uploadedFiles[P_WEEK] = files;
 	}
 	
 	public void setUploadedFilesMonth(int files) {
+		rollPeriods();
 		_uploadedFiles[P_MONTH] = files;
 	}
 
 	public void setUploadedFilesForPeriod(int p, int files) {
+		rollPeriods();
 		try {
 			_uploadedFiles[p] = files;
 		} catch (Exception e) {
@@ -351,18 +402,22 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void setUploadedTimeDay(long millis) {
+		rollPeriods();
 		_uploadedMilliSeconds[P_DAY] = millis;
 	}
 	
 	public void setUploadedTimeWeek(long millis) {
+		rollPeriods();
 		_uploadedMilliSeconds[P_WEEK] = millis;
 	}
 	
 	public void setUploadedTimeMonth(long millis) {
+		rollPeriods();
 		_uploadedMilliSeconds[P_MONTH] = millis;
 	}
 	
 	public void setUploadedTimeForPeriod(int p, long time) {
+		rollPeriods();
 		try {
 			_uploadedMilliSeconds[p] = time;
 		} catch (Exception e) {
@@ -373,6 +428,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	// ----------------------------------------
 	
 	public void updateDownloadedBytes(long bytes) {
+		rollPeriods();
 		_downloadedBytes[P_ALL] += bytes;
 		_downloadedBytes[P_DAY] += bytes;
 		_downloadedBytes[P_WEEK] += bytes;
@@ -380,6 +436,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void updateDownloadedFiles(int i) {
+		rollPeriods();
 		_downloadedFiles[P_ALL] += i;
 		_downloadedFiles[P_DAY] += i;
 		_downloadedFiles[P_WEEK] += i;
@@ -387,6 +444,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void updateDownloadedTime(long millis) {
+		rollPeriods();
 		_downloadedMilliSeconds[P_ALL] += millis;
 		_downloadedMilliSeconds[P_DAY] += millis;
 		_downloadedMilliSeconds[P_WEEK] += millis;
@@ -396,6 +454,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	//  --------------------------------------------
 	
 	public void updateUploadedBytes(long bytes) {
+		rollPeriods();
 		_uploadedBytes[P_ALL] += bytes;
 		_uploadedBytes[P_DAY] += bytes;
 		_uploadedBytes[P_WEEK] += bytes;
@@ -403,6 +462,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void updateUploadedFiles(int i) {
+		rollPeriods();
 		_uploadedFiles[P_ALL] += i;
 		_uploadedFiles[P_DAY] += i;
 		_uploadedFiles[P_WEEK] += i;
@@ -410,6 +470,7 @@ public abstract class ExtendedTimedStats extends AbstractTimedStats {
 	}
 
 	public void updateUploadedTime(long millis) {
+		rollPeriods();
 		_uploadedMilliSeconds[P_ALL] += millis;
 		_uploadedMilliSeconds[P_DAY] += millis;
 		_uploadedMilliSeconds[P_WEEK] += millis;
@@ -18,6 +18,7 @@ package org.drftpd.usermanager;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
@@ -67,6 +68,12 @@ public abstract class AbstractUser extends User implements Commitable {
 	 */
 	protected long _lastReset;
 
+	/**
+	 * Start of the period the day, week and month counters belong to, -1
+	 * when unknown.
+	 */
+	private long[] _periodResets = new long[] { -1, -1, -1, -1 };
+
 	// private long _nukedBytes;
 	// private int _racesLost;
 	// private int _racesParticipated;
@@ -159,6 +166,7 @@ public abstract class AbstractUser extends User implements Commitable {
 	public abstract AbstractUserManager getAbstractUserManager();
 
 	public long getCredits() {
+		rollPeriods();
 		return _credits;
 	}
 
@@ -206,6 +214,84 @@ public abstract class AbstractUser extends User implements Commitable {
 		_lastReset = lastReset;
 	}
 
+	public long[] getPeriodResets() {
+		return _periodResets;
+	}
+
+	public void setPeriodResets(long[] periodResets) {
+		if (periodResets.length == P_SIZE) {
+			_periodResets = periodResets;
+		}
+	}
+
+	/**
+	 * The user manager only records when a period starts, the counters of
+	 * each user are reset here the first time they're used afterwards.
+	 * A user written before periods were tracked adopts the ones current at
+	 * startup, its counters were up to date then.<br>
+	 * Nothing is committed, the reset is written with the next change.
+	 */
+	protected void rollPeriods() {
+		AbstractUserManager userManager = getAbstractUserManager();
+		if (userManager == null) {
+			// still being loaded
+			return;
+		}
+		long month = userManager.getPeriodStart(P_MONTH);
+		long week = userManager.getPeriodStart(P_WEEK);
+		long day = userManager.getPeriodStart(P_DAY);
+		// a start of 0 means the user manager doesn't know it yet
+		if ((month > 0 && _periodResets[P_MONTH] < month)
+				|| (week > 0 && _periodResets[P_WEEK] < week)
+				|| (day > 0 && _periodResets[P_DAY] < day)) {
+			rollPeriods(userManager, month, week, day);
+		}
+	}
+
+	private synchronized void rollPeriods(AbstractUserManager userManager,
+			long month, long week, long day) {
+		boolean rollMonth = isBehind(userManager, P_MONTH, month);
+		boolean rollWeek = isBehind(userManager, P_WEEK, week);
+		boolean rollDay = isBehind(userManager, P_DAY, day);
+		// the resets below go through the setters, they must see the new
+		// periods already
+		if (rollMonth) {
+			_periodResets[P_MONTH] = month;
+		}
+		if (rollWeek) {
+			_periodResets[P_WEEK] = week;
+		}
+		if (rollDay) {
+			_periodResets[P_DAY] = day;
+		}
+		if (rollMonth) {
+			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(month);
+			if (cal.get(Calendar.MONTH) == Calendar.JANUARY) {
+				resetYear(cal.getTime());
+			} else {
+				resetMonth(cal.getTime());
+			}
+		}
+		if (rollWeek) {
+			resetWeek(new Date(week));
+		}
+		// the monthly reset also resets the day
+		if (rollDay && !rollMonth) {
+			resetDay(new Date(day));
+		}
+	}
+
+	private boolean isBehind(AbstractUserManager userManager, int period, long start) {
+		if (start <= 0) {
+			return false;
+		}
+		if (_periodResets[period] == -1) {
+			_periodResets[period] = userManager.getInitialPeriodStart(period);
+		}
+		return _periodResets[period] < start;
+	}
+
 	// public int getRequests() {
 	// return _requests;
 	// }
@@ -319,6 +405,7 @@ public abstract class AbstractUser extends User implements Commitable {
 	}
 
 	public void setCredits(long credits) {
+		rollPeriods();
 		_credits = credits;
 	}
 
@@ -366,6 +453,7 @@ public abstract class AbstractUser extends User implements Commitable {
 	}
 
 	public void updateCredits(long credits) {
+		rollPeriods();
 		_credits += credits;
 	}
 
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -32,12 +33,14 @@ import org.bushe.swing.event.annotation.AnnotationProcessor;
 import org.bushe.swing.event.annotation.EventSubscriber;
 import org.drftpd.GlobalContext;
 import org.drftpd.commands.UserManagement;
-import org.drftpd.dynamicdata.KeyNotFoundException;
 import org.drftpd.event.LoadPluginEvent;
 import org.drftpd.event.UnloadPluginEvent;
 import org.drftpd.exceptions.DuplicateElementException;
 import org.drftpd.exceptions.FileExistsException;
 import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.stats.ExtendedTimedStats;
+import org.drftpd.usermanager.util.UserIndex;
+import org.drftpd.usermanager.util.UserRankings;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.MasterPluginUtils;
 
@@ -58,16 +61,32 @@ public abstract class AbstractUserManager implements UserManager {
 
 	private ArrayList<UserResetHookInterface> _postResetHooks = new ArrayList<UserResetHookInterface>();
 
+	private UserRankings _rankings = new UserRankings(this);
+
+	private UserIndex _index = new UserIndex(this);
+
+	/**
+	 * Start of the current day, week and month, indexed like the
+	 * {@link ExtendedTimedStats} periods. Users reset their own counters
+	 * when they notice a period they haven't seen yet, so a reset only
+	 * replaces this array.
+	 */
+	private volatile long[] _periodStarts = new long[ExtendedTimedStats.P_SIZE];
+
+	private volatile long[] _initialPeriodStarts = new long[ExtendedTimedStats.P_SIZE];
+
 	public void init() throws UserFileException {
 		// Subscribe to events
 		AnnotationProcessor.process(this);
 		loadResetHooks();
+		initPeriodStarts();
 	}
 
 	protected abstract File getUserpathFile();
 
 	protected void createSiteopUser() {
 		User user = createUser("drftpd");
+		initPeriods(user);
 		user.setGroup("drftpd");
 		user.setPassword("drftpd");
 		user.getKeyedMap().setObject(UserManagement.RATIO, new Float(0));
@@ -116,6 +135,7 @@ public abstract class AbstractUserManager implements UserManager {
 		}
 
 		User user = createUser(username);
+		initPeriods(user);
 		user.commit();
 
 		return user;
@@ -130,30 +150,23 @@ public abstract class AbstractUserManager implements UserManager {
 		if (!getUserFile(username).delete())
 			throw new RuntimeException(new PermissionDeniedException());
 		_users.remove(username);
+		_rankings.remove(username);
+		_index.remove(username);
+	}
+
+	/**
+	 * Brings the rankings and the ident and group index up to date with
+	 * <tt>user</tt>, called whenever a user is committed.
+	 */
+	public void updateIndexes(User user) {
+		_rankings.update(user);
+		_index.update(user);
 	}
 
 	protected abstract File getUserFile(String username);
 
 	public Collection<String> getAllGroups() {
-		Collection<User> users = getAllUsers();
-		ArrayList<String> ret = new ArrayList<String>();
-
-		for (User myUser : users) {
-			Collection<String> myGroups = myUser.getGroups();
-
-			for (String myGroup : myGroups) {
-
-				if (!ret.contains(myGroup)) {
-					ret.add(myGroup);
-				}
-			}
-
-			if (!ret.contains(myUser.getGroup())) {
-				ret.add(myUser.getGroup());
-			}
-		}
-
-		return ret;
+		return _index.getGroups();
 	}
 
 	/**
@@ -164,10 +177,15 @@ public abstract class AbstractUserManager implements UserManager {
 	public Collection<User> getAllUsersByGroup(String group) {
 		Collection<User> c = new ArrayList<User>();
 
-		for (User user : getAllUsers()) {
-
-			if (user.isMemberOf(group)) {
-				c.add(user);
+		for (String username : _index.getUsernamesByGroup(group)) {
+			try {
+				User user = getUserByNameUnchecked(username);
+				if (user.isMemberOf(group)) {
+					c.add(user);
+				}
+			} catch (NoSuchUserException e) {
+			} catch (UserFileException e) {
+				logger.error("Error loading " + username, e);
 			}
 		}
 
@@ -191,26 +209,21 @@ public abstract class AbstractUserManager implements UserManager {
 		return user;
 	}
 
+	public UserRankings getUserRankings() {
+		return _rankings;
+	}
+
 	public static GlobalContext getGlobalContext() {
 		return GlobalContext.getGlobalContext();
 	}
 
 	public User getUserByIdent(String ident, String botName) throws NoSuchUserException {
-		for (User user : getAllUsers()) {
+		String username = _index.getUsernameByIdent(ident, botName);
+		if (username != null) {
 			try {
-				String uidentList = user.getKeyedMap().getObject(UserManagement.IRCIDENT);
-				String[] identArray = uidentList.split(",");
-				for (int i = 0; i < identArray.length;i++) {
-					if (identArray[i].startsWith(botName + "|")) {
-						String[] botIdent = identArray[i].split("\\|");
-						if (botIdent.length == 2) {
-							if (botIdent[1].equals(ident)) {
-								return user;
-							}
-						}
-					}
-				}
-			} catch (KeyNotFoundException e1) {
+				return getUserByNameUnchecked(username);
+			} catch (UserFileException e) {
+				logger.error("Error loading " + username, e);
 			}
 		}
 		throw new NoSuchUserException("No user found with ident = " + ident);
@@ -234,6 +247,72 @@ public abstract class AbstractUserManager implements UserManager {
 		throw new UserExistsException("user " + newUsername + " exists");
 	}
 
+	/**
+	 * @param period one of {@link ExtendedTimedStats#P_DAY},
+	 * {@link ExtendedTimedStats#P_WEEK} or {@link ExtendedTimedStats#P_MONTH}.
+	 * @return when the current period started, 0 if unknown.
+	 */
+	public long getPeriodStart(int period) {
+		return _periodStarts[period];
+	}
+
+	/**
+	 * @return when the period was current at startup started, 0 if unknown.
+	 */
+	public long getInitialPeriodStart(int period) {
+		return _initialPeriodStarts[period];
+	}
+
+	/**
+	 * A new user starts in the current periods, nothing to reset.
+	 */
+	private void initPeriods(User user) {
+		if (user instanceof AbstractUser) {
+			long[] periodResets = _periodStarts.clone();
+			for (int i = 0; i < periodResets.length; i++) {
+				if (periodResets[i] == 0) {
+					periodResets[i] = -1;
+				}
+			}
+			((AbstractUser) user).setPeriodResets(periodResets);
+		}
+	}
+
+	private void setPeriodStarts(Date d, int... periods) {
+		long[] periodStarts = _periodStarts.clone();
+		for (int period : periods) {
+			periodStarts[period] = d.getTime();
+		}
+		_periodStarts = periodStarts;
+	}
+
+	/**
+	 * Sets the current periods from the calendar, the same way
+	 * {@link org.drftpd.master.cron.TimeManager} splits them.
+	 */
+	protected void initPeriodStarts() {
+		Calendar cal = Calendar.getInstance();
+		if (GlobalContext.getConfig() != null && GlobalContext.getConfig().getMainProperties()
+				.getProperty("european.cal", "false").equalsIgnoreCase("true")) {
+			cal.setFirstDayOfWeek(Calendar.MONDAY);
+		}
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		Date day = cal.getTime();
+		cal.set(Calendar.DAY_OF_MONTH, 1);
+		Date month = cal.getTime();
+		cal.setTime(day);
+		while (cal.get(Calendar.DAY_OF_WEEK) != cal.getFirstDayOfWeek()) {
+			cal.add(Calendar.DAY_OF_MONTH, -1);
+		}
+		setPeriodStarts(day, ExtendedTimedStats.P_DAY);
+		setPeriodStarts(cal.getTime(), ExtendedTimedStats.P_WEEK);
+		setPeriodStarts(month, ExtendedTimedStats.P_MONTH);
+		_initialPeriodStarts = _periodStarts;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.drftpd.master.cron.TimeEventInterface#resetDay(java.util.Date)
 	 */
@@ -242,10 +321,8 @@ public abstract class AbstractUserManager implements UserManager {
 		for (UserResetHookInterface preHook : _preResetHooks) {
 			preHook.resetDay(d);
 		}
-		for (User user : getAllUsers()) {			
-			user.resetDay(d);
-			user.commit();
-		}
+		setPeriodStarts(d, ExtendedTimedStats.P_DAY);
+		_rankings.invalidate();
 		// Run post reset hooks
 		for (UserResetHookInterface postHook : _postResetHooks) {
 			postHook.resetDay(d);
@@ -260,10 +337,7 @@ public abstract class AbstractUserManager implements UserManager {
 		for (UserResetHookInterface preHook : _preResetHooks) {
 			preHook.resetHour(d);
 		}
-		for (User user : getAllUsers()) {			
-			user.resetHour(d);
-			user.commit();
-		}
+		// users have no hourly stats
 		// Run post reset hooks
 		for (UserResetHookInterface postHook : _postResetHooks) {
 			postHook.resetHour(d);
@@ -279,10 +353,8 @@ public abstract class AbstractUserManager implements UserManager {
 		for (UserResetHookInterface preHook : _preResetHooks) {
 			preHook.resetMonth(d);
 		}
-		for (User user : getAllUsers()) {			
-			user.resetMonth(d);	
-			user.commit();
-		}
+		setPeriodStarts(d, ExtendedTimedStats.P_MONTH, ExtendedTimedStats.P_DAY);
+		_rankings.invalidate();
 		// Run post reset hooks
 		for (UserResetHookInterface postHook : _postResetHooks) {
 			postHook.resetMonth(d);
@@ -297,10 +369,8 @@ public abstract class AbstractUserManager implements UserManager {
 		for (UserResetHookInterface preHook : _preResetHooks) {
 			preHook.resetWeek(d);
 		}
-		for (User user : getAllUsers()) {			
-			user.resetWeek(d);	
-			user.commit();
-		}
+		setPeriodStarts(d, ExtendedTimedStats.P_WEEK);
+		_rankings.invalidate();
 		// Run post reset hooks
 		for (UserResetHookInterface postHook : _postResetHooks) {
 			postHook.resetWeek(d);
@@ -316,10 +386,9 @@ public abstract class AbstractUserManager implements UserManager {
 		for (UserResetHookInterface preHook : _preResetHooks) {
 			preHook.resetYear(d);
 		}
-		for (User user : getAllUsers()) {			
-			user.resetYear(d);		
-			user.commit();
-		}
+		// users tell the yearly reset from the monthly one by the month
+		setPeriodStarts(d, ExtendedTimedStats.P_MONTH, ExtendedTimedStats.P_DAY);
+		_rankings.invalidate();
 		// Run post reset hooks
 		for (UserResetHookInterface postHook : _postResetHooks) {
 			postHook.resetYear(d);
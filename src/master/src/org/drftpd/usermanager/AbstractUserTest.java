@@ -0,0 +1,83 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.drftpd.stats.ExtendedTimedStats;
+import org.drftpd.tests.DummyUser;
+import org.drftpd.tests.DummyUserManager;
+
+/**
+ * @version $Id$
+ */
+public class AbstractUserTest extends TestCase {
+
+	private DummyUserManager _um = new DummyUserManager();
+
+	private Date date(int year, int month, int day) {
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(year, month, day);
+		return cal.getTime();
+	}
+
+	private DummyUser user() {
+		DummyUser user = new DummyUser("test", _um);
+		user.setUploadedBytes(100);
+		user.setUploadedBytesDay(10);
+		user.setUploadedBytesWeek(20);
+		user.setUploadedBytesMonth(30);
+		return user;
+	}
+
+	public void testLazyDayReset() {
+		_um.initPeriodStarts();
+		DummyUser user = user();
+		// written before periods were tracked, up to date at startup
+		assertEquals(10, user.getUploadedBytesDay());
+
+		Date tomorrow = new Date(_um.getPeriodStart(ExtendedTimedStats.P_DAY) + 24 * 60 * 60 * 1000L);
+		_um.resetDay(tomorrow);
+		assertEquals(0, user.getUploadedBytesDay());
+		assertEquals(20, user.getUploadedBytesWeek());
+		assertEquals(100, user.getUploadedBytes());
+
+		user.updateUploadedBytes(5);
+		_um.resetDay(tomorrow);
+		assertEquals(5, user.getUploadedBytesDay());
+	}
+
+	public void testLazyMonthAndWeekReset() {
+		_um.resetDay(date(2008, Calendar.MARCH, 31));
+		DummyUser user = user();
+		assertEquals(30, user.getUploadedBytesMonth());
+
+		// several periods end before the user is used again
+		_um.resetWeek(date(2008, Calendar.APRIL, 1));
+		_um.resetMonth(date(2008, Calendar.APRIL, 1));
+		_um.resetDay(date(2008, Calendar.APRIL, 2));
+		assertEquals(0, user.getUploadedBytesMonth());
+		assertEquals(0, user.getUploadedBytesWeek());
+		assertEquals(0, user.getUploadedBytesDay());
+		assertEquals(100, user.getUploadedBytes());
+	}
+}
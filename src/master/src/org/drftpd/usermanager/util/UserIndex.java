@@ -0,0 +1,230 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.drftpd.commands.UserManagement;
+import org.drftpd.dynamicdata.KeyNotFoundException;
+import org.drftpd.usermanager.User;
+import org.drftpd.usermanager.UserManager;
+
+/**
+ * Usernames indexed by IRC ident and by group, so the sitebot and the group
+ * commands don't need to load every user for a lookup.<br>
+ * Idents are indexed as stored in the IRCIDENT keyed map entry, one
+ * <tt>botname|ident</tt> key per bot. Groups include the primary group and
+ * the secondary groups.<br>
+ * The index is built from {@link UserManager#getAllUsers()} the first time
+ * it's needed, then kept up to date from {@link #update(User)} and
+ * {@link #remove(String)}.
+ * @version $Id$
+ */
+public class UserIndex {
+
+	private final UserManager _userManager;
+
+	/**
+	 * username -> what was indexed for that user, null while the index
+	 * isn't built.
+	 */
+	private HashMap<String, Indexed> _users;
+
+	private HashMap<String, String> _idents;
+
+	private HashMap<String, HashSet<String>> _groups;
+
+	private long _generation;
+
+	public UserIndex(UserManager userManager) {
+		_userManager = userManager;
+	}
+
+	/**
+	 * Reindexes <tt>user</tt> from its current idents and groups. Nothing is
+	 * done while the index isn't built, it'll be read from the user when it
+	 * is.
+	 */
+	public synchronized void update(User user) {
+		if (_users == null) {
+			return;
+		}
+		Indexed indexed = new Indexed(user);
+		Indexed old = _users.put(user.getName(), indexed);
+		if (old != null) {
+			if (old.equals(indexed)) {
+				return;
+			}
+			unindex(user.getName(), old);
+		}
+		index(user.getName(), indexed);
+	}
+
+	/**
+	 * Drops <tt>username</tt> from the index.
+	 */
+	public synchronized void remove(String username) {
+		_generation++;
+		if (_users == null) {
+			return;
+		}
+		Indexed old = _users.remove(username);
+		if (old != null) {
+			unindex(username, old);
+		}
+	}
+
+	/**
+	 * @return the name of the user having <tt>ident</tt> on
+	 * <tt>botName</tt> or null.
+	 */
+	public String getUsernameByIdent(String ident, String botName) {
+		ensureBuilt();
+		synchronized (this) {
+			return _idents.get(botName + "|" + ident);
+		}
+	}
+
+	/**
+	 * @return the names of the members of <tt>group</tt>.
+	 */
+	public List<String> getUsernamesByGroup(String group) {
+		ensureBuilt();
+		synchronized (this) {
+			HashSet<String> members = _groups.get(group);
+			if (members == null) {
+				return new ArrayList<String>();
+			}
+			return new ArrayList<String>(members);
+		}
+	}
+
+	/**
+	 * @return every group having at least one member.
+	 */
+	public List<String> getGroups() {
+		ensureBuilt();
+		synchronized (this) {
+			return new ArrayList<String>(_groups.keySet());
+		}
+	}
+
+	/**
+	 * The users are loaded without holding the lock of the index, the user
+	 * manager calls {@link #remove(String)} while holding its own lock.
+	 */
+	private void ensureBuilt() {
+		while (true) {
+			long generation;
+			synchronized (this) {
+				if (_users != null) {
+					return;
+				}
+				generation = _generation;
+			}
+			Collection<User> users = _userManager.getAllUsers();
+			synchronized (this) {
+				if (_users != null) {
+					return;
+				}
+				if (generation == _generation) {
+					_users = new HashMap<String, Indexed>(users.size());
+					_idents = new HashMap<String, String>();
+					_groups = new HashMap<String, HashSet<String>>();
+					for (User user : users) {
+						Indexed indexed = new Indexed(user);
+						_users.put(user.getName(), indexed);
+						index(user.getName(), indexed);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private void index(String username, Indexed indexed) {
+		for (String ident : indexed._idents) {
+			_idents.put(ident, username);
+		}
+		for (String group : indexed._groups) {
+			HashSet<String> members = _groups.get(group);
+			if (members == null) {
+				members = new HashSet<String>();
+				_groups.put(group, members);
+			}
+			members.add(username);
+		}
+	}
+
+	private void unindex(String username, Indexed indexed) {
+		for (String ident : indexed._idents) {
+			// another user may have claimed the same ident since
+			if (username.equals(_idents.get(ident))) {
+				_idents.remove(ident);
+			}
+		}
+		for (String group : indexed._groups) {
+			HashSet<String> members = _groups.get(group);
+			if (members != null) {
+				members.remove(username);
+				if (members.isEmpty()) {
+					_groups.remove(group);
+				}
+			}
+		}
+	}
+
+	private static class Indexed {
+
+		private final HashSet<String> _idents = new HashSet<String>();
+
+		private final HashSet<String> _groups = new HashSet<String>();
+
+		private Indexed(User user) {
+			try {
+				String identList = user.getKeyedMap().getObject(UserManagement.IRCIDENT);
+				for (String ident : identList.split(",")) {
+					if (ident.split("\\|").length == 2) {
+						_idents.add(ident);
+					}
+				}
+			} catch (KeyNotFoundException e) {
+			}
+			if (user.getGroup() != null) {
+				_groups.add(user.getGroup());
+			}
+			_groups.addAll(user.getGroups());
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Indexed)) {
+				return false;
+			}
+			Indexed other = (Indexed) obj;
+			return _idents.equals(other._idents) && _groups.equals(other._groups);
+		}
+
+		public int hashCode() {
+			return _idents.hashCode() ^ _groups.hashCode();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.drftpd.commands.UserManagement;
+import org.drftpd.exceptions.DuplicateElementException;
+import org.drftpd.tests.DummyUser;
+import org.drftpd.tests.DummyUserManager;
+import org.drftpd.usermanager.User;
+
+/**
+ * @version $Id$
+ */
+public class UserIndexTest extends TestCase {
+
+	private ArrayList<User> _all = new ArrayList<User>();
+
+	private UserIndex _index = new UserIndex(new DummyUserManager() {
+		public Collection<User> getAllUsers() {
+			return new ArrayList<User>(_all);
+		}
+	});
+
+	private User user(String name, String group, String idents) {
+		User user = new DummyUser(name);
+		user.setGroup(group);
+		user.getKeyedMap().setObject(UserManagement.IRCIDENT, idents);
+		_all.add(user);
+		return user;
+	}
+
+	private static List<String> sorted(List<String> list) {
+		Collections.sort(list);
+		return list;
+	}
+
+	public void testIdents() {
+		User a = user("a", "g1", "bot|aa,other|ab");
+		user("b", "g1", "");
+		assertEquals("a", _index.getUsernameByIdent("aa", "bot"));
+		assertEquals("a", _index.getUsernameByIdent("ab", "other"));
+		assertNull(_index.getUsernameByIdent("ab", "bot"));
+
+		a.getKeyedMap().setObject(UserManagement.IRCIDENT, "bot|ac");
+		_index.update(a);
+		assertNull(_index.getUsernameByIdent("aa", "bot"));
+		assertEquals("a", _index.getUsernameByIdent("ac", "bot"));
+
+		_index.remove("a");
+		assertNull(_index.getUsernameByIdent("ac", "bot"));
+	}
+
+	public void testGroups() throws DuplicateElementException {
+		User a = user("a", "g1", "");
+		user("b", "g2", "");
+		assertEquals(Arrays.asList("g1", "g2"), sorted(_index.getGroups()));
+
+		a.addSecondaryGroup("g2");
+		_index.update(a);
+		assertEquals(Arrays.asList("a", "b"), sorted(_index.getUsernamesByGroup("g2")));
+
+		a.setGroup("g3");
+		_index.update(a);
+		assertEquals(Arrays.asList("g2", "g3"), sorted(_index.getGroups()));
+		assertTrue(_index.getUsernamesByGroup("g1").isEmpty());
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.drftpd.usermanager.User;
+import org.drftpd.usermanager.UserManager;
+
+/**
+ * In memory ranking of the users for every period and direction the
+ * transfer statistics commands know about, ALUP, ALDN, MONTHUP...<br>
+ * Each ranking is kept sorted by bytes, the same value
+ * {@link UserComparator} sorts on, and a user is only moved when one of its
+ * values changed since the last {@link #update(User)}. Looking up the top
+ * users or the place of a user is a binary search, moving a user is a binary
+ * search plus an array copy.<br>
+ * The rankings are built from {@link UserManager#getAllUsers()} the first
+ * time they're needed and again after {@link #invalidate()}, which is meant
+ * for the resets where every user changes at once.
+ * @version $Id$
+ */
+public class UserRankings {
+
+	public static final String[] TYPES = { "ALUP", "ALDN", "MONTHUP",
+			"MONTHDN", "WKUP", "WKDN", "DAYUP", "DAYDN" };
+
+	private final UserManager _userManager;
+
+	/**
+	 * username -> value of the user in each ranking, null while the
+	 * rankings aren't built.
+	 */
+	private HashMap<String, long[]> _values;
+
+	private ArrayList<ArrayList<Entry>> _rankings;
+
+	private long _generation;
+
+	public UserRankings(UserManager userManager) {
+		_userManager = userManager;
+	}
+
+	private static int getIndex(String type) {
+		String upper = type.toUpperCase();
+		for (int i = 0; i < TYPES.length; i++) {
+			if (TYPES[i].equals(upper)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("unhandled command = " + type);
+	}
+
+	/**
+	 * Moves <tt>user</tt> to its current place in every ranking, adding it
+	 * if it wasn't ranked yet. Nothing is done while the rankings aren't
+	 * built, they'll be read from the user when they are.
+	 */
+	public synchronized void update(User user) {
+		if (_values == null) {
+			return;
+		}
+		String name = user.getName();
+		long[] values = _values.get(name);
+		if (values == null) {
+			values = new long[TYPES.length];
+			for (int i = 0; i < TYPES.length; i++) {
+				values[i] = UserTransferStats.getStats(TYPES[i], user);
+				insert(_rankings.get(i), new Entry(name, values[i]));
+			}
+			_values.put(name, values);
+			return;
+		}
+		for (int i = 0; i < TYPES.length; i++) {
+			long value = UserTransferStats.getStats(TYPES[i], user);
+			if (value != values[i]) {
+				ArrayList<Entry> ranking = _rankings.get(i);
+				remove(ranking, new Entry(name, values[i]));
+				insert(ranking, new Entry(name, value));
+				values[i] = value;
+			}
+		}
+	}
+
+	/**
+	 * Drops <tt>username</tt> from every ranking.
+	 */
+	public synchronized void remove(String username) {
+		_generation++;
+		if (_values == null) {
+			return;
+		}
+		long[] values = _values.remove(username);
+		if (values == null) {
+			return;
+		}
+		for (int i = 0; i < TYPES.length; i++) {
+			remove(_rankings.get(i), new Entry(username, values[i]));
+		}
+	}
+
+	/**
+	 * Drops the rankings, they're built again when next needed.
+	 */
+	public synchronized void invalidate() {
+		_generation++;
+		_values = null;
+		_rankings = null;
+	}
+
+	/**
+	 * @return the names of the first <tt>count</tt> users of the ranking
+	 * <tt>type</tt>, best first.
+	 */
+	public List<String> getTop(String type, int count) {
+		int index = getIndex(type);
+		ArrayList<ArrayList<Entry>> rankings = ensureBuilt();
+		synchronized (this) {
+			ArrayList<Entry> ranking = rankings.get(index);
+			int size = Math.min(count, ranking.size());
+			ArrayList<String> names = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				names.add(ranking.get(i)._name);
+			}
+			return names;
+		}
+	}
+
+	/**
+	 * @return the place of <tt>user</tt> in the ranking <tt>type</tt>, users
+	 * with the same value share the same place.
+	 */
+	public int getPlace(String type, User user) {
+		int index = getIndex(type);
+		ArrayList<ArrayList<Entry>> rankings = ensureBuilt();
+		long value = UserTransferStats.getStats(TYPES[index], user);
+		synchronized (this) {
+			// no username is empty, this lands before every user with that value
+			int pos = Collections.binarySearch(rankings.get(index), new Entry("", value));
+			return (pos < 0 ? -(pos + 1) : pos) + 1;
+		}
+	}
+
+	/**
+	 * The users are loaded without holding the lock of the rankings, the
+	 * user manager calls {@link #remove(String)} while holding its own lock.
+	 * @return the rankings, still valid to read under the lock once
+	 *         {@link #invalidate()} dropped them.
+	 */
+	private ArrayList<ArrayList<Entry>> ensureBuilt() {
+		while (true) {
+			long generation;
+			synchronized (this) {
+				if (_values != null) {
+					return _rankings;
+				}
+				generation = _generation;
+			}
+			Collection<User> users = _userManager.getAllUsers();
+			synchronized (this) {
+				if (_values != null) {
+					return _rankings;
+				}
+				if (generation == _generation) {
+					build(users);
+					return _rankings;
+				}
+			}
+		}
+	}
+
+	private void build(Collection<User> users) {
+		_values = new HashMap<String, long[]>(users.size());
+		_rankings = new ArrayList<ArrayList<Entry>>(TYPES.length);
+		for (int i = 0; i < TYPES.length; i++) {
+			_rankings.add(new ArrayList<Entry>(users.size()));
+		}
+		for (User user : users) {
+			long[] values = new long[TYPES.length];
+			for (int i = 0; i < TYPES.length; i++) {
+				values[i] = UserTransferStats.getStats(TYPES[i], user);
+				_rankings.get(i).add(new Entry(user.getName(), values[i]));
+			}
+			_values.put(user.getName(), values);
+		}
+		for (ArrayList<Entry> ranking : _rankings) {
+			Collections.sort(ranking);
+		}
+	}
+
+	private static void insert(ArrayList<Entry> ranking, Entry entry) {
+		int pos = Collections.binarySearch(ranking, entry);
+		if (pos < 0) {
+			ranking.add(-(pos + 1), entry);
+		}
+	}
+
+	private static void remove(ArrayList<Entry> ranking, Entry entry) {
+		int pos = Collections.binarySearch(ranking, entry);
+		if (pos >= 0) {
+			ranking.remove(pos);
+		}
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		private final String _name;
+
+		private final long _value;
+
+		private Entry(String name, long value) {
+			_name = name;
+			_value = value;
+		}
+
+		public int compareTo(Entry o) {
+			if (_value != o._value) {
+				return _value > o._value ? -1 : 1;
+			}
+			return _name.compareTo(o._name);
+		}
+	}
+}
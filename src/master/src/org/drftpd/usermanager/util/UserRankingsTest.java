@@ -0,0 +1,93 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.TestCase;
+
+import org.drftpd.tests.DummyUser;
+import org.drftpd.tests.DummyUserManager;
+import org.drftpd.usermanager.User;
+
+/**
+ * @version $Id$
+ */
+public class UserRankingsTest extends TestCase {
+
+	private ArrayList<User> _all = new ArrayList<User>();
+
+	private UserRankings _rankings = new UserRankings(new DummyUserManager() {
+		public Collection<User> getAllUsers() {
+			return new ArrayList<User>(_all);
+		}
+	});
+
+	private User user(String name, long upBytes) {
+		User user = new DummyUser(name);
+		user.setUploadedBytes(upBytes);
+		_all.add(user);
+		return user;
+	}
+
+	public void testTopAndPlace() {
+		User a = user("a", 10);
+		User b = user("b", 30);
+		User c = user("c", 20);
+		User d = user("d", 20);
+		assertEquals(Arrays.asList("b", "c", "d", "a"), _rankings.getTop("alup", 10));
+		assertEquals(Arrays.asList("b", "c"), _rankings.getTop("ALUP", 2));
+		assertEquals(1, _rankings.getPlace("ALUP", b));
+		assertEquals(2, _rankings.getPlace("ALUP", c));
+		assertEquals(2, _rankings.getPlace("ALUP", d));
+		assertEquals(4, _rankings.getPlace("ALUP", a));
+		assertEquals(1, _rankings.getPlace("DAYDN", a));
+	}
+
+	public void testUpdate() {
+		User a = user("a", 10);
+		user("b", 30);
+		_rankings.getTop("ALUP", 10);
+
+		a.setUploadedBytes(40);
+		_rankings.update(a);
+		assertEquals(Arrays.asList("a", "b"), _rankings.getTop("ALUP", 10));
+		assertEquals(1, _rankings.getPlace("ALUP", a));
+
+		User c = user("c", 35);
+		_rankings.update(c);
+		assertEquals(Arrays.asList("a", "c", "b"), _rankings.getTop("ALUP", 10));
+
+		_rankings.remove("a");
+		assertEquals(Arrays.asList("c", "b"), _rankings.getTop("ALUP", 10));
+	}
+
+	public void testInvalidate() {
+		User a = user("a", 10);
+		user("b", 30);
+		_rankings.getTop("ALUP", 10);
+
+		_rankings.invalidate();
+		a.setUploadedBytes(50);
+		// ignored, read again when the rankings are built
+		_rankings.update(a);
+		assertEquals(Arrays.asList("a", "b"), _rankings.getTop("ALUP", 10));
+	}
+}
@@ -18,6 +18,7 @@
 package org.drftpd.util;
 
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.tanesha.replacer.FormatterException;
@@ -32,6 +33,15 @@ import org.tanesha.replacer.SimplePrintf;
 public class ReplacerUtils {
 	
 	private static final Logger logger = Logger.getLogger(ReplacerUtils.class);
+
+	private static final int MAX_CACHED_FORMATS = 4096;
+
+	/*
+	 * Parsed formats keyed by their template rather than by bundle and key,
+	 * a bundle reloaded with a different template can't hit a stale format.
+	 */
+	private static final ConcurrentHashMap<String, ReplacerFormat> _formats =
+		new ConcurrentHashMap<String, ReplacerFormat>();
 	
 	private ReplacerUtils() {
 		super();
@@ -40,7 +50,31 @@ public class ReplacerUtils {
 	public static ReplacerFormat finalFormat(ResourceBundle bundle, String key)
 			throws FormatterException {
 
-		return ReplacerFormat.createFormat(bundle.getString(key));
+		return getFormat(bundle.getString(key));
+	}
+
+	/**
+	 * @return the parsed <tt>template</tt>, only parsed the first time it's
+	 * asked for.
+	 */
+	public static ReplacerFormat getFormat(String template) throws FormatterException {
+		ReplacerFormat format = _formats.get(template);
+		if (format == null) {
+			format = ReplacerFormat.createFormat(template);
+			if (_formats.size() >= MAX_CACHED_FORMATS) {
+				// only reached by templates built on the fly, start over
+				_formats.clear();
+			}
+			_formats.put(template, format);
+		}
+		return format;
+	}
+
+	/**
+	 * Forgets every parsed format, called when the themes are reloaded.
+	 */
+	public static void clearCache() {
+		_formats.clear();
 	}
 
 	public static String jprintf(String key, ReplacerEnvironment env,
@@ -0,0 +1,413 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.drftpd.dynamicdata.Key;
+import org.drftpd.dynamicdata.KeyedMap;
+
+/**
+ * Hand written binary representation of a {@link VirtualFileSystemInode}.<br>
+ * The core fields are written as primitives, plugin metadata values are written
+ * as primitives when possible and otherwise with java serialization, or with
+ * the javabeans encoder for values that aren't {@link Serializable}.<br>
+ * Metadata whose class can't be found anymore is dropped when decoding, the
+ * same way the XML decoder does for plugins which are no longer loaded.
+ * @version $Id$
+ */
+public class BinaryInodeCodec {
+
+	private static final Logger logger = Logger.getLogger(BinaryInodeCodec.class);
+
+	protected static final byte TYPE_ROOT = 0;
+	protected static final byte TYPE_DIRECTORY = 1;
+	protected static final byte TYPE_FILE = 2;
+	protected static final byte TYPE_LINK = 3;
+
+	private static final byte VALUE_NULL = 0;
+	private static final byte VALUE_STRING = 1;
+	private static final byte VALUE_LONG = 2;
+	private static final byte VALUE_INTEGER = 3;
+	private static final byte VALUE_BOOLEAN = 4;
+	private static final byte VALUE_FLOAT = 5;
+	private static final byte VALUE_DOUBLE = 6;
+	private static final byte VALUE_DATE = 7;
+	private static final byte VALUE_SERIALIZED = 8;
+	private static final byte VALUE_XML = 9;
+
+	private BinaryInodeCodec() {
+	}
+
+	/**
+	 * @return the type of the inode encoded in <tt>data</tt>, without decoding it.
+	 */
+	protected static byte getType(byte[] data, int offset) {
+		return data[offset];
+	}
+
+	public static byte[] encode(VirtualFileSystemInode inode) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(baos);
+		if (inode instanceof VirtualFileSystemRoot) {
+			out.writeByte(TYPE_ROOT);
+		} else if (inode.isDirectory()) {
+			out.writeByte(TYPE_DIRECTORY);
+		} else if (inode.isFile()) {
+			out.writeByte(TYPE_FILE);
+		} else if (inode.isLink()) {
+			out.writeByte(TYPE_LINK);
+		} else {
+			throw new IOException("Unknown inode type " + inode.getClass().getName());
+		}
+		writeString(out, inode.getUsername());
+		writeString(out, inode.getGroup());
+		out.writeLong(inode.getLastModified());
+		out.writeLong(inode.getCreationTime());
+		writeKeyedMap(out, inode.getKeyedMap());
+		writeKeyedMap(out, inode.getPluginMap());
+		writeUntypedMap(out, inode.getUntypedPluginMap());
+		if (inode.isDirectory()) {
+			VirtualFileSystemDirectory dir = (VirtualFileSystemDirectory) inode;
+			out.writeLong(dir.getSize());
+			out.writeBoolean(dir.getPlaceHolderLastModified());
+			Map<String,AtomicInteger> refCounts = dir.getSlaveRefCounts();
+			out.writeInt(refCounts.size());
+			for (Map.Entry<String,AtomicInteger> entry : refCounts.entrySet()) {
+				writeUTF(out, entry.getKey());
+				out.writeInt(entry.getValue().get());
+			}
+			// appended later, older records end here
+			Map<String,AtomicLong> refBytes = dir.getSlaveRefBytes();
+			out.writeBoolean(refBytes != null);
+			if (refBytes != null) {
+				out.writeInt(refBytes.size());
+				for (Map.Entry<String,AtomicLong> entry : refBytes.entrySet()) {
+					writeUTF(out, entry.getKey());
+					out.writeLong(entry.getValue().get());
+				}
+			}
+		} else if (inode.isFile()) {
+			VirtualFileSystemFile file = (VirtualFileSystemFile) inode;
+			out.writeLong(file.getSize());
+			Set<String> slaves = file.getSlaves();
+			out.writeInt(slaves.size());
+			for (String slave : slaves) {
+				writeUTF(out, slave);
+			}
+		} else {
+			writeString(out, ((VirtualFileSystemLink) inode).getLinkPath());
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Decodes an inode, plugin classes are looked up through the context
+	 * ClassLoader of the current thread.
+	 */
+	public static VirtualFileSystemInode decode(byte[] data, int offset, int length) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+		byte type = in.readByte();
+		String username = readString(in);
+		String group = readString(in);
+		long lastModified = in.readLong();
+		long creationTime = in.readLong();
+		KeyedMap<Key<?>, Object> keyedMap = readKeyedMap(in);
+		KeyedMap<Key<?>, Object> pluginMap = readKeyedMap(in);
+		Map<String,Object> untypedMap = readUntypedMap(in);
+		VirtualFileSystemInode inode;
+		switch (type) {
+		case TYPE_ROOT:
+		case TYPE_DIRECTORY:
+			VirtualFileSystemDirectory dir = type == TYPE_ROOT
+					? new VirtualFileSystemRoot(username, group)
+					: new VirtualFileSystemDirectory(username, group);
+			dir.setSize(in.readLong());
+			boolean placeHolder = in.readBoolean();
+			int refCount = in.readInt();
+			Map<String,AtomicInteger> refCounts = new TreeMap<String,AtomicInteger>();
+			for (int i = 0; i < refCount; i++) {
+				String slave = readUTF(in);
+				refCounts.put(slave, new AtomicInteger(in.readInt()));
+			}
+			dir.setSlaveRefCounts(refCounts);
+			if (in.available() > 0 && in.readBoolean()) {
+				int refBytesCount = in.readInt();
+				Map<String,AtomicLong> refBytes = new TreeMap<String,AtomicLong>();
+				for (int i = 0; i < refBytesCount; i++) {
+					String slave = readUTF(in);
+					refBytes.put(slave, new AtomicLong(in.readLong()));
+				}
+				dir.setSlaveRefBytes(refBytes);
+			}
+			dir.setLastModified(lastModified);
+			dir.setPlaceHolderLastModified(placeHolder);
+			inode = dir;
+			break;
+		case TYPE_FILE:
+			long size = in.readLong();
+			int slaveCount = in.readInt();
+			Set<String> slaves = new HashSet<String>(slaveCount);
+			for (int i = 0; i < slaveCount; i++) {
+				slaves.add(readUTF(in));
+			}
+			inode = new VirtualFileSystemFile(username, group, size, slaves);
+			inode.setLastModified(lastModified);
+			break;
+		case TYPE_LINK:
+			inode = new VirtualFileSystemLink(username, group, readString(in));
+			inode.setLastModified(lastModified);
+			break;
+		default:
+			throw new IOException("Unknown inode type " + type);
+		}
+		inode.setCreationTime(creationTime);
+		inode.setKeyedMap(keyedMap);
+		inode.setPluginMap(pluginMap);
+		inode.setUntypedPluginMap(untypedMap);
+		return inode;
+	}
+
+	/**
+	 * Unlike {@link DataOutputStream#writeUTF(String)} there is no 64k limit,
+	 * the length is written as an int followed by the UTF-8 bytes.
+	 */
+	protected static void writeUTF(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	protected static String readUTF(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			writeUTF(out, value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		if (in.readBoolean()) {
+			return readUTF(in);
+		}
+		return null;
+	}
+
+	private static void writeKeyedMap(DataOutputStream out, KeyedMap<Key<?>, Object> map) throws IOException {
+		Map<Key<?>, Object> copy = map.getAllObjects();
+		out.writeInt(copy.size());
+		for (Map.Entry<Key<?>, Object> entry : copy.entrySet()) {
+			writeUTF(out, entry.getKey().getOwner().getName());
+			writeUTF(out, entry.getKey().getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private static KeyedMap<Key<?>, Object> readKeyedMap(DataInputStream in) throws IOException {
+		KeyedMap<Key<?>, Object> map = new KeyedMap<Key<?>, Object>();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String owner = readUTF(in);
+			String key = readUTF(in);
+			Object value = readValue(in);
+			if (value == null) {
+				continue;
+			}
+			try {
+				map.put(new Key<Object>(loadClass(owner), key), value);
+			} catch (ClassNotFoundException e) {
+				// suppress this as the plugin owning this metadata is no longer loaded
+			}
+		}
+		return map;
+	}
+
+	private static void writeUntypedMap(DataOutputStream out, Map<String,Object> map) throws IOException {
+		Map<String,Object> copy = new TreeMap<String,Object>(map);
+		out.writeInt(copy.size());
+		for (Map.Entry<String,Object> entry : copy.entrySet()) {
+			writeUTF(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	private static Map<String,Object> readUntypedMap(DataInputStream in) throws IOException {
+		Map<String,Object> map = new TreeMap<String,Object>();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String key = readUTF(in);
+			Object value = readValue(in);
+			if (value != null) {
+				map.put(key, value);
+			}
+		}
+		return map;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(VALUE_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(VALUE_STRING);
+			writeUTF(out, (String) value);
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(VALUE_INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(VALUE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Float) {
+			out.writeByte(VALUE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			out.writeByte(VALUE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value.getClass() == Date.class) {
+			out.writeByte(VALUE_DATE);
+			out.writeLong(((Date) value).getTime());
+		} else {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			if (value instanceof Serializable) {
+				out.writeByte(VALUE_SERIALIZED);
+				ObjectOutputStream oos = new ObjectOutputStream(baos);
+				oos.writeObject(value);
+				oos.close();
+			} else {
+				out.writeByte(VALUE_XML);
+				XMLEncoder enc = new XMLEncoder(baos);
+				enc.writeObject(value);
+				enc.close();
+			}
+			out.writeInt(baos.size());
+			baos.writeTo(out);
+		}
+	}
+
+	/**
+	 * @return the decoded value or null if it can't be decoded anymore.
+	 */
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case VALUE_NULL:
+			return null;
+		case VALUE_STRING:
+			return readUTF(in);
+		case VALUE_LONG:
+			return in.readLong();
+		case VALUE_INTEGER:
+			return in.readInt();
+		case VALUE_BOOLEAN:
+			return in.readBoolean();
+		case VALUE_FLOAT:
+			return in.readFloat();
+		case VALUE_DOUBLE:
+			return in.readDouble();
+		case VALUE_DATE:
+			return new Date(in.readLong());
+		case VALUE_SERIALIZED:
+		case VALUE_XML:
+			byte[] buf = new byte[in.readInt()];
+			in.readFully(buf);
+			InputStream bin = new ByteArrayInputStream(buf);
+			if (type == VALUE_XML) {
+				XMLDecoder dec = new XMLDecoder(bin);
+				dec.setExceptionListener(new VFSExceptionListener("binary metadata"));
+				try {
+					return dec.readObject();
+				} catch (RuntimeException e) {
+					logger.debug("Dropping undecodable metadata value", e);
+					return null;
+				} finally {
+					dec.close();
+				}
+			}
+			try {
+				return new PluginObjectInputStream(bin).readObject();
+			} catch (ClassNotFoundException e) {
+				// suppress this as the plugin owning this metadata is no longer loaded
+				return null;
+			} catch (IOException e) {
+				logger.debug("Dropping undecodable metadata value", e);
+				return null;
+			}
+		default:
+			throw new IOException("Unknown metadata value type " + type);
+		}
+	}
+
+	private static Class<?> loadClass(String name) throws ClassNotFoundException {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		if (loader == null) {
+			return Class.forName(name);
+		}
+		return Class.forName(name, false, loader);
+	}
+
+	/**
+	 * Resolves classes through the context ClassLoader so that plugin metadata
+	 * can be read back.
+	 */
+	private static class PluginObjectInputStream extends ObjectInputStream {
+
+		private PluginObjectInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			try {
+				return loadClass(desc.getName());
+			} catch (ClassNotFoundException e) {
+				return super.resolveClass(desc);
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class BinaryInodeCodecTest extends TestCase {
+
+	public BinaryInodeCodecTest(String arg0) {
+		super(arg0);
+	}
+
+	public void testLargeString() throws Exception {
+		char[] chars = new char[100 * 1024];
+		Arrays.fill(chars, '\u00e9');
+		String value = new String(chars);
+		VirtualFileSystemFile file = new VirtualFileSystemFile("user", "group", 1234L, "slave1");
+		file.getUntypedPluginMap().put("nfo", value);
+
+		byte[] data = BinaryInodeCodec.encode(file);
+		VirtualFileSystemFile decoded = (VirtualFileSystemFile) BinaryInodeCodec.decode(data, 0, data.length);
+		assertEquals(value, decoded.getUntypedPluginMap().get("nfo"));
+		assertEquals("user", decoded.getUsername());
+		assertEquals(1234L, decoded.getSize());
+		assertTrue(decoded.getSlaves().contains("slave1"));
+	}
+}
@@ -25,7 +25,9 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.drftpd.GlobalContext;
 import org.drftpd.exceptions.FileExistsException;
@@ -480,18 +482,26 @@ public class DirectoryHandle extends InodeHandle implements
 		try {
 			destinationList = new ArrayList<InodeHandle>(getInodeHandlesUnchecked());
 		} catch (FileNotFoundException e) {
-			try {
-				// create directory for merging
-				getParent().createDirectoryRecursive(getName(), true);
-			} catch (FileExistsException e1) {
-				// Can happen if another slave is remerging the same directory and
-				// that thread created the dir between this thread checking and
-				// not finding the dir and trying to create it.
+			for (int attempt = 1; destinationList == null; attempt++) {
+				try {
+					// create directory for merging
+					getParent().createDirectoryRecursive(getName(), true);
+				} catch (FileExistsException e1) {
+					// Can happen if another slave or another remerge lane is
+					// merging the same directory and that thread created the dir
+					// between this thread checking and not finding the dir and
+					// trying to create it.
+				}
+				try {
+					destinationList = new ArrayList<InodeHandle>(getInodeHandlesUnchecked());
+				} catch (FileNotFoundException e1) {
+					// still missing, a parent may have lost a race, past a few
+					// tries we throw an IOException up the chain
+					if (attempt == 3) {
+						throw e1;
+					}
+				}
 			}
-			
-			// lets try this again, this time, if it doesn't work, we throw an
-			// IOException up the chain
-			destinationList = new ArrayList<InodeHandle>(getInodeHandlesUnchecked());
 		}
 		try {
 			// Update the last modified on the dir, this allows us to get a correct
@@ -760,7 +770,11 @@ public class DirectoryHandle extends InodeHandle implements
 		try {
 			dir = createDirectorySystem(name, placeHolderLastModified);
 		} catch (FileNotFoundException e) {
-			getParent().createDirectoryRecursive(getName(), placeHolderLastModified);
+			try {
+				getParent().createDirectoryRecursive(getName(), placeHolderLastModified);
+			} catch (FileExistsException e1) {
+				// another thread created the parent meanwhile, name is still ours
+			}
 		} catch (FileExistsException e) {
 			throw new FileExistsException("Object already exists -- "
 					+ getPath() + VirtualFileSystem.separator + name);
@@ -1043,4 +1057,14 @@ public class DirectoryHandle extends InodeHandle implements
 	public void recalcSlaveRefCounts() throws FileNotFoundException {
 		getInode().recalcSlaveRefCounts();
 	}
+
+	/**
+	 * Kept up to date along with the files per slave returned by
+	 * {@link #getSlaveRefCounts()}, so this doesn't walk the tree.
+	 * @return the bytes held by each slave under this directory.
+	 */
+	@Override
+	public Map<String,AtomicLong> getSlaveRefBytes() throws FileNotFoundException {
+		return getInode().ensureSlaveRefBytes();
+	}
 }
@@ -0,0 +1,170 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of full path -> inode lookups used by
+ * {@link VirtualFileSystem#getInodeByPath(String)}.<br>
+ * Lookups are lock free, inserts and invalidations are serialized. Paths are
+ * compared case insensitively, the same way directories do it. When the cache
+ * is full the oldest entries are evicted first.<br>
+ * Cached inodes are strongly referenced so the SoftReferences held by their
+ * parents can't be cleared while they're cached, this ensures the cache and
+ * the directory tree always point to the same objects.
+ * @version $Id$
+ */
+public class InodeCache {
+
+	private final ConcurrentSkipListMap<String, VirtualFileSystemInode> _inodes =
+		new ConcurrentSkipListMap<String, VirtualFileSystemInode>(String.CASE_INSENSITIVE_ORDER);
+
+	private final LinkedHashSet<String> _order = new LinkedHashSet<String>();
+
+	private final int _maxSize;
+
+	private final AtomicLong _generation = new AtomicLong();
+
+	private final AtomicLong _hits = new AtomicLong();
+
+	private final AtomicLong _misses = new AtomicLong();
+
+	private final AtomicLong _evictions = new AtomicLong();
+
+	/**
+	 * @param maxSize maximum number of cached paths, 0 disables the cache.
+	 */
+	public InodeCache(int maxSize) {
+		_maxSize = maxSize;
+	}
+
+	/**
+	 * @return the cached inode for <tt>path</tt> or null.
+	 */
+	protected VirtualFileSystemInode get(String path) {
+		if (_maxSize <= 0) {
+			return null;
+		}
+		VirtualFileSystemInode inode = _inodes.get(path);
+		if (inode == null) {
+			_misses.incrementAndGet();
+		} else {
+			_hits.incrementAndGet();
+		}
+		return inode;
+	}
+
+	/**
+	 * Must be called before walking the tree for an inode that will be
+	 * handed to {@link #put(String, VirtualFileSystemInode, long)}.
+	 */
+	protected long getGeneration() {
+		return _generation.get();
+	}
+
+	/**
+	 * Caches <tt>inode</tt> under <tt>path</tt>, unless an invalidation
+	 * happened since <tt>generation</tt> was read, in which case the inode
+	 * may already have been moved or deleted.
+	 */
+	protected void put(String path, VirtualFileSystemInode inode, long generation) {
+		if (_maxSize <= 0) {
+			return;
+		}
+		synchronized (_order) {
+			if (_generation.get() != generation) {
+				return;
+			}
+			if (_inodes.putIfAbsent(path, inode) != null) {
+				return;
+			}
+			_order.add(path);
+			Iterator<String> iter = _order.iterator();
+			while (_order.size() > _maxSize) {
+				_inodes.remove(iter.next());
+				iter.remove();
+				_evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops <tt>path</tt> and every path under it.
+	 */
+	protected void invalidate(String path) {
+		if (_maxSize <= 0) {
+			return;
+		}
+		synchronized (_order) {
+			_generation.incrementAndGet();
+			// _order holds the casing used when the path was cached
+			String key = _inodes.ceilingKey(path);
+			if (key != null && key.equalsIgnoreCase(path)) {
+				_inodes.remove(key);
+				_order.remove(key);
+			}
+			String prefix = path.endsWith(VirtualFileSystem.separator) ? path
+					: path + VirtualFileSystem.separator;
+			// '0' is the character right after '/'
+			ConcurrentNavigableMap<String, VirtualFileSystemInode> children =
+				_inodes.subMap(prefix, true, prefix.substring(0, prefix.length() - 1) + "0", false);
+			for (Iterator<String> iter = children.keySet().iterator(); iter.hasNext();) {
+				_order.remove(iter.next());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops every cached path.
+	 */
+	protected void clear() {
+		synchronized (_order) {
+			_generation.incrementAndGet();
+			_inodes.clear();
+			_order.clear();
+		}
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	public int getSize() {
+		synchronized (_order) {
+			return _order.size();
+		}
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getEvictions() {
+		return _evictions.get();
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import junit.framework.TestCase;
+
+public class InodeCacheTest extends TestCase {
+
+	private VirtualFileSystemFile _file;
+
+	public InodeCacheTest(String arg0) {
+		super(arg0);
+	}
+
+	protected void setUp() {
+		_file = new VirtualFileSystemFile("user", "group", 0L, "slave1");
+	}
+
+	public void testInvalidateSubtree() {
+		InodeCache cache = new InodeCache(10);
+		cache.put("/Release", _file, cache.getGeneration());
+		cache.put("/Release/file.rar", _file, cache.getGeneration());
+		cache.put("/Release.Other", _file, cache.getGeneration());
+		assertSame(_file, cache.get("/release/FILE.rar"));
+
+		cache.invalidate("/RELEASE");
+		assertNull(cache.get("/Release"));
+		assertNull(cache.get("/Release/file.rar"));
+		assertSame(_file, cache.get("/Release.Other"));
+		assertEquals(1, cache.getSize());
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+
+	public void testStalePutAndEviction() {
+		InodeCache cache = new InodeCache(2);
+		long generation = cache.getGeneration();
+		cache.invalidate("/Release");
+		cache.put("/Release/file.rar", _file, generation);
+		assertNull(cache.get("/Release/file.rar"));
+
+		cache.put("/a", _file, cache.getGeneration());
+		cache.put("/b", _file, cache.getGeneration());
+		cache.put("/c", _file, cache.getGeneration());
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get("/a"));
+		assertSame(_file, cache.get("/c"));
+	}
+}
@@ -20,6 +20,7 @@ import java.io.FileNotFoundException;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
@@ -31,6 +32,7 @@ import org.drftpd.io.PermissionDeniedException;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.master.SlaveManager;
 import org.drftpd.usermanager.User;
+import org.drftpd.vfs.event.ImmutableInodeHandle;
 import org.drftpd.vfs.perms.VFSPermissions;
 
 
@@ -142,6 +144,14 @@ public abstract class InodeHandle implements InodeHandleInterface, Comparable<In
 		return VirtualFileSystem.getVirtualFileSystem().getInodeByPath(_path);
 	}
 
+	/**
+	 * @return the same view of the Inode that VFS listeners are given.
+	 * @throws FileNotFoundException if the inode does not exist.
+	 */
+	public ImmutableInodeHandle getImmutableInode() throws FileNotFoundException {
+		return new ImmutableInodeHandle(getInode(), _path);
+	}
+
 	/**
 	 * Return the Inode name.
 	 */
@@ -488,6 +498,14 @@ public abstract class InodeHandle implements InodeHandleInterface, Comparable<In
 	public Map<String,AtomicInteger> getSlaveRefCounts() throws FileNotFoundException {
 		return getInode().getSlaveRefCounts();
 	}
+
+	/**
+	 * @return the bytes held by each slave, for a directory the sum over
+	 * everything under it.
+	 */
+	public Map<String,AtomicLong> getSlaveRefBytes() throws FileNotFoundException {
+		return getInode().getSlaveRefBytes();
+	}
 	
 	/**
 	 * Request that a refresh notification is issued for this inode to inform VFS listeners
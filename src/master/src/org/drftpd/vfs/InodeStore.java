@@ -0,0 +1,96 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.drftpd.io.PermissionDeniedException;
+
+/**
+ * Persistence backend used by the {@link VirtualFileSystem} to store the
+ * metadata of every inode.<br>
+ * Paths handed to an InodeStore are always full VFS paths, starting with "/".
+ * The store only deals with raw data, the VirtualFileSystem remains responsible
+ * for wiring names and parents into the loaded inodes.
+ * @version $Id$
+ * @see XMLInodeStore
+ * @see LogInodeStore
+ */
+public interface InodeStore {
+
+	/**
+	 * Unserializes the inode stored under <tt>path</tt>, the returned object
+	 * has neither its name nor its parent set.
+	 * @throws FileNotFoundException if there's no data stored for this path.
+	 * @throws IOException if the stored data could not be read.
+	 */
+	public VirtualFileSystemInode readInode(String path) throws FileNotFoundException, IOException;
+
+	/**
+	 * Saves the inode under its current path.
+	 */
+	public void writeInode(VirtualFileSystemInode inode) throws IOException;
+
+	/**
+	 * @return the names of the children stored under the directory <tt>path</tt>.
+	 */
+	public String[] listChildren(String path);
+
+	/**
+	 * @return true if there's data stored for <tt>path</tt>.
+	 */
+	public boolean hasInodeData(String path);
+
+	/**
+	 * @return true if <tt>path</tt> is known to be a directory, even if its own
+	 * data is missing.
+	 */
+	public boolean isDirectory(String path);
+
+	/**
+	 * Removes the data stored for <tt>path</tt> only, used to get rid of
+	 * corrupted entries. Children of a directory are kept.
+	 */
+	public void removeInodeData(String path);
+
+	/**
+	 * Deletes <tt>path</tt> and everything under it.
+	 */
+	public void deleteInode(String path);
+
+	/**
+	 * Moves <tt>source</tt>, and everything under it, to <tt>destination</tt>.
+	 * @throws FileNotFoundException if there's nothing stored under <tt>source</tt>.
+	 * @throws PermissionDeniedException if the move could not be done.
+	 */
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException;
+
+	/**
+	 * Flushes the writes done so far to stable storage, called by the
+	 * CommitManager after each batch of commits. A store may group the
+	 * calls made within a short interval into a single flush.
+	 */
+	public void sync() throws IOException;
+
+	/**
+	 * Flushes pending data to stable storage and releases any resources held.
+	 */
+	public void close();
+}
@@ -0,0 +1,780 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.util.CommonPluginUtils;
+
+/**
+ * Append-only binary inode store.<br>
+ * Every change is appended to a single log file as a checksummed record, an
+ * in-memory tree keeps the offset of the latest record of each inode so that
+ * reads cost a single positional read. Deletes and renames are cheap records
+ * too, no matter how big the affected subtree is.<br>
+ * The log is replayed on startup, which only needs a sequential read, and is
+ * compacted at that time once most of it is garbage. If the log does not exist
+ * yet but an XML tree does, the XML tree is migrated into a new log once, the
+ * XML tree itself is left untouched.
+ * @version $Id$
+ */
+public class LogInodeStore implements InodeStore {
+
+	private static final Logger logger = Logger.getLogger(LogInodeStore.class);
+
+	private static final int MAGIC = 0x44465653;
+
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte OP_PUT = 1;
+
+	private static final byte OP_DELETE = 2;
+
+	private static final byte OP_RENAME = 3;
+
+	private static final byte OP_REMOVE_DATA = 4;
+
+	private static final long COMPACT_MIN_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * One entry of the in-memory index, mirrors the directory tree.
+	 */
+	private static class Node {
+		private String _name;
+
+		private Node _parent;
+
+		private HashMap<String, Node> _children;
+
+		private long _offset = -1;
+
+		private int _length;
+
+		private boolean _directory;
+
+		private Node(String name, Node parent) {
+			_name = name;
+			_parent = parent;
+		}
+
+		private boolean hasData() {
+			return _offset >= 0;
+		}
+	}
+
+	private File _logFile;
+
+	private RandomAccessFile _raf;
+
+	private FileChannel _channel;
+
+	private long _writePosition;
+
+	private long _liveBytes;
+
+	private long _syncInterval;
+
+	private long _lastSync;
+
+	private boolean _dirty;
+
+	private boolean _syncScheduled;
+
+	private ScheduledExecutorService _syncTimer;
+
+	private long _syncCount;
+
+	private Node _root = new Node(VirtualFileSystem.separator, null);
+
+	/**
+	 * @param logPath the log file to use.
+	 * @param xmlPath the XML tree to migrate from if the log does not exist yet.
+	 * @param syncInterval minimum time in milliseconds between two fsyncs of the log,
+	 * writes in between are grouped in the same fsync.
+	 */
+	public LogInodeStore(String logPath, String xmlPath, long syncInterval) throws IOException {
+		_logFile = new File(logPath);
+		_syncInterval = syncInterval;
+		if (!_logFile.exists() && xmlPath != null
+				&& new File(xmlPath, XMLInodeStore.dirName).exists()) {
+			migrate(new XMLInodeStore(xmlPath));
+		}
+		open();
+		if (_writePosition > COMPACT_MIN_SIZE && _liveBytes < _writePosition / 2) {
+			compact();
+		}
+	}
+
+	private void open() throws IOException {
+		boolean newLog = !_logFile.exists() || _logFile.length() == 0;
+		_raf = new RandomAccessFile(_logFile, "rw");
+		_channel = _raf.getChannel();
+		if (newLog) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(header, 0);
+			_channel.force(false);
+			_writePosition = HEADER_SIZE;
+		} else {
+			replay();
+		}
+		_lastSync = currentTimeMillis();
+	}
+
+	/**
+	 * Rebuilds the index from the log, a torn or corrupted tail is cut off.
+	 */
+	private void replay() throws IOException {
+		long start = System.currentTimeMillis();
+		int records = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_logFile), 1024 * 1024));
+		long position = 0;
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(_logFile.getPath() + " is not an inode log");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported inode log version " + version);
+			}
+			position = HEADER_SIZE;
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				int checksum;
+				byte[] body;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length <= 0) {
+						logger.warn("Invalid record length at " + position + " in " + _logFile.getPath());
+						break;
+					}
+					body = new byte[length];
+					in.readFully(body);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(body, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					logger.warn("Checksum mismatch at " + position + " in " + _logFile.getPath());
+					break;
+				}
+				applyRecord(body, position, length + 8);
+				position += length + 8;
+				records++;
+			}
+		} finally {
+			in.close();
+		}
+		if (position < _channel.size()) {
+			logger.warn("Truncating " + (_channel.size() - position) + " bytes of incomplete data from "
+					+ _logFile.getPath());
+			_channel.truncate(position);
+		}
+		_writePosition = position;
+		logger.info("Replayed " + records + " records from " + _logFile.getPath() + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private void applyRecord(byte[] body, long position, int recordLength) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte op = in.readByte();
+		String path = BinaryInodeCodec.readUTF(in);
+		switch (op) {
+		case OP_PUT:
+			int payloadOffset = getPayloadOffset(body, 0);
+			byte type = BinaryInodeCodec.getType(body, payloadOffset);
+			indexPut(path, position, recordLength, type != BinaryInodeCodec.TYPE_FILE
+					&& type != BinaryInodeCodec.TYPE_LINK);
+			break;
+		case OP_DELETE:
+			indexDelete(path);
+			break;
+		case OP_RENAME:
+			try {
+				indexRename(path, BinaryInodeCodec.readUTF(in));
+			} catch (FileNotFoundException e) {
+				// source was already gone when the rename was logged
+			} catch (PermissionDeniedException e) {
+				// destination was already taken when the rename was logged
+			}
+			break;
+		case OP_REMOVE_DATA:
+			indexRemoveData(path);
+			break;
+		default:
+			throw new IOException("Unknown record type " + op + " at " + position);
+		}
+	}
+
+	/**
+	 * @return where the payload of a put starts, <tt>offset</tt> being the
+	 *         start of the record body.
+	 */
+	private static int getPayloadOffset(byte[] body, int offset) {
+		int pathLength = ((body[offset + 1] & 0xFF) << 24) | ((body[offset + 2] & 0xFF) << 16)
+				| ((body[offset + 3] & 0xFF) << 8) | (body[offset + 4] & 0xFF);
+		return offset + 1 + 4 + pathLength;
+	}
+
+	/**
+	 * Builds a complete record, length and checksum included.
+	 */
+	private static byte[] buildRecord(byte op, String path, String destination, byte[] payload)
+			throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + (payload == null ? 0 : payload.length));
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeByte(op);
+		BinaryInodeCodec.writeUTF(out, path);
+		if (destination != null) {
+			BinaryInodeCodec.writeUTF(out, destination);
+		}
+		if (payload != null) {
+			out.write(payload);
+		}
+		out.flush();
+		byte[] record = baos.toByteArray();
+		int length = record.length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(record, 8, length);
+		ByteBuffer.wrap(record).putInt(length).putInt((int) crc.getValue());
+		return record;
+	}
+
+	private void writeFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += _channel.write(buf, position);
+		}
+	}
+
+	/**
+	 * Appends a record to the log, must be called while holding the lock.
+	 * @return the position the record was written at.
+	 */
+	private long append(byte[] record) throws IOException {
+		long position = _writePosition;
+		writeFully(ByteBuffer.wrap(record), position);
+		_writePosition += record.length;
+		_dirty = true;
+		if (_syncInterval <= 0) {
+			force();
+		} else {
+			scheduleSync();
+		}
+		return position;
+	}
+
+	/**
+	 * Forces the log to the disk if anything was written since the last
+	 * time, must be called while holding the lock.
+	 */
+	private void force() throws IOException {
+		if (_dirty && _channel != null) {
+			_channel.force(false);
+			_lastSync = currentTimeMillis();
+			_dirty = false;
+			_syncCount++;
+		}
+	}
+
+	/**
+	 * Makes sure what was written so far gets forced once the sync interval
+	 * has elapsed, even if nothing calls {@link #sync()} anymore. Must be
+	 * called while holding the lock.
+	 */
+	private void scheduleSync() {
+		if (_syncScheduled) {
+			return;
+		}
+		_syncScheduled = true;
+		long delay = Math.max(0L, _lastSync + _syncInterval - currentTimeMillis());
+		schedule(new Runnable() {
+			public void run() {
+				syncScheduled();
+			}
+		}, delay);
+	}
+
+	/**
+	 * Runs <tt>task</tt> on the sync timer after <tt>delay</tt> milliseconds,
+	 * called while holding the lock.
+	 */
+	protected void schedule(Runnable task, long delay) {
+		if (_syncTimer == null) {
+			_syncTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "InodeLogSync - " + _logFile.getName());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		_syncTimer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The clock the sync interval is measured with.
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private synchronized void syncScheduled() {
+		_syncScheduled = false;
+		try {
+			force();
+		} catch (IOException e) {
+			logger.error("Unable to sync " + _logFile.getPath(), e);
+		}
+	}
+
+	/**
+	 * @return the number of times the log was forced to the disk.
+	 */
+	public synchronized long getSyncCount() {
+		return _syncCount;
+	}
+
+	private void appendQuietly(byte[] record) {
+		try {
+			append(record);
+		} catch (IOException e) {
+			logger.error("Unable to append to " + _logFile.getPath(), e);
+		}
+	}
+
+	private static String[] splitPath(String path) {
+		if (path.equals(VirtualFileSystem.separator)) {
+			return new String[0];
+		}
+		return path.substring(1).split(VirtualFileSystem.separator);
+	}
+
+	private Node findNode(String path) {
+		Node node = _root;
+		for (String name : splitPath(path)) {
+			if (node._children == null) {
+				return null;
+			}
+			node = node._children.get(name);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private Node getOrCreateNode(String path) {
+		Node node = _root;
+		for (String name : splitPath(path)) {
+			if (node._children == null) {
+				node._children = new HashMap<String, Node>();
+			}
+			Node child = node._children.get(name);
+			if (child == null) {
+				child = new Node(name, node);
+				node._children.put(name, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	private void indexPut(String path, long offset, int length, boolean directory) {
+		Node node = getOrCreateNode(path);
+		if (node.hasData()) {
+			_liveBytes -= node._length;
+		}
+		node._offset = offset;
+		node._length = length;
+		node._directory = directory;
+		_liveBytes += length;
+	}
+
+	private void indexRemoveData(String path) {
+		Node node = findNode(path);
+		if (node != null && node.hasData()) {
+			_liveBytes -= node._length;
+			node._offset = -1;
+		}
+	}
+
+	private void indexDelete(String path) {
+		Node node = findNode(path);
+		if (node == null || node == _root) {
+			return;
+		}
+		node._parent._children.remove(node._name);
+		_liveBytes -= countLiveBytes(node);
+	}
+
+	private long countLiveBytes(Node node) {
+		long bytes = node.hasData() ? node._length : 0;
+		if (node._children != null) {
+			for (Node child : node._children.values()) {
+				bytes += countLiveBytes(child);
+			}
+		}
+		return bytes;
+	}
+
+	private void indexRename(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException {
+		Node node = findNode(source);
+		if (node == null || node == _root) {
+			throw new FileNotFoundException(source + " cannot be found");
+		}
+		if (source.equals(destination)) {
+			return;
+		}
+		Node existing = findNode(destination);
+		if (existing != null && (existing.hasData() || existing._children != null
+				&& !existing._children.isEmpty())) {
+			throw new PermissionDeniedException("Cannot rename " + source
+					+ " to " + destination);
+		}
+		node._parent._children.remove(node._name);
+		Node newParent = getOrCreateNode(VirtualFileSystem.stripLast(destination));
+		if (newParent._children == null) {
+			newParent._children = new HashMap<String, Node>();
+		}
+		node._name = VirtualFileSystem.getLast(destination);
+		node._parent = newParent;
+		newParent._children.put(node._name, node);
+	}
+
+	private static String getNodePath(Node node) {
+		if (node._parent == null) {
+			return VirtualFileSystem.separator;
+		}
+		if (node._parent._parent == null) {
+			return VirtualFileSystem.separator + node._name;
+		}
+		return getNodePath(node._parent) + VirtualFileSystem.separator + node._name;
+	}
+
+	public VirtualFileSystemInode readInode(String path) throws FileNotFoundException, IOException {
+		FileChannel channel;
+		long offset;
+		int length;
+		synchronized (this) {
+			if (_channel == null) {
+				throw new IOException(_logFile.getPath() + " is closed");
+			}
+			Node node = findNode(path);
+			if (node == null || !node.hasData()) {
+				throw new FileNotFoundException("No data stored for " + path);
+			}
+			channel = _channel;
+			offset = node._offset;
+			length = node._length;
+		}
+		byte[] record = readRecord(channel, offset, length);
+		int payloadOffset = getPayloadOffset(record, 8);
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+		try {
+			return BinaryInodeCodec.decode(record, payloadOffset, record.length - payloadOffset);
+		} finally {
+			Thread.currentThread().setContextClassLoader(prevCL);
+		}
+	}
+
+	/**
+	 * Reads a whole record and verifies its checksum, positional reads don't
+	 * interfere with appends so this is done outside the lock. A channel
+	 * closed meanwhile throws a {@link java.nio.channels.ClosedChannelException}.
+	 */
+	private byte[] readRecord(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		long position = offset;
+		while (buf.hasRemaining()) {
+			int read = channel.read(buf, position);
+			if (read < 0) {
+				throw new EOFException("Record at " + offset + " is beyond the end of " + _logFile.getPath());
+			}
+			position += read;
+		}
+		byte[] record = buf.array();
+		CRC32 crc = new CRC32();
+		crc.update(record, 8, length - 8);
+		if ((int) crc.getValue() != ByteBuffer.wrap(record, 4, 4).getInt()) {
+			throw new IOException("Checksum mismatch for record at " + offset + " in " + _logFile.getPath());
+		}
+		return record;
+	}
+
+	public void writeInode(VirtualFileSystemInode inode) throws IOException {
+		String path = inode.getPath();
+		byte[] payload = BinaryInodeCodec.encode(inode);
+		byte[] record = buildRecord(OP_PUT, path, null, payload);
+		synchronized (this) {
+			long position = append(record);
+			indexPut(path, position, record.length, inode.isDirectory());
+		}
+		logger.debug("Wrote " + path + " to " + _logFile.getPath());
+	}
+
+	public synchronized String[] listChildren(String path) {
+		Node node = findNode(path);
+		if (node == null || node._children == null) {
+			return new String[0];
+		}
+		return node._children.keySet().toArray(new String[node._children.size()]);
+	}
+
+	public synchronized boolean hasInodeData(String path) {
+		Node node = findNode(path);
+		return node != null && node.hasData();
+	}
+
+	public synchronized boolean isDirectory(String path) {
+		Node node = findNode(path);
+		if (node == null) {
+			return false;
+		}
+		return node._directory || (node._children != null && !node._children.isEmpty());
+	}
+
+	public void removeInodeData(String path) {
+		try {
+			byte[] record = buildRecord(OP_REMOVE_DATA, path, null, null);
+			synchronized (this) {
+				appendQuietly(record);
+				indexRemoveData(path);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to remove data for " + path, e);
+		}
+	}
+
+	public void deleteInode(String path) {
+		try {
+			byte[] record = buildRecord(OP_DELETE, path, null, null);
+			synchronized (this) {
+				if (findNode(path) == null) {
+					return;
+				}
+				appendQuietly(record);
+				indexDelete(path);
+			}
+		} catch (IOException e) {
+			logger.error("Unable to delete " + path, e);
+		}
+	}
+
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException {
+		byte[] record;
+		try {
+			record = buildRecord(OP_RENAME, source, destination, null);
+		} catch (IOException e) {
+			throw new PermissionDeniedException("Cannot rename " + source + " to " + destination);
+		}
+		synchronized (this) {
+			indexRename(source, destination);
+			try {
+				append(record);
+			} catch (IOException e) {
+				logger.error("Unable to log rename of " + source + " to " + destination, e);
+				try {
+					indexRename(destination, source);
+				} catch (IOException e1) {
+					logger.error("Unable to undo rename of " + source + " to " + destination, e1);
+				}
+				throw new PermissionDeniedException("Cannot rename " + source + " to " + destination);
+			}
+		}
+	}
+
+	/**
+	 * Only forces the log if the sync interval has elapsed since the last
+	 * time, otherwise the writes are left to the force already scheduled by
+	 * {@link #append(byte[])} so every commit handler shares it.
+	 */
+	public synchronized void sync() throws IOException {
+		if (currentTimeMillis() - _lastSync >= _syncInterval) {
+			force();
+		}
+	}
+
+	public synchronized void close() {
+		if (_syncTimer != null) {
+			_syncTimer.shutdownNow();
+			_syncTimer = null;
+			_syncScheduled = false;
+		}
+		if (_channel == null) {
+			return;
+		}
+		try {
+			_channel.force(true);
+			_raf.close();
+		} catch (IOException e) {
+			logger.error("Error closing " + _logFile.getPath(), e);
+		}
+		_channel = null;
+	}
+
+	/**
+	 * Rewrites the live records into a new log and replaces the current one.
+	 */
+	private synchronized void compact() throws IOException {
+		logger.info("Compacting " + _logFile.getPath() + ", " + _liveBytes + " live bytes out of "
+				+ _writePosition);
+		File tmpFile = new File(_logFile.getPath() + ".compact");
+		FileOutputStream fos = new FileOutputStream(tmpFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024));
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<Long> offsets = new ArrayList<Long>();
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			long position = HEADER_SIZE;
+			ArrayList<Node> stack = new ArrayList<Node>();
+			stack.add(_root);
+			while (!stack.isEmpty()) {
+				Node node = stack.remove(stack.size() - 1);
+				if (node.hasData()) {
+					byte[] record = readRecord(_channel, node._offset, node._length);
+					int payloadOffset = getPayloadOffset(record, 8);
+					byte[] payload = new byte[record.length - payloadOffset];
+					System.arraycopy(record, payloadOffset, payload, 0, payload.length);
+					byte[] newRecord = buildRecord(OP_PUT, getNodePath(node), null, payload);
+					out.write(newRecord);
+					nodes.add(node);
+					offsets.add(position);
+					position += newRecord.length;
+				}
+				if (node._children != null) {
+					stack.addAll(node._children.values());
+				}
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		_raf.close();
+		if (!_logFile.delete() || !tmpFile.renameTo(_logFile)) {
+			throw new IOException("Unable to replace " + _logFile.getPath() + " with " + tmpFile.getPath());
+		}
+		_liveBytes = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+			node._offset = offsets.get(i);
+			_liveBytes += node._length;
+		}
+		_raf = new RandomAccessFile(_logFile, "rw");
+		_channel = _raf.getChannel();
+		_writePosition = _channel.size();
+		logger.info("Compacted " + _logFile.getPath() + " to " + _writePosition + " bytes");
+	}
+
+	/**
+	 * One-time conversion of an XML tree, written to a temporary file which
+	 * only replaces the log once complete.
+	 */
+	private void migrate(XMLInodeStore xmlStore) throws IOException {
+		logger.info("Migrating XML inode tree into " + _logFile.getPath() + ", this can take a while");
+		long start = System.currentTimeMillis();
+		File tmpFile = new File(_logFile.getPath() + ".migrate");
+		FileOutputStream fos = new FileOutputStream(tmpFile);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024));
+		int[] count = new int[1];
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+			try {
+				migrate(xmlStore, VirtualFileSystem.separator, out, count);
+			} finally {
+				Thread.currentThread().setContextClassLoader(prevCL);
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmpFile.renameTo(_logFile)) {
+			throw new IOException("Unable to rename " + tmpFile.getPath() + " to " + _logFile.getPath());
+		}
+		logger.info("Migrated " + count[0] + " inodes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private void migrate(XMLInodeStore xmlStore, String path, OutputStream out, int[] count)
+			throws IOException {
+		boolean isDirectory = xmlStore.isDirectory(path);
+		VirtualFileSystemInode inode = null;
+		try {
+			inode = xmlStore.readInode(path);
+		} catch (FileNotFoundException e) {
+			// directory without its own data, recreated below
+		} catch (IOException e) {
+			logger.warn("Skipping unreadable inode " + path, e);
+		}
+		if (inode == null && isDirectory) {
+			inode = path.equals(VirtualFileSystem.separator) ? new VirtualFileSystemRoot()
+					: new VirtualFileSystemDirectory("drftpd", "drftpd");
+		}
+		if (inode != null) {
+			out.write(buildRecord(OP_PUT, path, null, BinaryInodeCodec.encode(inode)));
+			if (++count[0] % 100000 == 0) {
+				logger.info("Migrated " + count[0] + " inodes so far");
+			}
+		}
+		if (isDirectory) {
+			String prefix = path.equals(VirtualFileSystem.separator) ? "" : path;
+			for (String child : xmlStore.listChildren(path)) {
+				migrate(xmlStore, prefix + VirtualFileSystem.separator + child, out, count);
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class LogInodeStoreTest extends TestCase {
+
+	private File _logFile;
+
+	private VirtualFileSystemRoot _root;
+
+	private VirtualFileSystemDirectory _dir;
+
+	private VirtualFileSystemFile _file;
+
+	public LogInodeStoreTest(String arg0) {
+		super(arg0);
+	}
+
+	protected void setUp() throws Exception {
+		_logFile = File.createTempFile("inodes", ".log");
+		_logFile.delete();
+		_root = new VirtualFileSystemRoot("drftpd", "drftpd");
+		_dir = new VirtualFileSystemDirectory("user", "group");
+		_dir.setName("Release");
+		_dir.setParent(_root);
+		_file = new VirtualFileSystemFile("user", "group", 1234L, "slave1");
+		_file.setName("file.rar");
+		_file.setParent(_dir);
+		_file.getKeyedMap().setObject(VirtualFileSystemFile.CRC, 0xCAFEL);
+	}
+
+	protected void tearDown() {
+		_logFile.delete();
+	}
+
+	private LogInodeStore reopen(LogInodeStore store) throws Exception {
+		store.close();
+		return new LogInodeStore(_logFile.getPath(), null, 0);
+	}
+
+	public void testWriteAndReplay() throws Exception {
+		LogInodeStore store = new LogInodeStore(_logFile.getPath(), null, 0);
+		store.writeInode(_root);
+		store.writeInode(_dir);
+		store.writeInode(_file);
+		store = reopen(store);
+
+		assertTrue(store.isDirectory("/Release"));
+		assertEquals(Arrays.asList("file.rar"), Arrays.asList(store.listChildren("/Release")));
+		VirtualFileSystemFile file = (VirtualFileSystemFile) store.readInode("/Release/file.rar");
+		assertEquals(1234L, file.getSize());
+		assertEquals("user", file.getUsername());
+		assertEquals(0xCAFEL, file.getChecksum());
+		assertTrue(file.getSlaves().contains("slave1"));
+		store.close();
+	}
+
+	public void testReadAfterClose() throws Exception {
+		LogInodeStore store = new LogInodeStore(_logFile.getPath(), null, 0);
+		store.writeInode(_root);
+		store.close();
+		try {
+			store.readInode("/");
+			fail("read from a closed store");
+		} catch (FileNotFoundException e) {
+			fail("closed store reported a missing inode");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testSlaveRefBytes() throws Exception {
+		LogInodeStore store = new LogInodeStore(_logFile.getPath(), null, 0);
+		store.writeInode(_root);
+		Map<String,AtomicLong> refBytes = new TreeMap<String,AtomicLong>();
+		refBytes.put("slave1", new AtomicLong(1234L));
+		_dir.setSlaveRefBytes(refBytes);
+		store.writeInode(_dir);
+		store = reopen(store);
+
+		VirtualFileSystemDirectory dir = (VirtualFileSystemDirectory) store.readInode("/Release");
+		assertEquals(1234L, dir.getSlaveRefBytes().get("slave1").get());
+		// never counted
+		assertNull(((VirtualFileSystemDirectory) store.readInode("/")).getSlaveRefBytes());
+		store.close();
+	}
+
+	public void testGroupedSync() throws Exception {
+		ManualSyncStore store = new ManualSyncStore(_logFile.getPath(), 1000);
+		store.writeInode(_root);
+		store.writeInode(_dir);
+		for (int i = 0; i < 20; i++) {
+			store.writeInode(_file);
+			store.sync();
+			store._now += 10;
+		}
+		// every commit fell within the first interval, one force is pending
+		assertEquals(0, store.getSyncCount());
+		assertEquals(1, store._tasks.size());
+		assertEquals(1000L, store._delays.get(0).longValue());
+
+		store._now = 1000;
+		store._tasks.remove(0).run();
+		assertEquals(1, store.getSyncCount());
+		store.sync();
+		assertEquals(1, store.getSyncCount());
+
+		// the next write schedules the next force, a commit past the
+		// interval forces right away
+		store.writeInode(_file);
+		assertEquals(1, store._tasks.size());
+		store._now = 2000;
+		store.sync();
+		assertEquals(2, store.getSyncCount());
+		store._tasks.remove(0).run();
+		assertEquals(2, store.getSyncCount());
+		store.close();
+	}
+
+	/**
+	 * Runs on a clock set by the test, the scheduled forces are run by the
+	 * test too.
+	 */
+	private static class ManualSyncStore extends LogInodeStore {
+		private long _now;
+
+		private final List<Runnable> _tasks = new ArrayList<Runnable>();
+
+		private final List<Long> _delays = new ArrayList<Long>();
+
+		private ManualSyncStore(String logPath, long syncInterval) throws IOException {
+			super(logPath, null, syncInterval);
+		}
+
+		protected void schedule(Runnable task, long delay) {
+			_tasks.add(task);
+			_delays.add(delay);
+		}
+
+		protected long currentTimeMillis() {
+			return _now;
+		}
+	}
+
+	public void testSyncEveryWrite() throws Exception {
+		LogInodeStore store = new LogInodeStore(_logFile.getPath(), null, 0);
+		store.writeInode(_root);
+		store.writeInode(_dir);
+		store.writeInode(_file);
+		store.sync();
+		assertEquals(3, store.getSyncCount());
+		store.close();
+	}
+
+	public void testRenameAndDelete() throws Exception {
+		LogInodeStore store = new LogInodeStore(_logFile.getPath(), null, 0);
+		store.writeInode(_root);
+		store.writeInode(_dir);
+		store.writeInode(_file);
+		store.renameInode("/Release", "/Renamed");
+		store = reopen(store);
+
+		assertFalse(store.hasInodeData("/Release/file.rar"));
+		assertTrue(store.hasInodeData("/Renamed/file.rar"));
+
+		store.deleteInode("/Renamed");
+		store = reopen(store);
+		assertFalse(store.hasInodeData("/Renamed"));
+		try {
+			store.readInode("/Renamed/file.rar");
+			fail("deleted inode was still readable");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertTrue(store.hasInodeData("/"));
+		store.close();
+	}
+}
@@ -17,22 +17,18 @@
  */
 package org.drftpd.vfs;
 
-import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
 import org.drftpd.io.PermissionDeniedException;
-import org.drftpd.io.SafeFileOutputStream;
+import org.drftpd.master.config.ConfigInterface;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.vfs.event.VirtualFileSystemEvent;
 import org.drftpd.vfs.event.VirtualFileSystemInodeCreatedEvent;
@@ -56,24 +52,15 @@ public class VirtualFileSystem {
 		}
 	}
 
-	static class DirInodeFilenameFilter implements FilenameFilter {
-
-		@Override
-		public boolean accept(File dir, String file) {
-			return !file.equals(dirName);
-		}
-		
-	}
-
 	private static VirtualFileSystem _vfs = null;
 
-	public static final String dirName = ".dirProperties";
+	public static final String dirName = XMLInodeStore.dirName;
 
 	public static final String fileSystemPath = "files";
 
-	private static final Logger logger = Logger.getLogger(VirtualFileSystem.class);
+	public static final String inodeLogPath = "files.log";
 
-	private static final DirInodeFilenameFilter dirFilter = new DirInodeFilenameFilter();
+	private static final Logger logger = Logger.getLogger(VirtualFileSystem.class);
 
 	public static final String separator = "/";
 
@@ -119,6 +106,10 @@ public class VirtualFileSystem {
 
 	private VirtualFileSystemRoot _root = null;
 
+	private InodeStore _store = null;
+
+	private InodeCache _cache = null;
+
 	/**
 	 * Create a VirtualFileSystem object, creating or not a new directory tree.
 	 * If there's a pre-existing tree, it loads the data, if not, it creates a
@@ -128,7 +119,8 @@ public class VirtualFileSystem {
 	 * This constructor is private due to the Singleton architecture.
 	 */
 	private VirtualFileSystem() {
-		new File(fileSystemPath).mkdirs();
+		_store = createInodeStore();
+		_cache = createInodeCache();
 		try {
 			_root = (VirtualFileSystemRoot) loadInode(separator);
 		} catch (FileNotFoundException e) {
@@ -136,14 +128,97 @@ public class VirtualFileSystem {
 		}
 	}
 
+	/**
+	 * Creates the {@link InodeStore} configured by 'vfs.store', which is either
+	 * 'xml', 'log' or the name of a class implementing InodeStore with a no-arg
+	 * constructor. Falls back to the XML store if the configuration isn't
+	 * loaded or the store can't be created.
+	 */
+	private InodeStore createInodeStore() {
+		Properties cfg = null;
+		ConfigInterface config = GlobalContext.getConfig();
+		if (config != null) {
+			cfg = config.getMainProperties();
+		}
+		String storeType = cfg == null ? "xml" : cfg.getProperty("vfs.store", "xml").trim();
+		try {
+			if (storeType.equalsIgnoreCase("log")) {
+				long syncInterval = Long.parseLong(cfg.getProperty("vfs.store.sync.interval", "1000").trim());
+				return new LogInodeStore(inodeLogPath, fileSystemPath, syncInterval);
+			} else if (!storeType.equalsIgnoreCase("xml")) {
+				return (InodeStore) Class.forName(storeType, true,
+						CommonPluginUtils.getClassLoaderForObject(this)).newInstance();
+			}
+		} catch (Exception e) {
+			logger.error("Unable to create inode store '" + storeType + "', using the XML store", e);
+		}
+		return new XMLInodeStore(fileSystemPath);
+	}
+
+	/**
+	 * Creates the path lookup cache sized by 'vfs.cache.size'.
+	 */
+	private InodeCache createInodeCache() {
+		int size = 10000;
+		ConfigInterface config = GlobalContext.getConfig();
+		if (config != null) {
+			try {
+				size = Integer.parseInt(config.getMainProperties().getProperty("vfs.cache.size", "10000").trim());
+			} catch (NumberFormatException e) {
+				logger.error("Invalid vfs.cache.size, using " + size, e);
+			}
+		}
+		return new InodeCache(size);
+	}
+
+	/**
+	 * @return the path lookup cache, mainly to expose its statistics.
+	 */
+	public InodeCache getInodeCache() {
+		return _cache;
+	}
+
+	/**
+	 * Called when <tt>path</tt> is removed from the tree, either because it
+	 * was deleted or renamed.<br>
+	 * This has to be done before returning to the caller, the
+	 * VirtualFileSystemRenameEvent and VirtualFileSystemInodeDeletedEvent are
+	 * published asynchronously and would leave a window where stale inodes
+	 * are returned.
+	 */
+	protected void invalidateInodeCache(String path) {
+		_cache.invalidate(path);
+	}
+
+	/**
+	 * Flushes the inodes written so far to stable storage.
+	 */
+	public void sync() {
+		try {
+			_store.sync();
+		} catch (IOException e) {
+			logger.error("Unable to sync the inode store", e);
+		}
+	}
+
+	/**
+	 * Flushes the inode store, called when the process is shutting down.
+	 */
+	public void close() {
+		_store.close();
+	}
+
 	private VirtualFileSystemRoot createRootDirectory() {
 		logger.info("Creating new root filesystem");
 		logger.info("If you have already created your filesystem, then stop removing or corrupting your "
 						+ dirName + " file!");
-		new File(fileSystemPath).mkdirs();
 		_root = new VirtualFileSystemRoot("drftpd", "drftpd");
-		File rootFile = new File(fileSystemPath);
-		_root.setFiles(rootFile.list(dirFilter));
+		String[] children = _store.listChildren(separator);
+		_root.setFiles(children);
+		if (children.length == 0) {
+			// otherwise the bytes per slave are counted when first needed
+			_root.setSlaveRefBytes(new TreeMap<String,AtomicLong>());
+		}
 		_root.commit();
 		_root.inodeLoadCompleted();
 		return _root;
@@ -156,7 +231,7 @@ public class VirtualFileSystem {
 	 * @param path
 	 */
 	protected void deleteInode(String path) {
-		recursiveDelete(new File(getRealPath(path)));
+		_store.deleteInode(path);
 	}
 
 	/**
@@ -177,15 +252,26 @@ public class VirtualFileSystem {
 		if (path.equals(separator)) {
 			return _root;
 		}
-		path = path.substring(1);
+		VirtualFileSystemInode inode = _cache.get(path);
+		if (inode != null) {
+			return inode;
+		}
+		long generation = _cache.getGeneration();
+		// paths going through links or relative components can't be
+		// invalidated by their prefix, those aren't cached
+		boolean cacheable = true;
 		VirtualFileSystemDirectory walker = _root;
-		VirtualFileSystemInode inode = null;
-		String[] values = path.split(separator);
+		String[] values = path.substring(1).split(separator);
 		for (int x = 0; x < values.length; x++) {
-			inode = walker.getInodeByName(values[x]);
+			String value = values[x];
+			if (value.length() == 0 || value.equals(".") || value.equals("..")) {
+				cacheable = false;
+			}
+			inode = walker.getInodeByName(value);
 			if (inode.isDirectory()) {
 				walker = (VirtualFileSystemDirectory) inode;
 			} else if (inode.isLink() && (x != values.length - 1)) {
+				cacheable = false;
 				walker = (VirtualFileSystemDirectory) getInodeByPath(((VirtualFileSystemLink)inode).getLinkPath());
 			} else { // We better be at the end of the array
 				if (x != values.length - 1) {
@@ -194,19 +280,13 @@ public class VirtualFileSystem {
 				}
 			}
 		}
-		// logger.debug("getInodeByPath(/" + path + ")--returning--" + inode);
+		if (cacheable) {
+			_cache.put(path, inode, generation);
+		}
+		// logger.debug("getInodeByPath(" + path + ")--returning--" + inode);
 		return inode;
 	}
 
-	/**
-	 * @param path
-	 * @return the real path of the file on the disk.<br>
-	 *         Ex: getRealPath('PICS/me.jpg') would return 'files/PICS/me.jpg'
-	 */
-	private String getRealPath(String path) {
-		return fileSystemPath + path;
-	}
-
 	/**
 	 * @return the root directory.
 	 */
@@ -220,37 +300,22 @@ public class VirtualFileSystem {
 	 */
 	protected VirtualFileSystemInode loadInode(String path)
 			throws FileNotFoundException {
-		String fullPath = fileSystemPath + path;
-		//logger.debug("Loading inode - " + fullPath);
-		File xmlFile = new File(fullPath);
-		File realDirectory = null;
-		if (xmlFile.isDirectory()) {
-			realDirectory = xmlFile;
-			fullPath = fullPath + separator + dirName;
-			xmlFile = new File(fullPath);
-		}
-		XMLDecoder xmlDec = null;
+		//logger.debug("Loading inode - " + path);
+		boolean isDirectory = _store.isDirectory(path);
 		try {
-			xmlDec = new XMLDecoder(new BufferedInputStream(
-					new FileInputStream(fullPath)));
-			xmlDec.setExceptionListener(new VFSExceptionListener(fullPath));
-			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
-			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
-			VirtualFileSystemInode inode = (VirtualFileSystemInode) xmlDec
-					.readObject();
-			Thread.currentThread().setContextClassLoader(prevCL);
+			VirtualFileSystemInode inode = _store.readInode(path);
 			inode.setName(getLast(path));
 			if (inode.isDirectory()) {
 				VirtualFileSystemDirectory dir = (VirtualFileSystemDirectory) inode;
-				dir.setFiles(realDirectory.list(dirFilter));
+				dir.setFiles(_store.listChildren(path));
 			}
 			inode.inodeLoadCompleted();
 			return inode;
 		} catch (Exception e) {
-			boolean corruptedXMLFile = xmlFile.exists();
-			if (corruptedXMLFile) {
+			boolean corruptedInode = _store.hasInodeData(path);
+			if (corruptedInode) {
 				// parsing error! Let's get rid of the offending bugger
-				xmlFile.delete();
+				_store.removeInodeData(path);
 			}
 			// if this object is the Root object, let's create it and get outta
 			// here
@@ -270,46 +335,22 @@ public class VirtualFileSystem {
 							"You're filesystem is really messed up");
 				}
 			}
-			if (realDirectory != null && realDirectory.exists()) {
-				// let's create the .dirProperties file from what we know since
+			if (isDirectory) {
+				// let's create the directory data from what we know since
 				// it should be there
 				parentInode.createDirectoryRaw(getLast(path), "drftpd",
 						"drftpd");
 				return parentInode.getInodeByName(getLast(path));
 			}
-			if (corruptedXMLFile) {
-				// we already deleted the file, but we need to tell the parent
+			if (corruptedInode) {
+				// we already deleted the data, but we need to tell the parent
 				// directory that it doesn't exist anymore
 				logger
-						.debug("Error loading " + fullPath + ", deleting file",
+						.debug("Error loading " + path + ", deleting inode",
 								e);
 				parentInode.removeMissingChild(getLast(path));
 			}
 			throw new FileNotFoundException();
-		} finally {
-			if (xmlDec != null) {
-				xmlDec.close();
-			}
-		}
-	}
-
-	/**
-	 * If 'file' is a directory, it recurses through it and deletes, everything
-	 * inside it.<br>
-	 * If 'file' is an actual file, it simply deletes it.
-	 * 
-	 * @param file
-	 */
-	private void recursiveDelete(File file) {
-		if (file.isDirectory()) {
-			File[] files = file.listFiles();
-			for (int x = 0; x < files.length; x++) {
-				recursiveDelete(files[x]);
-			}
-		}
-		if (file.exists() && !file.delete()) {
-			logger.error("Could not delete local entry "
-					+ file.getAbsolutePath() + ", check permissions");
 		}
 	}
 
@@ -325,15 +366,7 @@ public class VirtualFileSystem {
 	 */
 	protected void renameInode(String source, String destination)
 			throws FileNotFoundException, PermissionDeniedException {
-		File file = new File(getRealPath(source));
-		if (!file.exists()) {
-			throw new FileNotFoundException(source + " cannot be found");
-		}
-		boolean result = file.renameTo(new File(getRealPath(destination)));
-		if (!result) {
-			throw new PermissionDeniedException("Cannot rename " + source
-					+ " to " + destination);
-		}
+		_store.renameInode(source, destination);
 	}
 
 	/**
@@ -342,31 +375,11 @@ public class VirtualFileSystem {
 	 * @param inode
 	 */
 	protected void writeInode(VirtualFileSystemInode inode) {
-		String fullPath = getRealPath(inode.getPath());
-		XMLEncoder enc = null;
 		try {
-			if (inode instanceof VirtualFileSystemRoot) {
-				new File(fileSystemPath).mkdirs();
-				fullPath = fullPath + separator + dirName;
-			} else if (inode.isDirectory()) {
-				new File(fullPath).mkdirs();
-				fullPath = fullPath + separator + dirName;
-			} else {
-				new File(getRealPath(inode.getParent().getPath())).mkdirs();
-			}
-			enc = new XMLEncoder(new BufferedOutputStream(
-					new SafeFileOutputStream(fullPath)));
-			inode.setupXML(enc);
-			enc.setExceptionListener(new VFSExceptionListener(fullPath));
-			enc.writeObject(inode);
+			_store.writeInode(inode);
 		} catch (IOException e) {
-			logger.error("Unable to write " + fullPath + " to disk", e);
-		} finally {
-			if (enc != null) {
-				enc.close();
-			}
+			logger.error("Unable to write " + inode.getPath() + " to disk", e);
 		}
-		logger.debug("Wrote fullPath " + fullPath);
 	}
 
 	/**
@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.drftpd.exceptions.FileExistsException;
 
@@ -58,6 +59,14 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 
 	private Map<String,AtomicInteger> _slaveRefCounts = new TreeMap<String,AtomicInteger>();
 
+	/**
+	 * Bytes held by each slave under this directory, kept up to date along
+	 * with {@link #_slaveRefCounts}. Null while unknown, which is the case for
+	 * directories written before these were tracked, they're counted again
+	 * the first time they're asked for.
+	 */
+	private volatile Map<String,AtomicLong> _slaveRefBytes = null;
+
 	public VirtualFileSystemDirectory(String user, String group) {
 		super(user, group);
 	}
@@ -80,6 +89,7 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 		}
 		addSize(inode.getSize());
 		addChildSlaveRefCounts(inode, inode.getSlaveRefCounts());
+		addChildSlaveRefBytes(inode.getSlaveRefBytes(), 1);
 	}
 
 	protected synchronized void addSize(long l) {
@@ -153,6 +163,10 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 				group, placeHolderLastModified);
 		inode.setName(name);
 		inode.setParent(this);
+		if (!placeHolderLastModified) {
+			// a place holder may replace a directory which still has children
+			inode.setSlaveRefBytes(new TreeMap<String,AtomicLong>());
+		}
 		inode.inodeLoadCompleted();
 		inode.commit();
 		addChild(inode, !placeHolderLastModified);
@@ -337,6 +351,7 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 	protected synchronized void removeChild(VirtualFileSystemInode child) {
 		addSize(-child.getSize());
 		removeChildSlaveRefCounts(child, child.getSlaveRefCounts());
+		addChildSlaveRefBytes(child.getSlaveRefBytes(), -1);
 		removeMissingChild(child.getName());
 	}
 
@@ -384,6 +399,16 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 						new Object[] { ai.get() });
 			}
 		});
+		enc.setPersistenceDelegate(AtomicLong.class, 
+				new PersistenceDelegate() {
+			protected Expression instantiate(Object oldInstance, Encoder out) {
+				AtomicLong al = (AtomicLong) oldInstance;
+				return new Expression(oldInstance,
+						oldInstance.getClass(),
+						"new",
+						new Object[] { al.get() });
+			}
+		});
 	}
 
 	@Override
@@ -417,6 +442,9 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 
 	public synchronized void removeMissingChild(String name) {
 		if (_files.remove(name) != null) {
+			getVFS().invalidateInodeCache(this instanceof VirtualFileSystemRoot
+					? VirtualFileSystem.separator + name
+					: getPath() + VirtualFileSystem.separator + name);
 			setLastModified(System.currentTimeMillis());
 			commit();
 		}
@@ -489,7 +517,8 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 		commit();
 	}
 
-	protected void incrementSlaveRefCount(String slave) {
+	protected void incrementSlaveRefCount(String slave, long bytes) {
+		addSlaveRefBytes(slave, bytes);
 		AtomicInteger currentCount;
 		synchronized (_slaveRefCounts) {
 			currentCount = _slaveRefCounts.get(slave);
@@ -500,12 +529,13 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 		}
 		currentCount.incrementAndGet();
 		if (!isRoot()) {
-			getParent().incrementSlaveRefCount(slave);
+			getParent().incrementSlaveRefCount(slave, bytes);
 		}
 		commit();
 	}
 
-	protected void decrementSlaveRefCount(String slave) {
+	protected void decrementSlaveRefCount(String slave, long bytes) {
+		addSlaveRefBytes(slave, -bytes);
 		AtomicInteger currentCount;
 		synchronized (_slaveRefCounts) {
 			currentCount = _slaveRefCounts.get(slave);
@@ -516,7 +546,7 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 		}
 		currentCount.decrementAndGet();
 		if (!isRoot()) {
-			getParent().decrementSlaveRefCount(slave);
+			getParent().decrementSlaveRefCount(slave, bytes);
 		}
 		commit();
 	}
@@ -549,7 +579,8 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 				for (String slave : inodeCounts.keySet()) {
 					AtomicInteger currCount = updCounts.get(slave);
 					if (currCount == null) {
-						currCount = inodeCounts.get(slave);
+						// don't share the counter of the child
+						currCount = new AtomicInteger(inodeCounts.get(slave).get());
 					} else {
 						currCount.addAndGet(inodeCounts.get(slave).get());
 					}
@@ -565,5 +596,137 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 			_slaveRefCounts.putAll(updCounts);
 		}
 		commit();
+		recalcSlaveRefBytes();
+	}
+
+	public void setSlaveRefBytes(Map<String,AtomicLong> slaveRefBytes) {
+		_slaveRefBytes = slaveRefBytes;
+	}
+
+	/**
+	 * @return a copy of the bytes held by each slave under this directory,
+	 * null if they aren't known.
+	 * @see #ensureSlaveRefBytes()
+	 */
+	public Map<String,AtomicLong> getSlaveRefBytes() {
+		Map<String,AtomicLong> slaveRefBytes = _slaveRefBytes;
+		if (slaveRefBytes == null) {
+			return null;
+		}
+		TreeMap<String,AtomicLong> copy = new TreeMap<String,AtomicLong>();
+		synchronized (slaveRefBytes) {
+			for (Map.Entry<String,AtomicLong> entry : slaveRefBytes.entrySet()) {
+				copy.put(entry.getKey(), new AtomicLong(entry.getValue().get()));
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return a copy of the bytes held by each slave under this directory,
+	 * counted again first if they aren't known.
+	 */
+	protected Map<String,AtomicLong> ensureSlaveRefBytes() {
+		Map<String,AtomicLong> slaveRefBytes = getSlaveRefBytes();
+		if (slaveRefBytes == null) {
+			recalcSlaveRefBytes();
+			slaveRefBytes = getSlaveRefBytes();
+		}
+		return slaveRefBytes == null ? new TreeMap<String,AtomicLong>() : slaveRefBytes;
+	}
+
+	private void addSlaveRefBytes(String slave, long bytes) {
+		Map<String,AtomicLong> slaveRefBytes = _slaveRefBytes;
+		if (slaveRefBytes == null || bytes == 0L) {
+			return;
+		}
+		AtomicLong currentBytes;
+		synchronized (slaveRefBytes) {
+			currentBytes = slaveRefBytes.get(slave);
+			if (currentBytes == null) {
+				currentBytes = new AtomicLong(0);
+				slaveRefBytes.put(slave, currentBytes);
+			}
+		}
+		currentBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Adds <tt>bytes</tt> to each slave in <tt>slaves</tt> here and in
+	 * every parent, used when the size of a file changes.
+	 */
+	protected void addSlaveRefBytes(Set<String> slaves, long bytes) {
+		if (slaves.isEmpty() || bytes == 0L) {
+			return;
+		}
+		for (String slave : slaves) {
+			addSlaveRefBytes(slave, bytes);
+		}
+		if (!isRoot()) {
+			getParent().addSlaveRefBytes(slaves, bytes);
+		}
+		commit();
+	}
+
+	/**
+	 * Adds, or removes when <tt>sign</tt> is -1, the bytes of a child here
+	 * and in every parent. A child whose bytes aren't known makes them
+	 * unknown up to the root.
+	 */
+	protected void addChildSlaveRefBytes(Map<String,AtomicLong> childRefBytes, int sign) {
+		if (childRefBytes == null) {
+			invalidateSlaveRefBytes();
+			return;
+		}
+		if (!childRefBytes.isEmpty()) {
+			for (Map.Entry<String,AtomicLong> refEntry : childRefBytes.entrySet()) {
+				addSlaveRefBytes(refEntry.getKey(), sign * refEntry.getValue().get());
+			}
+			if (!isRoot()) {
+				getParent().addChildSlaveRefBytes(childRefBytes, sign);
+			}
+			commit();
+		}
+	}
+
+	private void invalidateSlaveRefBytes() {
+		if (_slaveRefBytes != null) {
+			_slaveRefBytes = null;
+			commit();
+		}
+		if (!isRoot()) {
+			getParent().invalidateSlaveRefBytes();
+		}
+	}
+
+	/**
+	 * Counts the bytes held by each slave from the children, subdirectories
+	 * whose bytes aren't known are counted first.
+	 */
+	protected void recalcSlaveRefBytes() {
+		TreeMap<String,AtomicLong> updBytes = new TreeMap<String,AtomicLong>();
+		for (InodeHandle inode : getInodes()) {
+			Map<String,AtomicLong> inodeBytes;
+			try {
+				if (inode.isDirectory()) {
+					inodeBytes = ((DirectoryHandle) inode).getInode().ensureSlaveRefBytes();
+				} else {
+					inodeBytes = inode.getInode().getSlaveRefBytes();
+				}
+			} catch (FileNotFoundException e) {
+				// Inode has been deleted, skip it
+				continue;
+			}
+			for (Map.Entry<String,AtomicLong> entry : inodeBytes.entrySet()) {
+				AtomicLong currBytes = updBytes.get(entry.getKey());
+				if (currBytes == null) {
+					updBytes.put(entry.getKey(), new AtomicLong(entry.getValue().get()));
+				} else {
+					currBytes.addAndGet(entry.getValue().get());
+				}
+			}
+		}
+		_slaveRefBytes = updBytes;
+		commit();
 	}
 }
@@ -30,6 +30,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.drftpd.GlobalContext;
 import org.drftpd.dynamicdata.Key;
@@ -122,7 +123,7 @@ public class VirtualFileSystemFile extends VirtualFileSystemInode implements Sta
 			added = _slaves.add(rslave);
 		}
 		if (added) {
-			getParent().incrementSlaveRefCount(rslave);
+			getParent().incrementSlaveRefCount(rslave, getSize());
 			commit();
 		
 			getVFS().notifySlavesChanged(this, _slaves);
@@ -155,7 +156,7 @@ public class VirtualFileSystemFile extends VirtualFileSystemInode implements Sta
 			isEmpty = _slaves.isEmpty();
 		}
 		if (removed) {
-			getParent().decrementSlaveRefCount(rslave);
+			getParent().decrementSlaveRefCount(rslave, getSize());
 		}
 		if (isEmpty) {
 			delete();
@@ -227,6 +228,11 @@ public class VirtualFileSystemFile extends VirtualFileSystemInode implements Sta
 				_size = size;
 			} else {
 				getParent().addSize(size-_size); // adjust parent by difference.
+				Set<String> slaves;
+				synchronized (_slaves) {
+					slaves = new HashSet<String>(_slaves);
+				}
+				getParent().addSlaveRefBytes(slaves, size-_size);
 				_size = size;
 			}
 			if (isInodeLoaded()) {
@@ -421,4 +427,14 @@ public class VirtualFileSystemFile extends VirtualFileSystemInode implements Sta
 		}
 		return slaveRefCounts;
 	}
+
+	protected synchronized Map<String,AtomicLong> getSlaveRefBytes() {
+		Map<String,AtomicLong> slaveRefBytes = new TreeMap<String,AtomicLong>();
+		synchronized(_slaves) {
+			for (String slave : _slaves) {
+				slaveRefBytes.put(slave, new AtomicLong(_size));
+			}
+		}
+		return slaveRefBytes;
+	}
 }
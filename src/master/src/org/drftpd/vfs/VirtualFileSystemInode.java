@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.drftpd.dynamicdata.Key;
@@ -408,6 +409,11 @@ public abstract class VirtualFileSystemInode implements Commitable {
 	}
 
 	protected abstract Map<String,AtomicInteger> getSlaveRefCounts();
+
+	/**
+	 * @return the bytes held by each slave, null if they aren't known.
+	 */
+	protected abstract Map<String,AtomicLong> getSlaveRefBytes();
 	
 	/**
 	 * Publish a refresh notification for this inode
@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Lowest representation of a directory.
@@ -102,4 +103,8 @@ public class VirtualFileSystemLink extends VirtualFileSystemInode {
 		// Links don't reside on slaves so return an empty Map
 		return new TreeMap<String,AtomicInteger>();
 	}
+
+	protected Map<String,AtomicLong> getSlaveRefBytes() {
+		return new TreeMap<String,AtomicLong>();
+	}
 }
@@ -18,6 +18,13 @@
 package org.drftpd.vfs;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.drftpd.slave.LightRemoteInode;
 
 import org.drftpd.exceptions.FileExistsException;
 
@@ -118,6 +125,60 @@ public class VirtualFileSystemTest extends TestCase {
 		assertNotNull(((VirtualFileSystemDirectory) inode).getInodeByName("testme"));
 	}
 
+	public void testSlaveRefBytes() throws FileNotFoundException, FileExistsException {
+		VirtualFileSystemDirectory test = (VirtualFileSystemDirectory) vfs.getInodeByPath("/Test");
+		test.createDirectory("Release", "drftpd", "drftpd");
+		VirtualFileSystemDirectory release = (VirtualFileSystemDirectory) vfs.getInodeByPath("/Test/Release");
+		release.createFile("file1", "drftpd", "drftpd", "slave1");
+		VirtualFileSystemFile file1 = (VirtualFileSystemFile) vfs.getInodeByPath("/Test/Release/file1");
+		file1.setSize(100L);
+		file1.addSlave("slave2");
+		release.createFile("file2", "drftpd", "drftpd", "slave2");
+		((VirtualFileSystemFile) vfs.getInodeByPath("/Test/Release/file2")).setSize(50L);
+
+		assertEquals(100L, test.getSlaveRefBytes().get("slave1").get());
+		assertEquals(150L, test.getSlaveRefBytes().get("slave2").get());
+
+		file1.removeSlave("slave2");
+		assertEquals(50L, release.getSlaveRefBytes().get("slave2").get());
+		vfs.getInodeByPath("/Test/Release/file2").delete();
+		assertEquals(0L, test.getSlaveRefBytes().get("slave2").get());
+		assertEquals(100L, test.getSlaveRefBytes().get("slave1").get());
+
+		// unknown bytes are counted again from the children
+		release.setSlaveRefBytes(null);
+		assertEquals(100L, release.ensureSlaveRefBytes().get("slave1").get());
+	}
+
+	public void testConcurrentRemerge() throws Exception {
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int i = 0; i < threads; i++) {
+			// every lane is missing /Test/Race and /Test/Race/a
+			final DirectoryHandle dir = new DirectoryHandle("/Test/Race/a/" + i + "/x");
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						dir.remerge(new ArrayList<LightRemoteInode>(), null, System.currentTimeMillis());
+					} catch (Throwable t) {
+						errors.add(t);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		start.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(Collections.emptyList(), errors);
+		for (int i = 0; i < threads; i++) {
+			assertTrue(new DirectoryHandle("/Test/Race/a/" + i + "/x").exists());
+		}
+	}
+
 	/*
 	 * Test method for 'org.drftpd.vfs.VirtualFileSystem.stripLast(String)'
 	 */
@@ -0,0 +1,203 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.io.SafeFileOutputStream;
+import org.drftpd.util.CommonPluginUtils;
+
+/**
+ * Stores every inode as its own javabeans XML file, directories are stored as
+ * real directories holding a {@link #dirName} file with their own data.<br>
+ * This is the historical on-disk format of the VFS.
+ * @version $Id$
+ */
+public class XMLInodeStore implements InodeStore {
+
+	static class DirInodeFilenameFilter implements FilenameFilter {
+
+		@Override
+		public boolean accept(File dir, String file) {
+			return !file.equals(dirName);
+		}
+
+	}
+
+	private static final Logger logger = Logger.getLogger(XMLInodeStore.class);
+
+	public static final String dirName = ".dirProperties";
+
+	private static final DirInodeFilenameFilter dirFilter = new DirInodeFilenameFilter();
+
+	private String _basePath;
+
+	public XMLInodeStore(String basePath) {
+		_basePath = basePath;
+		new File(_basePath).mkdirs();
+	}
+
+	/**
+	 * @param path
+	 * @return the real path of the file on the disk.<br>
+	 *         Ex: getRealPath('PICS/me.jpg') would return 'files/PICS/me.jpg'
+	 */
+	private String getRealPath(String path) {
+		if (path.equals(VirtualFileSystem.separator)) {
+			return _basePath;
+		}
+		return _basePath + path;
+	}
+
+	/**
+	 * @return the file holding the data of <tt>path</tt>.
+	 */
+	private File getDataFile(String path) {
+		File file = new File(getRealPath(path));
+		if (file.isDirectory()) {
+			return new File(file, dirName);
+		}
+		return file;
+	}
+
+	public VirtualFileSystemInode readInode(String path) throws FileNotFoundException, IOException {
+		File xmlFile = getDataFile(path);
+		String fullPath = xmlFile.getPath();
+		//logger.debug("Loading inode - " + fullPath);
+		XMLDecoder xmlDec = null;
+		try {
+			xmlDec = new XMLDecoder(new BufferedInputStream(
+					new FileInputStream(xmlFile)));
+			xmlDec.setExceptionListener(new VFSExceptionListener(fullPath));
+			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+			try {
+				return (VirtualFileSystemInode) xmlDec.readObject();
+			} catch (RuntimeException e) {
+				throw (IOException) new IOException("Unable to decode " + fullPath).initCause(e);
+			} finally {
+				Thread.currentThread().setContextClassLoader(prevCL);
+			}
+		} finally {
+			if (xmlDec != null) {
+				xmlDec.close();
+			}
+		}
+	}
+
+	public void writeInode(VirtualFileSystemInode inode) throws IOException {
+		String fullPath = getRealPath(inode.getPath());
+		XMLEncoder enc = null;
+		try {
+			if (inode instanceof VirtualFileSystemRoot) {
+				new File(_basePath).mkdirs();
+				fullPath = fullPath + VirtualFileSystem.separator + dirName;
+			} else if (inode.isDirectory()) {
+				new File(fullPath).mkdirs();
+				fullPath = fullPath + VirtualFileSystem.separator + dirName;
+			} else {
+				new File(getRealPath(inode.getParent().getPath())).mkdirs();
+			}
+			enc = new XMLEncoder(new BufferedOutputStream(
+					new SafeFileOutputStream(fullPath)));
+			inode.setupXML(enc);
+			enc.setExceptionListener(new VFSExceptionListener(fullPath));
+			enc.writeObject(inode);
+		} finally {
+			if (enc != null) {
+				enc.close();
+			}
+		}
+		logger.debug("Wrote fullPath " + fullPath);
+	}
+
+	public String[] listChildren(String path) {
+		String[] files = new File(getRealPath(path)).list(dirFilter);
+		if (files == null) {
+			return new String[0];
+		}
+		return files;
+	}
+
+	public boolean hasInodeData(String path) {
+		return getDataFile(path).exists();
+	}
+
+	public boolean isDirectory(String path) {
+		return new File(getRealPath(path)).isDirectory();
+	}
+
+	public void removeInodeData(String path) {
+		getDataFile(path).delete();
+	}
+
+	public void deleteInode(String path) {
+		recursiveDelete(new File(getRealPath(path)));
+	}
+
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException {
+		File file = new File(getRealPath(source));
+		if (!file.exists()) {
+			throw new FileNotFoundException(source + " cannot be found");
+		}
+		boolean result = file.renameTo(new File(getRealPath(destination)));
+		if (!result) {
+			throw new PermissionDeniedException("Cannot rename " + source
+					+ " to " + destination);
+		}
+	}
+
+	public void sync() {
+		// every inode is written and closed in its own file
+	}
+
+	public void close() {
+		// every write is already on disk
+	}
+
+	/**
+	 * If 'file' is a directory, it recurses through it and deletes, everything
+	 * inside it.<br>
+	 * If 'file' is an actual file, it simply deletes it.
+	 *
+	 * @param file
+	 */
+	private void recursiveDelete(File file) {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			for (int x = 0; x < files.length; x++) {
+				recursiveDelete(files[x]);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			logger.error("Could not delete local entry "
+					+ file.getAbsolutePath() + ", check permissions");
+		}
+	}
+}
@@ -0,0 +1,357 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.drftpd.util.LatencyHistogram;
+import org.drftpd.vfs.event.ImmutableInodeHandle;
+
+/**
+ * Queue of pending index changes applied by a dedicated thread, so the
+ * event thread doesn't wait for the {@link IndexEngineInterface}.<br>
+ * Queued changes to the same path are coalesced, only the last state of
+ * the inode is written. Renames touch every path under the renamed inode so
+ * they're applied in order, the changes queued before a rename are always
+ * written before it.<br>
+ * Once <tt>maxPending</tt> changes are queued the callers block until the
+ * thread catches up.
+ * @version $Id$
+ */
+public class IndexUpdateQueue {
+	private static final Logger logger = Logger.getLogger(IndexUpdateQueue.class);
+
+	private static final String EXCEPTION_OCCURED_WHILE_INDEXING = "An exception occured while indexing, check stack trace";
+
+	private enum Type { ADD, UPDATE, DELETE, RENAME }
+
+	private final IndexEngineInterface _engine;
+
+	private final int _maxPending;
+
+	private final int _batchSize;
+
+	private final LinkedList<Segment> _segments = new LinkedList<Segment>();
+
+	private int _pending;
+
+	private int _inFlight;
+
+	private boolean _stop;
+
+	private Thread _thread;
+
+	private final AtomicLong _applied = new AtomicLong();
+
+	private final AtomicLong _coalesced = new AtomicLong();
+
+	private final AtomicLong _batches = new AtomicLong();
+
+	private final AtomicLong _failures = new AtomicLong();
+
+	private final LatencyHistogram _lag = new LatencyHistogram();
+
+	/**
+	 * @param maxPending number of queued changes after which the callers block.
+	 * @param batchSize maximum number of changes taken from the queue at once.
+	 */
+	public IndexUpdateQueue(IndexEngineInterface engine, int maxPending, int batchSize) {
+		_engine = engine;
+		_maxPending = Math.max(1, maxPending);
+		_batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Starts the thread applying the queued changes.
+	 */
+	public synchronized void start() {
+		if (_thread != null) {
+			return;
+		}
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				processQueue();
+			}
+		}, "IndexUpdateThread");
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	public void add(ImmutableInodeHandle inode) {
+		enqueue(new Update(Type.ADD, null, inode));
+	}
+
+	public void update(ImmutableInodeHandle inode) {
+		enqueue(new Update(Type.UPDATE, null, inode));
+	}
+
+	public void delete(ImmutableInodeHandle inode) {
+		enqueue(new Update(Type.DELETE, null, inode));
+	}
+
+	public void rename(ImmutableInodeHandle fromInode, ImmutableInodeHandle toInode) {
+		enqueue(new Update(Type.RENAME, fromInode, toInode));
+	}
+
+	private synchronized void enqueue(Update update) {
+		if (_stop) {
+			logger.debug("Index update queue stopped, dropping " + update._type + " of " + update._inode.getPath());
+			return;
+		}
+		if (coalesce(update)) {
+			return;
+		}
+		while (_pending >= _maxPending && !_stop) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		// the same path may have been queued while waiting
+		if (coalesce(update)) {
+			return;
+		}
+		if (update._type == Type.RENAME) {
+			_segments.add(new Segment(update));
+		} else {
+			Segment last = _segments.peekLast();
+			if (last == null || last._rename != null) {
+				last = new Segment(null);
+				_segments.add(last);
+			}
+			last._updates.put(update._inode.getPath(), update);
+		}
+		_pending++;
+		notifyAll();
+	}
+
+	/**
+	 * @return true if <tt>update</tt> replaced a change queued after the last rename.
+	 */
+	private boolean coalesce(Update update) {
+		if (update._type == Type.RENAME) {
+			return false;
+		}
+		Segment last = _segments.peekLast();
+		if (last == null || last._rename != null) {
+			return false;
+		}
+		Update queued = last._updates.get(update._inode.getPath());
+		if (queued == null) {
+			return false;
+		}
+		queued.merge(update);
+		_coalesced.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return the next changes to apply, empty once the queue is stopped and
+	 * drained.
+	 */
+	private synchronized ArrayList<Update> takeBatch() throws InterruptedException {
+		_inFlight = 0;
+		notifyAll();
+		while (_segments.isEmpty() && !_stop) {
+			wait();
+		}
+		ArrayList<Update> batch = new ArrayList<Update>();
+		Segment first = _segments.peekFirst();
+		if (first == null) {
+			return batch;
+		}
+		if (first._rename != null) {
+			batch.add(first._rename);
+		} else {
+			for (Iterator<Update> iter = first._updates.values().iterator(); iter.hasNext() && batch.size() < _batchSize;) {
+				batch.add(iter.next());
+				iter.remove();
+			}
+		}
+		if (first._rename != null || first._updates.isEmpty()) {
+			_segments.removeFirst();
+		}
+		_pending -= batch.size();
+		_inFlight = batch.size();
+		notifyAll();
+		return batch;
+	}
+
+	private void processQueue() {
+		while (true) {
+			ArrayList<Update> batch;
+			try {
+				batch = takeBatch();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			for (Update update : batch) {
+				apply(update);
+			}
+			_batches.incrementAndGet();
+		}
+	}
+
+	private void apply(Update update) {
+		try {
+			switch (update._type) {
+			case ADD:
+				_engine.addInode(update._inode);
+				break;
+			case UPDATE:
+				_engine.updateInode(update._inode);
+				break;
+			case DELETE:
+				_engine.deleteInode(update._inode);
+				break;
+			case RENAME:
+				_engine.renameInode(update._fromInode, update._inode);
+				break;
+			}
+			_applied.incrementAndGet();
+		} catch (IndexException e) {
+			_failures.incrementAndGet();
+			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
+		} catch (RuntimeException e) {
+			_failures.incrementAndGet();
+			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
+		}
+		_lag.record(System.currentTimeMillis() - update._queued);
+	}
+
+	/**
+	 * Waits until every change queued before this call has been applied.
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while ((_pending > 0 || _inFlight > 0) && _thread != null && _thread.isAlive()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Applies the queued changes and stops the thread, changes queued
+	 * afterwards are dropped.
+	 * @param timeout milliseconds to wait for the queue to be drained.
+	 */
+	public void stop(long timeout) throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			_stop = true;
+			notifyAll();
+			thread = _thread;
+		}
+		if (thread != null) {
+			thread.join(timeout);
+		}
+	}
+
+	/**
+	 * @return the number of queued changes.
+	 */
+	public synchronized int getPending() {
+		return _pending;
+	}
+
+	/**
+	 * @return milliseconds since the oldest queued change was made.
+	 */
+	public synchronized long getLag() {
+		Segment first = _segments.peekFirst();
+		if (first == null) {
+			return 0;
+		}
+		Update oldest = first._rename != null ? first._rename : first._updates.values().iterator().next();
+		return System.currentTimeMillis() - oldest._queued;
+	}
+
+	public long getApplied() {
+		return _applied.get();
+	}
+
+	public long getCoalesced() {
+		return _coalesced.get();
+	}
+
+	public long getBatches() {
+		return _batches.get();
+	}
+
+	public long getFailures() {
+		return _failures.get();
+	}
+
+	/**
+	 * @return the time between a change being queued and it being applied.
+	 */
+	public LatencyHistogram getLagTimes() {
+		return _lag;
+	}
+
+	/**
+	 * Consecutive changes which can be coalesced, or a single rename.
+	 */
+	private static class Segment {
+		private final LinkedHashMap<String, Update> _updates = new LinkedHashMap<String, Update>();
+
+		private final Update _rename;
+
+		private Segment(Update rename) {
+			_rename = rename;
+		}
+	}
+
+	private static class Update {
+		private Type _type;
+
+		private final ImmutableInodeHandle _fromInode;
+
+		private ImmutableInodeHandle _inode;
+
+		private final long _queued;
+
+		private Update(Type type, ImmutableInodeHandle fromInode, ImmutableInodeHandle inode) {
+			_type = type;
+			_fromInode = fromInode;
+			_inode = inode;
+			_queued = System.currentTimeMillis();
+		}
+
+		/**
+		 * Replaces this change by a later one on the same path.
+		 */
+		private void merge(Update update) {
+			if (update._type == Type.ADD && _type != Type.ADD) {
+				// the previous document may still be in the index
+				_type = Type.UPDATE;
+			} else if (!(update._type == Type.UPDATE && _type == Type.ADD)) {
+				_type = update._type;
+			}
+			_inode = update._inode;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.event.ImmutableInodeHandle;
+import org.drftpd.vfs.index.AdvancedSearchParams.InodeType;
+
+/**
+ * @version $Id$
+ */
+public class IndexUpdateQueueTest extends TestCase {
+
+	private RecordingEngine _engine;
+
+	private IndexUpdateQueue _queue;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_engine = new RecordingEngine();
+		_queue = new IndexUpdateQueue(_engine, 100, 2);
+	}
+
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		_queue.stop(5000);
+	}
+
+	private static ImmutableInodeHandle inode(String path) {
+		return new ImmutableInodeHandle(null, path);
+	}
+
+	public void testCoalesce() throws InterruptedException {
+		_queue.add(inode("/a"));
+		_queue.update(inode("/a"));
+		_queue.update(inode("/b"));
+		_queue.delete(inode("/b"));
+		_queue.delete(inode("/c"));
+		_queue.add(inode("/c"));
+		assertEquals(3, _queue.getPending());
+		assertEquals(3, _queue.getCoalesced());
+
+		_queue.start();
+		_queue.flush();
+		assertEquals("[add /a, delete /b, update /c]", _engine._calls.toString());
+		assertEquals(0, _queue.getPending());
+		assertEquals(3, _queue.getApplied());
+		assertEquals(2, _queue.getBatches());
+	}
+
+	public void testRenameIsOrdered() throws InterruptedException {
+		_queue.update(inode("/a"));
+		_queue.rename(inode("/a"), inode("/b"));
+		_queue.update(inode("/a"));
+		_queue.update(inode("/b"));
+		_queue.update(inode("/b"));
+		assertEquals(4, _queue.getPending());
+
+		_queue.start();
+		_queue.flush();
+		assertEquals("[update /a, rename /a /b, update /a, update /b]", _engine._calls.toString());
+	}
+
+	public void testStopAppliesQueuedChanges() throws InterruptedException {
+		_queue.add(inode("/a"));
+		_queue.add(inode("/b"));
+		_queue.add(inode("/c"));
+		_queue.start();
+		_queue.stop(5000);
+		assertEquals(3, _engine._calls.size());
+
+		_queue.add(inode("/d"));
+		assertEquals(0, _queue.getPending());
+		assertEquals(3, _engine._calls.size());
+	}
+
+	private static class RecordingEngine implements IndexEngineInterface {
+
+		private final ArrayList<String> _calls = new ArrayList<String>();
+
+		public void init() {
+		}
+
+		public synchronized void addInode(ImmutableInodeHandle inode) {
+			_calls.add("add " + inode.getPath());
+		}
+
+		public synchronized void deleteInode(ImmutableInodeHandle inode) {
+			_calls.add("delete " + inode.getPath());
+		}
+
+		public synchronized void updateInode(ImmutableInodeHandle inode) {
+			_calls.add("update " + inode.getPath());
+		}
+
+		public synchronized void renameInode(ImmutableInodeHandle fromInode, ImmutableInodeHandle toInode) {
+			_calls.add("rename " + fromInode.getPath() + " " + toInode.getPath());
+		}
+
+		public void commit() {
+		}
+
+		public void rebuildIndex() {
+		}
+
+		public Map<String, String> getStatus() {
+			return null;
+		}
+
+		public Set<String> findInode(DirectoryHandle startNode, String text, InodeType inodeType) {
+			return null;
+		}
+
+		public Map<String, String> advancedFind(DirectoryHandle startNode, AdvancedSearchParams params) {
+			return null;
+		}
+	}
+}
@@ -20,7 +20,6 @@ package org.drftpd.vfs.index;
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
 import org.bushe.swing.event.annotation.EventSubscriber;
-import org.drftpd.GlobalContext;
 import org.drftpd.vfs.event.ImmutableInodeHandle;
 import org.drftpd.vfs.event.VirtualFileSystemEvent;
 import org.drftpd.vfs.event.VirtualFileSystemInodeCreatedEvent;
@@ -35,7 +34,9 @@ import org.drftpd.vfs.event.VirtualFileSystemSlaveEvent;
 /**
  * This VFS listener is responsible to notify the {@link IndexEngineInterface} that some
  * modification happened to the file system. It's implementation agnostic, so it can be used by
- * any implementation of indexes.
+ * any implementation of indexes.<br>
+ * The changes are handed to an {@link IndexUpdateQueue} so the event thread
+ * never waits for the index.
  * 
  * @author fr0w
  * @version $Id: IndexVirtualFileSIndexVirtualFileSystemListener
@@ -44,20 +45,42 @@ public class IndexingVirtualFileSystemListener {
 	
 	private static final Logger logger = Logger.getLogger(IndexingVirtualFileSystemListener.class);
 	
-	private static final String EXCEPTION_OCCURED_WHILE_INDEXING = "An exception occured while indexing, check stack trace";
+	private IndexUpdateQueue _queue;
+	
+	/**
+	 * @param maxPending number of queued changes after which the event thread
+	 * waits for the index to catch up.
+	 * @param batchSize maximum number of changes applied at once.
+	 */
+	public IndexingVirtualFileSystemListener(IndexEngineInterface engine, int maxPending, int batchSize) {
+		_queue = new IndexUpdateQueue(engine, maxPending, batchSize);
+	}
 	
 	/**
 	 * Initializes the listener, subscribing to the needed events.
 	 */
 	public void init() {
+		_queue.start();
 		AnnotationProcessor.process(this);
 	}
 	
 	/**
-	 * Shortcut to access the {@link IndexEngineInterface}
+	 * Applies the queued changes and stops indexing new ones.
+	 * @param timeout milliseconds to wait for the queued changes.
 	 */
-	private static IndexEngineInterface getIndexEngine() {
-		return GlobalContext.getGlobalContext().getIndexEngine();
+	public void shutdown(long timeout) {
+		try {
+			_queue.stop(timeout);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while applying the queued index changes");
+		}
+		if (_queue.getPending() > 0) {
+			logger.warn(_queue.getPending() + " index changes were not applied");
+		}
+	}
+	
+	public IndexUpdateQueue getQueue() {
+		return _queue;
 	}
 	
 	/**
@@ -123,11 +146,7 @@ public class IndexingVirtualFileSystemListener {
 	 * @param inode
 	 */
 	protected void inodeUpdated(ImmutableInodeHandle inode) {
-		try {
-			getIndexEngine().updateInode(inode);
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		_queue.update(inode);
 	}
 	
 	/**
@@ -138,11 +157,7 @@ public class IndexingVirtualFileSystemListener {
 	public void inodeRenamed(VirtualFileSystemRenameEvent event) {
 		if (bypassEvent(event))
 			return;
-		try {
-			getIndexEngine().renameInode(event.getSource(), event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		_queue.rename(event.getSource(), event.getImmutableInode());
 	}
 	
 	/**
@@ -155,11 +170,7 @@ public class IndexingVirtualFileSystemListener {
 		if (bypassEvent(event))
 			return;
 		
-		try {
-			getIndexEngine().addInode(event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		_queue.add(event.getImmutableInode());
 	}
 	
 	/**
@@ -171,11 +182,7 @@ public class IndexingVirtualFileSystemListener {
 		if (bypassEvent(event))
 			return;
 		
-		try {
-			getIndexEngine().deleteInode(event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		_queue.delete(event.getImmutableInode());
 	}
 	
 	/**
@@ -0,0 +1,125 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.perms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.drftpd.permissions.PathPermission;
+import org.drftpd.vfs.InodeHandle;
+import org.drftpd.vfs.VirtualFileSystem;
+
+/**
+ * The path permissions of one type, in the order they must be checked,
+ * arranged by the directories their {@link PathPermission#getPathPrefix()}
+ * is made of.<br>
+ * Looking up a path only checks the permissions found along the directories
+ * of that path, the ones without a usable prefix are kept at the root and
+ * are always checked.<br>
+ * Not thread safe while it's being built, read only afterwards.
+ * @version $Id$
+ */
+public class PathPermissionTree {
+
+	private final Node _root = new Node();
+
+	private int _size = 0;
+
+	/**
+	 * Adds <tt>perm</tt> after every permission already added.
+	 */
+	public void add(PathPermission perm) {
+		Node node = _root;
+		String prefix = perm.getPathPrefix();
+		if (prefix != null && prefix.startsWith(VirtualFileSystem.separator)) {
+			// only directories followed by a '/' are complete
+			int start = 1;
+			int end;
+			while ((end = prefix.indexOf(VirtualFileSystem.separator, start)) != -1) {
+				node = node.getChild(prefix.substring(start, end), true);
+				start = end + 1;
+			}
+		}
+		node._entries.add(new Entry(_size++, perm));
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the first added permission whose path matches <tt>inode</tt>,
+	 * or null.
+	 */
+	public PathPermission getFirstMatch(InodeHandle inode) {
+		String path = inode.getPath();
+		Node node = _root;
+		int start = 1;
+		Entry best = null;
+		while (node != null) {
+			for (Entry entry : node._entries) {
+				if (best != null && entry._order > best._order) {
+					break;
+				}
+				if (entry._perm.checkPath(inode)) {
+					best = entry;
+					break;
+				}
+			}
+			if (start >= path.length()) {
+				break;
+			}
+			int end = path.indexOf(VirtualFileSystem.separator, start);
+			if (end == -1) {
+				end = path.length();
+			}
+			node = node.getChild(path.substring(start, end), false);
+			start = end + 1;
+		}
+		return best == null ? null : best._perm;
+	}
+
+	private static class Entry {
+		private final int _order;
+
+		private final PathPermission _perm;
+
+		private Entry(int order, PathPermission perm) {
+			_order = order;
+			_perm = perm;
+		}
+	}
+
+	private static class Node {
+		private final ArrayList<Entry> _entries = new ArrayList<Entry>();
+
+		private HashMap<String, Node> _children;
+
+		private Node getChild(String name, boolean create) {
+			Node child = _children == null ? null : _children.get(name);
+			if (child == null && create) {
+				if (_children == null) {
+					_children = new HashMap<String, Node>();
+				}
+				child = new Node();
+				_children.put(name, child);
+			}
+			return child;
+		}
+	}
+}
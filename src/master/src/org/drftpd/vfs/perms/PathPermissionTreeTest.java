@@ -0,0 +1,73 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.perms;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.drftpd.permissions.PathPermission;
+import org.drftpd.permissions.RegexPathPermission;
+import org.drftpd.permissions.StringPathPermission;
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.FileHandle;
+
+/**
+ * @version $Id$
+ */
+public class PathPermissionTreeTest extends TestCase {
+
+	private static PathPermission string(String path) {
+		return new StringPathPermission(path, Collections.singletonList("*"));
+	}
+
+	private static PathPermission regex(String regex) {
+		return new RegexPathPermission(Pattern.compile(regex), Collections.singletonList("*"));
+	}
+
+	public void testOrder() {
+		PathPermission all = regex(".*");
+		PathPermission incoming = string("/incoming/");
+		PathPermission mp3 = string("/incoming/mp3/");
+		PathPermissionTree tree = new PathPermissionTree();
+		tree.add(mp3);
+		tree.add(all);
+		tree.add(incoming);
+		assertEquals(3, tree.size());
+
+		assertSame(mp3, tree.getFirstMatch(new FileHandle("/incoming/mp3/a.mp3")));
+		assertSame(all, tree.getFirstMatch(new FileHandle("/incoming/tv/a.avi")));
+		assertSame(all, tree.getFirstMatch(new DirectoryHandle("/")));
+	}
+
+	public void testPrefixes() {
+		PathPermission old = string("/archive/old");
+		PathPermission nfo = regex("\\.nfo$");
+		PathPermissionTree tree = new PathPermissionTree();
+		tree.add(old);
+		tree.add(nfo);
+
+		// the last directory of a prefix may be incomplete
+		assertSame(old, tree.getFirstMatch(new FileHandle("/archive/older/a.nfo")));
+		assertSame(old, tree.getFirstMatch(new DirectoryHandle("/archive/old")));
+		assertSame(nfo, tree.getFirstMatch(new FileHandle("/archive/new/a.nfo")));
+		assertNull(tree.getFirstMatch(new FileHandle("/Archive/old/a.rar")));
+		assertNull(tree.getFirstMatch(new DirectoryHandle("/archive")));
+	}
+}
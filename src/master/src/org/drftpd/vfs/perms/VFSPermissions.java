@@ -26,6 +26,7 @@ import java.util.TreeMap;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
+import org.drftpd.misc.LRUMap;
 import org.drftpd.permissions.GlobPathPermission;
 import org.drftpd.permissions.PathPermission;
 import org.drftpd.usermanager.User;
@@ -47,11 +48,26 @@ public class VFSPermissions {
 	private HashMap<String, HashMap<String, LinkedList<PathPermission>>> _pathPerms;	
 	private HashMap<String, String> _directiveToType;
 	private HashMap<String, TreeMap<Integer, String>> _priorities;
-	
+
+	// HashMap<Type, PathPermissionTree>, built on the first check after perms.conf is read
+	private volatile HashMap<String, PathPermissionTree> _compiledPerms;
+
+	private LRUMap<String, Boolean> _decisions;
+
 	public VFSPermissions() {
+		this(0);
+	}
+
+	/**
+	 * @param cacheSize maximum number of cached decisions, 0 disables the cache.
+	 */
+	public VFSPermissions(int cacheSize) {
 		loadExtensions();
 		
 		_pathPerms = new HashMap<String, HashMap<String, LinkedList<PathPermission>>>();
+		if (cacheSize > 0) {
+			_decisions = new LRUMap<String, Boolean>(cacheSize);
+		}
 	}
 
 	public void loadExtensions() {
@@ -136,7 +152,7 @@ public class VFSPermissions {
 		pw.handle(directive, st);
 	}
 	
-	protected void addPermissionToMap(String directive, PathPermission pathPerm) {
+	protected synchronized void addPermissionToMap(String directive, PathPermission pathPerm) {
 		String type = _directiveToType.get(directive);
 		
 		HashMap<String, LinkedList<PathPermission>> map = _pathPerms.get(type);
@@ -155,6 +171,49 @@ public class VFSPermissions {
 		}
 		
 		list.add(pathPerm);
+
+		_compiledPerms = null;
+		clearCache();
+	}
+
+	/**
+	 * Arranges the path permissions of every type in the order set by the
+	 * directive priorities.
+	 */
+	private synchronized HashMap<String, PathPermissionTree> getCompiledPerms() {
+		if (_compiledPerms != null) {
+			return _compiledPerms;
+		}
+		HashMap<String, PathPermissionTree> compiled = new HashMap<String, PathPermissionTree>();
+		for (Entry<String, HashMap<String, LinkedList<PathPermission>>> e : _pathPerms.entrySet()) {
+			TreeMap<Integer, String> order = _priorities.get(e.getKey());
+			if (order == null) {
+				continue;
+			}
+			PathPermissionTree tree = new PathPermissionTree();
+			for (String directive : order.values()) {
+				LinkedList<PathPermission> perms = e.getValue().get(directive);
+				if (perms != null) {
+					for (PathPermission perm : perms) {
+						tree.add(perm);
+					}
+				}
+			}
+			compiled.put(e.getKey(), tree);
+		}
+		_compiledPerms = compiled;
+		return compiled;
+	}
+
+	/**
+	 * Forgets every cached decision.
+	 */
+	public void clearCache() {
+		if (_decisions != null) {
+			synchronized (_decisions) {
+				_decisions.clear();
+			}
+		}
 	}
 	
 	public boolean checkPathPermission(String type, User user, InodeHandle inode) {
@@ -171,42 +230,67 @@ public class VFSPermissions {
 			throw new IllegalArgumentException("Invalid VFS perm type.");
 		}
 		
-		HashMap<String, LinkedList<PathPermission>> map = _pathPerms.get(type);
-		TreeMap<Integer, String> order = _priorities.get(type);
+		HashMap<String, PathPermissionTree> compiled = _compiledPerms;
+		if (compiled == null) {
+			compiled = getCompiledPerms();
+		}
+		PathPermissionTree tree = compiled.get(type);
 		
-		if (map == null) {
+		if (tree == null) {
+			if (_pathPerms.containsKey(type)) {
+				NullPointerException npe = new NullPointerException("You've got some screwy plugin.xml files!  Blame fr0w!");
+				logger.error(npe, npe);
+				throw npe;
+			}
 			return defaults;
 		}
-		
-		if (order == null) {
-			NullPointerException npe = new NullPointerException("You've got some screwy plugin.xml files!  Blame fr0w!");
-			logger.error(npe, npe);
-			throw npe;
+
+		String key = null;
+		if (_decisions != null) {
+			key = getDecisionKey(type, user, inode, defaults, invertUserSemantic);
+			Boolean decision;
+			synchronized (_decisions) {
+				decision = _decisions.get(key);
+			}
+			if (decision != null) {
+				return decision;
+			}
 		}
-				
-		for (Entry<Integer, String> entry : order.entrySet()) {
-			String directive = entry.getValue();
-			
-			LinkedList<PathPermission> perms = map.get(directive);
-			
-			if (perms == null) {
-				// 'directive' was not found in perms.conf
-				continue;
+
+		boolean decision = defaults;
+		PathPermission perm = tree.getFirstMatch(inode);
+		if (perm != null) {
+			decision = invertUserSemantic ? !perm.check(user) : perm.check(user);
+		}
+
+		if (key != null) {
+			synchronized (_decisions) {
+				_decisions.put(key, decision);
 			}
-			
-			if (!perms.isEmpty()) {
-				for (PathPermission perm : perms) {
-					if (perm.checkPath(inode)) {
-						if (invertUserSemantic) {
-							return !perm.check(user);
-						}
-						return perm.check(user);
-					}
-				}
+		}
+		return decision;
+	}
+
+	/**
+	 * The user's groups are part of the key, so changing them doesn't need
+	 * the cache to be cleared. A reload replaces the whole VFSPermissions.<br>
+	 * This assumes {@link PathPermission#checkPath(InodeHandle)} only looks
+	 * at the path and at whether the inode is a directory, which is true for
+	 * all the permissions shipped.
+	 */
+	private static String getDecisionKey(String type, User user, InodeHandle inode,
+			boolean defaults, boolean invertUserSemantic) {
+		StringBuilder key = new StringBuilder(type);
+		key.append(defaults ? '1' : '0').append(invertUserSemantic ? '1' : '0');
+		if (user != null) {
+			key.append(user.getName()).append('\0').append(user.getGroup());
+			for (String group : user.getGroups()) {
+				key.append('\0').append(group);
 			}
 		}
-		
-		return defaults;
+		key.append('\0').append(inode.isDirectory() ? 'd' : 'f');
+		key.append(inode.getPath());
+		return key.toString();
 	}
 
 	public String getPrivPathRegex() {
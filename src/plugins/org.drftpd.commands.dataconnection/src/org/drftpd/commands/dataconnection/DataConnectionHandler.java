@@ -21,13 +21,11 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ResourceBundle;
 import java.util.StringTokenizer;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocket;
 
 import org.apache.log4j.Logger;
 import org.drftpd.Bytes;
@@ -52,6 +50,7 @@ import org.drftpd.master.FtpReply;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.master.SlaveManager;
 import org.drftpd.master.TransferState;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.ConnectInfo;
 import org.drftpd.slave.RemoteIOException;
 import org.drftpd.slave.Transfer;
@@ -93,6 +92,12 @@ public class DataConnectionHandler extends CommandInterface {
 	
 	public static final Key<Long> MAX_XFER_SPEED = new Key<Long>(DataConnectionHandler.class, "maxTransferSpeed");
 
+	public static final Key<Long> MAX_USER_XFER_SPEED = new Key<Long>(DataConnectionHandler.class, "maxUserTransferSpeed");
+
+	public static final Key<Long> MAX_GROUP_XFER_SPEED = new Key<Long>(DataConnectionHandler.class, "maxGroupTransferSpeed");
+
+	public static final Key<Long> MAX_SLAVE_XFER_SPEED = new Key<Long>(DataConnectionHandler.class, "maxSlaveTransferSpeed");
+
 	private ResourceBundle _bundle;
 
 	private String _keyPrefix;
@@ -111,38 +116,16 @@ public class DataConnectionHandler extends CommandInterface {
 		}
 
 		BaseFtpConnection conn = (BaseFtpConnection) request.getSession();
-		Socket s = conn.getControlSocket();
 
 		//reply success
 		conn.printOutput(new FtpReply(234, request.getCommand()
 				+ " " + request.getArgument() + " successful").toString());
-		SSLSocket s2 = null;
 		try {
-			s2 = (SSLSocket) ctx.getSocketFactory().createSocket(s,
-					s.getInetAddress().getHostAddress(), s.getPort(), true);
-			conn.setControlSocket(s2);
-			s2.setUseClientMode(false);
-			s2.setSoTimeout(10000);
-			String[] cipherSuites = GlobalContext.getConfig().getCipherSuites();
-			if (cipherSuites != null && cipherSuites.length > 0) {
-				s2.setEnabledCipherSuites(GlobalContext.getConfig().getCipherSuites());
-			}
-			s2.startHandshake();
-			conn.authDone();
+			conn.secureControlSocket(ctx);
 		} catch (IOException e) {
 			logger.warn("", e);
-			if (s2 != null) {
-				try {
-					s2.close();
-				} catch (IOException e2){
-					logger.debug("error closing SSLSocket connection");
-				}
-			}
 			conn.stop(e.getMessage());
-
-			return null;
 		}
-		s2 = null;
 
 		return null;
 	}
@@ -482,7 +465,7 @@ public class DataConnectionHandler extends CommandInterface {
 			return new CommandResponse(500, "TLS not configured");
 		}
 
-		if (!(conn.getControlSocket() instanceof SSLSocket)) {
+		if (!conn.isSecure()) {
 			return new CommandResponse(500, "You are not on a secure channel");
 		}
 
@@ -508,7 +491,7 @@ public class DataConnectionHandler extends CommandInterface {
 			return new CommandResponse(500, "TLS not configured");
 		}
 
-		if (!(conn.getControlSocket() instanceof SSLSocket)) {
+		if (!conn.isSecure()) {
 			return new CommandResponse(500, "You are not on a secure channel");
 		}
 
@@ -722,6 +705,29 @@ public class DataConnectionHandler extends CommandInterface {
 	 * IoUtils.close(is); IoUtils.close(os); mDataConnection.reset(); } }
 	 */
 
+	/**
+	 * Limits shared by every transfer of the user, of its primary group and of
+	 * the slave itself, in bytes per second.<br>
+	 * The slave limit defaults to the "maxspeed.send" or "maxspeed.receive"
+	 * property of the slave.
+	 */
+	private BandwidthLimits getBandwidthLimits(CommandRequest request, User user,
+			RemoteSlave rslave, boolean isRetr) {
+		long slaveMaxSpeed = request.getObjectLong(MAX_SLAVE_XFER_SPEED);
+		if (slaveMaxSpeed == 0) {
+			String property = isRetr ? "maxspeed.send" : "maxspeed.receive";
+			try {
+				slaveMaxSpeed = Long.parseLong(rslave.getProperty(property, "0"));
+			} catch (NumberFormatException e) {
+				logger.warn("Invalid " + property + " for " + rslave.getName(), e);
+			}
+		}
+		return new BandwidthLimits(user == null ? "" : user.getName(),
+				user == null ? "" : user.getGroup(),
+				request.getObjectLong(MAX_USER_XFER_SPEED),
+				request.getObjectLong(MAX_GROUP_XFER_SPEED), slaveMaxSpeed);
+	}
+
 	/**
 	 * <code>RETR &lt;SP&gt; &lt;pathname&gt; &lt;CRLF&gt;</code><br>
 	 *
@@ -955,12 +961,13 @@ public class DataConnectionHandler extends CommandInterface {
 			//transfer
 			try {
 				String address = request.getSession().getObject(INET_ADDRESS, "*@*");           	
+				BandwidthLimits limits = getBandwidthLimits(request, user, ts.getTransferSlave(), isRetr);
 
 				if (isRetr) {
 					ts.sendFile(ts.getTransferFile().getPath(), ts.getType(),
 							ts.getResumePosition(), address,
 							request.getObjectLong(MIN_XFER_SPEED),
-							request.getObjectLong(MAX_XFER_SPEED));
+							request.getObjectLong(MAX_XFER_SPEED), limits);
 
 					while (true) {
 						synchronized(ts) {
@@ -979,7 +986,7 @@ public class DataConnectionHandler extends CommandInterface {
 					ts.receiveFile(ts.getTransferFile().getPath(), ts.getType(),
 							ts.getResumePosition(), address,
 							request.getObjectLong(MIN_XFER_SPEED),
-							request.getObjectLong(MAX_XFER_SPEED));
+							request.getObjectLong(MAX_XFER_SPEED), limits);
 
 					while (true) {
 						synchronized(ts) {
@@ -37,9 +37,15 @@ import org.drftpd.commandmanager.ImproperUsageException;
 import org.drftpd.commandmanager.StandardCommandManager;
 import org.drftpd.dynamicdata.Key;
 import org.drftpd.exceptions.ObjectNotFoundException;
+import org.drftpd.master.CommitManager;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.master.Session;
+import org.drftpd.master.cron.ScheduledTask;
+import org.drftpd.master.cron.TaskScheduler;
 import org.drftpd.util.ExtendedPropertyResourceBundle;
+import org.drftpd.util.PortRange;
+import org.drftpd.vfs.InodeCache;
+import org.drftpd.vfs.VirtualFileSystem;
 import org.tanesha.replacer.ReplacerEnvironment;
 
 /**
@@ -206,6 +212,65 @@ public class ServerStatus extends CommandInterface {
 				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.gcinfo"));
 			}
 			
+			if (arg.equals("vfs") || isAll) {
+				InodeCache cache = VirtualFileSystem.getVirtualFileSystem().getInodeCache();
+				long hits = cache.getHits();
+				long misses = cache.getMisses();
+				long lookups = hits + misses;
+				env.add("cache.size", cache.getSize());
+				env.add("cache.maxsize", cache.getMaxSize());
+				env.add("cache.hits", hits);
+				env.add("cache.misses", misses);
+				env.add("cache.evictions", cache.getEvictions());
+				env.add("cache.hitratio", lookups == 0 ? "0" : String.valueOf(hits * 100 / lookups));
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.vfscache"));
+			}
+			
+			if (arg.equals("commit") || isAll) {
+				CommitManager commitManager = CommitManager.getCommitManager();
+				env.add("commit.queue", commitManager.getQueueSize());
+				env.add("commit.maxqueue", commitManager.getMaxQueueSize());
+				env.add("commit.writers", commitManager.getWriterCount());
+				env.add("commit.syncs", commitManager.getSyncCount());
+				env.add("commit.queued", commitManager.getQueueLatency().toString());
+				env.add("commit.write", commitManager.getWriteLatency().toString());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.commit"));
+			}
+			
+			if (arg.equals("tasks") || isAll) {
+				TaskScheduler scheduler = GlobalContext.getGlobalContext().getScheduler();
+				List<ScheduledTask> tasks = scheduler.getTasks();
+				env.add("tasks.count", tasks.size());
+				env.add("tasks.threads", scheduler.getThreads());
+				env.add("tasks.active", scheduler.getActiveThreads());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.tasks"));
+				for (ScheduledTask task : tasks) {
+					env.add("task.name", task.toString());
+					env.add("task.period", task.getPeriod() == 0 ? "once" : Time.formatTime(task.getPeriod()));
+					env.add("task.next", task.isRunning() ? "running for " + Time.formatTime(task.getRunningTime())
+							: Time.formatTime(Math.max(0, task.getDelay())));
+					env.add("task.runs", task.getRuns());
+					env.add("task.failures", task.getFailures());
+					env.add("task.overruns", task.getOverruns());
+					env.add("task.time", task.getRunTime().toString());
+					response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.task"));
+				}
+			}
+			
+			if (arg.equals("ports") || isAll) {
+				PortRange portRange = GlobalContext.getGlobalContext().getPortRange();
+				int size = portRange.getSize();
+				env.add("ports.size", size == 0 ? "any" : String.valueOf(size));
+				env.add("ports.leased", portRange.getLeased());
+				env.add("ports.peak", portRange.getPeakLeased());
+				env.add("ports.usage", size == 0 ? "0" : String.valueOf(portRange.getPeakLeased() * 100 / size));
+				env.add("ports.quarantined", portRange.getQuarantined());
+				env.add("ports.leases", portRange.getLeases());
+				env.add("ports.bindfailures", portRange.getBindFailures());
+				env.add("ports.exhausted", portRange.getExhausted());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.ports"));
+			}
+			
 			if (isAll) {
 				// no need to output repeated 
 				break;
@@ -18,6 +18,7 @@
 package org.drftpd.commands.slavemanagement;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.ResourceBundle;
@@ -38,6 +39,8 @@ import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.master.Session;
 import org.drftpd.master.SlaveManager;
+import org.drftpd.slave.BandwidthUsage;
+import org.drftpd.slave.CommandLaneStatus;
 import org.drftpd.slave.RemoteIOException;
 import org.drftpd.slave.SlaveStatus;
 import org.drftpd.slave.Transfer;
@@ -219,6 +222,19 @@ public class SlaveManagement extends CommandInterface {
 					fillEnvWithSlaveStatus(env, status);
 					env.add("status", rslave.isRemerging() ? "REMERGING" : "ONLINE");
 					response.addComment(session.jprintf(_bundle, _keyPrefix+"slave.online", env, request.getUser()));
+					if (showMore) {
+						for (CommandLaneStatus lane : rslave.getLaneStatus()) {
+							env.add("lane", lane.getName());
+							env.add("active", lane.getActive());
+							env.add("threads", lane.getThreads() == 0 ? "-" : String.valueOf(lane.getThreads()));
+							env.add("queued", lane.getQueued());
+							env.add("completed", lane.getCompleted());
+							env.add("rejected", lane.getRejected());
+							env.add("meanwait", lane.getMeanWait());
+							env.add("meanrun", lane.getMeanRun());
+							response.addComment(session.jprintf(_bundle, _keyPrefix+"slave.lane", env, request.getUser()));
+						}
+					}
 				} catch (SlaveUnavailableException e) {
 					// should never happen since we tested slave status w/ isOnline and isAvaiable.
 					throw new RuntimeException("There's a bug somewhere in the code, the slave was available now it isn't.", e);
@@ -256,7 +272,7 @@ public class SlaveManagement extends CommandInterface {
 		rslave.setRemerging(true);
 		try { 
 			rslave.fetchResponse(SlaveManager.getBasicIssuer().issueRemergeToSlave(rslave, 
-					request.getCurrentDirectory().getPath(), false, 0L, 0L), 0); 
+					request.getCurrentDirectory().getPath(), false, 0L, 0L, null, null), 0); 
 		} catch (RemoteIOException e) { 
 			rslave.setOffline("IOException during remerge()");
 
@@ -273,7 +289,7 @@ public class SlaveManagement extends CommandInterface {
 	}
 
 	/**
-	 * Usage: site slave slavename [set,addmask,delmask]
+	 * Usage: site slave slavename [set,addmask,delmask,bandwidth]
 	 * @throws ImproperUsageException
 	 */
 	public CommandResponse doSITE_SLAVE(CommandRequest request) throws ImproperUsageException {
@@ -398,6 +414,28 @@ public class SlaveManagement extends CommandInterface {
 		} else if (command.equalsIgnoreCase("shutdown")) {
 			rslave.shutdown();
 			return StandardCommandManager.genericResponse("RESPONSE_200_COMMAND_OK");
+		} else if (command.equalsIgnoreCase("bandwidth")) {
+			List<BandwidthUsage> usage;
+			try {
+				usage = rslave.fetchBandwidthFromIndex(
+						SlaveManager.getBasicIssuer().issueBandwidthToSlave(rslave));
+			} catch (SlaveUnavailableException e) {
+				return new CommandResponse(550, session.jprintf(_bundle,
+						_keyPrefix+"slave.offline", env, request.getUser()));
+			} catch (RemoteIOException e) {
+				return new CommandResponse(550, e.getMessage());
+			}
+			for (BandwidthUsage bucket : usage) {
+				env.add("bucket", bucket.getName());
+				env.add("speed", Bytes.formatBytes(bucket.getSpeed()) + "/s");
+				env.add("maxspeed", bucket.getMaxSpeed() == 0 ? "unlimited"
+						: Bytes.formatBytes(bucket.getMaxSpeed()) + "/s");
+				env.add("transfers", bucket.getTransfers());
+				env.add("transfered", Bytes.formatBytes(bucket.getTransfered()));
+				response.addComment(session.jprintf(_bundle,
+						_keyPrefix+"slave.bandwidth", env, request.getUser()));
+			}
+			return response;
 		}
 		throw new ImproperUsageException();
 	}
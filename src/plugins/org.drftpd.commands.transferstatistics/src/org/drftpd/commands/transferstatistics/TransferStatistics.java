@@ -18,11 +18,8 @@
 package org.drftpd.commands.transferstatistics;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.List;
 import java.util.ResourceBundle;
 import java.util.StringTokenizer;
 
@@ -41,7 +38,6 @@ import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserFileException;
 import org.drftpd.usermanager.UserManager;
-import org.drftpd.usermanager.util.UserComparator;
 import org.drftpd.usermanager.util.UserTransferStats;
 import org.tanesha.replacer.ReplacerEnvironment;
 
@@ -213,9 +209,10 @@ public class TransferStatistics extends CommandInterface  {
 
 	private CommandResponse execute(CommandRequest request, String type) {
 
-		Collection<User> users = GlobalContext.getGlobalContext().getUserManager().getAllUsers();
+		UserManager userManager = GlobalContext.getGlobalContext().getUserManager();
 
 		int count = 10; // default # of users to list
+		Permission perm = null;
 
 		if (request.hasArgument()) {
 			StringTokenizer st = new StringTokenizer(request.getArgument());
@@ -230,21 +227,14 @@ public class TransferStatistics extends CommandInterface  {
 				/* TODO Likely this will need revisiting
 				 * to move to prehooks
 				 */
-				Permission perm = new Permission(Permission.makeUsers(st));
-
-				for (Iterator<User> iter = users.iterator(); iter.hasNext();) {
-					User user = iter.next();
-
-					if (!perm.check(user)) {
-						iter.remove();
-					}
-				}
+				perm = new Permission(Permission.makeUsers(st));
 			}
 		}
 
 		CommandResponse response = StandardCommandManager.genericResponse("RESPONSE_200_COMMAND_OK");
-		ArrayList<User> users2 = new ArrayList<User>(users);
-		Collections.sort(users2, new UserComparator(type));
+		// filtered users can be anywhere in the ranking
+		List<String> names = userManager.getUserRankings().getTop(type,
+				perm == null ? count : Integer.MAX_VALUE);
 		ReplacerEnvironment env = new ReplacerEnvironment();
 
 		String headerBundleKey = _keyPrefix + type + ".header"; 
@@ -262,12 +252,26 @@ public class TransferStatistics extends CommandInterface  {
 
 		int i = 0;
 
-		for (User user : users2) {
-			if (++i > count) {
+		for (String name : names) {
+			if (i >= count) {
 				break;
 			}
 
-			env.add("pos", "" + i);
+			User user;
+			try {
+				user = userManager.getUserByNameUnchecked(name);
+			} catch (NoSuchUserException e) {
+				continue;
+			} catch (UserFileException e) {
+				logger.warn("Error loading " + name, e);
+				continue;
+			}
+
+			if (perm != null && !perm.check(user)) {
+				continue;
+			}
+
+			env.add("pos", "" + ++i);
 
 			env.add("upbytesday", Bytes.formatBytes(user.getUploadedBytesDay()));
 			env.add("upfilesday", "" + user.getUploadedFilesDay());
@@ -49,6 +49,7 @@ import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserFileException;
 import org.drftpd.util.GroupPosition;
+import org.drftpd.util.ReplacerUtils;
 import org.drftpd.util.UploaderPosition;
 import org.drftpd.util.Base64;
 import org.drftpd.vfs.DirectoryHandle;
@@ -318,7 +319,7 @@ public class ZipscriptZipPostHook extends ZipTools implements PostHookInterface
 								(stat.getFiles() * 100) / dizInfo.getTotal()) + "%");
 
 				try {
-					raceTextBuilder.append(SimplePrintf.jprintf(racerline,raceenv));
+					raceTextBuilder.append(SimplePrintf.jprintf(ReplacerUtils.getFormat(racerline),raceenv));
 					raceTextBuilder.append('\n');
 					position++;
 				} catch (FormatterException e) {
@@ -348,7 +349,7 @@ public class ZipscriptZipPostHook extends ZipTools implements PostHookInterface
 						Bytes.formatBytes(stat.getXferspeed()) + "/s");
 
 				try {
-					raceTextBuilder.append(SimplePrintf.jprintf(groupline,raceenv));
+					raceTextBuilder.append(SimplePrintf.jprintf(ReplacerUtils.getFormat(groupline),raceenv));
 					raceTextBuilder.append('\n');
 					position++;
 				} catch (FormatterException e) {
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import org.drftpd.commands.zipscript.vfs.SFVRaceState;
 import org.drftpd.commands.zipscript.vfs.ZipscriptVFSDataSFV;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.SlaveUnavailableException;
@@ -29,7 +30,6 @@ import org.drftpd.protocol.zipscript.common.SFVStatus;
 import org.drftpd.vfs.CaseInsensitiveTreeMap;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
-import org.drftpd.vfs.VirtualFileSystem;
 
 /**
  * @author djb61
@@ -40,11 +40,10 @@ public class SFVTools {
 	public static Collection<FileHandle> getSFVFiles(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData) 
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
 		Collection<FileHandle> files = new ArrayList<FileHandle>();
-		SFVInfo sfvInfo = sfvData.getSFVInfo();
+		CaseInsensitiveTreeMap<String, Long> sfvEntries = sfvData.getSFVInfo().getEntries();
 
-		for (String name : sfvInfo.getEntries().keySet()) {
-			FileHandle file = new FileHandle(dir.getPath()+VirtualFileSystem.separator+name);
-			if (file.exists() && file.getXfertime() != -1) {
+		for (FileHandle file : dir.getFilesUnchecked()) {
+			if (sfvEntries.containsKey(file.getName()) && file.getXfertime() != -1) {
 				files.add(file);
 			}
 		}
@@ -53,61 +52,32 @@ public class SFVTools {
 
 	public static long getSFVTotalBytes(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData) 
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalBytes = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			totalBytes += file.getSize();
-		}
-		return totalBytes;
+		return sfvData.getRaceState().getBytes();
 	}
 
 	public static long getSFVLargestFileBytes(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData) 
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long largestFileBytes = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			if (file.getSize() > largestFileBytes) {
-				largestFileBytes = file.getSize();
-			}
-		}
-		return largestFileBytes;
+		return sfvData.getRaceState().getLargestFileBytes();
 	}
 
 	public static long getSFVTotalXfertime(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData)
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalXfertime = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			totalXfertime += file.getXfertime();
-		}
-		return totalXfertime;
+		return sfvData.getRaceState().getXfertime();
 	}
 
 	public static long getXferspeed(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData)
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalXfertime = getSFVTotalXfertime(dir, sfvData);
+		SFVRaceState state = sfvData.getRaceState();
+		long totalXfertime = state.getXfertime();
 		if (totalXfertime / 1000 == 0) {
 			return 0;
 		}
 
-		return getSFVTotalBytes(dir, sfvData) / (totalXfertime / 1000);
+		return state.getBytes() / (totalXfertime / 1000);
 	}
 
 	public static SFVStatus getSFVStatus(SFVInfo sfvInfo, DirectoryHandle dir)
 	throws IOException, FileNotFoundException {
-		int offline = 0;
-		int present = 0;
-		CaseInsensitiveTreeMap<String, Long> sfvEntries = sfvInfo.getEntries();
-		for (FileHandle file : dir.getFilesUnchecked()) {
-			if (file.isFile() && sfvEntries.containsKey(file.getName())) {
-				if (!file.isUploading()) {
-					present++;
-				}
-				if (!file.isAvailable()) {
-					offline++;
-				}
-			}
-		}
-		return new SFVStatus(sfvEntries.size(), offline, present);
+		return new ZipscriptVFSDataSFV(dir).getRaceState(sfvInfo).getStatus(sfvInfo);
 	}
 }
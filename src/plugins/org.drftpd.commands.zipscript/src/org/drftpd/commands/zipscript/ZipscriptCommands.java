@@ -36,6 +36,7 @@ import org.drftpd.commandmanager.CommandRequest;
 import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.commandmanager.ImproperUsageException;
 import org.drftpd.commandmanager.StandardCommandManager;
+import org.drftpd.commands.zipscript.vfs.SFVRaceStateListener;
 import org.drftpd.commands.zipscript.vfs.ZipscriptVFSDataSFV;
 import org.drftpd.event.LoadPluginEvent;
 import org.drftpd.event.UnloadPluginEvent;
@@ -69,6 +70,7 @@ public class ZipscriptCommands extends CommandInterface {
 
 		// Subscribe to events
 		AnnotationProcessor.process(this);
+		SFVRaceStateListener.register();
 
 		// Load any rescan post process providers from plugins
 		try {
@@ -234,6 +236,11 @@ public class ZipscriptCommands extends CommandInterface {
 								Checksum.formatChecksum(fileChecksum) + " " + status);
 					}
 				}
+				try {
+					sfvData.rebuildRaceState(workingSfv);
+				} catch (FileNotFoundException e3) {
+					// directory was deleted while rescanning
+				}
 			}
 			// Run any post processing extensions
 			for (RescanPostProcessDirInterface rescanAddon: _rescanAddons) {
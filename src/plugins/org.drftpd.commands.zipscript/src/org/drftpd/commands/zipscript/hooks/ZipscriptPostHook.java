@@ -37,6 +37,7 @@ import org.drftpd.commands.dataconnection.DataConnectionHandler;
 import org.drftpd.commands.dir.Dir;
 import org.drftpd.commands.zipscript.SFVTools;
 import org.drftpd.commands.zipscript.event.SFVMemberTransferEvent;
+import org.drftpd.commands.zipscript.vfs.SFVRaceState;
 import org.drftpd.commands.zipscript.vfs.ZipscriptVFSDataSFV;
 import org.drftpd.dynamicdata.KeyNotFoundException;
 import org.drftpd.exceptions.NoAvailableSlaveException;
@@ -49,6 +50,7 @@ import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserFileException;
 import org.drftpd.util.GroupPosition;
+import org.drftpd.util.ReplacerUtils;
 import org.drftpd.util.UploaderPosition;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
@@ -156,6 +158,8 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 				ZipscriptVFSDataSFV sfvData = new ZipscriptVFSDataSFV(transferFile.getParent());
 				SFVInfo sfv = sfvData.getSFVInfo();
 				Long sfvChecksum = sfv.getEntries().get(transferFile.getName());
+				// the upload is over, don't wait for the vfs events to see it
+				sfvData.refreshRaceEntry(transferFileName);
 
 				/*If no exceptions are thrown means that the sfv is avaible and has a entry
 				 * for that file.
@@ -192,6 +196,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 						// then it should be deleted.
 						response.addComment("0Byte File, Deleting...");
 						transferFile.deleteUnchecked();
+						sfvData.refreshRaceEntry(transferFileName);
 					} else
 						// The file has checksum = 0, although the size is != 0,
 						// meaning that we are not using checked transfers.
@@ -203,6 +208,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 					response.addComment(" deleting file");
 					response.setMessage("Checksum mismatch, deleting file");
 					transferFile.deleteUnchecked();
+					sfvData.refreshRaceEntry(transferFileName);
 				}
 			} catch (NoAvailableSlaveException e) {
 				response.addComment(
@@ -261,9 +267,12 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 		if (deleFileName.toLowerCase().endsWith(".sfv")) {
 			try {
 				request.getCurrentDirectory().removePluginMetaData(SFVInfo.SFVINFO);
+				request.getCurrentDirectory().removePluginMetaData(SFVRaceState.SFVRACESTATE);
 			} catch(FileNotFoundException e) {
 				// No inode to remove sfvinfo from
 			}
+		} else {
+			new ZipscriptVFSDataSFV(request.getCurrentDirectory()).refreshRaceEntry(deleFileName);
 		}
 	}
 
@@ -322,7 +331,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 								(stat.getFiles() * 100) / sfvInfo.getSize()) + "%");
 
 				try {
-					raceTextBuilder.append(SimplePrintf.jprintf(racerline,raceenv));
+					raceTextBuilder.append(SimplePrintf.jprintf(ReplacerUtils.getFormat(racerline),raceenv));
 					raceTextBuilder.append('\n');
 					position++;
 				} catch (FormatterException e) {
@@ -352,7 +361,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 						Bytes.formatBytes(stat.getXferspeed()) + "/s");
 
 				try {
-					raceTextBuilder.append(SimplePrintf.jprintf(groupline,raceenv));
+					raceTextBuilder.append(SimplePrintf.jprintf(ReplacerUtils.getFormat(groupline),raceenv));
 					raceTextBuilder.append('\n');
 					position++;
 				} catch (FormatterException e) {
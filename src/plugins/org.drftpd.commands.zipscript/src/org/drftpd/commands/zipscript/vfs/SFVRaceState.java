@@ -0,0 +1,236 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.zipscript.vfs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Set;
+
+import org.drftpd.GlobalContext;
+import org.drftpd.dynamicdata.Key;
+import org.drftpd.exceptions.ObjectNotFoundException;
+import org.drftpd.master.RemoteSlave;
+import org.drftpd.master.SlaveManager;
+import org.drftpd.protocol.zipscript.common.SFVInfo;
+import org.drftpd.protocol.zipscript.common.SFVStatus;
+
+/**
+ * Race aggregate of a directory holding an sfv, kept next to its
+ * {@link SFVInfo} so the race status doesn't need a walk over every file.<br>
+ * Only the files listed in the sfv are tracked, each one is refreshed
+ * whenever the VFS reports a change to it, the totals are adjusted from the
+ * previous values of that entry.<br>
+ * Upload and slave state isn't worth persisting, nothing is written with the
+ * inode and a state read back from disk is rebuilt the first time it's used.
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class SFVRaceState implements Serializable {
+
+	public static final Key<SFVRaceState> SFVRACESTATE = new Key<SFVRaceState>(SFVRaceState.class, "sfvracestate");
+
+	private transient long _sfvChecksum;
+
+	private transient boolean _built;
+
+	private transient HashMap<String, Entry> _entries;
+
+	private transient int _present;
+
+	private transient long _bytes;
+
+	private transient long _xfertime;
+
+	private transient long _largest;
+
+	/**
+	 * Only used when loading the inode, such a state is never valid.
+	 */
+	public SFVRaceState() {
+		_entries = new HashMap<String, Entry>();
+	}
+
+	public SFVRaceState(long sfvChecksum) {
+		this();
+		_sfvChecksum = sfvChecksum;
+		_built = true;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		_entries = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * @return true if this state was built from <tt>sfvInfo</tt> and hasn't
+	 * been read back from disk since.
+	 */
+	public synchronized boolean isValidFor(SFVInfo sfvInfo) {
+		return _built && _sfvChecksum == sfvInfo.getChecksum();
+	}
+
+	/**
+	 * Sets the current state of the sfv entry <tt>name</tt>.
+	 * @param xfertime the transfer time of the file, -1 while it was never
+	 * completely transferred.
+	 */
+	public synchronized void update(String name, long size, long xfertime, boolean uploading, Set<String> slaves) {
+		Entry entry = new Entry(size, xfertime, uploading, slaves);
+		Entry old = _entries.put(name.toLowerCase(), entry);
+		if (old != null) {
+			subtract(old);
+		}
+		add(entry);
+		if (old != null && old.isComplete() && old._size == _largest && !(entry.isComplete() && entry._size >= _largest)) {
+			recalculateLargest();
+		}
+	}
+
+	/**
+	 * Forgets the sfv entry <tt>name</tt>, the file is gone or isn't a file
+	 * anymore.
+	 */
+	public synchronized void remove(String name) {
+		Entry old = _entries.remove(name.toLowerCase());
+		if (old == null) {
+			return;
+		}
+		subtract(old);
+		if (old.isComplete() && old._size == _largest) {
+			recalculateLargest();
+		}
+	}
+
+	private void add(Entry entry) {
+		if (!entry._uploading) {
+			_present++;
+		}
+		if (entry.isComplete()) {
+			_bytes += entry._size;
+			_xfertime += entry._xfertime;
+			if (entry._size > _largest) {
+				_largest = entry._size;
+			}
+		}
+	}
+
+	private void subtract(Entry entry) {
+		if (!entry._uploading) {
+			_present--;
+		}
+		if (entry.isComplete()) {
+			_bytes -= entry._size;
+			_xfertime -= entry._xfertime;
+		}
+	}
+
+	private void recalculateLargest() {
+		_largest = 0;
+		for (Entry entry : _entries.values()) {
+			if (entry.isComplete() && entry._size > _largest) {
+				_largest = entry._size;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of sfv entries present and not being uploaded.
+	 */
+	public synchronized int getPresent() {
+		return _present;
+	}
+
+	/**
+	 * @return the number of sfv entries present which have no slave online.
+	 */
+	public synchronized int getOffline() {
+		SlaveManager slaveManager = GlobalContext.getGlobalContext().getSlaveManager();
+		HashMap<String, Boolean> available = new HashMap<String, Boolean>();
+		int offline = 0;
+		for (Entry entry : _entries.values()) {
+			boolean online = false;
+			for (String slaveName : entry._slaves) {
+				Boolean slaveAvailable = available.get(slaveName);
+				if (slaveAvailable == null) {
+					try {
+						RemoteSlave rslave = slaveManager.getRemoteSlave(slaveName);
+						slaveAvailable = rslave.isAvailable();
+					} catch (ObjectNotFoundException e) {
+						slaveAvailable = false;
+					}
+					available.put(slaveName, slaveAvailable);
+				}
+				if (slaveAvailable) {
+					online = true;
+					break;
+				}
+			}
+			if (!online) {
+				offline++;
+			}
+		}
+		return offline;
+	}
+
+	/**
+	 * @return the sum of the sizes of the completely transferred entries.
+	 */
+	public synchronized long getBytes() {
+		return _bytes;
+	}
+
+	/**
+	 * @return the sum of the transfer times of the completely transferred
+	 * entries.
+	 */
+	public synchronized long getXfertime() {
+		return _xfertime;
+	}
+
+	public synchronized long getLargestFileBytes() {
+		return _largest;
+	}
+
+	public synchronized SFVStatus getStatus(SFVInfo sfvInfo) {
+		return new SFVStatus(sfvInfo.getSize(), getOffline(), _present);
+	}
+
+	private static class Entry {
+
+		private final long _size;
+
+		private final long _xfertime;
+
+		private final boolean _uploading;
+
+		private final Set<String> _slaves;
+
+		private Entry(long size, long xfertime, boolean uploading, Set<String> slaves) {
+			_size = size;
+			_xfertime = xfertime;
+			_uploading = uploading;
+			_slaves = slaves;
+		}
+
+		private boolean isComplete() {
+			return _xfertime != -1;
+		}
+	}
+}
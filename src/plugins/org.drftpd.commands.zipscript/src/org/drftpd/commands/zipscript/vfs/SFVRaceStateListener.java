@@ -0,0 +1,98 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.zipscript.vfs;
+
+import org.bushe.swing.event.annotation.AnnotationProcessor;
+import org.bushe.swing.event.annotation.EventSubscriber;
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.VirtualFileSystem;
+import org.drftpd.vfs.event.VirtualFileSystemEvent;
+import org.drftpd.vfs.event.VirtualFileSystemInodeCreatedEvent;
+import org.drftpd.vfs.event.VirtualFileSystemInodeDeletedEvent;
+import org.drftpd.vfs.event.VirtualFileSystemRenameEvent;
+import org.drftpd.vfs.event.VirtualFileSystemSizeEvent;
+import org.drftpd.vfs.event.VirtualFileSystemSlaveEvent;
+
+/**
+ * Keeps the {@link SFVRaceState} of race directories up to date from the
+ * VFS events.<br>
+ * Every event only refreshes the entry of the file it's about, directories
+ * without an sfv or without a race aggregate built are skipped right away.
+ * @version $Id$
+ */
+public class SFVRaceStateListener {
+
+	private static SFVRaceStateListener _listener;
+
+	private SFVRaceStateListener() {
+	}
+
+	/**
+	 * Subscribes the listener to the VFS events, only the first call does
+	 * anything. The listener is kept here since subscribers are only weakly
+	 * referenced.
+	 */
+	public static synchronized void register() {
+		if (_listener == null) {
+			_listener = new SFVRaceStateListener();
+			AnnotationProcessor.process(_listener);
+		}
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemInodeCreatedEvent(VirtualFileSystemInodeCreatedEvent vfsevent) {
+		refresh(vfsevent.getImmutableInode().getPath());
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemInodeDeletedEvent(VirtualFileSystemInodeDeletedEvent vfsevent) {
+		refresh(vfsevent.getImmutableInode().getPath());
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemRenameEvent(VirtualFileSystemRenameEvent vfsevent) {
+		refresh(vfsevent.getSource().getPath());
+		refresh(vfsevent.getImmutableInode().getPath());
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemSizeEvent(VirtualFileSystemSizeEvent vfsevent) {
+		refreshFile(vfsevent);
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemSlaveEvent(VirtualFileSystemSlaveEvent vfsevent) {
+		refreshFile(vfsevent);
+	}
+
+	private void refreshFile(VirtualFileSystemEvent vfsevent) {
+		// size changes are also propagated to every parent directory
+		if (vfsevent.getInode().isFile()) {
+			refresh(vfsevent.getImmutableInode().getPath());
+		}
+	}
+
+	private void refresh(String path) {
+		if (path.equals(VirtualFileSystem.separator)) {
+			return;
+		}
+		int pos = path.lastIndexOf(VirtualFileSystem.separator);
+		DirectoryHandle dir = new DirectoryHandle(VirtualFileSystem.stripLast(path));
+		new ZipscriptVFSDataSFV(dir).refreshRaceEntry(path.substring(pos + 1));
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.zipscript.vfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.drftpd.protocol.zipscript.common.SFVInfo;
+
+/**
+ * @version $Id$
+ */
+public class SFVRaceStateTest extends TestCase {
+
+	private static void update(SFVRaceState state, String name, long size, long xfertime, boolean uploading) {
+		state.update(name, size, xfertime, uploading, Collections.singleton("slave1"));
+	}
+
+	public void testTotals() {
+		SFVRaceState state = new SFVRaceState(1);
+		update(state, "a.r00", 100, 10, false);
+		update(state, "a.r01", 50, 5, false);
+		update(state, "a.r02", 20, -1, true);
+		assertEquals(2, state.getPresent());
+		assertEquals(150, state.getBytes());
+		assertEquals(15, state.getXfertime());
+		assertEquals(100, state.getLargestFileBytes());
+
+		update(state, "A.R02", 200, 20, false);
+		assertEquals(3, state.getPresent());
+		assertEquals(350, state.getBytes());
+		assertEquals(35, state.getXfertime());
+		assertEquals(200, state.getLargestFileBytes());
+	}
+
+	public void testLargestRecalculated() {
+		SFVRaceState state = new SFVRaceState(1);
+		update(state, "a.r00", 100, 10, false);
+		update(state, "a.r01", 50, 5, false);
+		update(state, "a.r00", 10, 1, false);
+		assertEquals(50, state.getLargestFileBytes());
+		state.remove("a.r01");
+		assertEquals(10, state.getLargestFileBytes());
+		assertEquals(1, state.getPresent());
+		assertEquals(10, state.getBytes());
+		state.remove("missing");
+		assertEquals(1, state.getPresent());
+	}
+
+	public void testValidity() throws Exception {
+		SFVInfo sfvInfo = new SFVInfo();
+		sfvInfo.setChecksum(1);
+		SFVRaceState state = new SFVRaceState(1);
+		assertTrue(state.isValidFor(sfvInfo));
+		sfvInfo.setChecksum(2);
+		assertFalse(state.isValidFor(sfvInfo));
+		assertFalse(new SFVRaceState().isValidFor(sfvInfo));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new SFVRaceState(2));
+		out.close();
+		SFVRaceState loaded = (SFVRaceState) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertFalse(loaded.isValidFor(sfvInfo));
+		update(loaded, "a.r00", 100, 10, false);
+		assertEquals(100, loaded.getBytes());
+	}
+}
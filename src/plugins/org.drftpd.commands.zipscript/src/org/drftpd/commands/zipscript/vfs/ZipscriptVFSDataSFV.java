@@ -31,8 +31,10 @@ import org.drftpd.protocol.zipscript.common.SFVStatus;
 import org.drftpd.protocol.zipscript.common.async.AsyncResponseSFVInfo;
 import org.drftpd.protocol.zipscript.master.ZipscriptIssuer;
 import org.drftpd.slave.RemoteIOException;
+import org.drftpd.vfs.CaseInsensitiveTreeMap;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
+import org.drftpd.vfs.InodeHandle;
 import org.drftpd.vfs.ObjectNotValidException;
 
 /**
@@ -97,6 +99,91 @@ public class ZipscriptVFSDataSFV {
 	public SFVStatus getSFVStatus() throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
 		return SFVTools.getSFVStatus(getSFVInfo(), _dir);
 	}
+
+	public SFVRaceState getRaceState() throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
+		return getRaceState(getSFVInfo());
+	}
+
+	/**
+	 * @return the race aggregate of this directory, built from the files
+	 * present if there's none yet or it belongs to a previous sfv.
+	 */
+	public SFVRaceState getRaceState(SFVInfo sfvInfo) throws FileNotFoundException {
+		try {
+			SFVRaceState state = _dir.getPluginMetaData(SFVRaceState.SFVRACESTATE);
+			if (state.isValidFor(sfvInfo)) {
+				return state;
+			}
+		} catch (KeyNotFoundException e) {
+			// not built yet
+		}
+		return rebuildRaceState(sfvInfo);
+	}
+
+	/**
+	 * Throws away the race aggregate of this directory and builds a new one
+	 * from the files present.
+	 */
+	public SFVRaceState rebuildRaceState(SFVInfo sfvInfo) throws FileNotFoundException {
+		SFVRaceState state = new SFVRaceState(sfvInfo.getChecksum());
+		CaseInsensitiveTreeMap<String, Long> sfvEntries = sfvInfo.getEntries();
+		for (FileHandle file : _dir.getFilesUnchecked()) {
+			if (sfvEntries.containsKey(file.getName())) {
+				updateRaceEntry(state, file);
+			}
+		}
+		_dir.addPluginMetaData(SFVRaceState.SFVRACESTATE, state);
+		return state;
+	}
+
+	/**
+	 * Refreshes the race entry of the file <tt>name</tt> in this directory.<br>
+	 * Does nothing unless the directory already has an sfv and a race
+	 * aggregate built for it, the aggregate will be built from scratch the
+	 * next time it's asked for anyway.
+	 */
+	public void refreshRaceEntry(String name) {
+		SFVRaceState state;
+		try {
+			SFVInfo sfvInfo = getSFVInfoFromInode(_dir);
+			if (!sfvInfo.getEntries().containsKey(name)) {
+				return;
+			}
+			state = _dir.getPluginMetaData(SFVRaceState.SFVRACESTATE);
+			if (!state.isValidFor(sfvInfo)) {
+				return;
+			}
+		} catch (FileNotFoundException e) {
+			// directory is gone
+			return;
+		} catch (KeyNotFoundException e) {
+			return;
+		}
+		InodeHandle inode;
+		try {
+			inode = _dir.getInodeHandleUnchecked(name);
+		} catch (FileNotFoundException e) {
+			state.remove(name);
+			return;
+		}
+		if (inode.isFile()) {
+			updateRaceEntry(state, (FileHandle) inode);
+		} else {
+			state.remove(name);
+		}
+	}
+
+	private void updateRaceEntry(SFVRaceState state, FileHandle file) {
+		// read under the lock so a concurrent refresh can't apply older values last
+		synchronized (state) {
+			try {
+				state.update(file.getName(), file.getSize(), file.getXfertime(),
+						file.isUploading(), file.getSlaveNames());
+			} catch (FileNotFoundException e) {
+				state.remove(file.getName());
+			}
+		}
+	}
 	
 	private SFVInfo getSFVInfoFromInode(DirectoryHandle vfsDirHandle) throws FileNotFoundException, KeyNotFoundException {
 		return vfsDirHandle.getPluginMetaData(SFVInfo.SFVINFO);
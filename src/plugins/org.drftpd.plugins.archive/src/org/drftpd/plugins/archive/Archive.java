@@ -22,7 +22,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
-import java.util.TimerTask;
 
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
@@ -31,6 +30,7 @@ import org.drftpd.GlobalContext;
 import org.drftpd.PluginInterface;
 import org.drftpd.PropertyHelper;
 import org.drftpd.event.ReloadEvent;
+import org.drftpd.master.cron.ScheduledTask;
 import org.drftpd.misc.CaseInsensitiveHashMap;
 import org.drftpd.plugins.archive.archivetypes.ArchiveHandler;
 import org.drftpd.plugins.archive.archivetypes.ArchiveType;
@@ -51,7 +51,7 @@ public class Archive implements PluginInterface {
 
 	private HashSet<ArchiveHandler> _archiveHandlers = null;
 
-	private TimerTask _runHandler = null;
+	private ScheduledTask _runHandler = null;
 	
 	private CaseInsensitiveHashMap<String, Class<ArchiveType>> _typesMap;
 	
@@ -131,10 +131,10 @@ public class Archive implements PluginInterface {
 		
 		if (_runHandler != null) {
 			_runHandler.cancel();
-			GlobalContext.getGlobalContext().getTimer().purge();
 		}
 		
-		_runHandler = new TimerTask() {
+		_runHandler = GlobalContext.getGlobalContext().getScheduler().scheduleWithFixedDelay("archive", "ArchiveCycle",
+				new Runnable() {
 			public void run() {
 				
 				int count = 1;
@@ -150,12 +150,7 @@ public class Archive implements PluginInterface {
 					count++;					
 				} 
 			}
-		};
-		try {
-			GlobalContext.getGlobalContext().getTimer().schedule(_runHandler, _cycleTime, _cycleTime);
-		} catch (IllegalStateException e) {
-			// Timer Already Canceled
-		}
+		}, _cycleTime, _cycleTime);
 	}
 
 	/*
@@ -217,7 +212,6 @@ public class Archive implements PluginInterface {
 	public void stopPlugin(String reason) {
 		if (_runHandler != null) {
 			_runHandler.cancel();
-			GlobalContext.getGlobalContext().getTimer().purge();
 		}
 		AnnotationProcessor.unprocess(this);
 		logger.info("Archive plugin unloaded successfully");
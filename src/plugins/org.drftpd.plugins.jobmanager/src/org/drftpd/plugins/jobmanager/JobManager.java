@@ -24,7 +24,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Set;
-import java.util.TimerTask;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
@@ -37,6 +36,7 @@ import org.drftpd.event.ReloadEvent;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.ObjectNotFoundException;
 import org.drftpd.master.RemoteSlave;
+import org.drftpd.master.cron.ScheduledTask;
 
 /**
  * @author zubov
@@ -55,7 +55,7 @@ public class JobManager implements PluginInterface {
 
 	private long _sleepSeconds;
 
-	private TimerTask _runJob = null;
+	private ScheduledTask _runJob = null;
 
 	/**
 	 * Keeps track of all jobs and controls them
@@ -278,24 +278,19 @@ public class JobManager implements PluginInterface {
 				"sleepSeconds", "30"));
 		if (_runJob != null) {
 			_runJob.cancel();
-			getGlobalContext().getTimer().purge();
 		}
 		if (_sleepSeconds <= 0) {
 			_sleepSeconds = 500;
 		}
-		_runJob = new TimerTask() {
+		_runJob = getGlobalContext().getScheduler().scheduleWithFixedDelay("jobmanager", "JobTransfer",
+				new Runnable() {
 			public void run() {
 				if (_isStopped) {
 					return;
 				}
 				new JobTransferThread(getJobManager()).start();
 			}
-		};
-		try {
-			getGlobalContext().getTimer().schedule(_runJob, 0, _sleepSeconds);
-		} catch (IllegalStateException e) {
-			// Timer Already Canceled
-		}
+		}, 0, _sleepSeconds);
 	}
 
 	public synchronized void removeJobFromQueue(Job job) {
@@ -338,7 +333,6 @@ public class JobManager implements PluginInterface {
 	public void stopPlugin(String reason) {
 		if (_runJob != null) {
 			_runJob.cancel();
-			getGlobalContext().getTimer().purge();
 		}
 		if (_queuedJobSet != null) {
 			synchronized (this) {
@@ -45,6 +45,8 @@ public class TrafficManagerHooks implements PreHookInterface {
 					if ((trafficType.checkInclude(request.getCurrentDirectory().getPath())) && (!trafficType.checkExclude(request.getCurrentDirectory().getPath())) && (trafficType.getPerms().check(request.getUserObject()))) {
 						request.setObject(DataConnectionHandler.MAX_XFER_SPEED, trafficType.getMaxSpeed());
 						request.setObject(DataConnectionHandler.MIN_XFER_SPEED, trafficType.getMinSpeed());
+						request.setObject(DataConnectionHandler.MAX_USER_XFER_SPEED, trafficType.getUserMaxSpeed());
+						request.setObject(DataConnectionHandler.MAX_GROUP_XFER_SPEED, trafficType.getGroupMaxSpeed());
 						break;
 					}
 				}
@@ -67,6 +69,8 @@ public class TrafficManagerHooks implements PreHookInterface {
 					if ((trafficType.checkInclude(request.getCurrentDirectory().getPath())) && (!trafficType.checkExclude(request.getCurrentDirectory().getPath())) && (trafficType.getPerms().check(request.getUserObject()))) {
 						request.setObject(DataConnectionHandler.MAX_XFER_SPEED, trafficType.getMaxSpeed());
 						request.setObject(DataConnectionHandler.MIN_XFER_SPEED, trafficType.getMinSpeed());
+						request.setObject(DataConnectionHandler.MAX_USER_XFER_SPEED, trafficType.getUserMaxSpeed());
+						request.setObject(DataConnectionHandler.MAX_GROUP_XFER_SPEED, trafficType.getGroupMaxSpeed());
 						break;
 					}
 				}
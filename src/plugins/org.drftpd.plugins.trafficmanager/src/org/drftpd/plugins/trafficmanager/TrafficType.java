@@ -41,6 +41,8 @@ public abstract class TrafficType {
 	private String _name;
 	private long _maxspeed;
 	private long _minspeed;
+	private long _usermaxspeed;
+	private long _groupmaxspeed;
 	private String _include;
 	private String _exclude;	
 	private Permission _perms;
@@ -68,6 +70,18 @@ public abstract class TrafficType {
 		} catch (NumberFormatException e) {
     		throw new RuntimeException("Invalid MinSpeed for " + confnum + ".minspeed - Skipping Config");
 		}
+
+		try {
+			_usermaxspeed = Integer.parseInt(p.getProperty(confnum + ".usermaxspeed","0").trim()) * 1000;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid UserMaxSpeed for " + confnum + ".usermaxspeed - Skipping Config");
+		}
+
+		try {
+			_groupmaxspeed = Integer.parseInt(p.getProperty(confnum + ".groupmaxspeed","0").trim()) * 1000;
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid GroupMaxSpeed for " + confnum + ".groupmaxspeed - Skipping Config");
+		}
 	
 		_perms = new Permission(p.getProperty(confnum + ".perms","").trim());
 		
@@ -115,6 +129,14 @@ public abstract class TrafficType {
 	protected long getMinSpeed() {
 		return _minspeed;
 	}
+
+	protected long getUserMaxSpeed() {
+		return _usermaxspeed;
+	}
+
+	protected long getGroupMaxSpeed() {
+		return _groupmaxspeed;
+	}
 	
 	protected boolean checkInclude(String text) {
 		try {
@@ -20,6 +20,7 @@ import org.drftpd.exceptions.SSLUnavailableException;
 import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.protocol.master.AbstractBasicIssuer;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.TransferIndex;
 import org.drftpd.slave.async.AsyncCommand;
 import org.drftpd.slave.async.AsyncCommandArgument;
@@ -94,11 +95,12 @@ public class BasicIssuer extends AbstractBasicIssuer {
 	}
 
 	public String issueReceiveToSlave(RemoteSlave rslave, String name, char c, long position,
-			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed) throws SlaveUnavailableException {
+			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed, BandwidthLimits limits)
+			throws SlaveUnavailableException {
 		String index = rslave.fetchIndex();
 		rslave.sendCommand(new AsyncCommandArgument(index, "receive", 
-				new String[]{String.valueOf(c), String.valueOf(position),
-				tindex.toString(), inetAddress, name, String.valueOf(minSpeed), String.valueOf(maxSpeed)}));
+				appendLimits(new String[]{String.valueOf(c), String.valueOf(position),
+				tindex.toString(), inetAddress, name, String.valueOf(minSpeed), String.valueOf(maxSpeed)}, limits)));
 
 		return index;
 	}
@@ -134,36 +136,32 @@ public class BasicIssuer extends AbstractBasicIssuer {
 
 
 	public String issueSendToSlave(RemoteSlave rslave, String name, char c, long position,
-			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed) throws SlaveUnavailableException {
+			String inetAddress, TransferIndex tindex, long minSpeed, long maxSpeed, BandwidthLimits limits)
+			throws SlaveUnavailableException {
 		String index = rslave.fetchIndex();
 		rslave.sendCommand(new AsyncCommandArgument(index, "send",
-				new String[]{String.valueOf(c), String.valueOf(position), tindex.toString(),
-				inetAddress, name, String.valueOf(minSpeed), String.valueOf(maxSpeed)}));
+				appendLimits(new String[]{String.valueOf(c), String.valueOf(position), tindex.toString(),
+				inetAddress, name, String.valueOf(minSpeed), String.valueOf(maxSpeed)}, limits)));
 
 		return index;
 	}
 
-	public String issueRemergeToSlave(RemoteSlave rslave, String path, boolean partialRemerge, long skipAgeCutoff, long masterTime)
-		throws SlaveUnavailableException {
+	public String issueRemergeToSlave(RemoteSlave rslave, String path, boolean partialRemerge, long skipAgeCutoff,
+			long masterTime, String lastToken, String newToken) throws SlaveUnavailableException {
 		String index = rslave.fetchIndex();
-		rslave.sendCommand(new AsyncCommandArgument(index, "remerge", new String[]{path, 
-				Boolean.toString(partialRemerge), Long.toString(skipAgeCutoff), Long.toString(masterTime)}));
+		String[] args;
+		if (newToken == null) {
+			args = new String[]{path, Boolean.toString(partialRemerge), Long.toString(skipAgeCutoff),
+					Long.toString(masterTime)};
+		} else {
+			args = new String[]{path, Boolean.toString(partialRemerge), Long.toString(skipAgeCutoff),
+					Long.toString(masterTime), lastToken == null ? "" : lastToken, newToken};
+		}
+		rslave.sendCommand(new AsyncCommandArgument(index, "remerge", args));
 
 		return index;
 	}
 
-	public void issueRemergePauseToSlave(RemoteSlave rslave) throws SlaveUnavailableException {
-		rslave.sendCommand(new AsyncCommand("remergePause", "remergePause"));
-
-		return;
-	}
-
-	public void issueRemergeResumeToSlave(RemoteSlave rslave) throws SlaveUnavailableException {
-		rslave.sendCommand(new AsyncCommand("remergeResume", "remergeResume"));
-
-		return;
-	}
-
 	@Override
 	public String issueCheckSSL(RemoteSlave rslave) throws SlaveUnavailableException {
 		String index = rslave.fetchIndex();
@@ -171,4 +169,25 @@ public class BasicIssuer extends AbstractBasicIssuer {
 		
 		return index;
 	}
+
+	public String issueBandwidthToSlave(RemoteSlave rslave) throws SlaveUnavailableException {
+		String index = rslave.fetchIndex();
+		rslave.sendCommand(new AsyncCommand(index, "bandwidth"));
+
+		return index;
+	}
+
+	/**
+	 * Older slaves ignore the extra arguments.
+	 */
+	private static String[] appendLimits(String[] args, BandwidthLimits limits) {
+		if (limits == null) {
+			return args;
+		}
+		String[] limitArgs = limits.toArgs();
+		String[] allArgs = new String[args.length + limitArgs.length];
+		System.arraycopy(args, 0, allArgs, 0, args.length);
+		System.arraycopy(limitArgs, 0, allArgs, args.length, limitArgs.length);
+		return allArgs;
+	}
 }
@@ -27,7 +27,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.drftpd.ActiveConnection;
@@ -38,8 +37,10 @@ import org.drftpd.io.PhysicalFile;
 import org.drftpd.master.QueuedOperation;
 import org.drftpd.protocol.slave.AbstractHandler;
 import org.drftpd.protocol.slave.SlaveProtocolCentral;
+import org.drftpd.slave.BandwidthLimits;
 import org.drftpd.slave.ConnectInfo;
 import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.RemergeHashes;
 import org.drftpd.slave.RootCollection;
 import org.drftpd.slave.RootPathContents;
 import org.drftpd.slave.Slave;
@@ -48,8 +49,8 @@ import org.drftpd.slave.TransferIndex;
 import org.drftpd.slave.TransferStatus;
 import org.drftpd.slave.async.AsyncCommandArgument;
 import org.drftpd.slave.async.AsyncResponse;
+import org.drftpd.slave.async.AsyncResponseBandwidth;
 import org.drftpd.slave.async.AsyncResponseChecksum;
-import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseException;
 import org.drftpd.slave.async.AsyncResponseMaxPath;
 import org.drftpd.slave.async.AsyncResponseRemerge;
@@ -68,12 +69,6 @@ import org.tanukisoftware.wrapper.WrapperManager;
 public class BasicHandler extends AbstractHandler {
 	private static final Logger logger = Logger.getLogger(BasicHandler.class);
 
-	// The following variables are static as they are used to signal between
-	// remerging and the pause/resume functions, due to the way the handler
-	// map works these are run against separate object instances.
-	private static AtomicBoolean remergePaused = new AtomicBoolean();
-	private static Object remergeWaitObj = new Object();
-			
 	public BasicHandler(SlaveProtocolCentral central) {
 		super(central);
 	}
@@ -115,7 +110,8 @@ public class BasicHandler extends AbstractHandler {
 
 		int port = Integer.parseInt(data[1]);
 		Transfer t = new Transfer(new ActiveConnection(encrypted ? getSlaveObject().getSSLContext() : null,
-				new InetSocketAddress(address, port), useSSLClientHandshake,getSlaveObject().getBindIP()),
+				new InetSocketAddress(address, port), useSSLClientHandshake,getSlaveObject().getBindIP(),
+				getSlaveObject().getSSLTransferEngine() != null),
 				getSlaveObject(), new TransferIndex());
 		
 		getSlaveObject().addTransfer(t);
@@ -138,7 +134,7 @@ public class BasicHandler extends AbstractHandler {
 					throw e;
 				}
 			}
-			sendResponse(new AsyncResponseDiskStatus(getSlaveObject().getDiskStatus()));
+			sendResponse(getSlaveObject().getDiskStatusResponse());
 			return new AsyncResponse(ac.getIndex());
 		} catch (IOException e) {
 			return new AsyncResponseException(ac.getIndex(), e);
@@ -153,7 +149,8 @@ public class BasicHandler extends AbstractHandler {
 
 		try {
 			c = new PassiveConnection(encrypted ? getSlaveObject().getSSLContext() : null,
-					getSlaveObject().getPortRange(), useSSLClientMode,getSlaveObject().getBindIP());
+					getSlaveObject().getPortRange(), useSSLClientMode,getSlaveObject().getBindIP(),
+					getSlaveObject().getSSLTransferEngine() != null);
 			
 		} catch (IOException e) {
 			return new AsyncResponseException(ac.getIndex(), e);
@@ -166,6 +163,10 @@ public class BasicHandler extends AbstractHandler {
 				.getLocalPort(), t.getTransferIndex(), t.getTransferStatus()));
 	}
 
+	public AsyncResponse handleBandwidth(AsyncCommandArgument ac) {
+		return new AsyncResponseBandwidth(ac.getIndex(), getSlaveObject().getBandwidthScheduler().getUsage());
+	}
+
 	public AsyncResponse handleMaxpath(AsyncCommandArgument ac) {
 		return new AsyncResponseMaxPath(ac.getIndex(), Slave.isWin32 ? 255 : Integer.MAX_VALUE);
 	}
@@ -187,6 +188,7 @@ public class BasicHandler extends AbstractHandler {
 		Transfer t = getSlaveObject().getTransfer(transferIndex);
 		t.setMinSpeed(minSpeed);
 		t.setMaxSpeed(maxSpeed);
+		t.setBandwidthLimits(BandwidthLimits.fromArgs(ac.getArgsArray(), 7));
 		getSlaveObject().sendResponse(new AsyncResponse(ac.getIndex())); // return calling thread
 		// on master
 		try {
@@ -201,19 +203,6 @@ public class BasicHandler extends AbstractHandler {
 		}
 	}
 
-	public AsyncResponse handleRemergePause(AsyncCommandArgument ac) {
-		remergePaused.set(true);
-		return new AsyncResponse(ac.getIndex());
-	}
-
-	public AsyncResponse handleRemergeResume(AsyncCommandArgument ac) {
-		remergePaused.set(false);
-		synchronized(remergeWaitObj) {
-			remergeWaitObj.notifyAll();
-		}
-		return new AsyncResponse(ac.getIndex());
-	}
-
 	public AsyncResponse handleRemerge(AsyncCommandArgument ac) {
 		try {
 			String[] argsArray = ac.getArgsArray();
@@ -230,10 +219,26 @@ public class BasicHandler extends AbstractHandler {
 			} else {
 				logger.info("Partial remerge disabled, performing full remerge");
 			}
+			// only remerges started by the master on connect carry tokens
+			File hashesFile = getSlaveObject().getRemergeHashesFile();
+			RemergeHashes hashes = null;
+			if (hashesFile != null && argsArray.length > 5) {
+				hashes = RemergeHashes.load(hashesFile, argsArray[4]);
+			}
 			if (getSlaveObject().concurrentRootIteration()) {
-				handleRemergeRecursiveConcurrent(getSlaveObject().getRoots(), argsArray[0], partialRemerge, skipAgeCutoff);
+				handleRemergeRecursiveConcurrent(getSlaveObject().getRoots(), argsArray[0], partialRemerge,
+						skipAgeCutoff, hashes);
 			} else {
-				handleRemergeRecursive2(getSlaveObject().getRoots(), argsArray[0], partialRemerge, skipAgeCutoff);
+				handleRemergeRecursive2(getSlaveObject().getRoots(), argsArray[0], partialRemerge,
+						skipAgeCutoff, hashes);
+			}
+			getSlaveObject().getRoots().remergeFinished(argsArray[0]);
+			if (hashes != null) {
+				try {
+					hashes.save(hashesFile, argsArray[5]);
+				} catch (IOException e) {
+					logger.warn("Unable to save remerge hashes to " + hashesFile.getPath(), e);
+				}
 			}
 
 			return new AsyncResponse(ac.getIndex());
@@ -245,17 +250,7 @@ public class BasicHandler extends AbstractHandler {
 	}
 
 	private void handleRemergeRecursive2(RootCollection rootCollection,
-			String path, boolean partialRemerge, long skipAgeCutoff) {
-		while (remergePaused.get()) {
-			synchronized(remergeWaitObj) {
-				try {
-					remergeWaitObj.wait();
-				} catch (InterruptedException e) {
-					// Either we have been woken properly in which case we will exit the
-					// loop or we have not in which case we will wait again.
-				}
-			}
-		}
+			String path, boolean partialRemerge, long skipAgeCutoff, RemergeHashes hashes) {
 		TreeSet<String> inodes = rootCollection.getLocalInodes(path);
 		ArrayList<LightRemoteInode> fileList = new ArrayList<LightRemoteInode>();
 
@@ -296,31 +291,15 @@ public class BasicHandler extends AbstractHandler {
 				inodesModified = true;
 			}
 			if (file.isDirectory()) {
-				handleRemergeRecursive2(rootCollection, fullPath, partialRemerge, skipAgeCutoff);
+				handleRemergeRecursive2(rootCollection, fullPath, partialRemerge, skipAgeCutoff, hashes);
 			}
 			fileList.add(new LightRemoteInode(file));
 		}
-		if (!partialRemerge || inodesModified) {
-			sendResponse(new AsyncResponseRemerge(path, fileList, pathLastModified));
-			logger.debug("Sending " + path + " to the master");
-		} else {
-			logger.debug("Skipping send of " + path + " as no files changed since last merge");
-		}
+		sendRemergeResponse(path, fileList, pathLastModified, partialRemerge && !inodesModified, hashes);
 	}
 
 	private void handleRemergeRecursiveConcurrent(RootCollection rootCollection,
-			String path, boolean partialRemerge, long skipAgeCutoff) {
-		while (remergePaused.get()) {
-			synchronized(remergeWaitObj) {
-				try {
-					remergeWaitObj.wait();
-				} catch (InterruptedException e) {
-					// Either we have been woken properly in which case we will exit the
-					// loop or we have not in which case we will wait again.
-				}
-			}
-		}
-
+			String path, boolean partialRemerge, long skipAgeCutoff, RemergeHashes hashes) {
 		RootPathContents rootContents = rootCollection.getLocalInodesConcurrent(path);
 		ArrayList<LightRemoteInode> fileList = new ArrayList<LightRemoteInode>();
 
@@ -351,11 +330,26 @@ public class BasicHandler extends AbstractHandler {
 				inodesModified = true;
 			}
 			if (file.isDirectory()) {
-				handleRemergeRecursiveConcurrent(rootCollection, fullPath, partialRemerge, skipAgeCutoff);
+				handleRemergeRecursiveConcurrent(rootCollection, fullPath, partialRemerge, skipAgeCutoff, hashes);
 			}
 			fileList.add(new LightRemoteInode(file));
 		}
-		if (!partialRemerge || inodesModified) {
+		sendRemergeResponse(path, fileList, pathLastModified, partialRemerge && !inodesModified, hashes);
+	}
+
+	/**
+	 * When the master handed out a token matching the saved hashes they
+	 * replace the last modified cutoff of partial remerges, a directory is
+	 * then sent only if its content changed.<br>
+	 * Sending blocks once the master stops reading, which is how it keeps the
+	 * amount of queued directories bounded.
+	 */
+	private void sendRemergeResponse(String path, ArrayList<LightRemoteInode> fileList,
+			long pathLastModified, boolean unmodified, RemergeHashes hashes) {
+		if (hashes != null) {
+			unmodified = hashes.update(path, RemergeHashes.hash(pathLastModified, fileList));
+		}
+		if (!unmodified) {
 			sendResponse(new AsyncResponseRemerge(path, fileList, pathLastModified));
 			logger.debug("Sending " + path + " to the master");
 		} else {
@@ -404,6 +398,7 @@ public class BasicHandler extends AbstractHandler {
 		Transfer t = getSlaveObject().getTransfer(transferIndex);
 		t.setMinSpeed(minSpeed);
 		t.setMaxSpeed(maxSpeed);
+		t.setBandwidthLimits(BandwidthLimits.fromArgs(ac.getArgsArray(), 7));
 		sendResponse(new AsyncResponse(ac.getIndex()));
 
 		// calling thread on master
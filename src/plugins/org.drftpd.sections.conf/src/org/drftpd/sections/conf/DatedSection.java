@@ -56,6 +56,12 @@ public class DatedSection extends PlainSection implements TimeEventInterface {
 
 	private SimpleDateFormat _dateFormat;
 
+	/**
+	 * The current dated directory and the time it rolls over, replaced as a
+	 * whole so it can be read without locking.
+	 */
+	private volatile CurrentDirectory _currentDirectory;
+
 	private String _now;
 
 	private RollingCalendar rc = new RollingCalendar();
@@ -76,8 +82,35 @@ public class DatedSection extends PlainSection implements TimeEventInterface {
 	}
 
 	public DirectoryHandle getCurrentDirectory() {
-		String dateDirPath = _dateFormat.format(new Date());
-		return getBaseDirectory().getNonExistentDirectoryHandle(dateDirPath);
+		long now = System.currentTimeMillis();
+		CurrentDirectory current = _currentDirectory;
+		if (current == null || now >= current._until || now < current._from) {
+			current = rollCurrentDirectory(now);
+		}
+		return current._dir;
+	}
+
+	private synchronized CurrentDirectory rollCurrentDirectory(long now) {
+		CurrentDirectory current = _currentDirectory;
+		if (current != null && now < current._until && now >= current._from) {
+			// already rolled by another thread
+			return current;
+		}
+		Date date = new Date(now);
+		long until = rc.getNextCheckMillis(date);
+		DirectoryHandle dir = getBaseDirectory().getNonExistentDirectoryHandle(formatDate(date));
+		current = new CurrentDirectory(dir, now, until);
+		_currentDirectory = current;
+		return current;
+	}
+
+	/**
+	 * SimpleDateFormat isn't thread safe.
+	 */
+	private String formatDate(Date date) {
+		synchronized (_dateFormat) {
+			return _dateFormat.format(date);
+		}
 	}
 
 	// This method computes the roll over period by looping over the
@@ -153,7 +186,7 @@ public class DatedSection extends PlainSection implements TimeEventInterface {
 	}
 	
 	public void processNewDate(Date d) {
-		String dateDirName = _dateFormat.format(new Date());
+		String dateDirName = formatDate(new Date());
 		if (!getBaseDirectory().exists()) {
 			logger.debug("Section directory was not found while creating" +
 					"dated directory: " + dateDirName + ", creating it.");
@@ -291,9 +324,28 @@ public class DatedSection extends PlainSection implements TimeEventInterface {
 		resetHour(d);
 	}
 	
+    /**
+     * @return a copy of the format, the format itself isn't thread safe.
+     */
     public SimpleDateFormat getDateFormat() {
-    	return _dateFormat;
+    	synchronized (_dateFormat) {
+    		return (SimpleDateFormat) _dateFormat.clone();
+    	}
     }
+
+	private static class CurrentDirectory {
+		private final DirectoryHandle _dir;
+
+		private final long _from;
+
+		private final long _until;
+
+		private CurrentDirectory(DirectoryHandle dir, long from, long until) {
+			_dir = dir;
+			_from = from;
+			_until = until;
+		}
+	}
 }
 
 /**
@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -48,6 +47,8 @@ public class SectionManager implements SectionManagerInterface {
 
 	private HashMap<String, SectionInterface> _sections;
 
+	private volatile SectionTrie _trie;
+
 	private boolean _mkdirs = false;
 	
 	private CaseInsensitiveHashMap<String, Class<ConfigurableSectionInterface>> _typesMap;
@@ -75,21 +76,7 @@ public class SectionManager implements SectionManagerInterface {
 	}
 
 	private SectionInterface lookup(String string) {
-		int matchlen = 0;
-		SectionInterface match = EMPTYSECTION;
-
-		for (Iterator<SectionInterface> iter = _sections.values().iterator(); iter
-				.hasNext();) {
-			SectionInterface section = iter.next();
-
-			if (string.startsWith(section.getBaseDirectory().getPath())
-					&& (matchlen < section.getCurrentDirectory().getPath()
-							.length())) {
-				match = section;
-				matchlen = section.getCurrentDirectory().getPath().length();
-			}
-		}
-		return match;
+		return _trie.lookup(string);
 	}
 	
 	/*
@@ -162,7 +149,12 @@ public class SectionManager implements SectionManagerInterface {
 				throw new FatalException("Unknown section type: " + i + ".type = " + type);
 			}
 		}
-	_sections = sections;
+		SectionTrie trie = new SectionTrie(EMPTYSECTION);
+		for (SectionInterface section : sections.values()) {
+			trie.put(section);
+		}
+		_sections = sections;
+		_trie = trie;
 	}
 
 	public SectionInterface lookup(DirectoryHandle directory) {
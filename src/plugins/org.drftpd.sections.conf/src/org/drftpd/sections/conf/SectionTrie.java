@@ -0,0 +1,128 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.sections.conf;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.drftpd.sections.SectionInterface;
+import org.drftpd.vfs.VirtualFileSystem;
+
+/**
+ * Resolves a path to the section whose base directory is the deepest one
+ * holding it, walking one node per path segment instead of comparing the
+ * path with every section.<br>
+ * Results are cached per path, the trie is never modified once it's been
+ * built so the cache never needs to be invalidated, a new trie is built when
+ * the sections are reloaded.
+ * @version $Id$
+ */
+public class SectionTrie {
+
+	private static final int MAX_CACHED = 10000;
+
+	private final Node _root = new Node();
+
+	private final ConcurrentHashMap<String, SectionInterface> _cache =
+		new ConcurrentHashMap<String, SectionInterface>();
+
+	private final SectionInterface _default;
+
+	/**
+	 * @param defaultSection returned for paths outside of every section.
+	 */
+	public SectionTrie(SectionInterface defaultSection) {
+		_default = defaultSection;
+	}
+
+	/**
+	 * Must only be called while building the trie.
+	 */
+	public void put(SectionInterface section) {
+		String path = section.getBaseDirectory().getPath();
+		Node node = _root;
+		int start = 1;
+		while (start < path.length()) {
+			int end = path.indexOf(VirtualFileSystem.separator, start);
+			if (end == -1) {
+				end = path.length();
+			}
+			if (end > start) {
+				String segment = path.substring(start, end);
+				Node child = node._children.get(segment);
+				if (child == null) {
+					child = new Node();
+					node._children.put(segment, child);
+				}
+				node = child;
+			}
+			start = end + 1;
+		}
+		// sharing a base directory, the one with the deepest current directory wins
+		if (node._section == null || node._section.getCurrentDirectory().getPath().length()
+				< section.getCurrentDirectory().getPath().length()) {
+			node._section = section;
+		}
+	}
+
+	public SectionInterface lookup(String path) {
+		SectionInterface section = _cache.get(path);
+		if (section != null) {
+			return section;
+		}
+		section = walk(path);
+		if (_cache.size() >= MAX_CACHED) {
+			_cache.clear();
+		}
+		_cache.put(path, section);
+		return section;
+	}
+
+	private SectionInterface walk(String path) {
+		Node node = _root;
+		SectionInterface match = node._section;
+		int start = 1;
+		while (start < path.length()) {
+			int end = path.indexOf(VirtualFileSystem.separator, start);
+			if (end == -1) {
+				end = path.length();
+			}
+			if (end > start) {
+				node = node._children.get(path.substring(start, end));
+				if (node == null) {
+					break;
+				}
+				if (node._section != null) {
+					match = node._section;
+				}
+			}
+			start = end + 1;
+		}
+		return match == null ? _default : match;
+	}
+
+	public int getCacheSize() {
+		return _cache.size();
+	}
+
+	private static class Node {
+		private final HashMap<String, Node> _children = new HashMap<String, Node>();
+
+		private SectionInterface _section;
+	}
+}
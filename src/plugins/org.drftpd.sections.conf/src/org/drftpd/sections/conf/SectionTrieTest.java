@@ -0,0 +1,72 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.sections.conf;
+
+import junit.framework.TestCase;
+
+import org.drftpd.vfs.DirectoryHandle;
+
+/**
+ * @version $Id$
+ */
+public class SectionTrieTest extends TestCase {
+
+	private PlainSection _default;
+
+	private PlainSection _mp3;
+
+	private PlainSection _mp3Live;
+
+	private SectionTrie _trie;
+
+	protected void setUp() {
+		_default = new PlainSection("", new DirectoryHandle("/"));
+		_mp3 = new PlainSection("MP3", new DirectoryHandle("/mp3"));
+		_mp3Live = new PlainSection("LIVE", new DirectoryHandle("/mp3/live"));
+		_trie = new SectionTrie(_default);
+		_trie.put(_mp3);
+		_trie.put(_mp3Live);
+	}
+
+	public void testLookup() {
+		assertSame(_mp3, _trie.lookup("/mp3"));
+		assertSame(_mp3, _trie.lookup("/mp3/Some.Release"));
+		assertSame(_mp3Live, _trie.lookup("/mp3/live"));
+		assertSame(_mp3Live, _trie.lookup("/mp3/live/Some.Release/CD1"));
+		assertSame(_mp3, _trie.lookup("/mp3/livesets"));
+	}
+
+	public void testOutsideSections() {
+		assertSame(_default, _trie.lookup("/"));
+		assertSame(_default, _trie.lookup("/mp3x/Some.Release"));
+		assertSame(_default, _trie.lookup("/tv"));
+	}
+
+	public void testRootSection() {
+		PlainSection root = new PlainSection("ROOT", new DirectoryHandle("/"));
+		_trie.put(root);
+		assertSame(root, _trie.lookup("/tv/Some.Release"));
+		assertSame(_mp3, _trie.lookup("/mp3/Some.Release"));
+	}
+
+	public void testCache() {
+		_trie.lookup("/mp3/Some.Release");
+		_trie.lookup("/mp3/Some.Release");
+		assertEquals(1, _trie.getCacheSize());
+	}
+}
@@ -20,9 +20,10 @@ package org.drftpd.slaveselection.filter.archive;
 
 import java.io.FileNotFoundException;
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.drftpd.GlobalContext;
 import org.drftpd.PluginInterface;
@@ -37,7 +38,6 @@ import org.drftpd.slaveselection.filter.Filter;
 import org.drftpd.slaveselection.filter.ScoreChart;
 import org.drftpd.usermanager.User;
 import org.drftpd.vfs.DirectoryHandle;
-import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.InodeHandle;
 import org.drftpd.vfs.InodeHandleInterface;
 
@@ -86,23 +86,13 @@ public class DirectoryspaceFilter extends Filter {
 		}
 		try {
 			long freeSpaceNeeded = directory.getSize();
-			ArrayList<FileHandle> files = directory
-					.getAllFilesRecursiveUnchecked();
+			Map<String,AtomicLong> slaveBytes = directory.getSlaveRefBytes();
 			for (Iterator<ScoreChart.SlaveScore> iter = scorechart
 					.getSlaveScores().iterator(); iter.hasNext();) {
 				ScoreChart.SlaveScore slaveScore = iter.next();
 				RemoteSlave rslave = slaveScore.getRSlave();
-				long rslaveHasFilesSize = 0L;
-				for (FileHandle file : files) {
-					try {
-						if (file.getSlaveNames().contains(rslave.getName())) {
-							rslaveHasFilesSize += file.getSize();
-						}
-					} catch (FileNotFoundException e) {
-						// couldn't find that file, do nothing
-						// continue on
-					}
-				}
+				AtomicLong hasBytes = slaveBytes.get(rslave.getName());
+				long rslaveHasFilesSize = hasBytes == null ? 0L : hasBytes.get();
 				try {
 					if (rslave.getSlaveStatus().getDiskSpaceAvailable()
 							+ rslaveHasFilesSize < freeSpaceNeeded) {
@@ -23,7 +23,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
@@ -35,7 +38,6 @@ import org.drftpd.sections.SectionInterface;
 import org.drftpd.slaveselection.filter.ScoreChart.SlaveScore;
 import org.drftpd.usermanager.User;
 import org.drftpd.vfs.DirectoryHandle;
-import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.InodeHandle;
 import org.drftpd.vfs.InodeHandleInterface;
 
@@ -80,21 +82,20 @@ public class SlavetopFilter extends Filter {
 					slaveScore.getRSlave()));
         }
         
-        ArrayList<FileHandle> files = dir.getAllFilesRecursiveUnchecked();
+        // files per slave are kept up to date for the whole tree
+        Map<String,AtomicInteger> slaveCounts;
+        try {
+        	slaveCounts = dir.getSlaveRefCounts();
+        } catch (FileNotFoundException e) {
+        	// release was removed, nobody gets points for it
+        	slaveCounts = new TreeMap<String,AtomicInteger>();
+        }
 
-        for (FileHandle file : files) {
-        	try {
-				for (RemoteSlave rslave : file.getSlaves()) {
-					ScoreChart.SlaveScore score = slavesmap.get(rslave);
-				    if (score == null) {
-				    	// the slave was already removed from SlaveSelection
-				        continue;
-				    }
-				    score.addScore(1);
-				}
-			} catch (FileNotFoundException e) {
-				// file was removed, not much we can do, just continue
-			}
+        for (ScoreChart.SlaveScore score : slavesmap.values()) {
+        	AtomicInteger count = slaveCounts.get(score.getRSlave().getName());
+        	if (count != null) {
+        		score.addScore(count.get());
+        	}
         }
         ArrayList<ScoreChart.SlaveScore> slavescores = 
         	new ArrayList<ScoreChart.SlaveScore>(slavesmap.values());
@@ -65,6 +65,9 @@ public class BeanUser extends AbstractUser {
 	}
 
 	public void commit() {
+		if (_um != null) {
+			_um.updateIndexes(this);
+		}
 		CommitManager.getCommitManager().add(this);
 	}
 
@@ -77,31 +77,26 @@ public class LuceneBackupThread  extends Thread {
 				}
 			}
 
-			// locking the writer object so that noone can use it.
-			// this might be useful.
-			synchronized (_engine.getWriter()) {
-				setRunning(true);
+			setRunning(true);
 
-				String dateTxt = sdf.format(new Date(System.currentTimeMillis()));
-				File f = new File(BACKUP_DIRNAME + "/" + dateTxt);
+			String dateTxt = sdf.format(new Date(System.currentTimeMillis()));
+			File f = new File(BACKUP_DIRNAME + "/" + dateTxt);
 
-				try {
-					if (!f.mkdirs()) {
-						throw new IOException("Impossible to create backup directory, not enough permissions.");
-					}
+			try {
+				if (!f.mkdirs()) {
+					throw new IOException("Impossible to create backup directory, not enough permissions.");
+				}
 
-					// creating the destination directory.
-					FSDirectory bkpDirectory = FSDirectory.open(f);
+				// creating the destination directory.
+				FSDirectory bkpDirectory = FSDirectory.open(f);
 
-					for (String file : _engine.getStorage().listAll()) {
-						_engine.getStorage().copy(bkpDirectory, file, file);
-					}
-					
-					logger.debug("A backup of the index was created successfully.");
-					updateLastBackupTime();
-				} catch (IOException e) {
-					logger.error(e, e);
-				}
+				// the engine keeps the index from being swapped meanwhile
+				_engine.backup(bkpDirectory);
+
+				logger.debug("A backup of the index was created successfully.");
+				updateLastBackupTime();
+			} catch (IOException e) {
+				logger.error(e, e);
 			}
 
 			try {
@@ -32,6 +32,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.LinkedHashMap;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -81,6 +82,7 @@ import org.drftpd.vfs.event.ImmutableInodeHandle;
 import org.drftpd.vfs.index.AdvancedSearchParams;
 import org.drftpd.vfs.index.IndexEngineInterface;
 import org.drftpd.vfs.index.IndexException;
+import org.drftpd.vfs.index.IndexUpdateQueue;
 import org.drftpd.vfs.index.IndexingVirtualFileSystemListener;
 import org.drftpd.vfs.index.AdvancedSearchParams.InodeType;
 import org.drftpd.vfs.index.lucene.analysis.AlphanumericalAnalyzer;
@@ -139,6 +141,7 @@ public class LuceneEngine implements IndexEngineInterface {
 
 	private Directory _storage;
 	private IndexWriter _iWriter;
+	private LuceneSearcherManager _searcherManager;
 
 	private static final TermQuery QUERY_DIRECTORY = new TermQuery(new Term("type", "d"));
 	private static final TermQuery QUERY_FILE = new TermQuery(new Term("type", "f"));
@@ -160,6 +163,10 @@ public class LuceneEngine implements IndexEngineInterface {
 	private int _maxHitsNumber;
 	private int _maxDocsBuffer;
 	private int _maxRAMBufferSize;
+	private long _searcherMaxAge;
+	private int _searcherMaxChanges;
+	private int _updateQueueSize;
+	private int _updateBatchSize;
 
 	private boolean _nativeLocking;
 
@@ -167,7 +174,15 @@ public class LuceneEngine implements IndexEngineInterface {
 	private LuceneBackupThread _backupThread;
 
 	private IndexingVirtualFileSystemListener _listener;
-	private boolean _rebuilding;
+	private volatile LuceneIndexRebuilder _rebuilder;
+	private int _rebuildThreads;
+	private int _rebuildMaxRate;
+
+	/**
+	 * Held by every use of the writer and the searcher, exclusively while a
+	 * rebuilt index is swapped in.
+	 */
+	private final ReentrantReadWriteLock _swapLock = new ReentrantReadWriteLock();
 	
 	private List<IndexDataExtensionInterface> _dataExtensions = new ArrayList<IndexDataExtensionInterface>();
 	private List<QueryTermExtensionInterface> _queryExtensions = new ArrayList<QueryTermExtensionInterface>();
@@ -175,7 +190,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	/**
 	 * Creates all the needed resources for the Index to work.
 	 * <ul>
-	 * <li>IndexSearcher / IndexWriter</li>
+	 * <li>IndexWriter / shared IndexSearcher</li>
 	 * <li>Reads <i>conf/plugins/lucene.conf</i> to grab some tweaking
 	 * settings, if this file is not found, a default values are loaded.</li>
 	 * <li>Adds a Shutdown Hook to save the index while closing DrFTPd</li>
@@ -227,7 +242,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			_backupThread.start();
 		}
 
-		_listener = new IndexingVirtualFileSystemListener();
+		_listener = new IndexingVirtualFileSystemListener(this, _updateQueueSize, _updateBatchSize);
 		_listener.init();
 	}
 
@@ -243,17 +258,9 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	private void openStreams() throws IndexException {
 		try {
-			if (_nativeLocking) {
-				_storage = FSDirectory.open(new File(INDEX_DIR), new NativeFSLockFactory(INDEX_DIR));
-			} else {
-				_storage = FSDirectory.open(new File(INDEX_DIR));
-			}
-
-			IndexWriterConfig conf = new IndexWriterConfig(Version.LUCENE_32 ,ANALYZER);
-			conf.setMaxBufferedDocs(_maxDocsBuffer);
-			conf.setRAMBufferSizeMB(_maxRAMBufferSize);
-
-			_iWriter = new IndexWriter(_storage, conf);
+			_storage = openDirectory(INDEX_DIR);
+			_iWriter = openWriter(_storage);
+			_searcherManager = new LuceneSearcherManager(_iWriter, _searcherMaxAge, _searcherMaxChanges);
 		} catch (IOException e) {
 			closeAll();
 
@@ -261,6 +268,27 @@ public class LuceneEngine implements IndexEngineInterface {
 		}
 	}
 
+	/**
+	 * Opens the index storage found at <tt>path</tt>.
+	 */
+	protected Directory openDirectory(String path) throws IOException {
+		if (_nativeLocking) {
+			return FSDirectory.open(new File(path), new NativeFSLockFactory(path));
+		}
+		return FSDirectory.open(new File(path));
+	}
+
+	/**
+	 * Opens a writer on <tt>storage</tt> using the configured settings.
+	 */
+	protected IndexWriter openWriter(Directory storage) throws IOException {
+		IndexWriterConfig conf = new IndexWriterConfig(Version.LUCENE_32 ,ANALYZER);
+		conf.setMaxBufferedDocs(_maxDocsBuffer);
+		conf.setRAMBufferSizeMB(_maxRAMBufferSize);
+
+		return new IndexWriter(storage, conf);
+	}
+
 	/**
 	 * Reads all tweak settings from <i>conf/plugins/lucene.conf</i> if found,
 	 * otherwise use default values.
@@ -271,6 +299,12 @@ public class LuceneEngine implements IndexEngineInterface {
 		_maxDocsBuffer = Integer.parseInt(cfg.getProperty("maxdocs_buffer", "-1"));
 		_maxRAMBufferSize = Integer.parseInt(cfg.getProperty("max_rambuffer", "16"));
 		_nativeLocking = cfg.getProperty("native_locking", "true").equals("true");
+		_searcherMaxAge = Long.parseLong(cfg.getProperty("searcher_max_age", "1000"));
+		_searcherMaxChanges = Integer.parseInt(cfg.getProperty("searcher_max_changes", "1000"));
+		_updateQueueSize = Integer.parseInt(cfg.getProperty("update_queue_size", "10000"));
+		_updateBatchSize = Integer.parseInt(cfg.getProperty("update_batch_size", "100"));
+		_rebuildThreads = Integer.parseInt(cfg.getProperty("rebuild_threads", "2"));
+		_rebuildMaxRate = Integer.parseInt(cfg.getProperty("rebuild_max_rate", "0"));
 
 		// in minutes, convert'em!
 		int optimizeInterval = Integer.parseInt(cfg.getProperty("optimize_interval", "15")) * 60 * 1000;
@@ -288,6 +322,8 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	private void closeAll() {
 		try {
+			if (_searcherManager != null)
+				_searcherManager.close();
 			if (_iWriter != null)
 				_iWriter.close();
 			if (_storage != null)
@@ -296,10 +332,36 @@ public class LuceneEngine implements IndexEngineInterface {
 			logger.error(e, e);
 		}
 
+		_searcherManager = null;
 		_iWriter = null;
 		_storage = null;
 	}
 
+	/**
+	 * @return a searcher of the shared {@link LuceneSearcherManager}.
+	 */
+	private IndexSearcher acquireSearcher() throws IOException {
+		_swapLock.readLock().lock();
+		try {
+			return _searcherManager.acquire();
+		} finally {
+			_swapLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Releases a searcher obtained from the {@link LuceneSearcherManager}, if any.
+	 */
+	private void releaseSearcher(IndexSearcher iSearcher) {
+		if (iSearcher != null) {
+			try {
+				LuceneSearcherManager.release(iSearcher);
+			} catch (IOException e) {
+				logger.error("IOException releasing the shared IndexSearcher", e);
+			}
+		}
+	}
+
 	/**
 	 * Shortcut to create Lucene Document from the Inode's data. The fields that
 	 * are stored in the index are:
@@ -426,62 +488,118 @@ public class LuceneEngine implements IndexEngineInterface {
 
 	/* {@inheritDoc} */
 	public void addInode(ImmutableInodeHandle inode) throws IndexException {
+		_swapLock.readLock().lock();
 		try {
 			synchronized (INDEX_DOCUMENT) {
 				Document doc = makeDocumentFromInode(inode);
 				_iWriter.addDocument(doc);
 			}
+			_searcherManager.changed();
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				rebuilder.updated(inode);
+			}
 		} catch (FileNotFoundException e) {
 			logger.error("Unable to add " + inode.getPath() + " to the index", e);
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to add " + inode.getPath() + " to the index", e);
 		} catch (IOException e) {
 			throw new IndexException("Unable to add " + inode.getPath() + " to the index", e);
+		} finally {
+			_swapLock.readLock().unlock();
 		}
 	}
 
 	/* {@inheritDoc} */
 	public void deleteInode(ImmutableInodeHandle inode) throws IndexException {
+		_swapLock.readLock().lock();
 		try {
 			_iWriter.deleteDocuments(makeFullPathTermFromInode(inode));
+			_searcherManager.changed();
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				rebuilder.deleted(inode);
+			}
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to delete " + inode.getPath() + " from the index", e);
 		} catch (IOException e) {
 			throw new IndexException("Unable to delete " + inode.getPath() + " from the index", e);
+		} finally {
+			_swapLock.readLock().unlock();
 		}
 	}
 
 	/* {@inheritDoc} */
 	public void updateInode(ImmutableInodeHandle inode) throws IndexException {
+		_swapLock.readLock().lock();
 		try {
 			synchronized (INDEX_DOCUMENT) {
 				_iWriter.updateDocument(makeFullPathTermFromInode(inode), makeDocumentFromInode(inode));
 			}
+			_searcherManager.changed();
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				rebuilder.updated(inode);
+			}
 		} catch (FileNotFoundException e) {
 			logger.error("The inode was here but now it isn't!", e);
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to update " + inode.getPath() + " in the index", e);
 		} catch (IOException e) {
 			throw new IndexException("Unable to update " + inode.getPath() + " in the index", e);
+		} finally {
+			_swapLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the document of <tt>inode</tt> to <tt>writer</tt>.
+	 * @param replace if true any document already indexed at the same path is replaced.
+	 */
+	protected void writeDocument(IndexWriter writer, ImmutableInodeHandle inode, boolean replace) throws IOException {
+		synchronized (INDEX_DOCUMENT) {
+			if (replace) {
+				writer.updateDocument(makeFullPathTermFromInode(inode), makeDocumentFromInode(inode));
+			} else {
+				writer.addDocument(makeDocumentFromInode(inode));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the document of <tt>inode</tt> from <tt>writer</tt>.
+	 * @param children if true and <tt>inode</tt> is a directory everything under it is deleted too.
+	 */
+	protected void deleteDocuments(IndexWriter writer, ImmutableInodeHandle inode, boolean children) throws IOException {
+		if (children && inode.isDirectory()) {
+			// the full path of directories ends with a separator
+			writer.deleteDocuments(new PrefixQuery(makeFullPathTermFromInode(inode)));
+		} else {
+			writer.deleteDocuments(makeFullPathTermFromInode(inode));
 		}
 	}
 
 	/* {@inheritDoc} */
 	public void renameInode(ImmutableInodeHandle fromInode, ImmutableInodeHandle toInode) throws IndexException {
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
+		_swapLock.readLock().lock();
 		try {
 			Term fromInodeTerm = makeFullPathTermFromInode(fromInode);
 			synchronized (INDEX_DOCUMENT) {
 				_iWriter.updateDocument(fromInodeTerm, makeDocumentFromInode(toInode));
 			}
+			_searcherManager.changed();
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				rebuilder.renamed(fromInode, toInode);
+			}
 			if (toInode.isDirectory()) {
 				PrefixQuery prefixQuery = new PrefixQuery(fromInodeTerm);
 
-				iReader = IndexReader.open(_iWriter, true);
-				iSearcher = new IndexSearcher(iReader);
+				// the children must all be found, including the ones added since the last reopen
+				iSearcher = _searcherManager.acquire(true);
 
-				final BitSet bits = new BitSet(iReader.maxDoc());
+				final BitSet bits = new BitSet(iSearcher.maxDoc());
 				iSearcher.search(prefixQuery, new Collector() {
 					private int docBase;
 
@@ -522,6 +640,7 @@ public class LuceneEngine implements IndexEngineInterface {
 						doc.add(FIELD_PARENT_PATH);
 						_iWriter.updateDocument(makeFullPathTermFromString(oldPath), doc);
 					}
+					_searcherManager.changed();
 				}
 			}
 		} catch (CorruptIndexException e) {
@@ -531,20 +650,8 @@ public class LuceneEngine implements IndexEngineInterface {
 			throw new IndexException("Unable to rename " + fromInode.getPath() + " to " +
 					toInode.getPath() + " in the index", e);
 		} finally {
-			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
-			}
+			releaseSearcher(iSearcher);
+			_swapLock.readLock().unlock();
 		}
 	}
 
@@ -553,73 +660,104 @@ public class LuceneEngine implements IndexEngineInterface {
 	 * Forces the Index to be saved. Simply calls {@link IndexWriter}.commit();
 	 */
 	public void commit() throws IndexException {
+		_swapLock.readLock().lock();
 		try {
 			_iWriter.commit();
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to commit the index", e);
 		} catch (IOException e) {
 			throw new IndexException("Unable to commit the index", e);
+		} finally {
+			_swapLock.readLock().unlock();
 		}
 	}
 
-	/* {@inheritDoc} */
-	public void rebuildIndex() throws IndexException, FileNotFoundException {
-		if (_rebuilding) {
-			throw new IndexException("A previous rebuildindex command is already in progress.");
+	/**
+	 * Optimizes and commits the index, used by {@link LuceneMaintenanceThread}.
+	 * A swap of the index waits meanwhile.
+	 */
+	protected void optimize() throws IOException {
+		_swapLock.readLock().lock();
+		try {
+			_iWriter.optimize();
+			_iWriter.commit();
+		} finally {
+			_swapLock.readLock().unlock();
 		}
-		_rebuilding = true;
-
-		closeAll();
+	}
 
-		PhysicalFile f = new PhysicalFile(INDEX_DIR);
-		f.deleteRecursive();
+	/**
+	 * Copies every file of the index to <tt>destination</tt>, used by
+	 * {@link LuceneBackupThread}. A swap of the index waits meanwhile.
+	 */
+	protected void backup(Directory destination) throws IOException {
+		_swapLock.readLock().lock();
+		try {
+			// locking the writer object so that noone can use it.
+			synchronized (_iWriter) {
+				for (String file : _storage.listAll()) {
+					_storage.copy(destination, file, file);
+				}
+			}
+		} finally {
+			_swapLock.readLock().unlock();
+		}
+	}
 
-		openStreams();
+	/**
+	 * {@inheritDoc}
+	 * The new index is built next to the current one, which keeps being used
+	 * until the new one is swapped in, see {@link LuceneIndexRebuilder}.
+	 */
+	public void rebuildIndex() throws IndexException, FileNotFoundException {
+		LuceneIndexRebuilder rebuilder;
+		synchronized (this) {
+			if (_rebuilder != null) {
+				throw new IndexException("A previous rebuildindex command is already in progress.");
+			}
+			rebuilder = new LuceneIndexRebuilder(this, _rebuildThreads, _rebuildMaxRate);
+			// changes must be recorded before the VFS is walked
+			_rebuilder = rebuilder;
+		}
 
 		try {
-			DirectoryHandle root = GlobalContext.getGlobalContext().getRoot();
-			root.requestRefresh(true); // Start by adding root inode
-			recurseAndBuild(root); // Recursively traverse the VFS and add all inodes
-			commit(); // commit the writer so that the searcher can see the new stuff.
+			rebuilder.build();
+			swapIndex(rebuilder);
 		} catch (IndexException e) {
 			logger.error("Exception whilst rebuilding lucene index",e);
-			throw e;
-		} catch (FileNotFoundException e) {
-			logger.error("Root directory not found whilst rebuilding lucene index", e);
+			rebuilder.abort();
 			throw e;
 		} finally {
-			_rebuilding = false;
+			_rebuilder = null;
 		}
 	}
 
 	/**
-	 * Inner function called by rebuildIndex().
-	 * 
-	 * @param dir
-	 * 
-	 * @throws IndexException
+	 * Replaces the current index by the one built by <tt>rebuilder</tt>,
+	 * searches and updates wait meanwhile.
 	 */
-	private void recurseAndBuild(DirectoryHandle dir) throws IndexException {
+	private void swapIndex(LuceneIndexRebuilder rebuilder) throws IndexException {
+		_swapLock.writeLock().lock();
 		try {
-			for (InodeHandle inode : dir.getInodeHandlesUnchecked()) {
-				if (inode.isDirectory()) {
-					try {
-						inode.requestRefresh(true);
-						recurseAndBuild((DirectoryHandle) inode);
-					} catch (FileNotFoundException e) {
-						// Directory no longer present, silently skip
-					}
-					
-				} else if (inode.isFile()) {
-					try {
-						inode.requestRefresh(true);
-					} catch (FileNotFoundException e) {
-						// File no longer present, silently skip
-					}
-				}
+			rebuilder.finish();
+			closeAll();
+
+			File index = new File(INDEX_DIR);
+			File oldIndex = new File(INDEX_DIR + ".old");
+			new PhysicalFile(oldIndex).deleteRecursive();
+			if (index.exists() && !index.renameTo(oldIndex)) {
+				openStreams();
+				throw new IndexException("Unable to move the current index to " + oldIndex.getPath());
 			}
-		} catch (FileNotFoundException e) {
-			// Directory no longer present, silently skip
+			if (!new File(LuceneIndexRebuilder.REBUILD_DIR).renameTo(index)) {
+				oldIndex.renameTo(index);
+				openStreams();
+				throw new IndexException("Unable to move the new index to " + index.getPath());
+			}
+			openStreams();
+			new PhysicalFile(oldIndex).deleteRecursive();
+		} finally {
+			_swapLock.writeLock().unlock();
 		}
 	}
 
@@ -627,7 +765,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	 * Method to check if an index rebuild is in process or not.
 	 */
 	public boolean isRebuilding() {
-		return _rebuilding;
+		return _rebuilder != null;
 	}
 
 	/**
@@ -639,7 +777,6 @@ public class LuceneEngine implements IndexEngineInterface {
 	public Map<String,String> advancedFind(DirectoryHandle startNode, AdvancedSearchParams params)
 	throws IndexException, IllegalArgumentException {
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
 		try {
 			Map<String,String> inodes = new LinkedHashMap<String,String>();
 
@@ -751,8 +888,7 @@ public class LuceneEngine implements IndexEngineInterface {
 
 			logger.debug("Query: " + query);
 
-			iReader = IndexReader.open(_iWriter, true);
-			iSearcher = new IndexSearcher(iReader);
+			iSearcher = acquireSearcher();
 			if (limit == 0) {
 				TotalHitCountCollector totalHitCountCollector = new TotalHitCountCollector();
 				iSearcher.search(query, totalHitCountCollector);
@@ -778,20 +914,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
 			throw new IndexException("Unable to search the index", e);
 		} finally {
-			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
-			}
+			releaseSearcher(iSearcher);
 		}
 	}
 
@@ -805,7 +928,6 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	public Set<String> findInode(DirectoryHandle startNode, String text, InodeType inodeType) throws IndexException {
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
 		try {
 			Set<String> inodes = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 
@@ -833,8 +955,7 @@ public class LuceneEngine implements IndexEngineInterface {
 				query.add(QUERY_FILE, Occur.MUST);
 			}
 
-			iReader = IndexReader.open(_iWriter, true);
-			iSearcher = new IndexSearcher(iReader);
+			iSearcher = acquireSearcher();
 			TopScoreDocCollector topScoreDocsCollector = TopScoreDocCollector.create(_maxHitsNumber, false);
 			iSearcher.search(query, topScoreDocsCollector);
 			logger.debug("Query: " + query);
@@ -852,20 +973,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
 			throw new IndexException("Unable to search the index", e);
 		} finally {
-			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
-			}
+			releaseSearcher(iSearcher);
 		}
 	}
 
@@ -882,60 +990,80 @@ public class LuceneEngine implements IndexEngineInterface {
 	 * <li>Amount of cached documents (key => "cached inodes")</li>
 	 * <li>Amount of used memory (key => "ram usage")</li>
 	 * <li>The size in disk of the index (key => "disk usage")</li>
+	 * <li>Statistics of the shared searcher (keys => "searches", "searcher reopens",
+	 * "searcher age", "pending changes", "searcher reopen time")</li>
+	 * <li>Statistics of the update queue (keys => "queued updates", "update lag",
+	 * "applied updates", "coalesced updates", "update lag time")</li>
+	 * <li>The progress of a running rebuild (key => "rebuild")</li>
 	 * </ul>
 	 */
 	public Map<String, String> getStatus() {
-		Map<String, String> status = new LinkedHashMap<String, String>();
+		_swapLock.readLock().lock();
+		try {
+			Map<String, String> status = new LinkedHashMap<String, String>();
 
-		DateFormat df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.LONG);
-		String lastOp = df.format(new Date(_maintenanceThread.getLastOptimizationTime()));
-		String lastBackup = df.format(new Date(_backupThread.getLastBackup()));
-		status.put("backend", "Apache Lucene (http://lucene.apache.org)");
+			DateFormat df = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.LONG);
+			String lastOp = df.format(new Date(_maintenanceThread.getLastOptimizationTime()));
+			String lastBackup = df.format(new Date(_backupThread.getLastBackup()));
+			status.put("backend", "Apache Lucene (http://lucene.apache.org)");
 
-		try {
-			status.put("inodes", String.valueOf(_iWriter.numDocs()));
-		} catch (IOException e) {
-			logger.error("IOException getting IndexWriter", e);
-		}
+			try {
+				status.put("inodes", String.valueOf(_iWriter.numDocs()));
+			} catch (IOException e) {
+				logger.error("IOException getting IndexWriter", e);
+			}
 
-		IndexReader iReader = null;
-		try {
-			iReader = IndexReader.open(_iWriter, true);
-			status.put("deleted inodes", String.valueOf(iReader.numDeletedDocs()));
-		} catch (CorruptIndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
-		} catch (IOException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
-		} finally {
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
+			IndexSearcher iSearcher = null;
+			try {
+				iSearcher = acquireSearcher();
+				status.put("deleted inodes", String.valueOf(iSearcher.getIndexReader().numDeletedDocs()));
+			} catch (IOException e) {
+				logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
+			} finally {
+				releaseSearcher(iSearcher);
 			}
-		}
 		
-		status.put("cached inodes", String.valueOf(_iWriter.numRamDocs()));
-		status.put("max hits", String.valueOf(_maxHitsNumber));
-		status.put("last optimization", lastOp);
-		status.put("last backup", lastBackup);
-		status.put("ram usage", Bytes.formatBytes(_iWriter.ramSizeInBytes()));
-
-		long size = 0L;
-		String[] paths;
-		try {
-			paths = _storage.listAll();
-			for (String path : paths) {
-				size += new PhysicalFile(INDEX_DIR + "/" + path).length();
+			status.put("cached inodes", String.valueOf(_iWriter.numRamDocs()));
+			status.put("max hits", String.valueOf(_maxHitsNumber));
+			status.put("last optimization", lastOp);
+			status.put("last backup", lastBackup);
+			status.put("ram usage", Bytes.formatBytes(_iWriter.ramSizeInBytes()));
+			status.put("searches", String.valueOf(_searcherManager.getSearches()));
+			status.put("searcher reopens", String.valueOf(_searcherManager.getReopens()));
+			status.put("searcher age", _searcherManager.getAge() + "ms");
+			status.put("pending changes", String.valueOf(_searcherManager.getPendingChanges()));
+			status.put("searcher reopen time", _searcherManager.getReopenTimes().toString());
+			if (_listener != null) {
+				IndexUpdateQueue queue = _listener.getQueue();
+				status.put("queued updates", String.valueOf(queue.getPending()));
+				status.put("update lag", queue.getLag() + "ms");
+				status.put("applied updates", String.valueOf(queue.getApplied()));
+				status.put("coalesced updates", String.valueOf(queue.getCoalesced()));
+				status.put("update lag time", queue.getLagTimes().toString());
 			}
 
-			status.put("size", Bytes.formatBytes(size));
-		} catch (IOException e) {
-			logger.error("IOException getting size of index dir", e);
-		}
+			long size = 0L;
+			String[] paths;
+			try {
+				paths = _storage.listAll();
+				for (String path : paths) {
+					size += new PhysicalFile(INDEX_DIR + "/" + path).length();
+				}
+
+				status.put("size", Bytes.formatBytes(size));
+			} catch (IOException e) {
+				logger.error("IOException getting size of index dir", e);
+			}
+
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				status.put("rebuild", rebuilder.getProgress());
+			}
 
-		return status;
+			return status;
+		} finally {
+			_swapLock.readLock().unlock();
+		}
 	}
 
 	protected Directory getStorage() {
@@ -992,6 +1120,10 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	private final class IndexShutdownHookRunnable implements Runnable {
 		public void run() {
+			LuceneIndexRebuilder rebuilder = _rebuilder;
+			if (rebuilder != null) {
+				rebuilder.cancel();
+			}
 			_backupThread.stopBackup();
 			_maintenanceThread.stopMaintenance();
 
@@ -1012,6 +1144,11 @@ public class LuceneEngine implements IndexEngineInterface {
 				}
 			}
 
+			if (_listener != null) {
+				logger.debug("Applying the queued index changes...");
+				_listener.shutdown(30000);
+			}
+
 			logger.debug("Saving index...");
 			closeAll();
 		}
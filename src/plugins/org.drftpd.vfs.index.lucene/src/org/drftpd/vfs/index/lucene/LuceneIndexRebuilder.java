@@ -0,0 +1,396 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.drftpd.GlobalContext;
+import org.drftpd.io.PhysicalFile;
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.FileHandle;
+import org.drftpd.vfs.InodeHandle;
+import org.drftpd.vfs.event.ImmutableInodeHandle;
+import org.drftpd.vfs.index.IndexException;
+
+/**
+ * Builds a new index in {@link #REBUILD_DIR} while the current one keeps
+ * serving searches and updates.<br>
+ * Every directory of the VFS is a task handed to a pool of threads, the
+ * changes made to the live index meanwhile are recorded and replayed on
+ * the new index before the {@link LuceneEngine} swaps it in. Added and
+ * updated inodes are written again with their current data, deletions are
+ * repeated and renamed trees are deleted and walked again at their new
+ * path.
+ * @version $Id$
+ */
+public class LuceneIndexRebuilder {
+	private static final Logger logger = Logger.getLogger(LuceneIndexRebuilder.class);
+
+	protected static final String REBUILD_DIR = LuceneEngine.INDEX_DIR + ".rebuild";
+
+	private static final int PROGRESS_INTERVAL = 100000;
+
+	private enum Type { UPDATE, DELETE, RENAME }
+
+	private final LuceneEngine _engine;
+
+	private final int _threads;
+
+	private final int _maxRate;
+
+	private Directory _storage;
+
+	private IndexWriter _writer;
+
+	private final ArrayList<Change> _changes = new ArrayList<Change>();
+
+	private int _outstanding;
+
+	private Throwable _error;
+
+	private volatile boolean _cancelled;
+
+	private long _started;
+
+	private final AtomicLong _inodes = new AtomicLong();
+
+	private final AtomicLong _directories = new AtomicLong();
+
+	private final AtomicLong _replayed = new AtomicLong();
+
+	/**
+	 * @param threads number of threads walking the VFS.
+	 * @param maxRate maximum number of inodes indexed per second, 0 for no limit.
+	 */
+	public LuceneIndexRebuilder(LuceneEngine engine, int threads, int maxRate) {
+		_engine = engine;
+		_threads = Math.max(1, threads);
+		_maxRate = maxRate;
+	}
+
+	/**
+	 * Walks the whole VFS into a new index and replays the changes recorded
+	 * meanwhile, {@link #finish()} must then be called while no more changes
+	 * can be made to the live index.
+	 */
+	public void build() throws IndexException {
+		_started = System.currentTimeMillis();
+		new PhysicalFile(REBUILD_DIR).deleteRecursive();
+		try {
+			_storage = _engine.openDirectory(REBUILD_DIR);
+			_writer = _engine.openWriter(_storage);
+		} catch (IOException e) {
+			throw new IndexException("Unable to create the new index", e);
+		}
+
+		logger.info("Rebuilding the index using " + _threads + " threads");
+		DirectoryHandle root = GlobalContext.getGlobalContext().getRoot();
+		try {
+			index(root, false);
+		} catch (IOException e) {
+			throw new IndexException("Unable to index the root directory", e);
+		}
+		walk(root);
+
+		// keep the final replay, which blocks the live index, short
+		int replayed;
+		do {
+			replayed = replay();
+		} while (replayed > 100 && !_cancelled);
+		if (_cancelled) {
+			throw new IndexException("The index rebuild was cancelled");
+		}
+		logger.info("Indexed " + _inodes.get() + " inodes in " + _directories.get() + " directories in "
+				+ (System.currentTimeMillis() - _started) / 1000 + "s");
+	}
+
+	private void walk(DirectoryHandle root) throws IndexException {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "IndexRebuildThread-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			submit(pool, root);
+			synchronized (this) {
+				while (_outstanding > 0 && _error == null && !_cancelled) {
+					wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			_cancelled = true;
+		} finally {
+			pool.shutdownNow();
+			try {
+				pool.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				_cancelled = true;
+			}
+		}
+		if (_error != null) {
+			throw new IndexException("Unable to rebuild the index", _error);
+		}
+		if (_cancelled) {
+			throw new IndexException("The index rebuild was cancelled");
+		}
+	}
+
+	private void submit(final ExecutorService pool, final DirectoryHandle dir) {
+		synchronized (this) {
+			_outstanding++;
+		}
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					walkDirectory(pool, dir);
+				} catch (Throwable t) {
+					synchronized (LuceneIndexRebuilder.this) {
+						if (_error == null) {
+							_error = t;
+						}
+					}
+				} finally {
+					synchronized (LuceneIndexRebuilder.this) {
+						_outstanding--;
+						LuceneIndexRebuilder.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	private void walkDirectory(ExecutorService pool, DirectoryHandle dir) throws IOException, InterruptedException {
+		try {
+			for (InodeHandle inode : dir.getInodeHandlesUnchecked()) {
+				if (_cancelled) {
+					return;
+				}
+				if (inode.isDirectory()) {
+					index(inode, false);
+					submit(pool, (DirectoryHandle) inode);
+				} else if (inode.isFile()) {
+					index(inode, false);
+				}
+				throttle();
+			}
+			_directories.incrementAndGet();
+		} catch (FileNotFoundException e) {
+			// Directory no longer present, silently skip
+		}
+	}
+
+	/**
+	 * Indexes <tt>inode</tt> in the new index, <tt>replace</tt> must be set
+	 * when the inode may already be there.
+	 */
+	private void index(InodeHandle inode, boolean replace) throws IOException {
+		ImmutableInodeHandle immutable;
+		try {
+			immutable = inode.getImmutableInode();
+		} catch (FileNotFoundException e) {
+			// Inode no longer present, silently skip
+			return;
+		}
+		_engine.writeDocument(_writer, immutable, replace);
+		long inodes = _inodes.incrementAndGet();
+		if (inodes % PROGRESS_INTERVAL == 0) {
+			logger.info("Index rebuild progress: " + getProgress());
+		}
+	}
+
+	/**
+	 * Sleeps as long as needed to stay under the configured rate.
+	 */
+	private void throttle() throws InterruptedException {
+		if (_maxRate <= 0) {
+			return;
+		}
+		long wait = _started + _inodes.get() * 1000L / _maxRate - System.currentTimeMillis();
+		if (wait > 0) {
+			Thread.sleep(wait);
+		}
+	}
+
+	/**
+	 * Walks <tt>dir</tt> again from the current thread, replacing what was
+	 * indexed before.
+	 */
+	private void reindexDirectory(DirectoryHandle dir) throws IOException {
+		try {
+			for (InodeHandle inode : dir.getInodeHandlesUnchecked()) {
+				if (inode.isDirectory()) {
+					index(inode, true);
+					reindexDirectory((DirectoryHandle) inode);
+				} else if (inode.isFile()) {
+					index(inode, true);
+				}
+			}
+		} catch (FileNotFoundException e) {
+			// Directory no longer present, a deletion is recorded
+		}
+	}
+
+	/**
+	 * Records an inode added to or updated in the live index.
+	 */
+	public void updated(ImmutableInodeHandle inode) {
+		record(new Change(Type.UPDATE, null, inode));
+	}
+
+	/**
+	 * Records an inode deleted from the live index.
+	 */
+	public void deleted(ImmutableInodeHandle inode) {
+		record(new Change(Type.DELETE, null, inode));
+	}
+
+	/**
+	 * Records an inode renamed in the live index.
+	 */
+	public void renamed(ImmutableInodeHandle fromInode, ImmutableInodeHandle toInode) {
+		record(new Change(Type.RENAME, fromInode, toInode));
+	}
+
+	private void record(Change change) {
+		synchronized (_changes) {
+			_changes.add(change);
+		}
+	}
+
+	/**
+	 * Applies the changes recorded so far to the new index.
+	 * @return the number of changes applied.
+	 */
+	private int replay() throws IndexException {
+		ArrayList<Change> changes;
+		synchronized (_changes) {
+			changes = new ArrayList<Change>(_changes);
+			_changes.clear();
+		}
+		try {
+			for (Change change : changes) {
+				switch (change._type) {
+				case UPDATE:
+					_engine.writeDocument(_writer, change._inode, true);
+					break;
+				case DELETE:
+					_engine.deleteDocuments(_writer, change._inode, false);
+					break;
+				case RENAME:
+					_engine.deleteDocuments(_writer, change._fromInode, true);
+					String path = change._inode.getPath();
+					if (change._inode.isDirectory()) {
+						DirectoryHandle dir = new DirectoryHandle(path);
+						index(dir, true);
+						reindexDirectory(dir);
+					} else {
+						index(new FileHandle(path), true);
+					}
+					break;
+				}
+				_replayed.incrementAndGet();
+			}
+		} catch (IOException e) {
+			throw new IndexException("Unable to replay the changes made during the index rebuild", e);
+		}
+		return changes.size();
+	}
+
+	/**
+	 * Replays the last recorded changes and commits the new index, which
+	 * is left closed in {@link #REBUILD_DIR}.
+	 */
+	public void finish() throws IndexException {
+		replay();
+		try {
+			_writer.commit();
+		} catch (IOException e) {
+			throw new IndexException("Unable to commit the new index", e);
+		}
+		close();
+	}
+
+	/**
+	 * Closes and deletes the new index.
+	 */
+	public void abort() {
+		close();
+		new PhysicalFile(REBUILD_DIR).deleteRecursive();
+	}
+
+	private void close() {
+		try {
+			if (_writer != null)
+				_writer.close();
+			if (_storage != null)
+				_storage.close();
+		} catch (Exception e) {
+			logger.error(e, e);
+		}
+		_writer = null;
+		_storage = null;
+	}
+
+	/**
+	 * Stops walking the VFS, {@link #build()} then fails.
+	 */
+	public void cancel() {
+		_cancelled = true;
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	public String getProgress() {
+		int pending;
+		synchronized (_changes) {
+			pending = _changes.size();
+		}
+		return _inodes.get() + " inodes in " + _directories.get() + " directories, "
+				+ pending + " live changes pending, " + _replayed.get() + " replayed, running for "
+				+ (System.currentTimeMillis() - _started) / 1000 + "s";
+	}
+
+	private static class Change {
+		private final Type _type;
+
+		private final ImmutableInodeHandle _fromInode;
+
+		private final ImmutableInodeHandle _inode;
+
+		private Change(Type type, ImmutableInodeHandle fromInode, ImmutableInodeHandle inode) {
+			_type = type;
+			_fromInode = fromInode;
+			_inode = inode;
+		}
+	}
+}
@@ -55,8 +55,7 @@ public class LuceneMaintenanceThread extends Thread {
 				}
 
 				if ((currentTime >= _lastOptimization + _optimizeInterval) && !_engine.isRebuilding()) {
-					_engine.getWriter().optimize();
-					_engine.getWriter().commit();
+					_engine.optimize();
 					updateLastOptimizationTime();
 
 					logger.debug("Index was optimized successfully.");
@@ -0,0 +1,181 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.drftpd.util.LatencyHistogram;
+
+/**
+ * Shares one near real time {@link IndexSearcher} between all the searches.<br>
+ * The underlying reader is obtained from the {@link IndexWriter} and is only
+ * reopened when the index changed and either <tt>maxAge</tt> milliseconds
+ * passed since it was opened or <tt>maxChanges</tt> changes were made, so a
+ * search may not see the changes of the last <tt>maxAge</tt> milliseconds.<br>
+ * Every {@link #acquire()} must be followed by a {@link #release(IndexSearcher)},
+ * readers are reference counted so a reopen never closes a reader which is
+ * still being searched.
+ * @version $Id$
+ */
+public class LuceneSearcherManager {
+	private static final Logger logger = Logger.getLogger(LuceneSearcherManager.class);
+
+	private final IndexWriter _writer;
+
+	private final long _maxAge;
+
+	private final int _maxChanges;
+
+	private IndexSearcher _current;
+
+	private long _openedAt;
+
+	private boolean _closed;
+
+	private final AtomicInteger _changes = new AtomicInteger();
+
+	private final AtomicLong _searches = new AtomicLong();
+
+	private final AtomicLong _reopens = new AtomicLong();
+
+	private final LatencyHistogram _reopenTimes = new LatencyHistogram();
+
+	/**
+	 * @param maxAge milliseconds a reader is kept once the index changed,
+	 * 0 reopens it on the first search after every change.
+	 * @param maxChanges number of changes after which the reader is reopened
+	 * regardless of its age, 0 disables this limit.
+	 */
+	public LuceneSearcherManager(IndexWriter writer, long maxAge, int maxChanges) throws IOException {
+		_writer = writer;
+		_maxAge = maxAge;
+		_maxChanges = maxChanges;
+		_current = new IndexSearcher(IndexReader.open(_writer, true));
+		_openedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Must be called after every change made through the writer.
+	 */
+	public void changed() {
+		_changes.incrementAndGet();
+	}
+
+	/**
+	 * @return the shared searcher, reopened first if the reopen policy says so.
+	 */
+	public IndexSearcher acquire() throws IOException {
+		return acquire(false);
+	}
+
+	/**
+	 * @param fresh if true the searcher is reopened whenever the index changed,
+	 * for callers which must see their own changes.
+	 * @return the shared searcher.
+	 */
+	public synchronized IndexSearcher acquire(boolean fresh) throws IOException {
+		if (_closed) {
+			throw new IOException("The index searcher has been closed");
+		}
+		maybeReopen(fresh);
+		_current.getIndexReader().incRef();
+		_searches.incrementAndGet();
+		return _current;
+	}
+
+	/**
+	 * Releases a searcher obtained from {@link #acquire()}, it mustn't be used
+	 * anymore afterwards.<br>
+	 * Readers count their own references, so this still works once the
+	 * manager the searcher came from was closed.
+	 */
+	public static void release(IndexSearcher searcher) throws IOException {
+		searcher.getIndexReader().decRef();
+	}
+
+	private void maybeReopen(boolean fresh) throws IOException {
+		int changes = _changes.get();
+		if (changes == 0) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (!fresh && now - _openedAt < _maxAge && (_maxChanges <= 0 || changes < _maxChanges)) {
+			return;
+		}
+		// changes made while reopening will trigger the next reopen
+		_changes.addAndGet(-changes);
+		IndexReader oldReader = _current.getIndexReader();
+		IndexReader newReader;
+		try {
+			newReader = oldReader.reopen();
+		} catch (IOException e) {
+			_changes.addAndGet(changes);
+			throw e;
+		}
+		if (newReader != oldReader) {
+			_current = new IndexSearcher(newReader);
+			oldReader.decRef();
+			_reopens.incrementAndGet();
+		}
+		_openedAt = System.currentTimeMillis();
+		_reopenTimes.record(_openedAt - now);
+	}
+
+	/**
+	 * Stops handing out searchers, the current reader is closed as soon as
+	 * the searches still running release it.
+	 */
+	public synchronized void close() throws IOException {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		_current.getIndexReader().decRef();
+		logger.debug("Closed the shared index searcher after " + _searches.get() + " searches and "
+				+ _reopens.get() + " reopens");
+	}
+
+	public long getSearches() {
+		return _searches.get();
+	}
+
+	public long getReopens() {
+		return _reopens.get();
+	}
+
+	public int getPendingChanges() {
+		return _changes.get();
+	}
+
+	/**
+	 * @return milliseconds since the current reader was opened.
+	 */
+	public synchronized long getAge() {
+		return System.currentTimeMillis() - _openedAt;
+	}
+
+	public LatencyHistogram getReopenTimes() {
+		return _reopenTimes;
+	}
+}
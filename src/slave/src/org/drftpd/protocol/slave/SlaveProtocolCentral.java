@@ -30,6 +30,7 @@ import org.drftpd.protocol.HandshakeWrapper;
 import org.drftpd.protocol.ProtocolException;
 import org.drftpd.slave.Slave;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
 import org.drftpd.slave.async.AsyncResponseException;
 import org.drftpd.util.CommonPluginUtils;
@@ -65,7 +66,9 @@ public class SlaveProtocolCentral {
 	/**
 	 * Whenever the Slave connects to the master, it receives a List containing all ProtocolExtensions loaded by master.<br>
 	 * Slave will iterate through this List, checking if the requested extension is also loaded by the slave.<br>
-	 * After the checking is done, Slave writes a {@link HandlerWrapper} to the socket and let master handles the rest.
+	 * After the checking is done, Slave writes a {@link HandlerWrapper} to the socket and let master handles the rest.<br>
+	 * The HandshakeWrapper also carries the binary framing version supported by the slave, the master then
+	 * answers with the version to use for the rest of the connection.
 	 * @see MasterProtocolCentral
 	 * @see HandshakeWrapper
 	 */
@@ -73,6 +76,7 @@ public class SlaveProtocolCentral {
 	public void handshakeWithMaster() {
 		HandshakeWrapper hw = new HandshakeWrapper();
 		hw.setPluginStatus(true);
+		hw.setProtocolVersion(AsyncMessageCodec.VERSION);
 		
 		try {
 			// reading the plugin list from the socket
@@ -104,8 +108,16 @@ public class SlaveProtocolCentral {
 		
 		try {
 			getSlaveObject().getOutputStream().writeObject(hw);
+			getSlaveObject().getOutputStream().flush();
+			if (hw.pluginStatus()) {
+				int version = (Integer) getSlaveObject().getInputStream().readObject();
+				logger.debug("Using binary protocol version " + version);
+				getSlaveObject().setProtocolVersion(version);
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
 		}
 	}
 	
@@ -0,0 +1,190 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+/**
+ * Token bucket limiting the rate of the transfers attached to it.<br>
+ * Buckets form a tree, slave -> group -> user -> transfer, bytes moved by a
+ * transfer are taken from its bucket and from all the parents of it. Tokens
+ * may be borrowed, the transfer then waits until the most indebted bucket of
+ * its chain is paid back, so a chunk is never split.<br>
+ * All times are measured with {@link System#nanoTime()}.
+ * @version $Id$
+ */
+public class BandwidthBucket {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final String _name;
+
+	private final BandwidthBucket _parent;
+
+	private long _rate;
+
+	private double _tokens;
+
+	private long _lastRefill = System.nanoTime();
+
+	private long _bytes;
+
+	private long _windowStart = _lastRefill;
+
+	private long _windowBytes;
+
+	private long _speed;
+
+	// transfers attached to this bucket or to its children
+	private int _transfers;
+
+	/**
+	 * @param parent null for a root bucket.
+	 * @param rate bytes per second, 0 for no limit.
+	 */
+	public BandwidthBucket(String name, BandwidthBucket parent, long rate) {
+		_name = name;
+		_parent = parent;
+		_rate = rate;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public BandwidthBucket getParent() {
+		return _parent;
+	}
+
+	public synchronized long getRate() {
+		return _rate;
+	}
+
+	/**
+	 * @param rate bytes per second, 0 for no limit.
+	 */
+	public synchronized void setRate(long rate) {
+		if (rate != _rate) {
+			refill(System.nanoTime());
+			_rate = rate;
+			_tokens = Math.min(_tokens, getBurst());
+		}
+	}
+
+	/**
+	 * @return the lowest limit of this bucket and its parents, 0 if none of
+	 *         them is limited.
+	 */
+	public long getLowestRate() {
+		long lowest = 0;
+		for (BandwidthBucket bucket = this; bucket != null; bucket = bucket._parent) {
+			long rate = bucket.getRate();
+			if (rate > 0 && (lowest == 0 || rate < lowest)) {
+				lowest = rate;
+			}
+		}
+		return lowest;
+	}
+
+	/**
+	 * Takes <tt>bytes</tt> from this bucket and all its parents.
+	 * @return nanoseconds to wait before moving more data.
+	 */
+	public long consume(long bytes) {
+		long wait = 0;
+		for (BandwidthBucket bucket = this; bucket != null; bucket = bucket._parent) {
+			wait = Math.max(wait, bucket.take(bytes));
+		}
+		return wait;
+	}
+
+	private synchronized long take(long bytes) {
+		long now = System.nanoTime();
+		roll(now);
+		_bytes += bytes;
+		_windowBytes += bytes;
+		refill(now);
+		if (_rate <= 0) {
+			return 0;
+		}
+		_tokens -= bytes;
+		if (_tokens >= 0) {
+			return 0;
+		}
+		return (long) (-_tokens * NANOS_PER_SECOND / _rate);
+	}
+
+	private void refill(long now) {
+		if (_rate > 0) {
+			_tokens = Math.min(_tokens + (double) (now - _lastRefill) * _rate / NANOS_PER_SECOND,
+					getBurst());
+		} else {
+			_tokens = 0;
+		}
+		_lastRefill = now;
+	}
+
+	/**
+	 * A bucket holds at most a quarter second worth of tokens, enough to
+	 * smooth out scheduling delays without letting a transfer burst.
+	 */
+	private double getBurst() {
+		return _rate / 4.0;
+	}
+
+	private void roll(long now) {
+		long elapsed = now - _windowStart;
+		if (elapsed >= NANOS_PER_SECOND) {
+			_speed = (long) (_windowBytes * (double) NANOS_PER_SECOND / elapsed);
+			_windowStart = now;
+			_windowBytes = 0;
+		}
+	}
+
+	/**
+	 * @return bytes per second moved through this bucket during the last
+	 *         second or so.
+	 */
+	public synchronized long getSpeed() {
+		roll(System.nanoTime());
+		return _speed;
+	}
+
+	/**
+	 * @return bytes moved through this bucket since it was created.
+	 */
+	public synchronized long getBytes() {
+		return _bytes;
+	}
+
+	protected synchronized int getTransfers() {
+		return _transfers;
+	}
+
+	protected synchronized int addTransfers(int delta) {
+		_transfers += delta;
+		return _transfers;
+	}
+
+	public synchronized BandwidthUsage getUsage() {
+		roll(System.nanoTime());
+		return new BandwidthUsage(_name, _rate, _speed, _bytes, _transfers);
+	}
+
+	public String toString() {
+		return getClass().getSimpleName() + "[name=" + _name + ",rate=" + getRate() + "]";
+	}
+}
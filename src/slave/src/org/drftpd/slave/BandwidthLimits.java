@@ -0,0 +1,97 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+/**
+ * Limits sent by the master along with a transfer, beyond the speed limit of
+ * the transfer itself.<br>
+ * Every limit is in bytes per second, 0 means unlimited. Transfers of the
+ * same user or group on a slave share the limit sent with the latest of them.
+ * @version $Id$
+ */
+public class BandwidthLimits {
+	private static final int ARGS = 5;
+
+	private String _user;
+
+	private String _group;
+
+	private long _userMaxSpeed;
+
+	private long _groupMaxSpeed;
+
+	private long _slaveMaxSpeed;
+
+	public BandwidthLimits(String user, String group, long userMaxSpeed,
+			long groupMaxSpeed, long slaveMaxSpeed) {
+		_user = user;
+		_group = group;
+		_userMaxSpeed = userMaxSpeed;
+		_groupMaxSpeed = groupMaxSpeed;
+		_slaveMaxSpeed = slaveMaxSpeed;
+	}
+
+	public String getUser() {
+		return _user;
+	}
+
+	public String getGroup() {
+		return _group;
+	}
+
+	public long getUserMaxSpeed() {
+		return _userMaxSpeed;
+	}
+
+	public long getGroupMaxSpeed() {
+		return _groupMaxSpeed;
+	}
+
+	public long getSlaveMaxSpeed() {
+		return _slaveMaxSpeed;
+	}
+
+	/**
+	 * @return the limits as command arguments, see {@link #fromArgs(String[], int)}.
+	 */
+	public String[] toArgs() {
+		return new String[] { _user == null ? "" : _user, _group == null ? "" : _group,
+				String.valueOf(_userMaxSpeed), String.valueOf(_groupMaxSpeed),
+				String.valueOf(_slaveMaxSpeed) };
+	}
+
+	/**
+	 * @return the limits stored from <tt>offset</tt> on, null if the master
+	 *         didn't send any.
+	 */
+	public static BandwidthLimits fromArgs(String[] args, int offset) {
+		if (args.length < offset + ARGS) {
+			return null;
+		}
+		return new BandwidthLimits(args[offset].length() == 0 ? null : args[offset],
+				args[offset + 1].length() == 0 ? null : args[offset + 1],
+				Long.parseLong(args[offset + 2]), Long.parseLong(args[offset + 3]),
+				Long.parseLong(args[offset + 4]));
+	}
+
+	public String toString() {
+		return getClass().getSimpleName() + "[user=" + _user + ",group=" + _group
+				+ ",userMaxSpeed=" + _userMaxSpeed + ",groupMaxSpeed=" + _groupMaxSpeed
+				+ ",slaveMaxSpeed=" + _slaveMaxSpeed + "]";
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Keeps the {@link BandwidthBucket} trees of a slave, one for the data it
+ * sends and one for the data it receives.<br>
+ * Group and user buckets only exist while they have transfers running so
+ * their limits follow what the master sends with new transfers.
+ * @version $Id$
+ */
+public class BandwidthScheduler {
+
+	private final BandwidthBucket _send = new BandwidthBucket("send", null, 0);
+
+	private final BandwidthBucket _receive = new BandwidthBucket("receive", null, 0);
+
+	private final TreeMap<String, BandwidthBucket> _buckets = new TreeMap<String, BandwidthBucket>();
+
+	/**
+	 * Creates the bucket of a transfer.
+	 * @param direction {@link Transfer#TRANSFER_SENDING_DOWNLOAD} or
+	 *        {@link Transfer#TRANSFER_RECEIVING_UPLOAD}
+	 * @param limits null if only <tt>maxSpeed</tt> applies.
+	 * @param maxSpeed limit of the transfer itself, 0 if unlimited.
+	 * @return a bucket that has to be handed back to {@link #close(BandwidthBucket)}.
+	 */
+	public synchronized BandwidthBucket open(char direction, String name,
+			BandwidthLimits limits, long maxSpeed) {
+		BandwidthBucket parent = direction == Transfer.TRANSFER_RECEIVING_UPLOAD ? _receive : _send;
+		if (limits != null) {
+			parent.setRate(limits.getSlaveMaxSpeed());
+			if (limits.getGroup() != null) {
+				parent = getBucket(parent, "group", limits.getGroup(), limits.getGroupMaxSpeed());
+			}
+			if (limits.getUser() != null) {
+				parent = getBucket(parent, "user", limits.getUser(), limits.getUserMaxSpeed());
+			}
+		}
+		BandwidthBucket bucket = new BandwidthBucket(parent.getName() + "/" + name, parent, maxSpeed);
+		for (BandwidthBucket b = bucket; b != null; b = b.getParent()) {
+			b.addTransfers(1);
+		}
+		return bucket;
+	}
+
+	private BandwidthBucket getBucket(BandwidthBucket parent, String type, String name, long rate) {
+		String path = parent.getName() + "/" + type + "/" + name;
+		BandwidthBucket bucket = _buckets.get(path);
+		if (bucket == null) {
+			bucket = new BandwidthBucket(path, parent, rate);
+			_buckets.put(path, bucket);
+		} else {
+			bucket.setRate(rate);
+		}
+		return bucket;
+	}
+
+	public synchronized void close(BandwidthBucket bucket) {
+		for (BandwidthBucket b = bucket; b != null; b = b.getParent()) {
+			if (b.addTransfers(-1) == 0) {
+				_buckets.remove(b.getName());
+			}
+		}
+	}
+
+	/**
+	 * @return the usage of the slave, group and user buckets.
+	 */
+	public synchronized List<BandwidthUsage> getUsage() {
+		ArrayList<BandwidthUsage> usage = new ArrayList<BandwidthUsage>(_buckets.size() + 2);
+		usage.add(_send.getUsage());
+		usage.add(_receive.getUsage());
+		for (BandwidthBucket bucket : _buckets.values()) {
+			usage.add(bucket.getUsage());
+		}
+		Collections.sort(usage, new Comparator<BandwidthUsage>() {
+			public int compare(BandwidthUsage u1, BandwidthUsage u2) {
+				return u1.getName().compareTo(u2.getName());
+			}
+		});
+		return usage;
+	}
+}
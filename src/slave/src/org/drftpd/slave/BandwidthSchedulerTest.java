@@ -0,0 +1,62 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BandwidthSchedulerTest extends TestCase {
+
+	public BandwidthSchedulerTest(String arg0) {
+		super(arg0);
+	}
+
+	public void testSharedBuckets() {
+		BandwidthScheduler scheduler = new BandwidthScheduler();
+		BandwidthLimits limits = new BandwidthLimits("user", "group", 1000000, 500000, 0);
+		BandwidthBucket b1 = scheduler.open('S', "1", limits, 0);
+		BandwidthBucket b2 = scheduler.open('S', "2", limits, 2000000);
+		assertSame(b1.getParent(), b2.getParent());
+		assertEquals(500000, b1.getLowestRate());
+
+		b1.consume(1000);
+		b2.consume(2000);
+		List<BandwidthUsage> usage = scheduler.getUsage();
+		assertEquals(4, usage.size());
+		for (BandwidthUsage bucket : usage) {
+			if (bucket.getName().startsWith("send")) {
+				assertEquals(2, bucket.getTransfers());
+				assertEquals(3000, bucket.getTransfered());
+			}
+		}
+
+		scheduler.close(b1);
+		scheduler.close(b2);
+		assertEquals(2, scheduler.getUsage().size());
+	}
+
+	public void testDebt() {
+		BandwidthBucket bucket = new BandwidthBucket("test", null, 1000);
+		// a new bucket starts empty, the debt is paid back at the bucket rate
+		long wait = bucket.consume(250);
+		assertTrue(wait > 200000000L && wait <= 250000000L);
+		wait = bucket.consume(250);
+		assertTrue(wait > 450000000L && wait <= 500000000L);
+	}
+}
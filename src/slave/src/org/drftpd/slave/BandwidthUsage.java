@@ -0,0 +1,76 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of a {@link BandwidthBucket} of a slave, sent to the master on
+ * request.
+ * @version $Id$
+ */
+public class BandwidthUsage implements Serializable {
+	private static final long serialVersionUID = 4571930217384102634L;
+
+	private String _name;
+
+	private long _maxSpeed;
+
+	private long _speed;
+
+	private long _transfered;
+
+	private int _transfers;
+
+	public BandwidthUsage(String name, long maxSpeed, long speed, long transfered, int transfers) {
+		_name = name;
+		_maxSpeed = maxSpeed;
+		_speed = speed;
+		_transfered = transfered;
+		_transfers = transfers;
+	}
+
+	/**
+	 * @return the bucket path, like send/group/x or receive/user/y.
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * @return the limit in bytes per second, 0 if unlimited.
+	 */
+	public long getMaxSpeed() {
+		return _maxSpeed;
+	}
+
+	/**
+	 * @return bytes per second over the last second.
+	 */
+	public long getSpeed() {
+		return _speed;
+	}
+
+	public long getTransfered() {
+		return _transfered;
+	}
+
+	public int getTransfers() {
+		return _transfers;
+	}
+}
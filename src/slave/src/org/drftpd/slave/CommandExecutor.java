@@ -0,0 +1,180 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.util.LatencyHistogram;
+
+/**
+ * Runs the commands received from the master on pooled threads.<br>
+ * Commands are split in three lanes so slow operations can't starve the quick
+ * ones:
+ * <ul>
+ * <li>control - short operations like ping, delete or rename</li>
+ * <li>transfer - send and receive, they last as long as the transfer itself
+ * so this lane never queues nor refuses anything</li>
+ * <li>long - everything else, checksums, remerge, zipscript operations</li>
+ * </ul>
+ * Control and long lanes have a bounded queue, once full the commands are
+ * refused and the master gets an error for them instead of the slave piling
+ * up work.
+ * @version $Id$
+ */
+public class CommandExecutor {
+	private static final Logger logger = Logger.getLogger(CommandExecutor.class);
+
+	private static final String DEFAULT_CONTROL_COMMANDS =
+		"abort,bandwidth,checkSSL,connect,delete,listen,maxpath,ping,rename,shutdown";
+
+	private static final String DEFAULT_TRANSFER_COMMANDS = "receive,send";
+
+	private CommandLane _control;
+
+	private CommandLane _transfer;
+
+	private CommandLane _long;
+
+	private HashMap<String, CommandLane> _commandLanes = new HashMap<String, CommandLane>();
+
+	public CommandExecutor(Properties p) {
+		_control = new CommandLane("control",
+				Integer.parseInt(p.getProperty("executor.control.threads", "4").trim()),
+				Integer.parseInt(p.getProperty("executor.control.queue", "1000").trim()));
+		_transfer = new CommandLane("transfer", 0, 0);
+		_long = new CommandLane("long",
+				Integer.parseInt(p.getProperty("executor.long.threads", "4").trim()),
+				Integer.parseInt(p.getProperty("executor.long.queue", "1000").trim()));
+		mapCommands(p.getProperty("executor.control.commands", DEFAULT_CONTROL_COMMANDS), _control);
+		mapCommands(p.getProperty("executor.transfer.commands", DEFAULT_TRANSFER_COMMANDS), _transfer);
+	}
+
+	private void mapCommands(String commands, CommandLane lane) {
+		for (String command : commands.split(",")) {
+			command = command.trim();
+			if (command.length() > 0) {
+				_commandLanes.put(command, lane);
+			}
+		}
+	}
+
+	/**
+	 * Runs <tt>handler</tt> on the lane of the given command.
+	 * @return false if the lane is full and the command was refused.
+	 */
+	public boolean execute(AsyncCommandArgument ac, Runnable handler) {
+		CommandLane lane = _commandLanes.get(ac.getName());
+		if (lane == null) {
+			lane = _long;
+		}
+		return lane.execute(handler);
+	}
+
+	public List<CommandLaneStatus> getLaneStatus() {
+		ArrayList<CommandLaneStatus> status = new ArrayList<CommandLaneStatus>(3);
+		status.add(_control.getStatus());
+		status.add(_transfer.getStatus());
+		status.add(_long.getStatus());
+		return status;
+	}
+
+	private static class CommandLane {
+		private String _name;
+
+		private int _threads;
+
+		private ThreadPoolExecutor _executor;
+
+		private AtomicLong _rejected = new AtomicLong();
+
+		private AtomicLong _completed = new AtomicLong();
+
+		private LatencyHistogram _waitTime = new LatencyHistogram();
+
+		private LatencyHistogram _runTime = new LatencyHistogram();
+
+		/**
+		 * @param threads maximum number of threads, 0 for an unbounded lane
+		 * which creates threads on demand and never queues.
+		 * @param queueSize maximum number of commands waiting for a thread.
+		 */
+		private CommandLane(final String name, int threads, int queueSize) {
+			_name = name;
+			_threads = threads;
+			ThreadFactory factory = new ThreadFactory() {
+				private AtomicInteger _count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					return new Thread(r, "AsyncCommandHandler-" + name + "-" + _count.incrementAndGet());
+				}
+			};
+			if (threads <= 0) {
+				_executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+						new SynchronousQueue<Runnable>(), factory);
+			} else {
+				BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(Math.max(1, queueSize));
+				_executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, queue, factory);
+				_executor.allowCoreThreadTimeOut(true);
+			}
+		}
+
+		private boolean execute(final Runnable handler) {
+			final long queued = System.currentTimeMillis();
+			try {
+				_executor.execute(new Runnable() {
+					public void run() {
+						long start = System.currentTimeMillis();
+						_waitTime.record(start - queued);
+						try {
+							handler.run();
+						} finally {
+							_runTime.record(System.currentTimeMillis() - start);
+							_completed.incrementAndGet();
+						}
+					}
+				});
+				return true;
+			} catch (RejectedExecutionException e) {
+				long rejected = _rejected.incrementAndGet();
+				logger.warn("The " + _name + " command lane is full, "
+						+ rejected + " commands refused so far");
+				return false;
+			}
+		}
+
+		private CommandLaneStatus getStatus() {
+			return new CommandLaneStatus(_name, _threads, _executor.getActiveCount(),
+					_executor.getQueue().size(), _completed.get(), _rejected.get(),
+					_waitTime.getMean(), _waitTime.getMax(), _runTime.getMean(), _runTime.getMax());
+		}
+	}
+}
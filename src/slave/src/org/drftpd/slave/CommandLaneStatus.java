@@ -0,0 +1,123 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of one of the {@link CommandExecutor} lanes of a slave, sent to the
+ * master along with the disk status.
+ * @version $Id$
+ */
+public class CommandLaneStatus implements Serializable {
+	private static final long serialVersionUID = -2207317283960744377L;
+
+	private String _name;
+
+	private int _threads;
+
+	private int _active;
+
+	private int _queued;
+
+	private long _completed;
+
+	private long _rejected;
+
+	private long _meanWait;
+
+	private long _maxWait;
+
+	private long _meanRun;
+
+	private long _maxRun;
+
+	public CommandLaneStatus(String name, int threads, int active, int queued,
+			long completed, long rejected, long meanWait, long maxWait,
+			long meanRun, long maxRun) {
+		_name = name;
+		_threads = threads;
+		_active = active;
+		_queued = queued;
+		_completed = completed;
+		_rejected = rejected;
+		_meanWait = meanWait;
+		_maxWait = maxWait;
+		_meanRun = meanRun;
+		_maxRun = maxRun;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * @return the maximum number of threads of the lane, 0 if unbounded.
+	 */
+	public int getThreads() {
+		return _threads;
+	}
+
+	public int getActive() {
+		return _active;
+	}
+
+	public int getQueued() {
+		return _queued;
+	}
+
+	public long getCompleted() {
+		return _completed;
+	}
+
+	/**
+	 * @return the number of commands refused because the queue was full.
+	 */
+	public long getRejected() {
+		return _rejected;
+	}
+
+	/**
+	 * @return the mean time in milliseconds commands waited in the queue.
+	 */
+	public long getMeanWait() {
+		return _meanWait;
+	}
+
+	public long getMaxWait() {
+		return _maxWait;
+	}
+
+	/**
+	 * @return the mean time in milliseconds spent running commands.
+	 */
+	public long getMeanRun() {
+		return _meanRun;
+	}
+
+	public long getMaxRun() {
+		return _maxRun;
+	}
+
+	public String toString() {
+		return getClass().getName() + "[name=" + getName() + ",active=" + getActive()
+				+ ",queued=" + getQueued() + ",completed=" + getCompleted()
+				+ ",rejected=" + getRejected() + ",meanWait=" + getMeanWait()
+				+ ",meanRun=" + getMeanRun() + "]";
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct ByteBuffers of the same size.<br>
+ * Direct buffers are expensive to allocate and are only freed by the garbage
+ * collector, so they are reused between transfers instead.
+ * @version $Id$
+ */
+public class DirectBufferPool {
+
+	private final ConcurrentLinkedQueue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	private final AtomicInteger _pooled = new AtomicInteger();
+
+	private final int _bufferSize;
+
+	private final int _maxPooled;
+
+	/**
+	 * @param bufferSize capacity of the pooled buffers.
+	 * @param maxPooled buffers kept for reuse, others are left to the garbage collector.
+	 */
+	public DirectBufferPool(int bufferSize, int maxPooled) {
+		_bufferSize = bufferSize;
+		_maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return a cleared buffer holding at least <tt>minSize</tt> bytes.
+	 */
+	public ByteBuffer take(int minSize) {
+		if (minSize > _bufferSize) {
+			return ByteBuffer.allocateDirect(minSize);
+		}
+		ByteBuffer buffer = _buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(_bufferSize);
+		}
+		_pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	public void give(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != _bufferSize || !buffer.isDirect()) {
+			return;
+		}
+		if (_pooled.incrementAndGet() > _maxPooled) {
+			_pooled.decrementAndGet();
+			return;
+		}
+		_buffers.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	public int getPooled() {
+		return _pooled.get();
+	}
+}
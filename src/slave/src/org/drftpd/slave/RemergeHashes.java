@@ -0,0 +1,159 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Content hashes of the directories sent during the last remerge.<br>
+ * The master hands out a token with every remerge and keeps the token of the
+ * last remerge it fully applied. When it asks for a new remerge with that
+ * token, directories whose hash didn't change since are already known to the
+ * master and don't need to be sent again.
+ * @version $Id$
+ */
+public class RemergeHashes {
+	private static final Logger logger = Logger.getLogger(RemergeHashes.class);
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Map<String, Long> _previous;
+
+	private Map<String, Long> _current = new HashMap<String, Long>();
+
+	private RemergeHashes(Map<String, Long> previous) {
+		_previous = previous;
+	}
+
+	/**
+	 * @param token the token the master sent as the one of its last complete
+	 *        remerge, the hashes are only used if they were saved under it.
+	 */
+	public static RemergeHashes load(File file, String token) {
+		Map<String, Long> previous = new HashMap<String, Long>();
+		if (token.length() == 0 || !file.exists()) {
+			return new RemergeHashes(previous);
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			String savedToken = in.readUTF();
+			if (!savedToken.equals(token)) {
+				logger.info("Remerge hashes were saved for another remerge, sending every directory");
+				return new RemergeHashes(previous);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				previous.put(path, in.readLong());
+			}
+			logger.info("Loaded " + count + " remerge hashes");
+		} catch (EOFException e) {
+			logger.warn("Remerge hashes in " + file.getPath() + " are truncated, ignoring them");
+			previous.clear();
+		} catch (IOException e) {
+			logger.warn("Unable to read remerge hashes from " + file.getPath(), e);
+			previous.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return new RemergeHashes(previous);
+	}
+
+	/**
+	 * Records the hash of <tt>path</tt> for the next remerge.
+	 * @return true if the master already has this exact directory content.
+	 */
+	public boolean update(String path, long hash) {
+		_current.put(path, hash);
+		Long previous = _previous.get(path);
+		return previous != null && previous.longValue() == hash;
+	}
+
+	/**
+	 * Saves the hashes recorded during this remerge under <tt>token</tt>,
+	 * the previous ones are replaced only once the new file is complete.
+	 */
+	public void save(File file, String token) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeUTF(token);
+			out.writeInt(_current.size());
+			for (Map.Entry<String, Long> entry : _current.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new FileNotFoundException("Unable to replace " + file.getPath());
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Unable to rename " + tmp.getPath() + " to " + file.getPath());
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of everything the master keeps from a remerged
+	 * directory.
+	 */
+	public static long hash(long lastModified, List<LightRemoteInode> files) {
+		long hash = update(FNV_OFFSET, lastModified);
+		for (LightRemoteInode file : files) {
+			String name = file.getName();
+			for (int i = 0; i < name.length(); i++) {
+				hash = (hash ^ name.charAt(i)) * FNV_PRIME;
+			}
+			hash = (hash ^ (file.isDirectory() ? 1 : 0)) * FNV_PRIME;
+			hash = update(hash, file.length());
+			hash = update(hash, file.lastModified());
+		}
+		return hash;
+	}
+
+	private static long update(long hash, long value) {
+		for (int i = 0; i < 8; i++) {
+			hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+			value >>>= 8;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RemergeHashesTest extends TestCase {
+
+	public RemergeHashesTest(String arg0) {
+		super(arg0);
+	}
+
+	private static List<LightRemoteInode> list(long length) {
+		List<LightRemoteInode> files = new ArrayList<LightRemoteInode>();
+		files.add(new LightRemoteInode("a.rar", 1000L, length));
+		files.add(new LightRemoteInode("b.sfv", 1000L, 10L));
+		return files;
+	}
+
+	public void testHash() {
+		assertEquals(RemergeHashes.hash(5L, list(100L)), RemergeHashes.hash(5L, list(100L)));
+		assertFalse(RemergeHashes.hash(5L, list(100L)) == RemergeHashes.hash(5L, list(101L)));
+		assertFalse(RemergeHashes.hash(5L, list(100L)) == RemergeHashes.hash(6L, list(100L)));
+	}
+
+	public void testSaveLoad() throws Exception {
+		File file = File.createTempFile("remerge", ".hashes");
+		try {
+			RemergeHashes hashes = RemergeHashes.load(file, "");
+			assertFalse(hashes.update("/dir", 1L));
+			assertFalse(hashes.update("/dir/sub", 2L));
+			hashes.save(file, "1");
+
+			hashes = RemergeHashes.load(file, "1");
+			assertTrue(hashes.update("/dir", 1L));
+			assertFalse(hashes.update("/dir/sub", 3L));
+			assertFalse(hashes.update("/new", 4L));
+
+			// hashes saved under another token are never trusted
+			hashes = RemergeHashes.load(file, "2");
+			assertFalse(hashes.update("/dir", 1L));
+		} finally {
+			file.delete();
+		}
+	}
+}
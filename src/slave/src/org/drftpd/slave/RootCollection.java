@@ -50,6 +50,7 @@ public class RootCollection {
 	private ArrayList<Root> _roots = null;
 	private Slave _slave = null;
 	private ThreadPoolExecutor _pool;
+	private RootIndex _index = null;
 
 	public RootCollection(Slave slave, Collection<Root> roots) throws IOException {
 		/** sanity checks * */
@@ -65,6 +66,18 @@ public class RootCollection {
 		}
 	}
 
+	/**
+	 * Keeps track of the roots holding each path, null to always look them
+	 * up on disk.
+	 */
+	public void setIndex(RootIndex index) {
+		_index = index;
+	}
+
+	public RootIndex getIndex() {
+		return _index;
+	}
+
 	/**
 	 * Returns a sorted (alphabetical) list of inodes in the path given
 	 * @param path
@@ -72,10 +85,22 @@ public class RootCollection {
 	 */
 	public TreeSet<String> getLocalInodes(String path) {
 		TreeSet<String> files = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
-		for (Root root : _roots) {
-			String[] fileArray = root.getFile(path).list();
-			if (fileArray == null) continue;
-			files.addAll(Arrays.asList(fileArray));
+		String[][] names = new String[_roots.size()][];
+		long since = _index == null ? 0 : _index.startListing();
+		try {
+			for (int i = 0; i < _roots.size(); i++) {
+				String[] fileArray = _roots.get(i).getFile(path).list();
+				names[i] = fileArray;
+				if (fileArray == null) continue;
+				files.addAll(Arrays.asList(fileArray));
+			}
+			if (_index != null) {
+				_index.setListing(path, names, since);
+			}
+		} finally {
+			if (_index != null) {
+				_index.endListing(since);
+			}
 		}
 		return files;
 	}
@@ -92,15 +117,34 @@ public class RootCollection {
 		File[][] rootFiles = new File[_roots.size()][];
 		Long[] rootLastModified = new Long[_roots.size()];
 		TreeMap<String,File> files = new TreeMap<String,File>(String.CASE_INSENSITIVE_ORDER);
-		for (int i = 0; i < _roots.size(); i++) {
-			_pool.execute(new RootListHandler(rootFiles, i, latch, path, rootLastModified));
-		}
-		while (true) {
-			try {
-				latch.await();
-				break;
-			} catch (InterruptedException e) {
-				// Loop around and wait again
+		long since = _index == null ? 0 : _index.startListing();
+		try {
+			for (int i = 0; i < _roots.size(); i++) {
+				_pool.execute(new RootListHandler(rootFiles, i, latch, path, rootLastModified));
+			}
+			while (true) {
+				try {
+					latch.await();
+					break;
+				} catch (InterruptedException e) {
+					// Loop around and wait again
+				}
+			}
+			if (_index != null) {
+				String[][] names = new String[_roots.size()][];
+				for (int i = 0; i < _roots.size(); i++) {
+					if (rootFiles[i] != null) {
+						names[i] = new String[rootFiles[i].length];
+						for (int j = 0; j < rootFiles[i].length; j++) {
+							names[i][j] = rootFiles[i][j].getName();
+						}
+					}
+				}
+				_index.setListing(path, names, since);
+			}
+		} finally {
+			if (_index != null) {
+				_index.endListing(since);
 			}
 		}
 		long lastModified = Long.MIN_VALUE;
@@ -161,6 +205,14 @@ public class RootCollection {
 	 * @throws IOException
 	 */
 	public File getARootFileDir(String dir) throws IOException {
+		return getARootForDir(dir).getFile(dir);
+	}
+
+	/**
+	 * Picks the root to store a new file of <tt>dir</tt> in and creates the
+	 * directory there.
+	 */
+	public Root getARootForDir(String dir) throws IOException {
 		Root bestRoot = _slave.getDiskSelection().getBestRoot(dir);
 
 		// to avoid this error SlaveSelectionManager MUST work
@@ -172,8 +224,47 @@ public class RootCollection {
 
 		PhysicalFile file = bestRoot.getFile(dir);
 		file.mkdirs2();
+		fileCreated(dir, bestRoot);
+
+		return bestRoot;
+	}
+
+	/**
+	 * Records that the slave created <tt>path</tt> on <tt>root</tt>.
+	 */
+	public void fileCreated(String path, Root root) {
+		if (_index != null) {
+			_index.add(path, root);
+		}
+	}
+
+	/**
+	 * Records that the slave deleted <tt>path</tt> from <tt>root</tt>.
+	 */
+	public void fileDeleted(String path, Root root) {
+		if (_index != null) {
+			_index.remove(path, root);
+		}
+	}
+
+	/**
+	 * Records that the slave renamed <tt>from</tt> to <tt>to</tt> on
+	 * <tt>root</tt>.
+	 */
+	public void fileRenamed(String from, String to, Root root) {
+		if (_index != null) {
+			_index.rename(from, to, root);
+		}
+	}
 
-		return file;
+	/**
+	 * Called once a remerge listed everything under <tt>path</tt>.
+	 */
+	public void remergeFinished(String path) {
+		if (_index != null && RootIndex.normalize(path).equals("/")) {
+			_index.setComplete(true);
+			logger.info("Root index holds " + _index.getSize() + " paths");
+		}
 	}
 
 	// Get root which has most of the tree structure that we have.
@@ -193,20 +284,20 @@ public class RootCollection {
 
 	public List<Root> getMultipleRootsForFile(String path)
 			throws FileNotFoundException {
+		// only a complete index knows every root holding a path
+		if (_index != null && _index.isComplete()) {
+			Root[] indexed = _index.get(path);
+			if (indexed != null) {
+				return new ArrayList<Root>(Arrays.asList(indexed));
+			}
+		}
 		ArrayList<Root> roots = new ArrayList<Root>();
 
-		
 		for (Root r : _roots) {
 			if (r.getFile(path).exists()) {
 				roots.add(r);
 			}
 		}
-		for (Root root : _roots) {
-
-			if (root.getFile(path).exists()) {
-				roots.add(root);
-			}
-		}
 
 		if (roots.size() == 0) {
 			throw new FileNotFoundException("Unable to find suitable root: "
@@ -217,6 +308,12 @@ public class RootCollection {
 	}
 
 	public Root getRootForFile(String path) throws FileNotFoundException {
+		if (_index != null) {
+			Root[] indexed = _index.get(path);
+			if (indexed != null) {
+				return indexed[0];
+			}
+		}
 		for (Root root : _roots) {
 			File file = new File(root.getPath() + PhysicalFile.separatorChar + path);
 			if (file.exists()) {
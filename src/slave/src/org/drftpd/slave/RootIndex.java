@@ -0,0 +1,428 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * In memory index of the roots holding each file and directory of the
+ * slave, so a lookup doesn't stat the path on every root.<br>
+ * The index is filled from the directory listings of the remerge and kept
+ * up to date by the uploads, deletes and renames done by the slave. Until a
+ * remerge of the whole tree completed, an entry only tells some of the roots
+ * holding a path.<br>
+ * Entries go stale when files are removed behind the slave's back,
+ * {@link #verify(int)} checks a slice of the index against the disks.<br>
+ * A listing may be read while files are uploaded or deleted, so the changes
+ * done after {@link #startListing()} are kept and replayed over the listing
+ * by {@link #setListing(String, String[][], long)}.
+ * @version $Id$
+ */
+public class RootIndex {
+	private static final Logger logger = Logger.getLogger(RootIndex.class);
+
+	private static final String separator = "/";
+
+	private final List<Root> _roots;
+
+	private final ConcurrentSkipListMap<String, Root[]> _paths;
+
+	private final boolean _ignoreCase;
+
+	private long _generation = 0;
+
+	/**
+	 * Changes done while a listing is being read, oldest first.
+	 */
+	private final LinkedList<Change> _changes = new LinkedList<Change>();
+
+	/**
+	 * Generation each open listing started from, with the number of
+	 * listings started from it.
+	 */
+	private final TreeMap<Long, Integer> _listings = new TreeMap<Long, Integer>();
+
+	private volatile boolean _complete;
+
+	private String _verifyFrom = null;
+
+	private final AtomicLong _hits = new AtomicLong();
+
+	private final AtomicLong _misses = new AtomicLong();
+
+	private final AtomicLong _stale = new AtomicLong();
+
+	/**
+	 * @param roots every root of the slave, entries list them in this order.
+	 * @param ignoreCase true if the file systems don't tell case apart.
+	 */
+	public RootIndex(List<Root> roots, boolean ignoreCase) {
+		_roots = roots;
+		_ignoreCase = ignoreCase;
+		_paths = ignoreCase ? new ConcurrentSkipListMap<String, Root[]>(String.CASE_INSENSITIVE_ORDER)
+				: new ConcurrentSkipListMap<String, Root[]>();
+	}
+
+	/**
+	 * Paths from the master look like /dir/file, the remerge builds //dir.
+	 */
+	protected static String normalize(String path) {
+		while (path.indexOf("//") != -1) {
+			path = path.replace("//", separator);
+		}
+		if (!path.startsWith(separator)) {
+			path = separator + path;
+		}
+		if (path.length() > 1 && path.endsWith(separator)) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+
+	private static String getParent(String path) {
+		int pos = path.lastIndexOf(separator);
+		return pos <= 0 ? separator : path.substring(0, pos);
+	}
+
+	/**
+	 * @return the entries under <tt>path</tt>, <tt>path</tt> itself excluded.
+	 */
+	private ConcurrentNavigableMap<String, Root[]> getChildren(String path) {
+		String prefix = path.equals(separator) ? path : path + separator;
+		// '0' is the character right after '/'
+		return _paths.subMap(prefix, true, prefix.substring(0, prefix.length() - 1) + "0", false);
+	}
+
+	/**
+	 * @return the roots known to hold <tt>path</tt> or null.
+	 */
+	public Root[] get(String path) {
+		Root[] roots = _paths.get(normalize(path));
+		if (roots == null) {
+			_misses.incrementAndGet();
+		} else {
+			_hits.incrementAndGet();
+		}
+		return roots;
+	}
+
+	/**
+	 * @return true once a remerge of the whole tree filled the index, every
+	 *         entry then lists all the roots holding its path.
+	 */
+	public boolean isComplete() {
+		return _complete;
+	}
+
+	public void setComplete(boolean complete) {
+		_complete = complete;
+	}
+
+	/**
+	 * Must be called before reading a listing for
+	 * {@link #setListing(String, String[][], long)}, and followed by
+	 * {@link #endListing(long)} whatever happens.
+	 * @return the generation the listing starts from.
+	 */
+	public synchronized long startListing() {
+		Integer count = _listings.get(_generation);
+		_listings.put(_generation, count == null ? 1 : count + 1);
+		return _generation;
+	}
+
+	public synchronized void endListing(long since) {
+		Integer count = _listings.get(since);
+		if (count == null) {
+			return;
+		}
+		if (count == 1) {
+			_listings.remove(since);
+		} else {
+			_listings.put(since, count - 1);
+		}
+		// no open listing needs the changes before the oldest one
+		long oldest = _listings.isEmpty() ? _generation : _listings.firstKey();
+		while (!_changes.isEmpty() && _changes.getFirst()._generation <= oldest) {
+			_changes.removeFirst();
+		}
+	}
+
+	/**
+	 * Replaces the entries of the directory <tt>path</tt> with its listing,
+	 * then applies the changes done under <tt>path</tt> since the listing
+	 * started.
+	 * @param names the names listed in <tt>path</tt> on each root, in the
+	 *        order of the roots, null where the directory doesn't exist.
+	 * @param since returned by {@link #startListing()} before the listing
+	 *        was read.
+	 */
+	public synchronized void setListing(String path, String[][] names, long since) {
+		path = normalize(path);
+		TreeMap<String, ArrayList<Root>> listing = new TreeMap<String, ArrayList<Root>>(_paths.comparator());
+		for (int i = 0; i < names.length; i++) {
+			if (names[i] == null) {
+				continue;
+			}
+			for (String name : names[i]) {
+				ArrayList<Root> roots = listing.get(name);
+				if (roots == null) {
+					roots = new ArrayList<Root>(1);
+					listing.put(name, roots);
+				}
+				roots.add(_roots.get(i));
+			}
+		}
+		String prefix = path.equals(separator) ? path : path + separator;
+		// drop what isn't there anymore, along with everything under it
+		for (Iterator<String> iter = getChildren(path).keySet().iterator(); iter.hasNext();) {
+			String key = iter.next();
+			int end = key.indexOf(separator, prefix.length());
+			String name = end == -1 ? key.substring(prefix.length()) : key.substring(prefix.length(), end);
+			if (!listing.containsKey(name)) {
+				iter.remove();
+			}
+		}
+		for (Map.Entry<String, ArrayList<Root>> entry : listing.entrySet()) {
+			_paths.put(prefix + entry.getKey(), entry.getValue().toArray(new Root[entry.getValue().size()]));
+		}
+		for (Change change : _changes) {
+			if (change._generation <= since || !isUnder(change._path, prefix)) {
+				continue;
+			}
+			if (change._added) {
+				putRoot(change._path, change._root);
+			} else {
+				removeRoot(change._path, change._root);
+			}
+		}
+	}
+
+	private boolean isUnder(String path, String prefix) {
+		return path.length() > prefix.length()
+				&& path.regionMatches(_ignoreCase, 0, prefix, 0, prefix.length());
+	}
+
+	/**
+	 * Keeps a change for the listings being read.
+	 */
+	private void record(String path, Root root, boolean added) {
+		if (!_listings.isEmpty()) {
+			_changes.add(new Change(++_generation, path, root, added));
+		}
+	}
+
+	/**
+	 * Records that <tt>path</tt> was created on <tt>root</tt>, along with
+	 * the directories leading to it.
+	 */
+	public synchronized void add(String path, Root root) {
+		path = normalize(path);
+		while (!path.equals(separator)) {
+			putRoot(path, root);
+			record(path, root, true);
+			path = getParent(path);
+		}
+	}
+
+	private void putRoot(String path, Root root) {
+		Root[] roots = _paths.get(path);
+		_paths.put(path, roots == null ? new Root[] { root } : with(roots, root));
+	}
+
+	/**
+	 * Records that <tt>path</tt> and everything under it is gone from
+	 * <tt>root</tt>.
+	 */
+	public synchronized void remove(String path, Root root) {
+		path = normalize(path);
+		removeRoot(path, root);
+		record(path, root, false);
+		for (String key : getChildren(path).keySet()) {
+			removeRoot(key, root);
+			record(key, root, false);
+		}
+	}
+
+	private void removeRoot(String path, Root root) {
+		Root[] roots = _paths.get(path);
+		if (roots == null) {
+			return;
+		}
+		roots = without(roots, root);
+		if (roots.length == 0) {
+			_paths.remove(path);
+		} else {
+			_paths.put(path, roots);
+		}
+	}
+
+	/**
+	 * Records that <tt>from</tt> was renamed to <tt>to</tt> on <tt>root</tt>.
+	 */
+	public synchronized void rename(String from, String to, Root root) {
+		from = normalize(from);
+		to = normalize(to);
+		ArrayList<String> moved = new ArrayList<String>();
+		if (contains(_paths.get(from), root)) {
+			moved.add(from);
+		}
+		for (Map.Entry<String, Root[]> entry : getChildren(from).entrySet()) {
+			if (contains(entry.getValue(), root)) {
+				moved.add(entry.getKey());
+			}
+		}
+		for (String key : moved) {
+			removeRoot(key, root);
+			record(key, root, false);
+		}
+		add(to, root);
+		for (String key : moved) {
+			String newKey = to + key.substring(from.length());
+			putRoot(newKey, root);
+			record(newKey, root, true);
+		}
+	}
+
+	/**
+	 * Checks up to <tt>max</tt> entries against the disks, each call goes
+	 * on where the previous one stopped.
+	 * @return the number of entries checked.
+	 */
+	public int verify(int max) {
+		String from;
+		synchronized (this) {
+			from = _verifyFrom;
+		}
+		Iterator<Map.Entry<String, Root[]>> iter = from == null ? _paths.entrySet().iterator()
+				: _paths.tailMap(from, false).entrySet().iterator();
+		int checked = 0;
+		String last = null;
+		while (checked < max && iter.hasNext()) {
+			Map.Entry<String, Root[]> entry = iter.next();
+			last = entry.getKey();
+			checked++;
+			// an earlier stale parent may already have changed this entry
+			Root[] roots = _paths.get(last);
+			if (roots == null) {
+				continue;
+			}
+			for (Root root : roots) {
+				if (!root.getFile(last).exists()) {
+					_stale.incrementAndGet();
+					logger.debug("Index entry " + last + " was stale on " + root);
+					remove(last, root);
+				}
+			}
+		}
+		synchronized (this) {
+			// start over once the end was reached
+			_verifyFrom = iter.hasNext() ? last : null;
+		}
+		return checked;
+	}
+
+	private boolean contains(Root[] roots, Root root) {
+		if (roots == null) {
+			return false;
+		}
+		for (Root r : roots) {
+			if (r == root) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <tt>roots</tt> with <tt>root</tt> added, in the order of the
+	 *         slave roots.
+	 */
+	private Root[] with(Root[] roots, Root root) {
+		if (contains(roots, root)) {
+			return roots;
+		}
+		Root[] result = new Root[roots.length + 1];
+		int n = 0;
+		for (Root r : _roots) {
+			if (r == root || contains(roots, r)) {
+				result[n++] = r;
+			}
+		}
+		return result;
+	}
+
+	private Root[] without(Root[] roots, Root root) {
+		if (!contains(roots, root)) {
+			return roots;
+		}
+		Root[] result = new Root[roots.length - 1];
+		int n = 0;
+		for (Root r : roots) {
+			if (r != root) {
+				result[n++] = r;
+			}
+		}
+		return result;
+	}
+
+	public int getSize() {
+		return _paths.size();
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	/**
+	 * @return the number of entries {@link #verify(int)} found stale.
+	 */
+	public long getStale() {
+		return _stale.get();
+	}
+
+	private static class Change {
+		private final long _generation;
+
+		private final String _path;
+
+		private final Root _root;
+
+		private final boolean _added;
+
+		private Change(long generation, String path, Root root, boolean added) {
+			_generation = generation;
+			_path = path;
+			_root = root;
+			_added = added;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class RootIndexTest extends TestCase {
+
+	private File _dir;
+
+	private Root _root1;
+
+	private Root _root2;
+
+	private RootIndex _index;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = File.createTempFile("rootindex", "");
+		_dir.delete();
+		new File(_dir, "1").mkdirs();
+		new File(_dir, "2").mkdirs();
+		_root1 = new Root(new File(_dir, "1").getPath());
+		_root2 = new Root(new File(_dir, "2").getPath());
+		ArrayList<Root> roots = new ArrayList<Root>();
+		roots.add(_root1);
+		roots.add(_root2);
+		_index = new RootIndex(roots, false);
+	}
+
+	protected void tearDown() throws Exception {
+		deleteRecursive(_dir);
+		super.tearDown();
+	}
+
+	private static void deleteRecursive(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteRecursive(child);
+			}
+		}
+		file.delete();
+	}
+
+	public void testNormalize() {
+		assertEquals("/dir/file", RootIndex.normalize("//dir/file"));
+		assertEquals("/dir", RootIndex.normalize("dir/"));
+		assertEquals("/", RootIndex.normalize("/"));
+	}
+
+	public void testListing() {
+		list("/", new String[][] { { "dir", "a" }, { "dir" } });
+		list("//dir", new String[][] { { "x" }, { "y" } });
+		assertEquals(Arrays.asList(_root1, _root2), Arrays.asList(_index.get("/dir")));
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/a")));
+		assertEquals(Arrays.asList(_root2), Arrays.asList(_index.get("/dir/y")));
+		assertNull(_index.get("/b"));
+
+		// a new listing drops what's gone along with what was under it
+		list("/", new String[][] { { "a" }, null });
+		assertNull(_index.get("/dir"));
+		assertNull(_index.get("/dir/x"));
+		assertEquals(1, _index.getSize());
+	}
+
+	public void testListingRace() {
+		_index.add("/dir/old", _root1);
+		long since = _index.startListing();
+		// the disks were read before these got there
+		_index.add("/dir/new", _root2);
+		_index.add("/dir/old", _root2);
+		_index.remove("/dir/gone", _root1);
+		_index.setListing("/dir", new String[][] { { "old", "gone" }, null }, since);
+		_index.endListing(since);
+		assertEquals(Arrays.asList(_root2), Arrays.asList(_index.get("/dir/new")));
+		assertEquals(Arrays.asList(_root1, _root2), Arrays.asList(_index.get("/dir/old")));
+		assertNull(_index.get("/dir/gone"));
+
+		// changes done before the listing started are in it already
+		since = _index.startListing();
+		_index.add("/dir/tmp", _root1);
+		long next = _index.startListing();
+		_index.setListing("/dir", new String[][] { { "old" }, null }, next);
+		_index.endListing(next);
+		_index.endListing(since);
+		assertNull(_index.get("/dir/tmp"));
+		assertNull(_index.get("/dir/new"));
+	}
+
+	private void list(String path, String[][] names) {
+		long since = _index.startListing();
+		try {
+			_index.setListing(path, names, since);
+		} finally {
+			_index.endListing(since);
+		}
+	}
+
+	public void testAddRemove() {
+		_index.add("/dir/sub/file", _root2);
+		_index.add("/dir/other", _root1);
+		assertEquals(Arrays.asList(_root1, _root2), Arrays.asList(_index.get("/dir")));
+		assertEquals(Arrays.asList(_root2), Arrays.asList(_index.get("/dir/sub")));
+
+		_index.remove("/dir", _root2);
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/dir")));
+		assertNull(_index.get("/dir/sub"));
+		assertNull(_index.get("/dir/sub/file"));
+		assertNotNull(_index.get("/dir/other"));
+	}
+
+	public void testRename() {
+		_index.add("/dir/sub/file", _root1);
+		_index.add("/dir/sub/file", _root2);
+		// "/dir/sub2" sorts between the children of "/dir/sub"
+		_index.add("/dir/sub2", _root1);
+		_index.rename("/dir/sub", "/new/sub", _root1);
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/new/sub/file")));
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/new")));
+		assertEquals(Arrays.asList(_root2), Arrays.asList(_index.get("/dir/sub/file")));
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/dir/sub2")));
+	}
+
+	public void testVerify() throws Exception {
+		new File(_dir, "1/dir").mkdirs();
+		new File(_dir, "1/dir/file").createNewFile();
+		_index.add("/dir/file", _root1);
+		_index.add("/dir/gone", _root1);
+		_index.add("/dir/file", _root2);
+		assertEquals(2, _index.verify(2));
+		assertEquals(1, _index.verify(10));
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/dir")));
+		assertEquals(Arrays.asList(_root1), Arrays.asList(_index.get("/dir/file")));
+		assertNull(_index.get("/dir/gone"));
+		assertEquals(2, _index.getStale());
+	}
+}
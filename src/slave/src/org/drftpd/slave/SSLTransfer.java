@@ -0,0 +1,440 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLEngineResult.Status;
+
+/**
+ * A TLS data transfer run by a {@link SSLTransferEngine} selector thread.<br>
+ * The handshake, the encryption and the file I/O are all done without
+ * blocking, {@link #process()} does as much work as possible and then either
+ * registers interest in the socket or sets a time to be resumed at.<br>
+ * Downloads read the file into several direct buffers at once and encrypt
+ * from all of them, uploads decrypt into a direct buffer which is written
+ * to the file.<br>
+ * The thread that started the transfer waits with {@link #await(long)} and
+ * takes care of the status reports and the minimum speed.
+ * @version $Id$
+ */
+public class SSLTransfer {
+
+	private static final ByteBuffer[] EMPTY = new ByteBuffer[] { ByteBuffer.allocate(0) };
+
+	private static final int FILE_BUFFERS = 2;
+
+	private final SocketChannel _channel;
+
+	private final SSLEngine _engine;
+
+	private final FileChannel _file;
+
+	private final boolean _upload;
+
+	private final Transfer _associatedUpload;
+
+	private final BandwidthBucket _bucket;
+
+	private final CountDownLatch _done = new CountDownLatch(1);
+
+	private DirectBufferPool _pool;
+
+	private ByteBuffer _netIn;
+
+	private ByteBuffer _netOut;
+
+	private ByteBuffer _appIn;
+
+	private ByteBuffer[] _appOut;
+
+	private SelectionKey _key;
+
+	private volatile Selector _selector;
+
+	private long _resumeAt;
+
+	private long _unpaid;
+
+	private long _throttledUntil;
+
+	private boolean _closing;
+
+	private volatile long _transferred;
+
+	private volatile boolean _cancelled;
+
+	private volatile IOException _failure;
+
+	/**
+	 * @param channel the connected data socket, it is switched to non
+	 *        blocking mode once the transfer is registered.
+	 * @param engine engine with its client mode set, the handshake is done
+	 *        by the transfer.
+	 * @param file positioned at the first byte to send or to write.
+	 * @param upload true to receive into <tt>file</tt>, false to send it.
+	 * @param associatedUpload the upload still writing the sent file or null.
+	 * @param bucket the bandwidth bucket the transferred bytes are taken from
+	 *        or null if unthrottled.
+	 */
+	public SSLTransfer(SocketChannel channel, SSLEngine engine, FileChannel file,
+			boolean upload, Transfer associatedUpload, BandwidthBucket bucket) {
+		_channel = channel;
+		_engine = engine;
+		_file = file;
+		_upload = upload;
+		_associatedUpload = associatedUpload;
+		_bucket = bucket;
+	}
+
+	/**
+	 * @return bytes of file data sent or written so far.
+	 */
+	public long getTransferred() {
+		return _transferred;
+	}
+
+	/**
+	 * Stops the transfer as soon as its selector thread notices it.
+	 */
+	public void cancel() {
+		_cancelled = true;
+		Selector selector = _selector;
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	protected boolean isCancelled() {
+		return _cancelled;
+	}
+
+	/**
+	 * @return false if the transfer is still running after <tt>millis</tt>.
+	 */
+	public boolean await(long millis) {
+		try {
+			return _done.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @throws IOException the error that ended the transfer, if any.
+	 */
+	public void checkFailure() throws IOException {
+		if (_failure != null) {
+			throw _failure;
+		}
+	}
+
+	/**
+	 * @return when the transfer wants {@link #process()} to be called again
+	 *         without any socket event, 0 if it doesn't.
+	 */
+	protected long getResumeAt() {
+		return _resumeAt;
+	}
+
+	protected void register(Selector selector, DirectBufferPool pool) throws IOException {
+		_pool = pool;
+		_selector = selector;
+		SSLSession session = _engine.getSession();
+		_netIn = pool.take(session.getPacketBufferSize());
+		_netOut = pool.take(session.getPacketBufferSize());
+		_netOut.flip();
+		_appIn = pool.take(session.getApplicationBufferSize());
+		if (!_upload) {
+			_appOut = new ByteBuffer[FILE_BUFFERS];
+			for (int i = 0; i < _appOut.length; i++) {
+				_appOut[i] = pool.take(session.getApplicationBufferSize());
+				_appOut[i].flip();
+			}
+		}
+		_channel.configureBlocking(false);
+		_key = _channel.register(selector, 0, this);
+		_throttledUntil = System.nanoTime();
+		_engine.beginHandshake();
+	}
+
+	protected void finish(IOException failure) {
+		if (_key != null) {
+			_key.cancel();
+		}
+		if (_pool != null) {
+			_pool.give(_netIn);
+			_pool.give(_netOut);
+			_pool.give(_appIn);
+			if (_appOut != null) {
+				for (ByteBuffer buffer : _appOut) {
+					_pool.give(buffer);
+				}
+			}
+			_pool = null;
+		}
+		_failure = failure;
+		_done.countDown();
+	}
+
+	/**
+	 * @return true once the transfer is complete.
+	 */
+	protected boolean process() throws IOException {
+		_key.interestOps(0);
+		_resumeAt = 0;
+		return _upload ? receive() : send();
+	}
+
+	private boolean send() throws IOException {
+		while (true) {
+			if (!flush()) {
+				return false;
+			}
+			if (_closing) {
+				if (_engine.isOutboundDone()) {
+					return true;
+				}
+				wrap(EMPTY);
+				continue;
+			}
+			if (isHandshaking()) {
+				// nothing is expected from the client while sending
+				_appIn.clear();
+				if (!handshake()) {
+					return false;
+				}
+				continue;
+			}
+			if (!hasFileData()) {
+				if (throttle()) {
+					return false;
+				}
+				for (ByteBuffer buffer : _appOut) {
+					buffer.clear();
+				}
+				long read = _file.read(_appOut);
+				for (ByteBuffer buffer : _appOut) {
+					buffer.flip();
+				}
+				if (read <= 0) {
+					if (_associatedUpload != null
+							&& !_associatedUpload.getTransferStatus().isFinished()) {
+						// waiting for upload to catch up
+						_resumeAt = System.currentTimeMillis() + 500;
+						return false;
+					}
+					_engine.closeOutbound();
+					_closing = true;
+					continue;
+				}
+			}
+			int consumed = wrap(_appOut).bytesConsumed();
+			_transferred += consumed;
+			_unpaid += consumed;
+		}
+	}
+
+	private boolean receive() throws IOException {
+		while (true) {
+			if (_appIn.position() > 0) {
+				_appIn.flip();
+				try {
+					while (_appIn.hasRemaining()) {
+						int written = _file.write(_appIn);
+						_transferred += written;
+						_unpaid += written;
+					}
+				} finally {
+					_appIn.compact();
+				}
+			}
+			if (_closing) {
+				return true;
+			}
+			if (isHandshaking()) {
+				if (!handshake()) {
+					return false;
+				}
+				continue;
+			}
+			if (throttle()) {
+				return false;
+			}
+			SSLEngineResult result = unwrap();
+			if (result.getStatus() == Status.CLOSED) {
+				_closing = true;
+			} else if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+				int read = fill();
+				if (read == -1) {
+					// client closed the connection without a close_notify
+					_closing = true;
+				} else if (read == 0) {
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return false if the handshake is waiting for the socket.
+	 */
+	private boolean handshake() throws IOException {
+		while (true) {
+			switch (_engine.getHandshakeStatus()) {
+			case NEED_TASK:
+				Runnable task;
+				while ((task = _engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				break;
+			case NEED_WRAP:
+				if (!flush()) {
+					return false;
+				}
+				wrap(EMPTY);
+				break;
+			case NEED_UNWRAP:
+				// the peer won't answer before it got everything we wrapped
+				if (!flush()) {
+					return false;
+				}
+				SSLEngineResult result = unwrap();
+				if (result.getStatus() == Status.CLOSED) {
+					throw new SSLException("Connection was closed during the handshake");
+				}
+				if (result.getStatus() == Status.BUFFER_OVERFLOW) {
+					if (_appIn.position() == 0) {
+						throw new SSLException("Application buffer is too small");
+					}
+					// let receive() write the data out first
+					return true;
+				}
+				if (result.getStatus() == Status.BUFFER_UNDERFLOW) {
+					int read = fill();
+					if (read == -1) {
+						throw new EOFException("Connection was closed during the handshake");
+					}
+					if (read == 0) {
+						return false;
+					}
+				}
+				break;
+			default:
+				return flush();
+			}
+		}
+	}
+
+	private boolean isHandshaking() {
+		HandshakeStatus status = _engine.getHandshakeStatus();
+		return status != HandshakeStatus.NOT_HANDSHAKING
+				&& status != HandshakeStatus.FINISHED;
+	}
+
+	private boolean hasFileData() {
+		for (ByteBuffer buffer : _appOut) {
+			if (buffer.hasRemaining()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes the bytes moved since the last call from the bandwidth bucket and
+	 * sets a time to resume at when they have to be paid back first.
+	 * @return true if the transfer has to wait.
+	 */
+	private boolean throttle() {
+		long now = System.nanoTime();
+		if (_unpaid > 0 && _bucket != null) {
+			long waitNanos = _bucket.consume(_unpaid);
+			_unpaid = 0;
+			if (waitNanos > 0) {
+				_throttledUntil = now + waitNanos;
+			}
+		}
+		long waitNanos = _throttledUntil - now;
+		if (waitNanos <= 0) {
+			return false;
+		}
+		_resumeAt = System.currentTimeMillis() + (waitNanos + 999999) / 1000000;
+		return true;
+	}
+
+	private SSLEngineResult wrap(ByteBuffer[] src) throws SSLException {
+		_netOut.compact();
+		SSLEngineResult result;
+		try {
+			result = _engine.wrap(src, _netOut);
+		} finally {
+			_netOut.flip();
+		}
+		if (result.getStatus() == Status.CLOSED && !_closing) {
+			throw new SSLException("SSLEngine was closed while sending");
+		}
+		return result;
+	}
+
+	private SSLEngineResult unwrap() throws SSLException {
+		_netIn.flip();
+		try {
+			return _engine.unwrap(_netIn, _appIn);
+		} finally {
+			_netIn.compact();
+		}
+	}
+
+	/**
+	 * @return false if the socket can't take more data right now.
+	 */
+	private boolean flush() throws IOException {
+		while (_netOut.hasRemaining()) {
+			if (_channel.write(_netOut) == 0) {
+				_key.interestOps(SelectionKey.OP_WRITE);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return bytes read from the socket, -1 at the end of the stream.
+	 */
+	private int fill() throws IOException {
+		int read = _channel.read(_netIn);
+		if (read == 0) {
+			_key.interestOps(SelectionKey.OP_READ);
+		}
+		return read;
+	}
+}
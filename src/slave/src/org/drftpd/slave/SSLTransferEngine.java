@@ -0,0 +1,194 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs {@link SSLTransfer}s on selector threads.<br>
+ * Each thread drives up to <tt>transfersPerThread</tt> transfers, a new
+ * thread is started when all of them are busy. Buffers are shared by all
+ * threads through a {@link DirectBufferPool}.
+ * @version $Id$
+ */
+public class SSLTransferEngine {
+	private static final Logger logger = Logger.getLogger(SSLTransferEngine.class);
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final int _transfersPerThread;
+
+	private final DirectBufferPool _pool;
+
+	private final ArrayList<Worker> _workers = new ArrayList<Worker>();
+
+	/**
+	 * @param transfersPerThread maximum transfers handled by one thread.
+	 * @param maxPooledBuffers direct buffers of 64k kept between transfers.
+	 */
+	public SSLTransferEngine(int transfersPerThread, int maxPooledBuffers) {
+		_transfersPerThread = transfersPerThread;
+		_pool = new DirectBufferPool(BUFFER_SIZE, maxPooledBuffers);
+	}
+
+	/**
+	 * Hands <tt>transfer</tt> to the least busy thread, use
+	 * {@link SSLTransfer#await(long)} to wait for it to complete.
+	 */
+	public synchronized void execute(SSLTransfer transfer) throws IOException {
+		Worker worker = null;
+		for (Worker w : _workers) {
+			if (w.getLoad() < _transfersPerThread
+					&& (worker == null || w.getLoad() < worker.getLoad())) {
+				worker = w;
+			}
+		}
+		if (worker == null) {
+			worker = new Worker(Selector.open(), _workers.size());
+			_workers.add(worker);
+			worker.start();
+		}
+		worker.add(transfer);
+	}
+
+	public synchronized int getThreadCount() {
+		return _workers.size();
+	}
+
+	public synchronized int getTransferCount() {
+		int count = 0;
+		for (Worker w : _workers) {
+			count += w.getLoad();
+		}
+		return count;
+	}
+
+	public int getTransfersPerThread() {
+		return _transfersPerThread;
+	}
+
+	private class Worker extends Thread {
+		private final Selector _selector;
+
+		private final ConcurrentLinkedQueue<SSLTransfer> _pending = new ConcurrentLinkedQueue<SSLTransfer>();
+
+		// only used by this thread
+		private final HashSet<SSLTransfer> _transfers = new HashSet<SSLTransfer>();
+
+		private final AtomicInteger _load = new AtomicInteger();
+
+		public Worker(Selector selector, int number) {
+			super("SSLTransferEngine - " + number);
+			setDaemon(true);
+			_selector = selector;
+		}
+
+		public int getLoad() {
+			return _load.get();
+		}
+
+		public void add(SSLTransfer transfer) {
+			_load.incrementAndGet();
+			_pending.add(transfer);
+			_selector.wakeup();
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					SSLTransfer transfer;
+					while ((transfer = _pending.poll()) != null) {
+						_transfers.add(transfer);
+						try {
+							transfer.register(_selector, _pool);
+						} catch (IOException e) {
+							finish(transfer, e);
+							continue;
+						}
+						process(transfer);
+					}
+
+					_selector.select(getSelectTimeout());
+
+					for (Iterator<SelectionKey> iter = _selector.selectedKeys().iterator(); iter.hasNext();) {
+						SelectionKey key = iter.next();
+						iter.remove();
+						process((SSLTransfer) key.attachment());
+					}
+
+					long now = System.currentTimeMillis();
+					for (SSLTransfer t : new ArrayList<SSLTransfer>(_transfers)) {
+						if (t.isCancelled()) {
+							finish(t, new IOException("Transfer was cancelled"));
+						} else if (t.getResumeAt() != 0 && t.getResumeAt() <= now) {
+							process(t);
+						}
+					}
+				} catch (Throwable t) {
+					logger.error("Error in " + getName(), t);
+				}
+			}
+		}
+
+		private long getSelectTimeout() {
+			long next = 0;
+			for (SSLTransfer t : _transfers) {
+				if (t.getResumeAt() != 0 && (next == 0 || t.getResumeAt() < next)) {
+					next = t.getResumeAt();
+				}
+			}
+			if (next == 0) {
+				return 0; // until woken up
+			}
+			return Math.max(next - System.currentTimeMillis(), 1);
+		}
+
+		private void process(SSLTransfer transfer) {
+			if (!_transfers.contains(transfer)) {
+				return;
+			}
+			try {
+				if (transfer.isCancelled()) {
+					finish(transfer, new IOException("Transfer was cancelled"));
+				} else if (transfer.process()) {
+					finish(transfer, null);
+				}
+			} catch (IOException e) {
+				finish(transfer, e);
+			} catch (RuntimeException e) {
+				finish(transfer, new IOException(e.toString()));
+			}
+		}
+
+		private void finish(SSLTransfer transfer, IOException failure) {
+			if (_transfers.remove(transfer)) {
+				_load.decrementAndGet();
+				transfer.finish(failure);
+			}
+		}
+	}
+}
@@ -34,6 +34,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.zip.CRC32;
@@ -53,6 +54,7 @@ import org.drftpd.io.PhysicalFile;
 import org.drftpd.master.QueuedOperation;
 import org.drftpd.protocol.slave.SlaveProtocolCentral;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
 import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseException;
@@ -94,10 +96,18 @@ public class Slave {
 
 	private ObjectOutputStream _sout;
 
+	private volatile int _protocolVersion;
+
 	private HashMap<TransferIndex, Transfer> _transfers;
 
 	private boolean _uploadChecksums;
 
+	private int _zeroCopyChunkSize;
+
+	private SSLTransferEngine _sslTransferEngine;
+
+	private BandwidthScheduler _bandwidthScheduler = new BandwidthScheduler();
+
 	private PortRange _portRange;
 
 	private Set<QueuedOperation> _renameQueue = null;
@@ -107,12 +117,16 @@ public class Slave {
 	private boolean _sslMaster;
 	
 	private SlaveProtocolCentral _central;
+
+	private CommandExecutor _executor;
 	
 	private DiskSelectionInterface _diskSelection = null;
 
 	private boolean _ignorePartialRemerge;
 
 	private boolean _concurrentRootIteration;
+
+	private File _remergeHashes;
 	
 	private String _bindIP = null;
 
@@ -209,6 +223,12 @@ public class Slave {
 		_uploadChecksums = p.getProperty("enableuploadchecksums", "true").equals("true");
 		_downloadChecksums = p.getProperty("enabledownloadchecksums", "true").equals("true");
 		_bufferSize = Integer.parseInt(p.getProperty("bufferSize", "0"));
+		_zeroCopyChunkSize = Integer.parseInt(p.getProperty("transfer.zerocopy.chunksize", "1048576"));
+		int sslTransfers = Integer.parseInt(p.getProperty("transfer.sslengine.transfers", "8"));
+		if (sslTransfers > 0) {
+			_sslTransferEngine = new SSLTransferEngine(sslTransfers,
+					Integer.parseInt(p.getProperty("transfer.sslengine.buffers", "256")));
+		}
 
 		_concurrentRootIteration = p.getProperty("concurrent.root.iteration", "false").equalsIgnoreCase("true");
 		_roots = getDefaultRootBasket(p);
@@ -225,6 +245,9 @@ public class Slave {
 		}
 
 		_ignorePartialRemerge = p.getProperty("ignore.partialremerge", "false").equalsIgnoreCase("true");
+		String remergeHashes = p.getProperty("remerge.hashes", "").trim();
+		_remergeHashes = remergeHashes.length() == 0 ? null : new File(remergeHashes);
+		_executor = new CommandExecutor(p);
 	}
 	
 	private void loadDiskSelection(Properties cfg) {
@@ -257,7 +280,53 @@ public class Slave {
 			roots.add(new Root(rootString));
 		}
 
-		return new RootCollection(this, roots);
+		RootCollection rootCollection = new RootCollection(this, roots);
+		if (cfg.getProperty("roots.index", "true").equalsIgnoreCase("true")) {
+			RootIndex index = new RootIndex(roots, isWin32);
+			rootCollection.setIndex(index);
+			long interval = Long.parseLong(cfg.getProperty("roots.index.verify.interval", "60").trim()) * 1000L;
+			int batch = Integer.parseInt(cfg.getProperty("roots.index.verify.batch", "10000").trim());
+			if (interval > 0 && batch > 0) {
+				Thread t = new Thread(new RootIndexVerifier(index, interval, batch));
+				t.setName("RootIndexVerifier");
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+		return rootCollection;
+	}
+
+	/**
+	 * Checks a slice of the {@link RootIndex} against the disks at a fixed
+	 * interval, drops what was removed behind the slave's back.
+	 */
+	private static class RootIndexVerifier implements Runnable {
+		private RootIndex _index;
+
+		private long _interval;
+
+		private int _batch;
+
+		private RootIndexVerifier(RootIndex index, long interval, int batch) {
+			_index = index;
+			_interval = interval;
+			_batch = batch;
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(_interval);
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					_index.verify(_batch);
+				} catch (RuntimeException e) {
+					logger.error("Error verifying the root index", e);
+				}
+			}
+		}
 	}
 
 	public static void boot() throws Exception {
@@ -278,7 +347,7 @@ public class Slave {
 			s.startFileLockThread();
 		}
 		try {
-			s.sendResponse(new AsyncResponseDiskStatus(s.getDiskStatus()));
+			s.sendResponse(s.getDiskStatusResponse());
 		} catch (Throwable t) {
 			logger.fatal("Error, check config on master for this slave");
 		}
@@ -392,6 +461,7 @@ public class Slave {
 
 			if (!file.exists()) {
 				iter.remove();
+				_roots.fileDeleted(path, root);
 				continue;
 				// should never occur
 			}
@@ -401,11 +471,14 @@ public class Slave {
 					throw new PermissionDeniedException("delete failed on "
 							+ path);
 				}
+				_roots.fileDeleted(path, root);
 				logger.info("DELETEDIR: " + path);
 			} else if (file.isFile()) {
 				File dir = new PhysicalFile(file.getParentFile());
+				String dirPath = path.substring(0, Math.max(path.lastIndexOf('/'), 0));
 				logger.info("DELETE: " + path);
 				file.delete();
+				_roots.fileDeleted(path, root);
 
 				String [] dirList = dir.list();
 
@@ -418,6 +491,8 @@ public class Slave {
 					java.io.File tmpFile = dir.getParentFile();
 
 					dir.delete();
+					_roots.fileDeleted(dirPath, root);
+					dirPath = dirPath.substring(0, Math.max(dirPath.lastIndexOf('/'), 0));
 					logger.info("rmdir: " + dir.getPath());
 
 					if (tmpFile == null) {
@@ -447,6 +522,13 @@ public class Slave {
 		return new DiskStatus(_roots.getTotalDiskSpaceAvailable(), _roots.getTotalDiskSpaceCapacity());
 	}
 
+	/**
+	 * @return the disk status along with the state of the command lanes.
+	 */
+	public AsyncResponseDiskStatus getDiskStatusResponse() {
+		return new AsyncResponseDiskStatus(getDiskStatus(), _executor.getLaneStatus());
+	}
+
 	public Transfer getTransfer(TransferIndex index) {
 		synchronized (_transfers) {
 			return _transfers.get(index);
@@ -457,6 +539,26 @@ public class Slave {
 		return _uploadChecksums;
 	}
 
+	/**
+	 * @return the most bytes handed to the kernel at once by zero-copy
+	 *         transfers, 0 if they are disabled.
+	 */
+	public int getZeroCopyChunkSize() {
+		return _zeroCopyChunkSize;
+	}
+
+	public BandwidthScheduler getBandwidthScheduler() {
+		return _bandwidthScheduler;
+	}
+
+	/**
+	 * @return the engine running encrypted transfers, null if they use
+	 *         SSLSockets.
+	 */
+	public SSLTransferEngine getSSLTransferEngine() {
+		return _sslTransferEngine;
+	}
+
 	private AsyncResponse handleCommand(AsyncCommandArgument ac) {
 		return _central.handleCommand(ac);
 	}
@@ -467,7 +569,11 @@ public class Slave {
 			AsyncCommandArgument ac = null;
 
 			try {
-				ac = (AsyncCommandArgument) _sin.readObject();
+				if (_protocolVersion > 0) {
+					ac = AsyncMessageCodec.readCommand(_sin);
+				} else {
+					ac = (AsyncCommandArgument) _sin.readObject();
+				}
 
 				if (ac == null) {
 					continue;
@@ -509,9 +615,10 @@ public class Slave {
 					}
 				}
 			}
-			Thread t = new Thread(new AsyncCommandHandler(ac));
-			t.setName("AsyncCommandHandler - " + ac.getClass());
-			t.start();
+			if (!_executor.execute(ac, new AsyncCommandHandler(ac))) {
+				sendResponse(new AsyncResponseException(ac.getIndex(),
+						new Exception("Slave is too busy, " + ac.getName() + " was refused")));
+			}
 		}
 	}
 
@@ -543,9 +650,14 @@ public class Slave {
 
 	public void rename(String from, String toDirPath, String toName)
 			throws IOException {
-		for (Iterator<Root> iter = _roots.iterator(); iter.hasNext();) {
-			Root root = iter.next();
-
+		List<Root> roots;
+		try {
+			roots = _roots.getMultipleRootsForFile(from);
+		} catch (FileNotFoundException e) {
+			// nothing to rename on this slave
+			return;
+		}
+		for (Root root : roots) {
 			File fromfile = root.getFile(from);
 
 			if (!fromfile.exists()) {
@@ -569,6 +681,7 @@ public class Slave {
 				throw new PermissionDeniedException("renameTo(" + fromfile
 						+ ", " + tofile + ") failed");
 			}
+			_roots.fileRenamed(from, toDirPath + "/" + toName, root);
 		}
 	}
 
@@ -580,9 +693,13 @@ public class Slave {
 		}
 
 		try {
-			_sout.writeObject(response);
+			if (_protocolVersion > 0) {
+				AsyncMessageCodec.writeResponse(_sout, response);
+			} else {
+				_sout.writeObject(response);
+				_sout.reset();
+			}
 			_sout.flush();
-			_sout.reset();
 			if (!(response instanceof AsyncResponseTransferStatus)) {
 				logger.debug("Slave wrote response - " + response);
 			}
@@ -642,6 +759,18 @@ public class Slave {
 		return _sout;
 	}
 	
+	/**
+	 * @return the version of the binary framing agreed with the master,
+	 * 0 if messages are sent with Java serialization.
+	 */
+	public int getProtocolVersion() {
+		return _protocolVersion;
+	}
+
+	public void setProtocolVersion(int version) {
+		_protocolVersion = version;
+	}
+
 	public SlaveProtocolCentral getProtocolCentral() {
 		return _central;
 	}
@@ -653,4 +782,12 @@ public class Slave {
 	public boolean concurrentRootIteration() {
 		return _concurrentRootIteration;
 	}
+
+	/**
+	 * @return the file holding the directory hashes of the last remerge or
+	 *         null if they are not kept.
+	 */
+	public File getRemergeHashesFile() {
+		return _remergeHashes;
+	}
 }
@@ -26,10 +26,17 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
 
+import javax.net.ssl.SSLEngine;
+
 import org.apache.oro.text.regex.MalformedPatternException;
 import org.drftpd.PassiveConnection;
 import org.drftpd.exceptions.FileExistsException;
@@ -37,7 +44,6 @@ import org.drftpd.exceptions.ObjectNotFoundException;
 import org.drftpd.exceptions.TransferDeniedException;
 import org.drftpd.io.AddAsciiOutputStream;
 import org.drftpd.io.PhysicalFile;
-import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseTransferStatus;
 import org.drftpd.util.HostMask;
 
@@ -56,8 +62,6 @@ public class Transfer {
 
 	private long _finished = 0;
 	
-	private ThrottledInputStream _int;
-
 	private InputStream _in;
 
 	private char _mode = 'I';
@@ -88,6 +92,26 @@ public class Transfer {
 	
 	private long _maxSpeed = 0L;
 
+	private File _file;
+
+	private FileChannel _fileChannel;
+
+	private SSLEngine _sslEngine;
+
+	private volatile SSLTransfer _sslTransfer;
+
+	private final Object _throttleMonitor = new Object();
+
+	private BandwidthLimits _limits;
+
+	private BandwidthBucket _bucket;
+
+	private long _lastStatusSent;
+
+	private long _lastSpeedCheck;
+
+	private boolean _firstSpeedCheck;
+
 	/**
 	 * Start undefined transfer.
 	 */
@@ -119,8 +143,11 @@ public class Transfer {
 	public synchronized void abort(String reason) {
 		try {
 			_abortReason = reason;
-			if (_int != null) {
-				_int.wake();
+			synchronized (_throttleMonitor) {
+				_throttleMonitor.notifyAll();
+			}
+			if (_sslTransfer != null) {
+				_sslTransfer.cancel();
 			}
 
 		} finally {
@@ -239,6 +266,21 @@ public class Transfer {
 		_maxSpeed = maxSpeed;
 	}
 
+	/**
+	 * @param limits user, group and slave limits sent by the master, null if
+	 *        only the max speed of the transfer applies.
+	 */
+	public void setBandwidthLimits(BandwidthLimits limits) {
+		_limits = limits;
+	}
+
+	/**
+	 * @return the bucket throttling this transfer, null when it's not running.
+	 */
+	public BandwidthBucket getBandwidthBucket() {
+		return _bucket;
+	}
+
 	public boolean isReceivingUploading() {
 		return _direction == Transfer.TRANSFER_RECEIVING_UPLOAD;
 	}
@@ -256,15 +298,17 @@ public class Transfer {
 					+ separator + filename + " exists");
 		} catch (FileNotFoundException ex) {
 		}
-		String root = _slave.getRoots().getARootFileDir(dirname).getPath();
+		Root root = _slave.getRoots().getARootForDir(dirname);
 
 		try {
-			_out = new FileOutputStream(new File(root + separator
-					+ filename));
+			_file = new File(root.getFile(dirname).getPath() + separator + filename);
+			FileOutputStream out = new FileOutputStream(_file);
+			_slave.getRoots().fileCreated(_pathForUpload, root);
+			_out = out;
+			_fileChannel = out.getChannel();
 
 			if (_slave.getUploadChecksums()) {
 				_checksum = new CRC32();
-				_out = new CheckedOutputStream(_out, _checksum);
 			}
 			accept(_slave.getCipherSuites(), _slave.getBufferSize());
 			
@@ -272,6 +316,9 @@ public class Transfer {
 				throw new TransferDeniedException("The IP that connected to the Socket was not the one that was expected.");
 			}
 
+			if (_checksum != null && isStreamTransfer()) {
+				_out = new CheckedOutputStream(_out, _checksum);
+			}
 			_in = _sock.getInputStream();
 			synchronized (this) {
 				_direction = Transfer.TRANSFER_RECEIVING_UPLOAD;
@@ -279,8 +326,7 @@ public class Transfer {
 
 			System.out.println(dirname + "/" + filename);
 			transfer(null);
-			_slave.sendResponse(new AsyncResponseDiskStatus(_slave
-					.getDiskStatus()));
+			_slave.sendResponse(_slave.getDiskStatusResponse());
 			return getTransferStatus();
 		} finally {
 			if (_sock != null) {
@@ -306,23 +352,29 @@ public class Transfer {
 
 	public TransferStatus sendFile(String path, char type, long resumePosition, String inetAddress)
 			throws IOException, TransferDeniedException {
+		_mode = type;
 		try {
 
-			_in = new FileInputStream(new PhysicalFile(_slave.getRoots()
-					.getFile(path)));
+			_file = new PhysicalFile(_slave.getRoots().getFile(path));
+			FileInputStream in = new FileInputStream(_file);
+			_in = in;
+			_fileChannel = in.getChannel();
+			_fileChannel.position(resumePosition);
 
 			if (_slave.getDownloadChecksums()) {
 				_checksum = new CRC32();
-				_in = new CheckedInputStream(_in, _checksum);
 			}
-
-			_in.skip(resumePosition);
 			accept(_slave.getCipherSuites(), _slave.getBufferSize());
 
 			if (!checkMasks(inetAddress, _sock.getInetAddress())) {
 				throw new TransferDeniedException("The IP that connected to the Socket was not the one that was expected.");
 			}
-			
+
+			if (_checksum != null && isStreamTransfer()) {
+				// the checksum covers the whole file, resumed part included
+				updateChecksum(_fileChannel, resumePosition);
+				_in = new CheckedInputStream(_in, _checksum);
+			}
 			_out = _sock.getOutputStream();
 			synchronized (this) {
 				_direction = Transfer.TRANSFER_SENDING_DOWNLOAD;
@@ -359,6 +411,13 @@ public class Transfer {
 
 	private void accept(String[] cipherSuites, int bufferSize) throws IOException {
 		_sock = _conn.connect(cipherSuites, bufferSize);
+		_sslEngine = _conn.getSSLEngine();
+		if (_sslEngine != null && _mode == 'A') {
+			// SSLTransfer only moves file data as is, the line endings
+			// are converted on the socket streams
+			_sock = _conn.createSSLSocket(_sock);
+			_sslEngine = null;
+		}
 
 		_conn = null;
 	}
@@ -391,25 +450,32 @@ public class Transfer {
 	private void transfer(Transfer associatedUpload) throws IOException {
 		try {
 			_started = System.currentTimeMillis();
+			_lastStatusSent = _started;
+			_lastSpeedCheck = 0;
+			_firstSpeedCheck = true;
+			_bucket = _slave.getBandwidthScheduler().open(_direction,
+					"transfer/" + _transferIndex, _limits, _maxSpeed);
+			if (_sslEngine != null) {
+				transferSSLEngine(associatedUpload);
+				return;
+			}
+			if (isZeroCopy()) {
+				transferZeroCopy(associatedUpload);
+				return;
+			}
 			if (_mode == 'A') {
 				_out = new AddAsciiOutputStream(_out);
 			}
 
 			byte[] buff = new byte[Math.max(_slave.getBufferSize(), 65535)];
 			int count;
-			long currentTime = System.currentTimeMillis();
-			//max speed buffer
-			_int = new ThrottledInputStream(_in,_maxSpeed);
-			
-			boolean first = true;
-			long lastCheck = 0;
 			
 			try {
 				while (true) {
 					if (_abortReason != null) {
 						throw new TransferFailedException("Transfer was aborted - " + _abortReason, getTransferStatus());
 					}
-					count = _int.read(buff);
+					count = _in.read(buff);
 					if (count == -1) {
 						if (associatedUpload == null) {
 							break; // done transferring
@@ -424,29 +490,11 @@ public class Transfer {
 						continue; // waiting for upload to catch up
 					}
 					// count != -1
-					if ((System.currentTimeMillis() - currentTime) >= 1000) {
-						TransferStatus ts = getTransferStatus();
-						if (ts.isFinished()) {
-							throw new TransferFailedException("Transfer was aborted - " + _abortReason,ts);
-						}
-						_slave.sendResponse(new AsyncResponseTransferStatus(ts));
-						currentTime = System.currentTimeMillis();
-					}
-					
-					// Min Speed Check
-					if (_minSpeed > 0) {
-						lastCheck = (lastCheck == 0 ? System.currentTimeMillis() : lastCheck);
-						long delay = System.currentTimeMillis() - lastCheck;
-						if (first ? delay >= 20000 : delay >= 10000) {
-							first = false;
-							if (getXferSpeed() < _minSpeed) {
-								throw new TransferSlowException("Transfer was aborted - '" + String.valueOf(getXferSpeed() + "' is < '" + _minSpeed + "'"), getTransferStatus());
-							}
-						}
-					}
+					checkProgress();
 					
 					_transfered += count;
 					_out.write(buff, 0, count);
+					throttle(count);
 				}
 
 				_out.flush();
@@ -458,11 +506,228 @@ public class Transfer {
 			}
 		} finally {
 			_finished = System.currentTimeMillis();
+			if (_bucket != null) {
+				_slave.getBandwidthScheduler().close(_bucket);
+			}
 			_slave.removeTransfer(this); // transfers are added in setting up
 											// the transfer,
 											// issueListenToSlave()/issueConnectToSlave()
 		}
 	}
+
+	/**
+	 * @return true if the data can be moved between the file and the socket
+	 *         by the kernel, which needs a plain socket and a binary transfer.
+	 */
+	private boolean isZeroCopy() {
+		return _slave.getZeroCopyChunkSize() > 0 && _mode != 'A'
+				&& _sock.getChannel() != null && _sslEngine == null;
+	}
+
+	/**
+	 * @return true if the data goes through the socket streams, the other
+	 *         transfers compute the checksum from the file at the end.
+	 */
+	private boolean isStreamTransfer() {
+		return _sslEngine == null && !isZeroCopy();
+	}
+
+	/**
+	 * Moves the data with FileChannel.transferTo()/transferFrom() in chunks of
+	 * at most {@link Slave#getZeroCopyChunkSize()} bytes, the checksum is
+	 * computed from the file once all data went through.<br>
+	 * Uploads read the socket through its InputStream so the socket timeout
+	 * still applies, the JDK copies socket to file transfers through a buffer
+	 * anyway.
+	 */
+	private void transferZeroCopy(Transfer associatedUpload) throws IOException {
+		boolean upload = isReceivingUploading();
+		ReadableByteChannel in = upload ? Channels.newChannel(_in) : null;
+		long position = _fileChannel.position();
+		try {
+			while (true) {
+				if (_abortReason != null) {
+					throw new TransferFailedException("Transfer was aborted - " + _abortReason, getTransferStatus());
+				}
+				long chunk = getChunkSize();
+				long count;
+				if (upload) {
+					count = _fileChannel.transferFrom(in, position, chunk);
+				} else {
+					count = _fileChannel.transferTo(position, chunk, _sock.getChannel());
+				}
+				if (count == 0) {
+					if (upload || associatedUpload == null
+							|| position >= _fileChannel.size()
+							&& associatedUpload.getTransferStatus().isFinished()) {
+						break; // done transferring
+					}
+					try {
+						Thread.sleep(500);
+					} catch (InterruptedException e) {
+					}
+					continue; // waiting for upload to catch up
+				}
+				checkProgress();
+
+				position += count;
+				_transfered += count;
+				throttle(count);
+			}
+			updateChecksumFromFile(position);
+		} catch (IOException e) {
+			if (e instanceof TransferFailedException || e instanceof TransferSlowException) {
+				throw e;
+			}
+			throw new TransferFailedException(e, getTransferStatus());
+		}
+	}
+
+	/**
+	 * Hands the transfer to the slave's {@link SSLTransferEngine} and reports
+	 * its progress while waiting for it.<br>
+	 * The socket is non blocking from then on so its timeout no longer
+	 * applies, uploads that don't receive anything for that long are failed
+	 * here instead.
+	 */
+	private void transferSSLEngine(Transfer associatedUpload) throws IOException {
+		boolean upload = isReceivingUploading();
+		long start = _fileChannel.position();
+		int timeout = _sock.getSoTimeout();
+		SSLTransfer sslTransfer = new SSLTransfer(_sock.getChannel(), _sslEngine,
+				_fileChannel, upload, associatedUpload, _bucket);
+		_sslTransfer = sslTransfer;
+		long lastProgress = System.currentTimeMillis();
+		try {
+			_slave.getSSLTransferEngine().execute(sslTransfer);
+			while (!sslTransfer.await(1000)) {
+				if (_abortReason != null) {
+					throw new TransferFailedException("Transfer was aborted - " + _abortReason, getTransferStatus());
+				}
+				long transfered = sslTransfer.getTransferred();
+				if (transfered != _transfered) {
+					_transfered = transfered;
+					lastProgress = System.currentTimeMillis();
+				} else if (upload && timeout > 0
+						&& System.currentTimeMillis() - lastProgress >= timeout) {
+					throw new TransferFailedException(new SocketTimeoutException("Read timed out"),
+							getTransferStatus());
+				}
+				checkProgress();
+			}
+			_transfered = sslTransfer.getTransferred();
+			sslTransfer.checkFailure();
+			updateChecksumFromFile(start + _transfered);
+		} catch (IOException e) {
+			if (e instanceof TransferFailedException || e instanceof TransferSlowException) {
+				throw e;
+			}
+			throw new TransferFailedException(e, getTransferStatus());
+		} finally {
+			sslTransfer.cancel();
+		}
+	}
+
+	/**
+	 * Keeps chunks small enough for the speed limits to be applied smoothly.
+	 */
+	private long getChunkSize() {
+		long chunk = _slave.getZeroCopyChunkSize();
+		long rate = _bucket.getLowestRate();
+		if (rate > 0) {
+			chunk = Math.max(Math.min(chunk, rate / 4), 8192);
+		}
+		return chunk;
+	}
+
+	/**
+	 * Takes <tt>bytes</tt> from the bandwidth buckets of the transfer and
+	 * sleeps until they are paid back, abort() wakes it up.
+	 */
+	private void throttle(long bytes) {
+		long waitNanos = _bucket.consume(bytes);
+		if (waitNanos > 0) {
+			synchronized (_throttleMonitor) {
+				try {
+					_throttleMonitor.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends a TransferStatus every second and aborts transfers under the
+	 * minimum speed.
+	 */
+	private void checkProgress() throws IOException {
+		if ((System.currentTimeMillis() - _lastStatusSent) >= 1000) {
+			TransferStatus ts = getTransferStatus();
+			if (ts.isFinished()) {
+				throw new TransferFailedException("Transfer was aborted - " + _abortReason,ts);
+			}
+			_slave.sendResponse(new AsyncResponseTransferStatus(ts));
+			_lastStatusSent = System.currentTimeMillis();
+		}
+		
+		// Min Speed Check
+		if (_minSpeed > 0) {
+			_lastSpeedCheck = (_lastSpeedCheck == 0 ? System.currentTimeMillis() : _lastSpeedCheck);
+			long delay = System.currentTimeMillis() - _lastSpeedCheck;
+			if (_firstSpeedCheck ? delay >= 20000 : delay >= 10000) {
+				_firstSpeedCheck = false;
+				if (getXferSpeed() < _minSpeed) {
+					throw new TransferSlowException("Transfer was aborted - '" + String.valueOf(getXferSpeed() + "' is < '" + _minSpeed + "'"), getTransferStatus());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the checksum of the first <tt>length</tt> bytes of the
+	 * transferred file, if checksums are enabled.
+	 */
+	private void updateChecksumFromFile(long length) throws IOException {
+		if (_checksum == null) {
+			return;
+		}
+		if (isReceivingUploading()) {
+			// the upload channel is write only
+			FileChannel written = new FileInputStream(_file).getChannel();
+			try {
+				updateChecksum(written, length);
+			} finally {
+				written.close();
+			}
+		} else {
+			updateChecksum(_fileChannel, length);
+		}
+	}
+
+	/**
+	 * Adds the first <tt>length</tt> bytes of <tt>fc</tt> to the checksum
+	 * without moving the position of the channel.
+	 */
+	private void updateChecksum(FileChannel fc, long length) throws IOException {
+		byte[] buff = new byte[Math.max(_slave.getBufferSize(), 65535)];
+		ByteBuffer buffer = ByteBuffer.wrap(buff);
+		long position = 0;
+		while (position < length) {
+			if (_abortReason != null) {
+				throw new TransferFailedException("Transfer was aborted - " + _abortReason, getTransferStatus());
+			}
+			buffer.clear();
+			if (length - position < buff.length) {
+				buffer.limit((int) (length - position));
+			}
+			int count = fc.read(buffer, position);
+			if (count == -1) {
+				break;
+			}
+			_checksum.update(buff, 0, count);
+			position += count;
+		}
+	}
 	
 	private boolean checkMasks(String maskString, InetAddress connectedAddress) {
 		HostMask mask = new HostMask(maskString);
@@ -0,0 +1,308 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.drftpd.slave.CommandLaneStatus;
+import org.drftpd.slave.DiskStatus;
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.TransferIndex;
+import org.drftpd.slave.TransferStatus;
+
+/**
+ * Binary framing used between master and slave once both sides agreed on it
+ * during the handshake, see {@link org.drftpd.protocol.HandshakeWrapper}.<br>
+ * Every message starts with a type byte. Messages with a hand written codec
+ * follow with the length of their payload and the payload itself, anything
+ * else is written with Java serialization right after the type byte.<br>
+ * Frames are written through the same Object streams used before the
+ * negotiation, so falling back to serialization needs no extra stream.
+ * @version $Id$
+ */
+public class AsyncMessageCodec {
+
+	/**
+	 * Version of the binary framing, bump it whenever the format of an
+	 * existing message changes.
+	 */
+	public static final int VERSION = 2;
+
+	private static final byte SERIALIZED = 0;
+
+	private static final byte COMMAND_ARGUMENT = 1;
+
+	private static final byte COMMAND = 2;
+
+	private static final byte REMERGE = 3;
+
+	private static final byte TRANSFER_STATUS = 4;
+
+	private static final byte DISK_STATUS = 5;
+
+	private static final int INODE_DIRECTORY = 1;
+
+	private static final int INODE_SAME_USER = 2;
+
+	private static final int INODE_SAME_GROUP = 4;
+
+	private AsyncMessageCodec() {
+	}
+
+	public static void writeCommand(ObjectOutputStream out, AsyncCommandArgument ac) throws IOException {
+		if (ac.getClass() == AsyncCommand.class) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			writeString(data, ac.getIndex());
+			writeString(data, ac.getName());
+			writeFrame(out, COMMAND, bytes);
+		} else if (ac.getClass() == AsyncCommandArgument.class) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			writeString(data, ac.getIndex());
+			writeString(data, ac.getName());
+			String[] args = ac.getArgsArray();
+			data.writeInt(args.length);
+			for (String arg : args) {
+				writeString(data, arg);
+			}
+			writeFrame(out, COMMAND_ARGUMENT, bytes);
+		} else {
+			writeSerialized(out, ac);
+		}
+	}
+
+	public static AsyncCommandArgument readCommand(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		if (type == SERIALIZED) {
+			return (AsyncCommandArgument) in.readObject();
+		}
+		DataInputStream data = readFrame(in);
+		switch (type) {
+		case COMMAND:
+			return new AsyncCommand(readString(data), readString(data));
+		case COMMAND_ARGUMENT:
+			String index = readString(data);
+			String name = readString(data);
+			String[] args = new String[data.readInt()];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = readString(data);
+			}
+			return new AsyncCommandArgument(index, name, args);
+		default:
+			throw new IOException("Unknown command type " + type);
+		}
+	}
+
+	public static void writeResponse(ObjectOutputStream out, AsyncResponse response) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		if (response.getClass() == AsyncResponseRemerge.class) {
+			writeRemerge(data, (AsyncResponseRemerge) response);
+			writeFrame(out, REMERGE, bytes);
+		} else if (response.getClass() == AsyncResponseTransferStatus.class
+				&& !((AsyncResponseTransferStatus) response).getTransferStatus().threwException()) {
+			TransferStatus status = ((AsyncResponseTransferStatus) response).getTransferStatus();
+			data.writeLong(status.getElapsed());
+			data.writeLong(status.getTransfered());
+			data.writeLong(status.getChecksum());
+			data.writeBoolean(status.isFinished());
+			data.writeInt(status.getTransferIndex().hashCode());
+			writeFrame(out, TRANSFER_STATUS, bytes);
+		} else if (response.getClass() == AsyncResponseDiskStatus.class) {
+			DiskStatus status = ((AsyncResponseDiskStatus) response).getDiskStatus();
+			data.writeLong(status.getBytesAvailable());
+			data.writeLong(status.getBytesCapacity());
+			List<CommandLaneStatus> lanes = ((AsyncResponseDiskStatus) response).getLaneStatus();
+			data.writeInt(lanes.size());
+			for (CommandLaneStatus lane : lanes) {
+				writeString(data, lane.getName());
+				data.writeInt(lane.getThreads());
+				data.writeInt(lane.getActive());
+				data.writeInt(lane.getQueued());
+				data.writeLong(lane.getCompleted());
+				data.writeLong(lane.getRejected());
+				data.writeLong(lane.getMeanWait());
+				data.writeLong(lane.getMaxWait());
+				data.writeLong(lane.getMeanRun());
+				data.writeLong(lane.getMaxRun());
+			}
+			writeFrame(out, DISK_STATUS, bytes);
+		} else {
+			writeSerialized(out, response);
+		}
+	}
+
+	/**
+	 * @return the next message, an AsyncResponse unless the slave wrote
+	 * something else with Java serialization.
+	 */
+	public static Object readResponse(ObjectInputStream in)
+			throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		if (type == SERIALIZED) {
+			return in.readObject();
+		}
+		DataInputStream data = readFrame(in);
+		switch (type) {
+		case REMERGE:
+			return readRemerge(data);
+		case TRANSFER_STATUS:
+			long elapsed = data.readLong();
+			long transfered = data.readLong();
+			long checksum = data.readLong();
+			boolean finished = data.readBoolean();
+			return new AsyncResponseTransferStatus(new TransferStatus(elapsed,
+					transfered, checksum, finished, new TransferIndex(data.readInt())));
+		case DISK_STATUS:
+			DiskStatus diskStatus = new DiskStatus(data.readLong(), data.readLong());
+			int count = data.readInt();
+			ArrayList<CommandLaneStatus> lanes = new ArrayList<CommandLaneStatus>(count);
+			for (int i = 0; i < count; i++) {
+				lanes.add(new CommandLaneStatus(readString(data), data.readInt(), data.readInt(),
+						data.readInt(), data.readLong(), data.readLong(), data.readLong(),
+						data.readLong(), data.readLong(), data.readLong()));
+			}
+			return new AsyncResponseDiskStatus(diskStatus, lanes);
+		default:
+			throw new IOException("Unknown response type " + type);
+		}
+	}
+
+	/**
+	 * Owner and group are usually the same for every file in a directory,
+	 * they are only written when they differ from the previous inode.
+	 */
+	private static void writeRemerge(DataOutput data, AsyncResponseRemerge remerge) throws IOException {
+		writeString(data, remerge.getPath());
+		data.writeLong(remerge.getLastModified());
+		List<LightRemoteInode> inodes = remerge.getFiles();
+		data.writeInt(inodes.size());
+		String user = null;
+		String group = null;
+		for (LightRemoteInode inode : inodes) {
+			int flags = inode.isDirectory() ? INODE_DIRECTORY : 0;
+			String inodeUser = inode.getUsername();
+			String inodeGroup = inode.getGroup();
+			if (isSame(inodeUser, user)) {
+				flags |= INODE_SAME_USER;
+			}
+			if (isSame(inodeGroup, group)) {
+				flags |= INODE_SAME_GROUP;
+			}
+			data.writeByte(flags);
+			writeString(data, inode.getName());
+			if ((flags & INODE_SAME_USER) == 0) {
+				writeString(data, inodeUser);
+				user = inodeUser;
+			}
+			if ((flags & INODE_SAME_GROUP) == 0) {
+				writeString(data, inodeGroup);
+				group = inodeGroup;
+			}
+			data.writeLong(inode.lastModified());
+			data.writeLong(inode.length());
+		}
+	}
+
+	private static AsyncResponseRemerge readRemerge(DataInput data) throws IOException {
+		String path = readString(data);
+		long lastModified = data.readLong();
+		int count = data.readInt();
+		ArrayList<LightRemoteInode> inodes = new ArrayList<LightRemoteInode>(count);
+		String user = null;
+		String group = null;
+		for (int i = 0; i < count; i++) {
+			int flags = data.readByte();
+			String name = readString(data);
+			if ((flags & INODE_SAME_USER) == 0) {
+				user = readString(data);
+			}
+			if ((flags & INODE_SAME_GROUP) == 0) {
+				group = readString(data);
+			}
+			long inodeLastModified = data.readLong();
+			long length = data.readLong();
+			inodes.add(new LightRemoteInode(name, user, group,
+					(flags & INODE_DIRECTORY) != 0, inodeLastModified, length));
+		}
+		return new AsyncResponseRemerge(path, inodes, lastModified);
+	}
+
+	private static boolean isSame(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static void writeFrame(ObjectOutputStream out, byte type, ByteArrayOutputStream payload)
+			throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.size());
+		payload.writeTo(out);
+	}
+
+	private static DataInputStream readFrame(ObjectInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+
+	/**
+	 * The handle table is reset after each object, class descriptors of the
+	 * few messages going through here are sent every time as before.
+	 */
+	private static void writeSerialized(ObjectOutputStream out, Object o) throws IOException {
+		out.writeByte(SERIALIZED);
+		out.writeObject(o);
+		out.reset();
+	}
+
+	private static void writeString(DataOutput data, String s) throws IOException {
+		if (s == null) {
+			data.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static String readString(DataInput data) throws IOException {
+		int length = data.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		data.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.TransferIndex;
+import org.drftpd.slave.TransferStatus;
+
+public class AsyncMessageCodecTest extends TestCase {
+
+	public AsyncMessageCodecTest(String arg0) {
+		super(arg0);
+	}
+
+	public void testCommands() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		AsyncMessageCodec.writeCommand(out, new AsyncCommandArgument("01", "rename",
+				new String[] { "/from", "/to", null }));
+		AsyncMessageCodec.writeCommand(out, new AsyncCommand("02", "ping"));
+		out.flush();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		AsyncCommandArgument ac = AsyncMessageCodec.readCommand(in);
+		assertEquals("01", ac.getIndex());
+		assertEquals("rename", ac.getName());
+		assertEquals(3, ac.getArgsArray().length);
+		assertEquals("/to", ac.getArgsArray()[1]);
+		assertNull(ac.getArgsArray()[2]);
+		ac = AsyncMessageCodec.readCommand(in);
+		assertTrue(ac instanceof AsyncCommand);
+		assertEquals("ping", ac.getName());
+	}
+
+	public void testResponses() throws Exception {
+		ArrayList<LightRemoteInode> inodes = new ArrayList<LightRemoteInode>();
+		inodes.add(new LightRemoteInode("file1.rar", "user", "group", false, 10L, 100L));
+		inodes.add(new LightRemoteInode("file2.rar", "user", "group", false, 20L, 200L));
+		inodes.add(new LightRemoteInode("Sample", "other", "group", true, 30L, 0L));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		AsyncMessageCodec.writeResponse(out, new AsyncResponseRemerge("/Release", inodes, 42L));
+		AsyncMessageCodec.writeResponse(out, new AsyncResponseTransferStatus(
+				new TransferStatus(1000L, 5000L, 0xCAFEL, true, new TransferIndex(7))));
+		AsyncMessageCodec.writeResponse(out, new AsyncResponseChecksum("03", 0xBEEFL));
+		out.flush();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		AsyncResponseRemerge remerge = (AsyncResponseRemerge) AsyncMessageCodec.readResponse(in);
+		assertEquals("/Release", remerge.getPath());
+		assertEquals(42L, remerge.getLastModified());
+		assertEquals(3, remerge.getFiles().size());
+		LightRemoteInode inode = remerge.getFiles().get(1);
+		assertEquals("file2.rar", inode.getName());
+		assertEquals("user", inode.getUsername());
+		assertEquals(200L, inode.length());
+		inode = remerge.getFiles().get(2);
+		assertTrue(inode.isDirectory());
+		assertEquals("other", inode.getUsername());
+		assertEquals("group", inode.getGroup());
+
+		TransferStatus status = ((AsyncResponseTransferStatus) AsyncMessageCodec.readResponse(in)).getTransferStatus();
+		assertEquals(5000L, status.getTransfered());
+		assertEquals(0xCAFEL, status.getChecksum());
+		assertTrue(status.isFinished());
+		assertEquals(new TransferIndex(7), status.getTransferIndex());
+
+		AsyncResponseChecksum checksum = (AsyncResponseChecksum) AsyncMessageCodec.readResponse(in);
+		assertEquals("03", checksum.getIndex());
+		assertEquals(0xBEEFL, checksum.getChecksum());
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.drftpd.slave.BandwidthUsage;
+
+/**
+ * Usage of the bandwidth buckets of a slave.
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class AsyncResponseBandwidth extends AsyncResponse {
+	private List<BandwidthUsage> _usage;
+
+	public AsyncResponseBandwidth(String index, List<BandwidthUsage> usage) {
+		super(index);
+		_usage = usage;
+	}
+
+	public List<BandwidthUsage> getUsage() {
+		return Collections.unmodifiableList(_usage);
+	}
+
+	public String toString() {
+		return getClass().getName() + "[buckets=" + _usage.size() + "]";
+	}
+}
@@ -17,6 +17,10 @@
  */
 package org.drftpd.slave.async;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.drftpd.slave.CommandLaneStatus;
 import org.drftpd.slave.DiskStatus;
 
 /**
@@ -27,19 +31,33 @@ import org.drftpd.slave.DiskStatus;
 public class AsyncResponseDiskStatus extends AsyncResponse {
 	private DiskStatus _status;
 
+	private List<CommandLaneStatus> _lanes;
+
 	public AsyncResponseDiskStatus(DiskStatus status) {
+		this(status, Collections.<CommandLaneStatus>emptyList());
+	}
+
+	public AsyncResponseDiskStatus(DiskStatus status, List<CommandLaneStatus> lanes) {
 		super("DiskStatus");
 		if (status == null) {
 			throw new IllegalArgumentException("status cannot be null");
 		}
 
 		_status = status;
+		_lanes = lanes;
 	}
 
 	public DiskStatus getDiskStatus() {
 		return _status;
 	}
 
+	/**
+	 * @return the state of the command lanes of the slave.
+	 */
+	public List<CommandLaneStatus> getLaneStatus() {
+		return Collections.unmodifiableList(_lanes);
+	}
+
 	public String toString() {
 		return getClass().getName() + "[status=" + getDiskStatus() + "]";
 	}